@@ -0,0 +1,68 @@
+package com.playtimelb.bench;
+
+import com.electronwill.nightconfig.core.CommentedConfig;
+import com.playtimelb.config.ModConfig;
+import com.playtimelb.store.PlaytimeStore;
+import net.minecraft.server.MinecraftServer;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.SplittableRandom;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+/**
+ * Stand-in for a running server: a temp world directory, in-memory config and a populated store.
+ *
+ * The store is loaded from the directory with {@link PlaytimeStore#load(Path)}; after that its
+ * methods ignore their server argument, so benchmarks pass {@link #SERVER} (null).
+ */
+public final class BenchWorld {
+    public static final MinecraftServer SERVER = null;
+
+    private BenchWorld() {}
+
+    /** Config values at their defaults, without Forge's config tracker. */
+    public static void initConfig() {
+        ModConfig.SPEC.setConfig(CommentedConfig.inMemory());
+    }
+
+    public static Path createWorld() throws IOException {
+        return Files.createTempDirectory("playtimelb-bench");
+    }
+
+    /**
+     * Loads an empty store from {@code dir} and fills it with {@code players} finished sessions
+     * (roughly 1% still online), then writes a snapshot. Returns the UUIDs in insertion order.
+     */
+    public static UUID[] populate(Path dir, int players, long seed) throws Exception {
+        PlaytimeStore.load(dir);
+        SplittableRandom rnd = new SplittableRandom(seed);
+        UUID[] ids = new UUID[players];
+        long now = System.currentTimeMillis() * 1_000_000L;
+        for (int i = 0; i < players; i++) {
+            UUID id = new UUID(rnd.nextLong(), rnd.nextLong());
+            ids[i] = id;
+            long start = now - rnd.nextLong(1_000_000L) * 1_000_000_000L;
+            PlaytimeStore.onLogin(SERVER, id, name(i), start);
+            if (rnd.nextInt(100) != 0) {
+                PlaytimeStore.onLogout(SERVER, id, name(i), start + rnd.nextLong(1, 20_000L) * 1_000_000_000L);
+            }
+        }
+        PlaytimeStore.save(SERVER).join();
+        return ids;
+    }
+
+    public static String name(int i) {
+        return "Player" + i;
+    }
+
+    public static void deleteWorld(Path dir) throws IOException {
+        if (dir == null || !Files.exists(dir)) return;
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path p : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) Files.deleteIfExists(p);
+        }
+    }
+}
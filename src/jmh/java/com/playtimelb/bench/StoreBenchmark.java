@@ -0,0 +1,106 @@
+package com.playtimelb.bench;
+
+import com.playtimelb.store.PlaytimeStore;
+import com.playtimelb.store.RankedEntry;
+import com.playtimelb.store.RankedPage;
+import com.playtimelb.store.UuidLongMap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Store hot paths at different player counts: persistence, the totals copy used by exports,
+ * leaderboard queries and name lookups. Run with the gc profiler for allocation rates.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class StoreBenchmark {
+    @Param({"10000", "100000", "1000000"})
+    public int players;
+
+    private Path world;
+    private UUID[] ids;
+    private int cursor;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        BenchWorld.initConfig();
+        world = BenchWorld.createWorld();
+        ids = BenchWorld.populate(world, players, 42L);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        PlaytimeStore.shutdown(BenchWorld.SERVER);
+        BenchWorld.deleteWorld(world);
+    }
+
+    private int next() {
+        int i = cursor++;
+        if (cursor == ids.length) cursor = 0;
+        return i;
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void save() throws Exception {
+        PlaytimeStore.save(BenchWorld.SERVER).join();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void load() throws Exception {
+        PlaytimeStore.load(world);
+    }
+
+    @Benchmark
+    public UuidLongMap totalsIncludingActive() throws Exception {
+        return PlaytimeStore.getTotalsIncludingActive(BenchWorld.SERVER);
+    }
+
+    /** What `/playtime top` used to do: copy every total and sort it. Baseline for {@link #top10}. */
+    @Benchmark
+    public long[] topByFullSort() throws Exception {
+        UuidLongMap totals = PlaytimeStore.getTotalsIncludingActive(BenchWorld.SERVER);
+        long[] secs = new long[totals.size()];
+        int[] n = {0};
+        totals.forEach((m, l, v) -> secs[n[0]++] = v);
+        Arrays.sort(secs);
+        return Arrays.copyOfRange(secs, Math.max(0, secs.length - 10), secs.length);
+    }
+
+    @Benchmark
+    public List<RankedEntry> top10() throws Exception {
+        return PlaytimeStore.getTop(BenchWorld.SERVER, 10);
+    }
+
+    @Benchmark
+    public RankedPage middlePage() throws Exception {
+        // a page halfway down the board: the rank walk starts there instead of at the top
+        return PlaytimeStore.getTopRange(BenchWorld.SERVER, null, players / 2, 10);
+    }
+
+    @Benchmark
+    public int rank() throws Exception {
+        return PlaytimeStore.getRank(BenchWorld.SERVER, ids[next()]);
+    }
+
+    @Benchmark
+    public UUID lookupUUID() throws Exception {
+        return PlaytimeStore.lookupUUID(BenchWorld.SERVER, BenchWorld.name(next()));
+    }
+}
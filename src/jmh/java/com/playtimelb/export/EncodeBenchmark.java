@@ -0,0 +1,74 @@
+package com.playtimelb.export;
+
+import com.playtimelb.store.UuidLongMap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.charset.StandardCharsets;
+import java.util.SplittableRandom;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Body building for a totals export, chunked by batch size the way {@code exportAllSeconds} does,
+ * but handing the bytes to a Blackhole instead of the writer queue. Lives in the export package
+ * because the encoder is package-private.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class EncodeBenchmark {
+    private static final int BATCH = 5000;
+
+    @Param({"10000", "100000", "1000000"})
+    public int players;
+
+    private UuidLongMap totals;
+    private final LineProtocolEncoder enc = new LineProtocolEncoder(4096);
+
+    @Setup
+    public void setUp() {
+        SplittableRandom rnd = new SplittableRandom(42L);
+        totals = new UuidLongMap(players, false);
+        for (int i = 0; i < players; i++) totals.put(rnd.nextLong(), rnd.nextLong(), rnd.nextLong(10_000_000L));
+    }
+
+    @Benchmark
+    public void encoder(Blackhole bh) {
+        byte[] series = LineProtocolEncoder.seriesKey("player_playtime", "server", "survival-1");
+        enc.reset();
+        totals.forEach((msb, lsb, seconds) -> {
+            enc.series(series).tag("uuid", msb, lsb).floatField("duration", seconds).endLine();
+            if (enc.lines() == BATCH) {
+                bh.consume(enc.trimmedLength());
+                enc.reset();
+            }
+        });
+        bh.consume(enc.trimmedLength());
+    }
+
+    /** The previous String-based approach, for comparison. */
+    @Benchmark
+    public void stringBuilder(Blackhole bh) {
+        String prefix = "player_playtime,server=survival-1,uuid=";
+        StringBuilder sb = new StringBuilder();
+        int[] n = {0};
+        totals.forEach((msb, lsb, seconds) -> {
+            if (sb.length() > 0) sb.append('\n');
+            sb.append(prefix).append(new UUID(msb, lsb)).append(" duration=").append(seconds);
+            if (++n[0] == BATCH) {
+                bh.consume(sb.toString().getBytes(StandardCharsets.UTF_8));
+                sb.setLength(0);
+                n[0] = 0;
+            }
+        });
+        bh.consume(sb.toString().getBytes(StandardCharsets.UTF_8));
+    }
+}
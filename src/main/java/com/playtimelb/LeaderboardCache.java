@@ -0,0 +1,113 @@
+package com.playtimelb;
+
+import com.playtimelb.metrics.Counter;
+import com.playtimelb.metrics.Metrics;
+import com.playtimelb.store.PlaytimeStore;
+import com.playtimelb.store.RankedEntry;
+import com.playtimelb.store.RankedPage;
+import com.playtimelb.store.TimeWindow;
+import net.minecraft.network.chat.Component;
+import net.minecraft.server.MinecraftServer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Rendered leaderboards (header + rows as chat components), shared by everyone who asks for the
+ * same board. An entry is reused until {@link PlaytimeStore#boardVersion()} changes or the wall
+ * clock minute rolls over, since durations are shown to the minute and online players' totals
+ * grow. Keeps the most recently used {@value #MAX_ENTRIES} boards.
+ */
+final class LeaderboardCache {
+    static final int PAGE_SIZE = 10;
+    private static final int MAX_ENTRIES = 64;
+
+    private static final Counter HITS = Metrics.counter("leaderboard.cache_hit");
+    private static final Counter MISSES = Metrics.counter("leaderboard.cache_miss");
+
+    /** {@code paged}: rendered as page offset / PAGE_SIZE + 1 rather than as a top-N list. */
+    private record Key(TimeWindow window, int offset, int limit, boolean paged) {}
+
+    private record Rendered(long version, long minute, List<Component> lines) {}
+
+    private static final Map<Key, Rendered> BOARDS = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, Rendered> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    private LeaderboardCache() {}
+
+    /** Top {@code limit} of the all-time board, or of {@code window}'s if not null. */
+    static List<Component> top(MinecraftServer server, TimeWindow window, int limit) throws IOException {
+        return lines(server, new Key(window, 0, limit, false));
+    }
+
+    /** 1-based page {@code page} of {@link #PAGE_SIZE} rows. */
+    static List<Component> page(MinecraftServer server, TimeWindow window, int page) throws IOException {
+        return lines(server, new Key(window, (page - 1) * PAGE_SIZE, PAGE_SIZE, true));
+    }
+
+    // only the map access is locked; concurrent misses may both render, the newer result is kept
+    private static List<Component> lines(MinecraftServer server, Key key) throws IOException {
+        // read before rendering: a change while we render leaves a stale version, never a stale board
+        long version = PlaytimeStore.boardVersion();
+        long minute = System.currentTimeMillis() / 60_000L;
+        Rendered r;
+        synchronized (BOARDS) {
+            r = BOARDS.get(key);
+        }
+        if (r != null && r.version() == version && r.minute() == minute) {
+            HITS.inc();
+            return r.lines();
+        }
+        MISSES.inc();
+        RankedPage page = PlaytimeStore.getTopRange(server, key.window(), key.offset(), key.limit());
+        List<Component> lines = render(server, key, page);
+        synchronized (BOARDS) {
+            Rendered cur = BOARDS.get(key);
+            if (cur == null || cur.version() < version || cur.minute() < minute) {
+                BOARDS.put(key, new Rendered(version, minute, lines));
+            }
+        }
+        return lines;
+    }
+
+    private static List<Component> render(MinecraftServer server, Key key, RankedPage page) throws IOException {
+        List<Component> lines = new ArrayList<>(page.entries().size() + 2);
+        String title = title(key.window());
+        if (key.paged()) {
+            int pages = Math.max(1, (page.total() + PAGE_SIZE - 1) / PAGE_SIZE);
+            int n = key.offset() / PAGE_SIZE + 1;
+            lines.add(Component.literal("§6==" + title + " — Page " + n + "/" + pages + " =="));
+            if (page.entries().isEmpty()) lines.add(Component.literal("§7No players on this page"));
+        } else {
+            lines.add(Component.literal("§6== Top " + page.entries().size() + title + " =="));
+        }
+        int rank = page.offset() + 1;
+        for (RankedEntry e : page.entries()) {
+            String name = PlaytimeStore.getName(server, e.uuid());
+            if (name == null) name = e.uuid().toString().substring(0, 8);
+            String human = PlaytimeStore.formatDuration(e.seconds());
+            lines.add(Component.literal("§e" + rank++ + ". §b" + name + "§7 - §a" + human));
+        }
+        if (key.paged() && page.offset() + PAGE_SIZE < page.total()) {
+            String cmd = key.window() == null ? "/playtime top page " : "/playtime top " + key.window().name().toLowerCase(Locale.ROOT) + " page ";
+            lines.add(Component.literal("§7Next: " + cmd + (key.offset() / PAGE_SIZE + 2)));
+        }
+        return List.copyOf(lines);
+    }
+
+    static String title(TimeWindow window) {
+        return window == null ? " Server Playtime" : switch (window) {
+            case TODAY -> " Playtime Today";
+            case WEEK -> " Playtime (Last 7 Days)";
+            case MONTH -> " Playtime (Last 30 Days)";
+        };
+    }
+}
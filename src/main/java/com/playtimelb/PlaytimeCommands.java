@@ -1,65 +1,163 @@
 package com.playtimelb;
 
+import com.mojang.brigadier.Command;
 import com.mojang.brigadier.CommandDispatcher;
 import com.mojang.brigadier.arguments.IntegerArgumentType;
 import com.mojang.brigadier.arguments.StringArgumentType;
+import com.mojang.brigadier.builder.LiteralArgumentBuilder;
+import com.mojang.brigadier.context.CommandContext;
+import com.mojang.brigadier.suggestion.Suggestions;
+import com.mojang.brigadier.suggestion.SuggestionsBuilder;
 import com.playtimelb.config.ModConfig;
-import com.playtimelb.export.InfluxExporter;
+import com.playtimelb.export.Exporters;
+import com.playtimelb.metrics.Counter;
+import com.playtimelb.metrics.LatencyHistogram;
+import com.playtimelb.metrics.Metrics;
 import com.playtimelb.store.PlaytimeStore;
+import com.playtimelb.store.RankedEntry;
+import com.playtimelb.store.SessionEntry;
+import com.playtimelb.store.StatsBackfill;
+import com.playtimelb.store.TimeWindow;
 import net.minecraft.commands.CommandSourceStack;
 import net.minecraft.network.chat.Component;
 import net.minecraft.server.MinecraftServer;
 
-import java.util.Comparator;
+import java.io.IOException;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.TreeMap;
 import java.util.UUID;
-import java.util.stream.Collectors;
+import java.util.concurrent.CompletableFuture;
 
 public class PlaytimeCommands {
     public static void register(CommandDispatcher<CommandSourceStack> dispatcher) {
         dispatcher.register(net.minecraft.commands.Commands.literal("playtime")
             .requires(src -> src.hasPermission(0))
             // Make /playtime show the top list by default
-            .executes(ctx -> top(ctx.getSource(), 10))
+            .executes(timed("top", ctx -> top(ctx.getSource(), 10)))
             .then(net.minecraft.commands.Commands.argument("limit", IntegerArgumentType.integer(1, 100))
-                .executes(ctx -> top(ctx.getSource(), IntegerArgumentType.getInteger(ctx, "limit")))
+                .executes(timed("top", ctx -> top(ctx.getSource(), IntegerArgumentType.getInteger(ctx, "limit"))))
             )
+            .then(topCommand())
             .then(net.minecraft.commands.Commands.literal("show")
                 .then(net.minecraft.commands.Commands.argument("playerName", StringArgumentType.string())
-                    .executes(ctx -> show(ctx.getSource(), StringArgumentType.getString(ctx, "playerName")))
+                    .suggests(PlaytimeCommands::suggestPlayerNames)
+                    .executes(timed("show", ctx -> show(ctx.getSource(), StringArgumentType.getString(ctx, "playerName"))))
+                )
+            )
+            .then(net.minecraft.commands.Commands.literal("history")
+                .then(net.minecraft.commands.Commands.argument("playerName", StringArgumentType.string())
+                    .suggests(PlaytimeCommands::suggestPlayerNames)
+                    .executes(timed("history", ctx -> history(ctx.getSource(), StringArgumentType.getString(ctx, "playerName"), 10)))
+                    .then(net.minecraft.commands.Commands.argument("count", IntegerArgumentType.integer(1, 100))
+                        .executes(timed("history", ctx -> history(ctx.getSource(), StringArgumentType.getString(ctx, "playerName"),
+                                IntegerArgumentType.getInteger(ctx, "count"))))
+                    )
                 )
             )
             .then(net.minecraft.commands.Commands.literal("export")
                 .requires(src -> src.hasPermission(2))
-                .executes(ctx -> export(ctx.getSource()))
+                .executes(timed("export", ctx -> export(ctx.getSource(), false)))
+                .then(net.minecraft.commands.Commands.literal("full")
+                    .executes(timed("export", ctx -> export(ctx.getSource(), true)))
+                )
+            )
+            .then(net.minecraft.commands.Commands.literal("dump")
+                .requires(src -> src.hasPermission(2))
+                .executes(timed("dump", ctx -> dump(ctx.getSource())))
+            )
+            .then(net.minecraft.commands.Commands.literal("backfill")
+                .requires(src -> src.hasPermission(2))
+                .executes(timed("backfill", ctx -> backfill(ctx.getSource())))
             )
             .then(net.minecraft.commands.Commands.literal("reset")
                 .requires(src -> src.hasPermission(2))
-                .executes(ctx -> reset(ctx.getSource()))
+                .executes(timed("reset", ctx -> reset(ctx.getSource())))
+            )
+            .then(net.minecraft.commands.Commands.literal("stats")
+                .requires(src -> src.hasPermission(2))
+                .executes(ctx -> stats(ctx.getSource(), ""))
+                .then(net.minecraft.commands.Commands.argument("prefix", StringArgumentType.word())
+                    .executes(ctx -> stats(ctx.getSource(), StringArgumentType.getString(ctx, "prefix")))
+                )
             )
         );
     }
 
+    // records the command's latency as command.<name>, and a returned 0 as command.<name>_failed
+    private static Command<CommandSourceStack> timed(String name, Command<CommandSourceStack> command) {
+        LatencyHistogram time = Metrics.histogram("command." + name);
+        Counter failed = Metrics.counter("command." + name + "_failed");
+        return ctx -> {
+            long t0 = System.nanoTime();
+            int result = 0;
+            try {
+                result = command.run(ctx);
+                return result;
+            } finally {
+                time.recordSince(t0);
+                if (result == 0) failed.inc();
+            }
+        };
+    }
+
+    // /playtime top [limit], /playtime top today|week|month [limit], /playtime top [today|week|month] page <n>
+    // and /playtime top network [limit]
+    private static LiteralArgumentBuilder<CommandSourceStack> topCommand() {
+        var top = net.minecraft.commands.Commands.literal("top")
+            .executes(timed("top", ctx -> top(ctx.getSource(), 10)))
+            .then(net.minecraft.commands.Commands.argument("limit", IntegerArgumentType.integer(1, 100))
+                .executes(timed("top", ctx -> top(ctx.getSource(), IntegerArgumentType.getInteger(ctx, "limit"))))
+            )
+            .then(pageCommand(null));
+        top.then(net.minecraft.commands.Commands.literal("network")
+            .executes(timed("top_network", ctx -> networkTop(ctx.getSource(), 10)))
+            .then(net.minecraft.commands.Commands.argument("limit", IntegerArgumentType.integer(1, 100))
+                .executes(timed("top_network", ctx -> networkTop(ctx.getSource(), IntegerArgumentType.getInteger(ctx, "limit"))))
+            )
+        );
+        for (TimeWindow window : TimeWindow.values()) {
+            top.then(net.minecraft.commands.Commands.literal(window.name().toLowerCase(Locale.ROOT))
+                .executes(timed("top_window", ctx -> top(ctx.getSource(), window, 10)))
+                .then(net.minecraft.commands.Commands.argument("limit", IntegerArgumentType.integer(1, 100))
+                    .executes(timed("top_window", ctx -> top(ctx.getSource(), window, IntegerArgumentType.getInteger(ctx, "limit"))))
+                )
+                .then(pageCommand(window))
+            );
+        }
+        return top;
+    }
+
+    private static LiteralArgumentBuilder<CommandSourceStack> pageCommand(TimeWindow window) {
+        return net.minecraft.commands.Commands.literal("page")
+            .then(net.minecraft.commands.Commands.argument("page", IntegerArgumentType.integer(1, 100_000_000))
+                .executes(timed("top_page", ctx -> page(ctx.getSource(), window, IntegerArgumentType.getInteger(ctx, "page"))))
+            );
+    }
+
+    private static CompletableFuture<Suggestions> suggestPlayerNames(CommandContext<CommandSourceStack> ctx, SuggestionsBuilder builder) {
+        String prefix = builder.getRemaining();
+        if (prefix.startsWith("\"")) prefix = prefix.substring(1);
+        try {
+            for (String name : PlaytimeStore.completeNames(ctx.getSource().getServer(), prefix, 50)) builder.suggest(name);
+        } catch (Exception ignored) {
+            // suggestions are best-effort
+        }
+        return builder.buildFuture();
+    }
+
     private static int top(CommandSourceStack src, int limit) {
-        MinecraftServer server = src.getServer();
+        return top(src, null, limit);
+    }
+
+    private static int top(CommandSourceStack src, TimeWindow window, int limit) {
         try {
-            Map<UUID, Long> map = PlaytimeStore.getTotalsIncludingActive(server);
-            Map<UUID, String> names = PlaytimeStore.getNames(server);
-
-            var sorted = map.entrySet().stream()
-                    .sorted(Map.Entry.comparingByValue(Comparator.reverseOrder()))
-                    .limit(limit)
-                    .collect(Collectors.toList());
-
-            src.sendSuccess(() -> Component.literal("§6== Top " + sorted.size() + " Server Playtime =="), false);
-            int rank = 1;
-            for (var e : sorted) {
-                final int displayRank = rank++;
-                String name = names.getOrDefault(e.getKey(), e.getKey().toString().substring(0, 8));
-                String human = PlaytimeStore.formatDuration(e.getValue());
-                Component line = Component.literal("§e" + displayRank + ". §b" + name + "§7 - §a" + human);
-                src.sendSuccess(() -> line, false);
-            }
+            // rendered once per ranking change / minute and shared by everyone asking
+            for (Component line : LeaderboardCache.top(src.getServer(), window, limit)) src.sendSuccess(() -> line, false);
             return 1;
         } catch (Exception e) {
             src.sendFailure(Component.literal("Failed to read playtime: " + e.getMessage()));
@@ -67,6 +165,40 @@ public class PlaytimeCommands {
         }
     }
 
+    private static int page(CommandSourceStack src, TimeWindow window, int page) {
+        try {
+            for (Component line : LeaderboardCache.page(src.getServer(), window, page)) src.sendSuccess(() -> line, false);
+            return 1;
+        } catch (Exception e) {
+            src.sendFailure(Component.literal("Failed to read playtime: " + e.getMessage()));
+            return 0;
+        }
+    }
+
+    private static int networkTop(CommandSourceStack src, int limit) {
+        try {
+            return sendTop(src, " Network Playtime", PlaytimeStore.getNetworkTop(src.getServer(), limit));
+        } catch (Exception e) {
+            src.sendFailure(Component.literal("Failed to read playtime: " + e.getMessage()));
+            return 0;
+        }
+    }
+
+    private static int sendTop(CommandSourceStack src, String title, List<RankedEntry> sorted) throws IOException {
+        MinecraftServer server = src.getServer();
+        src.sendSuccess(() -> Component.literal("§6== Top " + sorted.size() + title + " =="), false);
+        int rank = 1;
+        for (var e : sorted) {
+            final int displayRank = rank++;
+            String name = PlaytimeStore.getName(server, e.uuid());
+            if (name == null) name = e.uuid().toString().substring(0, 8);
+            String human = PlaytimeStore.formatDuration(e.seconds());
+            Component line = Component.literal("§e" + displayRank + ". §b" + name + "§7 - §a" + human);
+            src.sendSuccess(() -> line, false);
+        }
+        return 1;
+    }
+
     private static int show(CommandSourceStack src, String playerName) {
         MinecraftServer server = src.getServer();
         try {
@@ -76,8 +208,11 @@ public class PlaytimeCommands {
                 return 0;
             }
             long seconds = PlaytimeStore.getTotalFor(server, uuid, true);
+            long idle = PlaytimeStore.getIdleFor(server, uuid, true);
+            int rank = PlaytimeStore.getRank(server, uuid);
             String human = PlaytimeStore.formatDuration(seconds);
-            src.sendSuccess(() -> Component.literal("§b" + playerName + "§7 has played §a" + human + " §7on this server"), false);
+            String idleNote = idle >= 60 ? " §7(+" + PlaytimeStore.formatDuration(idle) + " idle)" : "";
+            src.sendSuccess(() -> Component.literal("§b" + playerName + "§7 has played §a" + human + " §7on this server §e(#" + rank + ")" + idleNote), false);
             return 1;
         } catch (Exception e) {
             src.sendFailure(Component.literal("Failed: " + e.getMessage()));
@@ -85,15 +220,43 @@ public class PlaytimeCommands {
         }
     }
 
-    private static int export(CommandSourceStack src) {
+    private static final DateTimeFormatter SESSION_TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm").withZone(ZoneId.systemDefault());
+
+    private static int history(CommandSourceStack src, String playerName, int count) {
+        MinecraftServer server = src.getServer();
+        try {
+            UUID uuid = PlaytimeStore.lookupUUID(server, playerName);
+            if (uuid == null) {
+                src.sendFailure(Component.literal("Unknown player: " + playerName));
+                return 0;
+            }
+            List<SessionEntry> sessions = PlaytimeStore.getHistory(server, uuid, count);
+            if (sessions.isEmpty()) {
+                src.sendSuccess(() -> Component.literal("§7No recorded sessions for §b" + playerName), false);
+                return 1;
+            }
+            src.sendSuccess(() -> Component.literal("§6== Last " + sessions.size() + " Sessions of " + playerName + " =="), false);
+            for (SessionEntry e : sessions) {
+                String when = SESSION_TIME.format(Instant.ofEpochSecond(0L, e.startNs()));
+                String human = PlaytimeStore.formatDuration(e.seconds());
+                Component line = Component.literal("§e" + when + "§7 - §a" + human);
+                src.sendSuccess(() -> line, false);
+            }
+            return 1;
+        } catch (Exception e) {
+            src.sendFailure(Component.literal("Failed: " + e.getMessage()));
+            return 0;
+        }
+    }
+
+    private static int export(CommandSourceStack src, boolean full) {
         if (!ModConfig.influxEnabled.get()) {
             src.sendFailure(Component.literal("InfluxDB export is disabled in config."));
             return 0;
         }
         MinecraftServer server = src.getServer();
         try {
-            Map<UUID, Long> seconds = PlaytimeStore.getTotalsIncludingActive(server);
-            int sent = InfluxExporter.exportAllSeconds(seconds);
+            int sent = Exporters.exportTotals(server, full);
             src.sendSuccess(() -> Component.literal("Exported " + sent + " players to InfluxDB."), false);
             return 1;
         } catch (Exception e) {
@@ -102,6 +265,71 @@ public class PlaytimeCommands {
         }
     }
 
+    private static int dump(CommandSourceStack src) {
+        MinecraftServer server = src.getServer();
+        try {
+            PlaytimeStore.dumpJson(server).whenComplete((path, err) -> server.execute(() -> {
+                if (err != null) src.sendFailure(Component.literal("Dump failed: " + err.getMessage()));
+                else src.sendSuccess(() -> Component.literal("Playtime store dumped to " + path.getFileName() + " in the world folder."), false);
+            }));
+            return 1;
+        } catch (Exception e) {
+            src.sendFailure(Component.literal("Dump failed: " + e.getMessage()));
+            return 0;
+        }
+    }
+
+    private static int backfill(CommandSourceStack src) {
+        MinecraftServer server = src.getServer();
+        int[] lastTenth = {0};
+        StatsBackfill.start(server, ModConfig.backfillThreads.get(), (parsed, total) -> {
+            int tenth = total == 0 ? 10 : (int) (parsed * 10L / total);
+            if (tenth <= lastTenth[0] || tenth >= 10) return;
+            lastTenth[0] = tenth;
+            server.execute(() -> src.sendSuccess(() -> Component.literal("§7Backfill: " + parsed + "/" + total + " stats files read"), false));
+        }).whenComplete((r, err) -> server.execute(() -> {
+            if (err != null) {
+                src.sendFailure(Component.literal("Backfill failed: " + (err.getCause() != null ? err.getCause() : err).getMessage()));
+                return;
+            }
+            src.sendSuccess(() -> Component.literal("Backfill done in " + r.millis() + " ms: " + r.files() + " stats files, "
+                    + r.skipped() + " imported before, " + r.failed() + " unreadable, " + r.raised() + " totals raised."), true);
+        }));
+        src.sendSuccess(() -> Component.literal("Importing vanilla play time from world/stats in the background..."), false);
+        return 1;
+    }
+
+    private static int stats(CommandSourceStack src, String prefix) {
+        src.sendSuccess(() -> Component.literal("§6== PlaytimeLB Metrics" + (prefix.isEmpty() ? "" : " (" + prefix + "*)") + " =="), false);
+        int[] shown = {0};
+        Metrics.histograms().forEach((name, h) -> {
+            LatencyHistogram.Snapshot s = h.snapshot();
+            if (!name.startsWith(prefix) || s.count() == 0) return;
+            Component line = Component.literal("§b" + name + "§7 n=" + s.count()
+                    + " mean §a" + formatNanos(s.meanNs()) + "§7 p50 §a" + formatNanos(s.p50Ns())
+                    + "§7 p99 §a" + formatNanos(s.p99Ns()) + "§7 max §a" + formatNanos(s.maxNs()));
+            src.sendSuccess(() -> line, false);
+            shown[0]++;
+        });
+        Map<String, Long> values = new TreeMap<>();
+        Metrics.counters().forEach((name, c) -> values.put(name, c.get()));
+        Metrics.gauges().forEach((name, g) -> values.put(name, g.getAsLong()));
+        values.forEach((name, v) -> {
+            if (!name.startsWith(prefix) || v == 0) return;
+            Component line = Component.literal("§b" + name + "§7 = §a" + v);
+            src.sendSuccess(() -> line, false);
+            shown[0]++;
+        });
+        if (shown[0] == 0) src.sendSuccess(() -> Component.literal("§7Nothing recorded yet"), false);
+        return 1;
+    }
+
+    private static String formatNanos(long ns) {
+        if (ns < 1_000_000L) return (ns / 1000L) + "µs";
+        if (ns < 10_000_000_000L) return String.format(Locale.ROOT, "%.1fms", ns / 1e6);
+        return String.format(Locale.ROOT, "%.1fs", ns / 1e9);
+    }
+
     private static int reset(CommandSourceStack src) {
         MinecraftServer server = src.getServer();
         try {
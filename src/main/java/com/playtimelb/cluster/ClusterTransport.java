@@ -0,0 +1,29 @@
+package com.playtimelb.cluster;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Moves servers' counter payloads around the network. Payloads are opaque here; each is either a
+ * delta (values of players that changed) or a base (every player), numbered per server with
+ * increasing versions. Applying the same payload twice, or out of order, is harmless: counters
+ * only ever merge by taking the maximum.
+ */
+public interface ClusterTransport {
+    interface PayloadVisitor {
+        void payload(String serverId, long version, boolean base, byte[] payload) throws IOException;
+    }
+
+    /** Makes this server's payload {@code version} available to the others. */
+    void publish(String serverId, long version, boolean base, byte[] payload) throws IOException;
+
+    /** Newest version published under {@code serverId}, or 0 if none (so a restarted server continues its numbering). */
+    long latestVersion(String serverId) throws IOException;
+
+    /**
+     * Hands over other servers' payloads newer than {@code seen} (server id -> newest version
+     * applied), oldest first per server, and advances {@code seen}. A server that is further
+     * behind than the retained deltas gets the latest base and the deltas after it.
+     */
+    void poll(String selfId, Map<String, Long> seen, PayloadVisitor visitor) throws IOException;
+}
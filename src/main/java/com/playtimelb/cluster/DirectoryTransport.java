@@ -0,0 +1,115 @@
+package com.playtimelb.cluster;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+
+/**
+ * {@link ClusterTransport} over a directory every server can reach (network share, bind mount).
+ *
+ * Each server writes only below {@code <dir>/<serverId>/}: payload files named by version, plus a
+ * {@code head} file with the newest version and the newest base. Readers look at heads and open only
+ * the payloads they have not applied, so an idle network costs one small read per server. When a
+ * base is published, payloads older than the previous base are deleted.
+ */
+public class DirectoryTransport implements ClusterTransport {
+    private static final String HEAD = "head";
+    private static final String DELTA = ".delta";
+    private static final String BASE = ".base";
+
+    private final Path dir;
+
+    public DirectoryTransport(Path dir) {
+        this.dir = dir;
+    }
+
+    @Override
+    public void publish(String serverId, long version, boolean base, byte[] payload) throws IOException {
+        Path own = dir.resolve(serverId);
+        Files.createDirectories(own);
+        long[] head = readHead(own);
+        writeAtomically(own.resolve(fileName(version, base)), payload);
+        writeAtomically(own.resolve(HEAD), ByteBuffer.allocate(16).putLong(version).putLong(base ? version : head[1]).array());
+        if (base && head[1] > 0) prune(own, head[1]);
+    }
+
+    @Override
+    public long latestVersion(String serverId) throws IOException {
+        return readHead(dir.resolve(serverId))[0];
+    }
+
+    @Override
+    public void poll(String selfId, Map<String, Long> seen, PayloadVisitor visitor) throws IOException {
+        if (!Files.isDirectory(dir)) return;
+        try (var servers = Files.list(dir)) {
+            for (Path server : (Iterable<Path>) servers::iterator) {
+                String id = server.getFileName().toString();
+                if (id.equals(selfId) || !Files.isDirectory(server)) continue;
+                long[] head = readHead(server);
+                long from = seen.getOrDefault(id, 0L);
+                if (head[0] <= from) continue;
+                if (head[1] > from) {
+                    byte[] b = read(server.resolve(fileName(head[1], true)));
+                    if (b == null) continue; // replaced under us; next poll sees the new head
+                    visitor.payload(id, head[1], true, b);
+                    from = head[1];
+                    seen.put(id, from);
+                }
+                for (long v = from + 1; v <= head[0]; v++) {
+                    byte[] b = read(server.resolve(fileName(v, false)));
+                    if (b == null) break; // pruned by a newer base; the next poll starts from it
+                    visitor.payload(id, v, false, b);
+                    seen.put(id, v);
+                }
+            }
+        }
+    }
+
+    private static String fileName(long version, boolean base) {
+        return String.format("%016d%s", version, base ? BASE : DELTA);
+    }
+
+    // {newest version, newest base version}
+    private static long[] readHead(Path server) throws IOException {
+        byte[] b = read(server.resolve(HEAD));
+        if (b == null || b.length < 16) return new long[] {0L, 0L};
+        ByteBuffer buf = ByteBuffer.wrap(b);
+        return new long[] {buf.getLong(), buf.getLong()};
+    }
+
+    private static byte[] read(Path p) throws IOException {
+        try {
+            return Files.readAllBytes(p);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    private static void prune(Path own, long before) throws IOException {
+        try (var files = Files.list(own)) {
+            for (Path f : (Iterable<Path>) files::iterator) {
+                String n = f.getFileName().toString();
+                int dot = n.indexOf('.');
+                if (dot != 16 || !(n.endsWith(DELTA) || n.endsWith(BASE))) continue;
+                try {
+                    if (Long.parseLong(n.substring(0, dot)) < before) Files.deleteIfExists(f);
+                } catch (NumberFormatException ignored) {}
+            }
+        }
+    }
+
+    private static void writeAtomically(Path target, byte[] bytes) throws IOException {
+        Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+        Files.write(tmp, bytes);
+        try {
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
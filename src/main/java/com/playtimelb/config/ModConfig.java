@@ -13,6 +13,20 @@ public class ModConfig {
     public static final ForgeConfigSpec.ConfigValue<String> influxBucket;
     public static final ForgeConfigSpec.ConfigValue<String> measurement;
     public static final ForgeConfigSpec.ConfigValue<String> serverTag;
+    public static final ForgeConfigSpec.IntValue influxBatchSize;
+    public static final ForgeConfigSpec.IntValue influxFlushMillis;
+    public static final ForgeConfigSpec.IntValue influxQueueCapacity;
+    public static final ForgeConfigSpec.BooleanValue influxGzip;
+    public static final ForgeConfigSpec.BooleanValue influxHttp2;
+    public static final ForgeConfigSpec.IntValue influxConnectTimeoutMs;
+    public static final ForgeConfigSpec.IntValue influxRequestTimeoutMs;
+    public static final ForgeConfigSpec.BooleanValue influxTrustAllCertificates;
+
+    // Retry spool for failed exports
+    public static final ForgeConfigSpec.BooleanValue spoolEnabled;
+    public static final ForgeConfigSpec.IntValue spoolMaxMegabytes;
+    public static final ForgeConfigSpec.IntValue spoolReplayPerSecond;
+    public static final ForgeConfigSpec.IntValue spoolMaxBackoffSeconds;
 
     // Session events
     public static final ForgeConfigSpec.BooleanValue sessionEventsEnabled;
@@ -23,6 +37,47 @@ public class ModConfig {
     // Export scheduler
     public static final ForgeConfigSpec.IntValue autoExportMinutes;
     public static final ForgeConfigSpec.BooleanValue autoExportEnabled;
+    public static final ForgeConfigSpec.IntValue fullResyncEvery;
+
+    // Storage
+    public static final ForgeConfigSpec.IntValue checkpointSeconds;
+    public static final ForgeConfigSpec.IntValue groupCommitMillis;
+    public static final ForgeConfigSpec.BooleanValue offHeapTables;
+    public static final ForgeConfigSpec.IntValue partitions;
+    public static final ForgeConfigSpec.IntValue ioThreads;
+    public static final ForgeConfigSpec.IntValue historySegmentSessions;
+    public static final ForgeConfigSpec.IntValue historyRetentionDays;
+
+    // Cold tier for long-inactive players
+    public static final ForgeConfigSpec.BooleanValue tieringEnabled;
+    public static final ForgeConfigSpec.IntValue coldAfterDays;
+    public static final ForgeConfigSpec.IntValue tieringCheckMinutes;
+    public static final ForgeConfigSpec.IntValue coldCacheEntries;
+
+    // Network-wide counters (several servers behind one proxy)
+    public static final ForgeConfigSpec.BooleanValue clusterEnabled;
+    public static final ForgeConfigSpec.ConfigValue<String> clusterDirectory;
+    public static final ForgeConfigSpec.IntValue clusterIntervalSeconds;
+    public static final ForgeConfigSpec.IntValue clusterBaseEvery;
+
+    // Import of vanilla stats
+    public static final ForgeConfigSpec.BooleanValue backfillOnFirstStart;
+    public static final ForgeConfigSpec.IntValue backfillThreads;
+
+    // AFK detection
+    public static final ForgeConfigSpec.BooleanValue afkEnabled;
+    public static final ForgeConfigSpec.IntValue afkIdleSeconds;
+    public static final ForgeConfigSpec.IntValue afkSampleTicks;
+
+    // Self-monitoring
+    public static final ForgeConfigSpec.BooleanValue metricsExportEnabled;
+    public static final ForgeConfigSpec.IntValue metricsExportSeconds;
+    public static final ForgeConfigSpec.ConfigValue<String> metricsMeasurement;
+    public static final ForgeConfigSpec.BooleanValue metricsJmx;
+
+    public static final ForgeConfigSpec.BooleanValue prometheusEnabled;
+    public static final ForgeConfigSpec.ConfigValue<String> prometheusBindAddress;
+    public static final ForgeConfigSpec.IntValue prometheusPort;
 
     static {
         ForgeConfigSpec.Builder b = new ForgeConfigSpec.Builder();
@@ -35,6 +90,22 @@ public class ModConfig {
         influxBucket = b.define("bucket", "playtime");
         measurement = b.define("measurement", "player_playtime");
         serverTag = b.define("serverTag", "");
+        influxBatchSize = b.comment("Max lines per write request").defineInRange("batchSize", 5000, 1, 100000);
+        influxFlushMillis = b.comment("Max time a point waits for its batch to fill").defineInRange("flushMillis", 1000, 10, 60000);
+        influxQueueCapacity = b.comment("Lines buffered before new points are dropped").defineInRange("queueCapacity", 200000, 100, 10000000);
+        influxGzip = b.comment("Gzip request bodies").define("gzip", false);
+        influxHttp2 = b.comment("Negotiate HTTP/2 (falls back to HTTP/1.1)").define("http2", false);
+        influxConnectTimeoutMs = b.defineInRange("connectTimeoutMs", 5000, 100, 120000);
+        influxRequestTimeoutMs = b.defineInRange("requestTimeoutMs", 15000, 100, 300000);
+        influxTrustAllCertificates = b.comment("Skip TLS certificate and hostname checks (self-signed Influx)")
+                .define("trustAllCertificates", true);
+        b.pop();
+
+        b.comment("Disk spool for batches Influx could not accept (replayed when it is back)").push("spool");
+        spoolEnabled = b.define("enabled", true);
+        spoolMaxMegabytes = b.comment("Oldest batches are evicted beyond this size (give or take an eighth)").defineInRange("maxMegabytes", 256, 1, 65536);
+        spoolReplayPerSecond = b.defineInRange("replayPerSecond", 5, 1, 1000);
+        spoolMaxBackoffSeconds = b.defineInRange("maxBackoffSeconds", 300, 1, 86400);
         b.pop();
 
         b.comment("Session events export (join/leave + summary)").push("sessions");
@@ -44,9 +115,74 @@ public class ModConfig {
         includeNameTag = b.define("includeNameTag", true);
         b.pop();
 
-        b.comment("Auto-export of totals (server tick based)").push("export");
+        b.comment("Auto-export of totals").push("export");
         autoExportEnabled = b.define("enabled", false);
         autoExportMinutes = b.defineInRange("minutes", 5, 1, 1440);
+        fullResyncEvery = b.comment("Exports normally send only changed + online players; every Nth one sends everyone (0 = only after startup/reset)")
+                .defineInRange("fullResyncEvery", 12, 0, 10000);
+        b.pop();
+
+        b.comment("Local storage (session journal + snapshot + session history)").push("storage");
+        checkpointSeconds = b.comment("Seconds between checkpoints (snapshot if anything changed)")
+                .defineInRange("checkpointSeconds", 30, 5, 3600);
+        groupCommitMillis = b.comment("Window in ms for coalescing journal appends into one fsync")
+                .defineInRange("groupCommitMillis", 5, 0, 1000);
+        offHeapTables = b.comment("Keep the per-player totals tables in direct (off-heap) memory")
+                .define("offHeapTables", false);
+        partitions = b.comment("Store files, players split between them by UUID; a checkpoint rewrites only the ones with changes")
+                .defineInRange("partitions", 64, 1, 1024);
+        ioThreads = b.comment("Threads reading and writing the store files; 0 = one per core")
+                .defineInRange("ioThreads", 0, 0, 256);
+        historySegmentSessions = b.comment("Sessions per session-history segment file (52 bytes each)")
+                .defineInRange("historySegmentSessions", 65536, 1024, 16777216);
+        historyRetentionDays = b.comment("Session history segments whose newest session is older than this are deleted (0 = keep forever)")
+                .defineInRange("historyRetentionDays", 365, 0, 36500);
+        b.pop();
+
+        b.comment("Players not seen for a long time are moved out of memory into a read-only archive file").push("tiering");
+        tieringEnabled = b.comment("Off by default: turning it on moves long-inactive players' records into the archive file")
+                .define("enabled", false);
+        coldAfterDays = b.comment("Days since a player's last login or logout before they are archived (more than the longest window)")
+                .defineInRange("coldAfterDays", 365, 32, 36500);
+        tieringCheckMinutes = b.comment("Minutes between archiving runs").defineInRange("checkMinutes", 60, 1, 10080);
+        coldCacheEntries = b.comment("Archived players whose lookups are cached in memory").defineInRange("cacheEntries", 4096, 16, 1048576);
+        b.pop();
+
+        b.comment("Network leaderboard: each server publishes its per-player counters (server id = influx2.serverTag)",
+                "and merges everyone else's").push("cluster");
+        clusterEnabled = b.define("enabled", false);
+        clusterDirectory = b.comment("Directory shared by all servers (network share or bind mount)").define("directory", "");
+        clusterIntervalSeconds = b.defineInRange("intervalSeconds", 30, 5, 3600);
+        clusterBaseEvery = b.comment("Every Nth publish carries all players instead of only changed/online ones; older files are then pruned")
+                .defineInRange("baseEvery", 20, 1, 100000);
+        b.pop();
+
+        b.comment("Import of vanilla play time from world/stats (also /playtime backfill)").push("backfill");
+        backfillOnFirstStart = b.comment("Run it when the server starts and this world was never backfilled")
+                .define("onFirstStart", false);
+        backfillThreads = b.comment("Parser threads; 0 = one per core").defineInRange("threads", 0, 0, 256);
+        b.pop();
+
+        b.comment("Idle (AFK) time is tracked separately and doesn't count towards the leaderboards").push("afk");
+        afkEnabled = b.define("enabled", true);
+        afkIdleSeconds = b.comment("Seconds without input, looking around or moving before a player counts as idle")
+                .defineInRange("idleSeconds", 300, 30, 86400);
+        afkSampleTicks = b.comment("Each player is checked once per this many ticks (spread over the ticks)")
+                .defineInRange("sampleTicks", 20, 1, 1200);
+        b.pop();
+
+        b.comment("The mod's own metrics (also shown by /playtime stats)").push("metrics");
+        metricsExportEnabled = b.comment("Write them to Influx (needs influx2.enabled)").define("exportEnabled", false);
+        metricsExportSeconds = b.defineInRange("exportSeconds", 60, 10, 3600);
+        metricsMeasurement = b.define("measurement", "playtimelb_metrics");
+        metricsJmx = b.comment("Publish them as the JMX bean com.playtimelb:type=Metrics").define("jmx", false);
+        b.pop();
+
+        b.comment("Scrape endpoint for Prometheus/OpenMetrics: per-player totals and the metrics above, at /metrics").push("prometheus");
+        prometheusEnabled = b.comment("Applies on server start").define("enabled", false);
+        prometheusBindAddress = b.comment("Address to listen on; anything but loopback exposes it to the network")
+                .define("bindAddress", "127.0.0.1");
+        prometheusPort = b.defineInRange("port", 9464, 1, 65535);
         b.pop();
 
         SPEC = b.build();
@@ -0,0 +1,220 @@
+package com.playtimelb.export;
+
+import com.playtimelb.PlaytimeLeaderboardMod;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * On-disk FIFO of export batches that could not be delivered.
+ *
+ * Batches are appended to numbered segment files (length, line count, CRC, body); a small cursor
+ * file remembers how far replay got in the oldest segment, so a restart doesn't resend it.
+ * When the spool grows past its byte cap the oldest segments are evicted whole. The newest one
+ * is still being appended to and stays, so the spool can run over the cap by one segment; segments
+ * are kept to an eighth of the cap to bound that.
+ */
+class ExportSpool {
+    record Batch(byte[] body, int lines) {}
+
+    private static final int HEADER = 12;
+    private static final String PREFIX = "spool-";
+    private static final String SUFFIX = ".seg";
+
+    private final Path dir;
+    private final long maxBytes;
+    private final long segmentBytes;
+    private final Deque<Long> segments = new ArrayDeque<>();
+    private long totalBytes = 0L;
+    private long readSegment = -1L;   // segment the cursor refers to
+    private long readOffset = 0L;
+    private long peekedEnd = -1L;     // offset after the record handed out by peek()
+    private FileChannel tail;         // open append channel for the newest segment
+    private long evictedBatches = 0L;
+    private long evictedBytes = 0L;
+
+    ExportSpool(Path dir, long maxBytes, long segmentBytes) throws IOException {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+        this.segmentBytes = Math.max(1L, Math.min(segmentBytes, maxBytes / 8));
+        Files.createDirectories(dir);
+        List<Long> found = new ArrayList<>();
+        try (var files = Files.list(dir)) {
+            files.forEach(f -> {
+                String n = f.getFileName().toString();
+                if (!n.startsWith(PREFIX) || !n.endsWith(SUFFIX)) return;
+                try {
+                    found.add(Long.parseLong(n.substring(PREFIX.length(), n.length() - SUFFIX.length())));
+                } catch (NumberFormatException ignored) {}
+            });
+        }
+        found.sort(null);
+        for (long s : found) {
+            segments.addLast(s);
+            totalBytes += Files.size(segmentPath(s));
+        }
+        readCursor();
+    }
+
+    synchronized boolean isEmpty() {
+        return segments.isEmpty();
+    }
+
+    synchronized long bytes() {
+        return totalBytes;
+    }
+
+    synchronized long evictedBatches() {
+        return evictedBatches;
+    }
+
+    synchronized long evictedBytes() {
+        return evictedBytes;
+    }
+
+    synchronized void append(byte[] body, int off, int len, int lines) throws IOException {
+        if (tail == null || tail.size() >= segmentBytes) roll();
+        CRC32 crc = new CRC32();
+        crc.update(body, off, len);
+        ByteBuffer buf = ByteBuffer.allocate(HEADER + len);
+        buf.putInt(len).putInt(lines).putInt((int) crc.getValue()).put(body, off, len).flip();
+        while (buf.hasRemaining()) tail.write(buf);
+        tail.force(false);
+        totalBytes += HEADER + len;
+        evict();
+    }
+
+    /** Oldest undelivered batch, or null. Call {@link #ack()} once it has been delivered. */
+    synchronized Batch peek() throws IOException {
+        while (!segments.isEmpty()) {
+            long seg = segments.peekFirst();
+            if (readSegment != seg) {
+                readSegment = seg;
+                readOffset = 0L;
+            }
+            Batch b = readAt(seg, readOffset);
+            if (b != null) {
+                peekedEnd = readOffset + HEADER + b.body().length;
+                return b;
+            }
+            // nothing (intact) left in this segment; appends after this go to a fresh one
+            dropFirst();
+        }
+        return null;
+    }
+
+    synchronized void ack() throws IOException {
+        if (peekedEnd < 0) return;
+        readOffset = peekedEnd;
+        peekedEnd = -1L;
+        writeCursor();
+    }
+
+    private Batch readAt(long seg, long offset) throws IOException {
+        Path p = segmentPath(seg);
+        if (!Files.exists(p)) return null;
+        try (FileChannel ch = FileChannel.open(p, StandardOpenOption.READ)) {
+            if (offset + HEADER > ch.size()) return null;
+            ByteBuffer head = ByteBuffer.allocate(HEADER);
+            ch.read(head, offset);
+            head.flip();
+            int len = head.getInt(), lines = head.getInt(), crc = head.getInt();
+            if (len < 0 || offset + HEADER + len > ch.size()) return null;
+            ByteBuffer body = ByteBuffer.allocate(len);
+            while (body.hasRemaining() && ch.read(body, offset + HEADER + body.position()) > 0) { }
+            CRC32 c = new CRC32();
+            c.update(body.array());
+            if ((int) c.getValue() != crc) return null; // torn write: treat as end of segment
+            return new Batch(body.array(), lines);
+        }
+    }
+
+    private void roll() throws IOException {
+        if (tail != null) tail.close();
+        long next = segments.isEmpty() ? 1L : segments.peekLast() + 1;
+        segments.addLast(next);
+        tail = FileChannel.open(segmentPath(next), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private void evict() throws IOException {
+        while (totalBytes > maxBytes && segments.size() > 1) {
+            long seg = segments.peekFirst();
+            long size = Files.size(segmentPath(seg));
+            long batches = countBatches(seg, seg == readSegment ? readOffset : 0L);
+            dropFirst();
+            evictedBatches += batches;
+            evictedBytes += size;
+            PlaytimeLeaderboardMod.LOGGER.warn("[PlaytimeLB] export spool over {} bytes, evicted oldest segment ({} batches)", maxBytes, batches);
+        }
+    }
+
+    private long countBatches(long seg, long from) throws IOException {
+        long n = 0L;
+        long off = from;
+        try (FileChannel ch = FileChannel.open(segmentPath(seg), StandardOpenOption.READ)) {
+            ByteBuffer head = ByteBuffer.allocate(4);
+            while (off + HEADER <= ch.size()) {
+                head.clear();
+                ch.read(head, off);
+                head.flip();
+                off += HEADER + head.getInt();
+                n++;
+            }
+        }
+        return n;
+    }
+
+    private void dropFirst() throws IOException {
+        long seg = segments.removeFirst();
+        if (tail != null && segments.isEmpty()) {
+            tail.close();
+            tail = null;
+        }
+        Path p = segmentPath(seg);
+        totalBytes -= Files.exists(p) ? Files.size(p) : 0L;
+        Files.deleteIfExists(p);
+        if (readSegment == seg) {
+            readSegment = -1L;
+            readOffset = 0L;
+            peekedEnd = -1L;
+        }
+        writeCursor();
+    }
+
+    private Path segmentPath(long seg) {
+        return dir.resolve(String.format("%s%08d%s", PREFIX, seg, SUFFIX));
+    }
+
+    private void readCursor() throws IOException {
+        Path p = dir.resolve("cursor");
+        if (!Files.exists(p) || Files.size(p) < 16) return;
+        ByteBuffer b = ByteBuffer.wrap(Files.readAllBytes(p));
+        long seg = b.getLong(), off = b.getLong();
+        if (!segments.isEmpty() && segments.peekFirst() == seg) {
+            readSegment = seg;
+            readOffset = off;
+        }
+    }
+
+    private void writeCursor() throws IOException {
+        ByteBuffer b = ByteBuffer.allocate(16).putLong(readSegment).putLong(readOffset);
+        Files.write(dir.resolve("cursor"), b.array());
+    }
+
+    synchronized void close() {
+        try {
+            if (tail != null) tail.close();
+        } catch (IOException ignored) {
+        }
+        tail = null;
+    }
+}
@@ -0,0 +1,42 @@
+package com.playtimelb.export;
+
+import net.minecraft.server.MinecraftServer;
+
+import java.io.IOException;
+import java.util.UUID;
+
+/**
+ * A destination for player totals and the mod's own metrics. Push sinks do their work when the
+ * scheduler (or {@code /playtime export}) calls them; pull sinks serve requests between
+ * {@link #start} and {@link #stop} and leave the push methods alone. Add your own with
+ * {@link Exporters#register}.
+ */
+public interface Exporter {
+    /** Short id for logs. */
+    String name();
+
+    /** Whether the config turns it on; asked before every call, so config edits apply live. */
+    boolean enabled();
+
+    /** Server started (and {@link #enabled}). */
+    default void start(MinecraftServer server) throws IOException {}
+
+    /** Server stopping, after the last sessions were closed; called whether or not it is enabled. */
+    default void stop() {}
+
+    /** Pushes players' totals; returns how many were sent. */
+    default int exportTotals(MinecraftServer server, boolean full) throws Exception {
+        return 0;
+    }
+
+    /** Pushes the {@link com.playtimelb.metrics.Metrics}; returns how many were sent. */
+    default int exportMetrics() {
+        return 0;
+    }
+
+    /** A player joined ({@code "join"}) or left ({@code "leave"}). */
+    default void sessionEvent(UUID uuid, String name, String event, long whenNs) {}
+
+    /** A finished session, from login to logout, and the active seconds it was credited. */
+    default void sessionSummary(UUID uuid, String name, long startNs, long endNs, long activeSecs) {}
+}
@@ -0,0 +1,71 @@
+package com.playtimelb.export;
+
+import com.playtimelb.PlaytimeLeaderboardMod;
+import net.minecraft.server.MinecraftServer;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/** The registered {@link Exporter}s; each call goes to the ones the config enables. */
+public final class Exporters {
+    private static final List<Exporter> EXPORTERS = new CopyOnWriteArrayList<>(
+            List.of(InfluxExporter.INSTANCE, PrometheusExporter.INSTANCE));
+
+    private Exporters() {}
+
+    /** Adds a sink; register before the server starts for {@link Exporter#start} to be called. */
+    public static void register(Exporter exporter) {
+        EXPORTERS.add(exporter);
+    }
+
+    public static void start(MinecraftServer server) {
+        for (Exporter e : EXPORTERS) {
+            if (!e.enabled()) continue;
+            try {
+                e.start(server);
+            } catch (Exception ex) {
+                PlaytimeLeaderboardMod.LOGGER.error("[PlaytimeLB] could not start the {} exporter", e.name(), ex);
+            }
+        }
+    }
+
+    public static void stop() {
+        for (Exporter e : EXPORTERS) {
+            try {
+                e.stop();
+            } catch (Exception ex) {
+                PlaytimeLeaderboardMod.LOGGER.error("[PlaytimeLB] could not stop the {} exporter", e.name(), ex);
+            }
+        }
+    }
+
+    /** Totals to every enabled push sink; returns the most any of them sent. */
+    public static int exportTotals(MinecraftServer server, boolean full) throws Exception {
+        int sent = 0;
+        for (Exporter e : EXPORTERS) {
+            if (e.enabled()) sent = Math.max(sent, e.exportTotals(server, full));
+        }
+        return sent;
+    }
+
+    public static int exportMetrics() {
+        int sent = 0;
+        for (Exporter e : EXPORTERS) {
+            if (e.enabled()) sent = Math.max(sent, e.exportMetrics());
+        }
+        return sent;
+    }
+
+    public static void sessionEvent(UUID uuid, String name, String event, long whenNs) {
+        for (Exporter e : EXPORTERS) {
+            if (e.enabled()) e.sessionEvent(uuid, name, event, whenNs);
+        }
+    }
+
+    public static void sessionSummary(UUID uuid, String name, long startNs, long endNs, long activeSecs) {
+        for (Exporter e : EXPORTERS) {
+            if (e.enabled()) e.sessionSummary(uuid, name, startNs, endNs, activeSecs);
+        }
+    }
+}
@@ -2,123 +2,189 @@ package com.playtimelb.export;
 
 import com.playtimelb.PlaytimeLeaderboardMod;
 import com.playtimelb.config.ModConfig;
-
-import javax.net.ssl.HttpsURLConnection;
-import java.io.OutputStream;
-import java.net.URI;
-import java.net.URL;
-import java.net.http.HttpRequest;
-import java.nio.charset.StandardCharsets;
-import java.util.Map;
+import com.playtimelb.metrics.Counter;
+import com.playtimelb.metrics.LatencyHistogram;
+import com.playtimelb.metrics.Metrics;
+import com.playtimelb.store.PlayerTotals;
+import com.playtimelb.store.PlaytimeStore;
+import com.playtimelb.store.UuidLongMap;
+import net.minecraft.server.MinecraftServer;
+
+import java.time.Instant;
 import java.util.UUID;
-import java.util.concurrent.CompletableFuture;
-import java.util.stream.Collectors;
 
-public class InfluxExporter {
+/** Pushes totals, session events and the mod's metrics to InfluxDB 2.x through {@link InfluxWriter}. */
+public final class InfluxExporter implements Exporter {
+    public static final InfluxExporter INSTANCE = new InfluxExporter();
+
+    private int exportsSinceFull = 0;
+
+    private InfluxExporter() {}
+
+    @Override
+    public String name() {
+        return "influx";
+    }
+
+    @Override
+    public boolean enabled() {
+        return ModConfig.influxEnabled.get();
+    }
+
+    /** Flushes the final points (leave events, summaries) before the server goes away. */
+    @Override
+    public void stop() {
+        InfluxWriter.shutdown(10_000L);
+    }
 
     // ==== Totals (seconds) ====
-    public static int exportAllSeconds(Map<UUID, Long> secondsByPlayer) throws Exception {
+
+    /**
+     * Pushes totals for players that changed since the last export plus everyone online; every
+     * {@code fullResyncEvery}-th export (or when {@code forceFull}) pushes every known player.
+     */
+    @Override
+    public synchronized int exportTotals(MinecraftServer server, boolean forceFull) throws Exception {
         if (!ModConfig.influxEnabled.get()) return 0;
+        int every = ModConfig.fullResyncEvery.get();
+        boolean full = forceFull || (every > 0 && exportsSinceFull >= every - 1);
+        exportsSinceFull = full ? 0 : exportsSinceFull + 1;
+
+        PlayerTotals totals = PlaytimeStore.drainTotalsForExport(server, full);
+        int queued = exportAllSeconds(totals.active(), totals.idle());
+        if (queued < totals.active().size()) {
+            // (partly) dropped by a full queue: try these players again next time
+            PlaytimeStore.requeueForExport(totals.active());
+        }
+        return queued;
+    }
 
-        String measurement = ModConfig.measurement.get();
-        String serverTag = ModConfig.serverTag.get();
+    /** One point per player: active seconds as {@code duration}, plus {@code idle} if {@code idleByPlayer} is given. */
+    public static int exportAllSeconds(UuidLongMap secondsByPlayer, UuidLongMap idleByPlayer) throws Exception {
+        if (!ModConfig.influxEnabled.get()) return 0;
 
-        String body = secondsByPlayer.entrySet().stream().map(e -> {
-            String tags = (serverTag != null && !serverTag.isEmpty() ? "server=" + sanitize(serverTag) + "," : "")
-                    + "uuid=" + e.getKey();
-            return String.format("%s,%s duration=%d", sanitize(measurement), tags, e.getValue());
-        }).collect(Collectors.joining("\n"));
-
-        CompletableFuture.runAsync(() -> {
-            try {
-                sendRequest(body);
-            } catch (Exception ex) {
-                PlaytimeLeaderboardMod.LOGGER.error("could not export seconds", ex);
+        String serverTag = ModConfig.serverTag.get();
+        byte[] series = serverTag != null && !serverTag.isEmpty()
+                ? LineProtocolEncoder.seriesKey(ModConfig.measurement.get(), "server", serverTag)
+                : LineProtocolEncoder.seriesKey(ModConfig.measurement.get());
+
+        // hand the writer batch-sized chunks so one huge export can't monopolise a request
+        int chunkSize = ModConfig.influxBatchSize.get();
+        LineProtocolEncoder enc = encoder();
+        int[] queued = {0};
+        secondsByPlayer.forEach((msb, lsb, seconds) -> {
+            enc.series(series).tag("uuid", msb, lsb).floatField("duration", seconds);
+            if (idleByPlayer != null) enc.floatField("idle", idleByPlayer.get(msb, lsb, 0L));
+            enc.endLine();
+            if (enc.lines() == chunkSize) {
+                if (InfluxWriter.offer(enc)) queued[0] += enc.lines();
+                enc.reset();
             }
         });
+        if (enc.lines() > 0 && InfluxWriter.offer(enc)) queued[0] += enc.lines();
+        enc.reset();
 
-        return secondsByPlayer.size();
+        return queued[0];
     }
 
     // ==== Session events (join/leave) ====
-    public static CompletableFuture<Void> exportSessionEventAsync(UUID uuid, String name, String event, long whenNs) {
+    @Override
+    public void sessionEvent(UUID uuid, String name, String event, long whenNs) {
         if (!ModConfig.sessionEventsEnabled.get() || !ModConfig.influxEnabled.get()) {
-            return CompletableFuture.completedFuture(null);
+            return;
         }
-        String meas = ModConfig.sessionEventMeasurement.get();
-        String serverTag = ModConfig.serverTag.get();
-        boolean includeName = ModConfig.includeNameTag.get();
-
-        String tags = (serverTag != null && !serverTag.isEmpty() ? "server=" + sanitize(serverTag) + "," : "")
-                + "uuid=" + uuid
-                + (includeName && name != null && !name.isEmpty() ? ",username=" + sanitize(name) : "")
-                + ",event=" + sanitize(event);
-
-        String body = String.format("%s,%s duration=%d %d", sanitize(meas), tags, whenNs / 1_000_000_000, whenNs);
-        return CompletableFuture.runAsync(() -> {
-            try {
-                sendRequest(body);
-            } catch (Exception ex) {
-                PlaytimeLeaderboardMod.LOGGER.error("could not export session event", ex);
-            }
-        });
+        LineProtocolEncoder enc = sessionPoint(ModConfig.sessionEventMeasurement.get(), uuid, name);
+        enc.tag("event", event).floatField("duration", whenNs / 1_000_000_000).timestamp(whenNs).endLine();
+        offer(enc);
     }
 
     // ==== Session summary ====
-    public static CompletableFuture<Void> exportSessionSummaryAsync(UUID uuid, String name, long startNs, long endNs, long durationSec) {
+    @Override
+    public void sessionSummary(UUID uuid, String name, long startNs, long endNs, long durationSec) {
         if (!ModConfig.sessionEventsEnabled.get() || !ModConfig.influxEnabled.get()) {
-            return CompletableFuture.completedFuture(null);
+            return;
         }
-        String meas = ModConfig.sessionMeasurement.get();
-        String serverTag = ModConfig.serverTag.get();
-        boolean includeName = ModConfig.includeNameTag.get();
+        LineProtocolEncoder enc = sessionPoint(ModConfig.sessionMeasurement.get(), uuid, name);
+        enc.floatField("duration", durationSec).timestamp(endNs).endLine();
+        PlaytimeLeaderboardMod.LOGGER.info("writing data point to influx {} ({}s)", uuid, durationSec);
 
-        String tags = (serverTag != null && !serverTag.isEmpty() ? "server=" + sanitize(serverTag) + "," : "")
-                + "uuid=" + uuid
-                + (includeName && name != null && !name.isEmpty() ? ",username=" + sanitize(name) : "");
+        offer(enc);
+    }
 
-        String body = String.format("%s,%s duration=%d %d", sanitize(meas), tags, durationSec, endNs);
-        PlaytimeLeaderboardMod.LOGGER.info("writing data point to influx {}", body);
+    // ==== Self-monitoring ====
 
-        return CompletableFuture.runAsync(() -> {
-            try {
-                sendRequest(body);
-            } catch (Exception ex) {
-                PlaytimeLeaderboardMod.LOGGER.error("could not export session summary", ex);
-            }
+    /**
+     * Writes the mod's own {@link Metrics} as one point per metric (tag {@code metric}): counters
+     * and gauges as {@code value}, histograms as {@code count}, {@code mean_us}, {@code p50_us},
+     * {@code p90_us}, {@code p99_us} and {@code max_us} since startup.
+     */
+    @Override
+    public int exportMetrics() {
+        if (!ModConfig.influxEnabled.get()) return 0;
+        String measurement = ModConfig.metricsMeasurement.get();
+        String serverTag = ModConfig.serverTag.get();
+        Instant now = Instant.now();
+        long nowNs = now.getEpochSecond() * 1_000_000_000L + now.getNano();
+        LineProtocolEncoder enc = encoder();
+        Metrics.counters().forEach((name, c) ->
+                metricPoint(enc, measurement, serverTag, name).intField("value", c.get()).timestamp(nowNs).endLine());
+        Metrics.gauges().forEach((name, g) ->
+                metricPoint(enc, measurement, serverTag, name).intField("value", g.getAsLong()).timestamp(nowNs).endLine());
+        Metrics.histograms().forEach((name, h) -> {
+            LatencyHistogram.Snapshot s = h.snapshot();
+            metricPoint(enc, measurement, serverTag, name).intField("count", s.count())
+                    .intField("mean_us", s.meanNs() / 1000L).intField("p50_us", s.p50Ns() / 1000L)
+                    .intField("p90_us", s.p90Ns() / 1000L).intField("p99_us", s.p99Ns() / 1000L)
+                    .intField("max_us", s.maxNs() / 1000L).timestamp(nowNs).endLine();
         });
+        int lines = enc.lines();
+        return offer(enc) ? lines : 0;
     }
 
-    private static String encode(String s) {
-        return java.net.URLEncoder.encode(s, java.nio.charset.StandardCharsets.UTF_8);
+    private static LineProtocolEncoder metricPoint(LineProtocolEncoder enc, String measurement, String serverTag, String name) {
+        enc.measurement(measurement);
+        if (serverTag != null && !serverTag.isEmpty()) enc.tag("server", serverTag);
+        return enc.tag("metric", name);
     }
 
-    private static String sanitize(String s) {
-        return s.replaceAll("[ ,]", "_");
+    // measurement + common tags of a session point, in a reset per-thread encoder
+    private static LineProtocolEncoder sessionPoint(String measurement, UUID uuid, String name) {
+        String serverTag = ModConfig.serverTag.get();
+        LineProtocolEncoder enc = encoder();
+        enc.measurement(measurement);
+        if (serverTag != null && !serverTag.isEmpty()) enc.tag("server", serverTag);
+        enc.tag("uuid", uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+        if (ModConfig.includeNameTag.get() && name != null && !name.isEmpty()) enc.tag("username", name);
+        return enc;
     }
 
-    private static int sendRequest(String body) throws Exception {
-        String bucket = ModConfig.influxBucket.get();
-        String org = ModConfig.influxOrg.get();
-        String token = ModConfig.influxToken.get();
-        String url = ModConfig.influxUrl.get();
-
-        URL endpoint = new URL(url + "/api/v2/write?org=" + encode(org) + "&bucket=" + encode(bucket) + "&precision=ns");
-        HttpsURLConnection conn = (HttpsURLConnection) endpoint.openConnection();
+    private static boolean offer(LineProtocolEncoder enc) {
+        boolean ok = InfluxWriter.offer(enc);
+        enc.reset();
+        return ok;
+    }
 
-        // plug in trust-all SSL + hostname verifier
-        conn.setSSLSocketFactory(InsecureSsl.trustAllSslSocketFactory());
-        conn.setHostnameVerifier(InsecureSsl.trustAllHosts());
+    // one reusable buffer per producing thread (server thread, command/export callers)
+    private static final ThreadLocal<LineProtocolEncoder> ENCODER = ThreadLocal.withInitial(() -> new LineProtocolEncoder(4096));
 
-        conn.setRequestMethod("POST");
-        conn.setRequestProperty("Authorization", "Token " + token);
-        conn.setRequestProperty("Content-Type", "text/plain; charset=utf-8");
-        conn.setDoOutput(true);
+    private static LineProtocolEncoder encoder() {
+        LineProtocolEncoder enc = ENCODER.get();
+        enc.reset();
+        return enc;
+    }
 
-        try (OutputStream os = conn.getOutputStream()) {
-            os.write(body.getBytes(StandardCharsets.UTF_8));
+    private static final LatencyHistogram REQUEST_TIME = Metrics.histogram("influx.request");
+    private static final Counter REQUEST_FAILED = Metrics.counter("influx.request_failed"); // error or non-2xx
+
+    static int sendRequest(byte[] body, int off, int len, boolean gzip) throws Exception {
+        long t0 = System.nanoTime();
+        int status = -1;
+        try {
+            status = InfluxHttpClient.post(body, off, len, gzip);
+            return status;
+        } finally {
+            REQUEST_TIME.recordSince(t0);
+            if (status / 100 != 2) REQUEST_FAILED.inc();
         }
-
-        return conn.getResponseCode();
     }
 }
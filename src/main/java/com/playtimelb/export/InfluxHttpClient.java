@@ -0,0 +1,83 @@
+package com.playtimelb.export;
+
+import com.playtimelb.PlaytimeLeaderboardMod;
+import com.playtimelb.config.ModConfig;
+
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Long-lived HTTP client for Influx writes.
+ *
+ * The JDK client pools keep-alive connections (and multiplexes them with HTTP/2), so one instance
+ * is reused for every batch. It is rebuilt only when the relevant config values change.
+ */
+class InfluxHttpClient {
+    private record Settings(String url, String org, String bucket, String token, boolean http2,
+                            int connectTimeoutMs, int requestTimeoutMs, boolean trustAll) {
+        static Settings current() {
+            return new Settings(ModConfig.influxUrl.get(), ModConfig.influxOrg.get(), ModConfig.influxBucket.get(),
+                    ModConfig.influxToken.get(), ModConfig.influxHttp2.get(), ModConfig.influxConnectTimeoutMs.get(),
+                    ModConfig.influxRequestTimeoutMs.get(), ModConfig.influxTrustAllCertificates.get());
+        }
+    }
+
+    private record Client(Settings settings, HttpClient http, URI endpoint, String authorization) {}
+
+    // callbacks stay on one small daemon pool (shared across rebuilds) instead of the common pool
+    private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(2, r -> {
+        Thread t = new Thread(r, "PlaytimeLB-http");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private static volatile Client client;
+
+    private static Client client() throws Exception {
+        Settings s = Settings.current();
+        Client c = client;
+        if (c != null && c.settings.equals(s)) return c;
+        synchronized (InfluxHttpClient.class) {
+            c = client;
+            if (c != null && c.settings.equals(s)) return c;
+            c = build(s);
+            client = c;
+            PlaytimeLeaderboardMod.LOGGER.info("[PlaytimeLB] Influx client ready for {} ({})", c.endpoint.getHost(), s.http2 ? "HTTP/2" : "HTTP/1.1");
+            return c;
+        }
+    }
+
+    private static Client build(Settings s) throws Exception {
+        HttpClient.Builder b = HttpClient.newBuilder()
+                .version(s.http2 ? HttpClient.Version.HTTP_2 : HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofMillis(s.connectTimeoutMs))
+                .executor(EXECUTOR);
+        // skips certificate and hostname checks for this client's connections only
+        if (s.trustAll) b.sslContext(InsecureSsl.trustAllSslContext());
+        URI endpoint = URI.create(s.url + "/api/v2/write?org=" + encode(s.org) + "&bucket=" + encode(s.bucket) + "&precision=ns");
+        return new Client(s, b.build(), endpoint, "Token " + s.token);
+    }
+
+    private static String encode(String s) {
+        return URLEncoder.encode(s, StandardCharsets.UTF_8);
+    }
+
+    /** POSTs one line-protocol body and returns the status; the response is fully drained. */
+    static int post(byte[] body, int off, int len, boolean gzip) throws Exception {
+        Client c = client();
+        HttpRequest.Builder req = HttpRequest.newBuilder(c.endpoint)
+                .timeout(Duration.ofMillis(c.settings.requestTimeoutMs))
+                .header("Authorization", c.authorization)
+                .header("Content-Type", "text/plain; charset=utf-8")
+                .POST(HttpRequest.BodyPublishers.ofByteArray(body, off, len));
+        if (gzip) req.header("Content-Encoding", "gzip");
+        return c.http.send(req.build(), HttpResponse.BodyHandlers.discarding()).statusCode();
+    }
+}
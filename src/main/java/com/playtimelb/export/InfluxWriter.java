@@ -0,0 +1,316 @@
+package com.playtimelb.export;
+
+import com.playtimelb.PlaytimeLeaderboardMod;
+import com.playtimelb.config.ModConfig;
+import com.playtimelb.metrics.Metrics;
+import net.minecraftforge.fml.loading.FMLPaths;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Single pipeline for every line-protocol point we send.
+ *
+ * Producers enqueue chunks of lines into a bounded queue and never block; one writer thread
+ * drains it and POSTs a batch once it reaches batchSize lines or its oldest line is flushMillis old.
+ * When the queue is full new points are dropped and counted instead of piling up requests.
+ * Batches that fail (network error or non-2xx) go to an on-disk {@link ExportSpool} and are
+ * replayed oldest-first, rate-capped, once exponential backoff says Influx may be back.
+ */
+public class InfluxWriter {
+    private record Chunk(byte[] lines, int count) {}
+
+    // wakes the writer for shutdown without interrupting a request in flight
+    private static final Chunk WAKE = new Chunk(new byte[0], 0);
+
+    private static final LinkedBlockingQueue<Chunk> QUEUE = new LinkedBlockingQueue<>();
+    private static final AtomicInteger queuedLines = new AtomicInteger();
+
+    private static final AtomicLong enqueued = new AtomicLong();
+    private static final AtomicLong dropped = new AtomicLong();
+    private static final AtomicLong sentLines = new AtomicLong();
+    private static final AtomicLong sentBatches = new AtomicLong();
+    private static final AtomicLong failedBatches = new AtomicLong();
+
+    private static Thread writer; // until it has drained, even after shutdown; guarded by the class lock
+    private static volatile boolean running = false;
+
+    /**
+     * Queues {@code count} newline-separated, already encoded lines (copied out of {@code buf});
+     * returns false (and counts a drop) if the queue is full.
+     */
+    static boolean offer(byte[] buf, int off, int len, int count) {
+        if (count <= 0) return true;
+        int cap = ModConfig.influxQueueCapacity.get();
+        while (true) {
+            int cur = queuedLines.get();
+            if (cur + count > cap) {
+                dropped.addAndGet(count);
+                return false;
+            }
+            if (queuedLines.compareAndSet(cur, cur + count)) break;
+        }
+        // queued first: a writer that stops in between has either drained it or is restarted below
+        QUEUE.add(new Chunk(Arrays.copyOfRange(buf, off, off + len), count));
+        enqueued.addAndGet(count);
+        ensureStarted();
+        return true;
+    }
+
+    static boolean offer(LineProtocolEncoder enc) {
+        return offer(enc.array(), 0, enc.trimmedLength(), enc.lines());
+    }
+
+    private static synchronized void ensureStarted() {
+        if (running) return;
+        running = true;
+        // a writer still draining after shutdown just carries on: never two sharing the spool
+        if (writer != null) return;
+        writer = new Thread(InfluxWriter::run, "PlaytimeLB-influx");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    // the writer's exit; false if an offer restarted it while it was draining
+    private static synchronized boolean stopWriter() {
+        if (running) return false;
+        closeSpool();
+        writer = null;
+        return true;
+    }
+
+    /**
+     * Flushes whatever is queued and stops the writer thread (it restarts on the next offer). If
+     * the timeout passes first, the thread finishes draining on its own.
+     */
+    public static void shutdown(long timeoutMs) {
+        Thread t;
+        synchronized (InfluxWriter.class) {
+            if (writer == null) return;
+            running = false;
+            t = writer; // may still be draining after an earlier shutdown timed out: wait for it too
+        }
+        QUEUE.add(WAKE);
+        try {
+            t.join(timeoutMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public static long enqueuedCount() { return enqueued.get(); }
+    public static long droppedCount() { return dropped.get(); }
+    public static long sentLineCount() { return sentLines.get(); }
+    public static long sentBatchCount() { return sentBatches.get(); }
+    public static long failedBatchCount() { return failedBatches.get(); }
+    public static int queuedLineCount() { return queuedLines.get(); }
+
+    private static void run() {
+        byte[] buf = new byte[64 * 1024];
+        List<Chunk> batch = new ArrayList<>();
+        int lines = 0;
+        long firstAt = 0L;
+        while (true) {
+            int batchSize = ModConfig.influxBatchSize.get();
+            long maxAgeNs = TimeUnit.MILLISECONDS.toNanos(ModConfig.influxFlushMillis.get());
+            long waitNs = lines == 0 ? maxAgeNs : Math.max(0L, firstAt + maxAgeNs - System.nanoTime());
+            if (spoolPending()) waitNs = Math.min(waitNs, Math.max(0L, nextReplayAt - System.nanoTime()));
+
+            Chunk c = null;
+            if (running) {
+                try {
+                    c = QUEUE.poll(waitNs, TimeUnit.NANOSECONDS);
+                } catch (InterruptedException e) {
+                    running = false;
+                }
+            } else {
+                c = QUEUE.poll();
+            }
+            if (c == WAKE) continue;
+            if (c != null) {
+                if (lines == 0) firstAt = System.nanoTime();
+                batch.add(c);
+                lines += c.count();
+                queuedLines.addAndGet(-c.count());
+            }
+
+            boolean draining = !running && c == null;
+            if (lines > 0 && (lines >= batchSize || System.nanoTime() - firstAt >= maxAgeNs || draining)) {
+                buf = send(batch, lines, buf);
+                batch.clear();
+                lines = 0;
+            }
+            if (draining && stopWriter()) return;
+            replaySpool();
+        }
+    }
+
+    // joins the batch into buf (grown if needed, and returned for the next batch) and sends it
+    private static byte[] send(List<Chunk> batch, int lines, byte[] buf) {
+        int len = 0;
+        for (Chunk c : batch) len += c.lines().length + 1;
+        if (buf.length < len) buf = new byte[Math.max(len, buf.length * 2)];
+        len = 0;
+        for (Chunk c : batch) {
+            if (len > 0) buf[len++] = '\n';
+            System.arraycopy(c.lines(), 0, buf, len, c.lines().length);
+            len += c.lines().length;
+        }
+        // while Influx is backing off, don't spend a request (and a timeout) per batch; without a
+        // spool to keep it for later, though, trying now is the batch's only chance
+        if (System.nanoTime() < backoffUntil && spool() != null) {
+            spool(buf, len, lines);
+        } else if (!deliver(buf, len, lines)) {
+            spool(buf, len, lines);
+        }
+        return buf;
+    }
+
+    /** True if the batch is done with: sent, or rejected in a way retrying can't fix. */
+    private static boolean deliver(byte[] raw, int len, int lines) {
+        int status;
+        try {
+            if (ModConfig.influxGzip.get()) {
+                byte[] body = gzip(raw, len);
+                status = InfluxExporter.sendRequest(body, 0, body.length, true);
+            } else {
+                status = InfluxExporter.sendRequest(raw, 0, len, false);
+            }
+        } catch (Exception ex) {
+            PlaytimeLeaderboardMod.LOGGER.error("could not export batch of {} lines", lines, ex);
+            status = -1;
+        }
+        if (status / 100 == 2) {
+            sentLines.addAndGet(lines);
+            sentBatches.incrementAndGet();
+            consecutiveFailures = 0;
+            backoffUntil = 0L;
+            return true;
+        }
+        if (status == 400 || status == 413) {
+            // malformed or oversized: replaying the same bytes would fail forever
+            rejectedBatches.incrementAndGet();
+            PlaytimeLeaderboardMod.LOGGER.warn("[PlaytimeLB] Influx rejected batch of {} lines (HTTP {}), dropping it", lines, status);
+            return true;
+        }
+        failedBatches.incrementAndGet();
+        if (status > 0) PlaytimeLeaderboardMod.LOGGER.warn("[PlaytimeLB] Influx write failed for {} lines (HTTP {})", lines, status);
+        long maxNs = TimeUnit.SECONDS.toNanos(ModConfig.spoolMaxBackoffSeconds.get());
+        long delay = Math.min(maxNs, TimeUnit.SECONDS.toNanos(1) << Math.min(20, consecutiveFailures++));
+        delay += (long) (delay * 0.2 * ThreadLocalRandom.current().nextDouble()); // jitter
+        backoffUntil = System.nanoTime() + delay;
+        nextReplayAt = backoffUntil;
+        return false;
+    }
+
+    // ==== Spool (failed batches, retried later) ====
+
+    // the spool and backoff state belong to the writer thread; there is never more than one
+    private static ExportSpool spool;
+    private static boolean spoolBroken = false;
+    private static long backoffUntil = 0L;
+    private static long nextReplayAt = 0L;
+    private static int consecutiveFailures = 0;
+    private static final AtomicLong spooledBatches = new AtomicLong();
+    private static final AtomicLong replayedBatches = new AtomicLong();
+    private static final AtomicLong rejectedBatches = new AtomicLong();
+
+    public static long spooledBatchCount() { return spooledBatches.get(); }
+    public static long replayedBatchCount() { return replayedBatches.get(); }
+    public static long rejectedBatchCount() { return rejectedBatches.get(); }
+
+    public static long spoolBytes() {
+        ExportSpool s = spool;
+        return s == null ? 0L : s.bytes();
+    }
+
+    public static long spoolEvictedBatches() {
+        ExportSpool s = spool;
+        return s == null ? 0L : s.evictedBatches();
+    }
+
+    /** Exposes the writer's counters as {@code influx.*} gauges in {@link Metrics}. */
+    public static void registerMetrics() {
+        Metrics.gauge("influx.lines_enqueued", InfluxWriter::enqueuedCount);
+        Metrics.gauge("influx.lines_dropped", InfluxWriter::droppedCount);
+        Metrics.gauge("influx.lines_queued", InfluxWriter::queuedLineCount);
+        Metrics.gauge("influx.lines_sent", InfluxWriter::sentLineCount);
+        Metrics.gauge("influx.batches_sent", InfluxWriter::sentBatchCount);
+        Metrics.gauge("influx.batches_failed", InfluxWriter::failedBatchCount);
+        Metrics.gauge("influx.batches_rejected", InfluxWriter::rejectedBatchCount);
+        Metrics.gauge("influx.batches_spooled", InfluxWriter::spooledBatchCount);
+        Metrics.gauge("influx.batches_replayed", InfluxWriter::replayedBatchCount);
+        Metrics.gauge("influx.spool_bytes", InfluxWriter::spoolBytes);
+    }
+
+    private static ExportSpool spool() {
+        if (spool != null || spoolBroken || !ModConfig.spoolEnabled.get()) return spool;
+        try {
+            spool = new ExportSpool(FMLPaths.GAMEDIR.get().resolve("playtimelb-spool"),
+                    ModConfig.spoolMaxMegabytes.get() * 1024L * 1024L, 4L * 1024L * 1024L);
+        } catch (IOException e) {
+            spoolBroken = true;
+            PlaytimeLeaderboardMod.LOGGER.error("[PlaytimeLB] export spool unavailable, failed batches will be dropped", e);
+        }
+        return spool;
+    }
+
+    private static boolean spoolPending() {
+        ExportSpool s = spool();
+        return s != null && !s.isEmpty();
+    }
+
+    private static void spool(byte[] raw, int len, int lines) {
+        ExportSpool s = spool();
+        if (s == null) {
+            dropped.addAndGet(lines);
+            return;
+        }
+        try {
+            s.append(raw, 0, len, lines);
+            spooledBatches.incrementAndGet();
+        } catch (IOException e) {
+            dropped.addAndGet(lines);
+            PlaytimeLeaderboardMod.LOGGER.error("[PlaytimeLB] could not spool batch of {} lines", lines, e);
+        }
+    }
+
+    /** Resends at most one spooled batch per replay slot (rate cap), oldest first. */
+    private static void replaySpool() {
+        long now = System.nanoTime();
+        if (now < nextReplayAt || !spoolPending()) return;
+        nextReplayAt = now + TimeUnit.SECONDS.toNanos(1) / ModConfig.spoolReplayPerSecond.get();
+        try {
+            ExportSpool.Batch b = spool.peek();
+            if (b == null) return;
+            if (deliver(b.body(), b.body().length, b.lines())) {
+                spool.ack();
+                replayedBatches.incrementAndGet();
+            }
+        } catch (IOException e) {
+            PlaytimeLeaderboardMod.LOGGER.error("[PlaytimeLB] export spool read failed", e);
+        }
+    }
+
+    private static void closeSpool() {
+        if (spool != null) spool.close();
+        spool = null;
+    }
+
+    private static byte[] gzip(byte[] raw, int len) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(len / 4 + 64);
+        try (GZIPOutputStream gz = new GZIPOutputStream(out)) {
+            gz.write(raw, 0, len);
+        }
+        return out.toByteArray();
+    }
+}
@@ -1,29 +1,30 @@
 package com.playtimelb.export;
 
-import com.playtimelb.PlaytimeLeaderboardMod;
-
 import javax.net.ssl.*;
+import java.security.GeneralSecurityException;
 import java.security.SecureRandom;
-import java.security.cert.CertificateException;
-import java.security.cert.X509Certificate;
 
 public class InsecureSsl {
-    public static SSLSocketFactory trustAllSslSocketFactory() throws Exception {
-        TrustManager[] trustAll = new TrustManager[]{
-                new X509TrustManager() {
-                    @Override
-                    public void checkClientTrusted(X509Certificate[] chain, String authType) throws CertificateException {
-
-                    }
+    private static volatile SSLContext trustAll;
 
-                    public X509Certificate[] getAcceptedIssuers() { return new X509Certificate[0]; }
-                    public void checkServerTrusted(X509Certificate[] certs, String authType) {}
+    /** Shared trust-all context; created once, TLS setup is not repeated per request. */
+    public static SSLContext trustAllSslContext() throws GeneralSecurityException {
+        SSLContext ctx = trustAll;
+        if (ctx == null) {
+            synchronized (InsecureSsl.class) {
+                ctx = trustAll;
+                if (ctx == null) {
+                    ctx = SSLContext.getInstance("TLS");
+                    ctx.init(null, new TrustManager[]{new UnsafeNoCheckTrustManager()}, new SecureRandom());
+                    trustAll = ctx;
                 }
-        };
+            }
+        }
+        return ctx;
+    }
 
-        SSLContext sslContext = SSLContext.getInstance("TLS");
-        sslContext.init(null, trustAll, new SecureRandom());
-        return sslContext.getSocketFactory();
+    public static SSLSocketFactory trustAllSslSocketFactory() throws Exception {
+        return trustAllSslContext().getSocketFactory();
     }
 
     public static HostnameVerifier trustAllHosts() {
@@ -0,0 +1,212 @@
+package com.playtimelb.export;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Writes Influx line protocol straight into a growable byte buffer, UTF-8 encoded and escaped.
+ *
+ * Usage per point: {@link #measurement} (or {@link #series}), any number of {@link #tag}s, one or more fields, an
+ * optional {@link #timestamp}, then {@link #endLine}. {@link #reset} keeps the buffer for reuse,
+ * so steady-state encoding allocates nothing.
+ *
+ * Escaping follows the line-protocol rules: measurements escape commas and spaces; tag keys, tag
+ * values and field keys also escape '='; string field values escape '"'. Backslashes are doubled
+ * everywhere. Line breaks can't be escaped and are written as (escaped) spaces.
+ */
+final class LineProtocolEncoder {
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+    private static final short[] HEX2 = new short[256]; // byte -> two hex digits (hi << 8 | lo)
+
+    static {
+        for (int i = 0; i < 256; i++) HEX2[i] = (short) (HEX[i >>> 4] << 8 | HEX[i & 0xF]);
+    }
+
+    private byte[] buf;
+    private int len;
+    private int lines;
+    private boolean firstField;
+
+    LineProtocolEncoder(int initialCapacity) {
+        buf = new byte[Math.max(64, initialCapacity)];
+    }
+
+    byte[] array() { return buf; }
+    int length() { return len; }
+    int lines() { return lines; }
+
+    void reset() {
+        len = 0;
+        lines = 0;
+    }
+
+    LineProtocolEncoder measurement(String name) {
+        escaped(name, false, false);
+        firstField = true;
+        return this;
+    }
+
+    /**
+     * Starts a point with a measurement and tags pre-encoded by {@link #seriesKey}; for exports that
+     * repeat the same prefix on every line, this copies bytes instead of re-escaping strings.
+     */
+    LineProtocolEncoder series(byte[] key) {
+        ensure(key.length);
+        System.arraycopy(key, 0, buf, len, key.length);
+        len += key.length;
+        firstField = true;
+        return this;
+    }
+
+    /** Encoded measurement plus tags given as alternating key/value strings, for {@link #series}. */
+    static byte[] seriesKey(String measurement, String... tags) {
+        LineProtocolEncoder e = new LineProtocolEncoder(64).measurement(measurement);
+        for (int i = 0; i + 1 < tags.length; i += 2) e.tag(tags[i], tags[i + 1]);
+        return Arrays.copyOf(e.buf, e.len);
+    }
+
+    LineProtocolEncoder tag(String key, String value) {
+        put((byte) ',');
+        escaped(key, true, false);
+        put((byte) '=');
+        escaped(value, true, false);
+        return this;
+    }
+
+    /** Tag whose value is a UUID, written in canonical form without creating the UUID/String. */
+    LineProtocolEncoder tag(String key, long msb, long lsb) {
+        put((byte) ',');
+        escaped(key, true, false);
+        put((byte) '=');
+        ensure(36);
+        hex(msb >>> 32, 4);
+        buf[len++] = '-';
+        hex(msb >>> 16, 2);
+        buf[len++] = '-';
+        hex(msb, 2);
+        buf[len++] = '-';
+        hex(lsb >>> 48, 2);
+        buf[len++] = '-';
+        hex(lsb, 6);
+        return this;
+    }
+
+    /** Numeric field without the {@code i} suffix, i.e. stored as a float (what we've always sent). */
+    LineProtocolEncoder floatField(String key, long value) {
+        fieldKey(key);
+        digits(value);
+        return this;
+    }
+
+    LineProtocolEncoder intField(String key, long value) {
+        fieldKey(key);
+        digits(value);
+        put((byte) 'i');
+        return this;
+    }
+
+    LineProtocolEncoder stringField(String key, String value) {
+        fieldKey(key);
+        put((byte) '"');
+        escaped(value, false, true);
+        put((byte) '"');
+        return this;
+    }
+
+    LineProtocolEncoder timestamp(long ns) {
+        put((byte) ' ');
+        digits(ns);
+        return this;
+    }
+
+    void endLine() {
+        put((byte) '\n');
+        lines++;
+    }
+
+    /** Drops a trailing newline so the body ends on the last point. */
+    int trimmedLength() {
+        return len > 0 && buf[len - 1] == '\n' ? len - 1 : len;
+    }
+
+    private void fieldKey(String key) {
+        put(firstField ? (byte) ' ' : (byte) ',');
+        firstField = false;
+        escaped(key, true, false);
+        put((byte) '=');
+    }
+
+    // low `bytes` bytes of v as 2 * bytes hex digits
+    private void hex(long v, int bytes) {
+        for (int i = bytes - 1; i >= 0; i--) {
+            short h = HEX2[(int) (v & 0xFF)];
+            buf[len + 2 * i] = (byte) (h >> 8);
+            buf[len + 2 * i + 1] = (byte) h;
+            v >>>= 8;
+        }
+        len += 2 * bytes;
+    }
+
+    private void digits(long v) {
+        ensure(20);
+        if (v == Long.MIN_VALUE) {
+            for (byte b : "-9223372036854775808".getBytes(StandardCharsets.US_ASCII)) buf[len++] = b;
+            return;
+        }
+        if (v < 0) {
+            buf[len++] = '-';
+            v = -v;
+        }
+        int start = len;
+        do {
+            buf[len++] = (byte) ('0' + v % 10);
+            v /= 10;
+        } while (v != 0);
+        for (int i = start, j = len - 1; i < j; i++, j--) {
+            byte t = buf[i];
+            buf[i] = buf[j];
+            buf[j] = t;
+        }
+    }
+
+    // UTF-8 with line-protocol escapes; equals = also escape '=', quoted = string field value
+    private void escaped(String s, boolean equals, boolean quoted) {
+        int n = s.length();
+        ensure(n * 3); // worst case: BMP char -> 3 bytes, escaped ASCII -> 2, surrogate pair -> 4
+        byte[] b = buf;
+        int p = len;
+        for (int i = 0; i < n; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                if (c == '\n' || c == '\r') c = ' ';
+                if (c == '\\' || (quoted ? c == '"' : c == ',' || c == ' ' || (equals && c == '='))) b[p++] = '\\';
+                b[p++] = (byte) c;
+            } else if (c < 0x800) {
+                b[p++] = (byte) (0xC0 | c >> 6);
+                b[p++] = (byte) (0x80 | c & 0x3F);
+            } else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                b[p++] = (byte) (0xF0 | cp >> 18);
+                b[p++] = (byte) (0x80 | cp >> 12 & 0x3F);
+                b[p++] = (byte) (0x80 | cp >> 6 & 0x3F);
+                b[p++] = (byte) (0x80 | cp & 0x3F);
+            } else if (Character.isSurrogate(c)) {
+                b[p++] = '?'; // unpaired surrogate
+            } else {
+                b[p++] = (byte) (0xE0 | c >> 12);
+                b[p++] = (byte) (0x80 | c >> 6 & 0x3F);
+                b[p++] = (byte) (0x80 | c & 0x3F);
+            }
+        }
+        len = p;
+    }
+
+    private void put(byte b) {
+        if (len == buf.length) ensure(1);
+        buf[len++] = b;
+    }
+
+    private void ensure(int extra) {
+        if (len + extra > buf.length) buf = Arrays.copyOf(buf, Math.max(buf.length * 2, len + extra));
+    }
+}
@@ -0,0 +1,176 @@
+package com.playtimelb.export;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Writes the Prometheus text exposition format (0.0.4), or OpenMetrics 1.0 text, into a growable
+ * byte buffer that {@link #drainTo} empties into a stream and keeps for reuse.
+ *
+ * Per family: {@link #family}, then per sample {@link #sample} (or pre-encoded bytes from
+ * {@link #samplePrefix} via {@link #raw}), any {@link #label}s, then {@link #value} or
+ * {@link #seconds}. The two formats differ only in what a counter family is called (OpenMetrics
+ * drops the {@code _total} its samples carry) and in the closing {@link #eof}.
+ */
+final class PrometheusEncoder {
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    private final boolean openMetrics;
+    private byte[] buf;
+    private int len;
+    private boolean labels; // a '{' is open on the current sample
+
+    PrometheusEncoder(int initialCapacity, boolean openMetrics) {
+        this.buf = new byte[Math.max(64, initialCapacity)];
+        this.openMetrics = openMetrics;
+    }
+
+    int length() { return len; }
+
+    /** {@code # HELP} (if {@code help} isn't null) and {@code # TYPE} lines of a family. */
+    PrometheusEncoder family(String name, String type, String help) {
+        String named = type.equals("counter") && !openMetrics ? name + "_total" : name;
+        if (help != null) ascii("# HELP " + named + " " + help.replace("\\", "\\\\").replace("\n", "\\n") + "\n");
+        ascii("# TYPE " + named + " " + type + "\n");
+        return this;
+    }
+
+    PrometheusEncoder sample(String name) {
+        ascii(name);
+        labels = false;
+        return this;
+    }
+
+    PrometheusEncoder label(String key, String value) {
+        put(labels ? (byte) ',' : (byte) '{');
+        labels = true;
+        ascii(key);
+        put((byte) '=');
+        put((byte) '"');
+        raw(value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n").getBytes(StandardCharsets.UTF_8));
+        put((byte) '"');
+        return this;
+    }
+
+    PrometheusEncoder value(long v) {
+        endLabels();
+        digits(v);
+        put((byte) '\n');
+        return this;
+    }
+
+    /** A nanosecond value written as decimal seconds. */
+    PrometheusEncoder seconds(long ns) {
+        endLabels();
+        digits(ns / 1_000_000_000L);
+        ensure(10);
+        buf[len++] = '.';
+        long frac = ns % 1_000_000_000L;
+        for (int i = 8; i >= 0; i--, frac /= 10) buf[len + i] = (byte) ('0' + frac % 10);
+        len += 9;
+        put((byte) '\n');
+        return this;
+    }
+
+    /** Sample name plus labels, left open ({@code name{k="v",}), for lines that repeat it. */
+    static byte[] samplePrefix(String name, String... labels) {
+        PrometheusEncoder e = new PrometheusEncoder(64, false).sample(name);
+        for (int i = 0; i + 1 < labels.length; i += 2) e.label(labels[i], labels[i + 1]);
+        e.put(e.labels ? (byte) ',' : (byte) '{');
+        return Arrays.copyOf(e.buf, e.len);
+    }
+
+    void raw(byte[] bytes) {
+        ensure(bytes.length);
+        System.arraycopy(bytes, 0, buf, len, bytes.length);
+        len += bytes.length;
+    }
+
+    /** A UUID in canonical form, without creating the UUID/String. */
+    void uuid(long msb, long lsb) {
+        ensure(36);
+        hex(msb >>> 32, 8);
+        buf[len++] = '-';
+        hex(msb >>> 16, 4);
+        buf[len++] = '-';
+        hex(msb, 4);
+        buf[len++] = '-';
+        hex(lsb >>> 48, 4);
+        buf[len++] = '-';
+        hex(lsb, 12);
+    }
+
+    void digits(long v) {
+        ensure(20);
+        if (v == Long.MIN_VALUE) {
+            ascii("-9223372036854775808");
+            return;
+        }
+        if (v < 0) {
+            buf[len++] = '-';
+            v = -v;
+        }
+        int start = len;
+        do {
+            buf[len++] = (byte) ('0' + v % 10);
+            v /= 10;
+        } while (v != 0);
+        for (int i = start, j = len - 1; i < j; i++, j--) {
+            byte t = buf[i];
+            buf[i] = buf[j];
+            buf[j] = t;
+        }
+    }
+
+    void newline() {
+        put((byte) '\n');
+    }
+
+    void eof() {
+        if (openMetrics) ascii("# EOF\n");
+    }
+
+    void drainTo(OutputStream out) throws IOException {
+        out.write(buf, 0, len);
+        len = 0;
+    }
+
+    /** A dotted metric name ({@code store.save}) as a Prometheus one ({@code playtimelb_store_save}). */
+    static String metricName(String name) {
+        StringBuilder sb = new StringBuilder("playtimelb_");
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            sb.append(c < 0x80 && (Character.isLetterOrDigit(c) || c == '_') ? c : '_');
+        }
+        return sb.toString();
+    }
+
+    private void endLabels() {
+        if (labels) put((byte) '}');
+        labels = false;
+        put((byte) ' ');
+    }
+
+    // low `digits` hex digits of v
+    private void hex(long v, int digits) {
+        for (int i = digits - 1; i >= 0; i--, v >>>= 4) buf[len + i] = HEX[(int) (v & 0xF)];
+        len += digits;
+    }
+
+    private void ascii(String s) {
+        int n = s.length();
+        ensure(n);
+        for (int i = 0; i < n; i++) buf[len++] = (byte) s.charAt(i);
+    }
+
+    private void put(byte b) {
+        if (len == buf.length) ensure(1);
+        buf[len++] = b;
+    }
+
+    private void ensure(int extra) {
+        if (len + extra > buf.length) buf = Arrays.copyOf(buf, Math.max(buf.length * 2, len + extra));
+    }
+}
@@ -0,0 +1,200 @@
+package com.playtimelb.export;
+
+import com.mojang.logging.LogUtils;
+import com.playtimelb.config.ModConfig;
+import com.playtimelb.metrics.Counter;
+import com.playtimelb.metrics.LatencyHistogram;
+import com.playtimelb.metrics.Metrics;
+import com.playtimelb.store.PlaytimeStore;
+import com.playtimelb.store.TotalsVisitor;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import net.minecraft.server.MinecraftServer;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Serves the totals and the mod's metrics on {@code http://<bindAddress>:<port>/metrics} for
+ * Prometheus (or anything reading its text format or OpenMetrics) to scrape, so nothing is
+ * rendered until a collector asks. Loopback only unless {@code bindAddress} says otherwise.
+ *
+ * A scrape is written out as it is rendered (chunked, gzipped if the client accepts it): the
+ * metrics first, then one {@code playtimelb_player_seconds_total} sample per player and state
+ * streamed from {@link PlaytimeStore#streamTotals}, a chunk of players at a time, so the tables are
+ * never copied and a slow collector never holds up the store. Scrapes are served one at a time.
+ */
+public final class PrometheusExporter implements Exporter {
+    public static final PrometheusExporter INSTANCE = new PrometheusExporter();
+
+    private static final Logger LOGGER = LogUtils.getLogger();
+
+    private static final String PATH = "/metrics";
+    private static final String TEXT_FORMAT = "text/plain; version=0.0.4; charset=utf-8";
+    private static final String OPEN_METRICS = "application/openmetrics-text; version=1.0.0; charset=utf-8";
+    private static final int BUFFER_BYTES = 64 * 1024;
+    private static final String PLAYER_FAMILY = "playtimelb_player_seconds";
+    private static final byte[] UUID_LABEL = "uuid=\"".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] ACTIVE = "\",state=\"active\"} ".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] IDLE = "\",state=\"idle\"} ".getBytes(StandardCharsets.US_ASCII);
+
+    private static final LatencyHistogram SCRAPE_TIME = Metrics.histogram("prometheus.scrape");
+    private static final Counter SCRAPE_FAILED = Metrics.counter("prometheus.scrape_failed");
+
+    private HttpServer http;
+    private ExecutorService executor;
+    private volatile MinecraftServer server;
+
+    private PrometheusExporter() {}
+
+    @Override
+    public String name() {
+        return "prometheus";
+    }
+
+    @Override
+    public boolean enabled() {
+        return ModConfig.prometheusEnabled.get();
+    }
+
+    @Override
+    public synchronized void start(MinecraftServer server) throws IOException {
+        stop();
+        String host = ModConfig.prometheusBindAddress.get();
+        HttpServer h = HttpServer.create(new InetSocketAddress(host, ModConfig.prometheusPort.get()), 0);
+        ExecutorService ex = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "PlaytimeLB-prometheus");
+            t.setDaemon(true);
+            return t;
+        });
+        h.setExecutor(ex);
+        h.createContext(PATH, this::handle);
+        h.start();
+        this.http = h;
+        this.executor = ex;
+        this.server = server;
+        LOGGER.info("[PlaytimeLB] serving metrics on http://{}:{}{}", host, h.getAddress().getPort(), PATH);
+    }
+
+    @Override
+    public synchronized void stop() {
+        if (http == null) return;
+        server = null;
+        http.stop(0);
+        executor.shutdownNow();
+        http = null;
+        executor = null;
+    }
+
+    private void handle(HttpExchange ex) {
+        long t0 = System.nanoTime();
+        try {
+            String method = ex.getRequestMethod();
+            MinecraftServer mc = server;
+            if (!method.equals("GET") && !method.equals("HEAD")) {
+                ex.sendResponseHeaders(405, -1);
+                return;
+            }
+            if (mc == null) {
+                ex.sendResponseHeaders(503, -1);
+                return;
+            }
+            String accept = ex.getRequestHeaders().getFirst("Accept");
+            String encoding = ex.getRequestHeaders().getFirst("Accept-Encoding");
+            boolean openMetrics = accept != null && accept.contains("application/openmetrics-text");
+            boolean gzip = encoding != null && encoding.contains("gzip");
+            ex.getResponseHeaders().set("Content-Type", openMetrics ? OPEN_METRICS : TEXT_FORMAT);
+            if (gzip) ex.getResponseHeaders().set("Content-Encoding", "gzip");
+            if (method.equals("HEAD")) {
+                ex.sendResponseHeaders(200, -1);
+                return;
+            }
+            ex.sendResponseHeaders(200, 0); // length unknown: chunked, written as it's rendered
+            try (OutputStream out = gzip ? new GZIPOutputStream(ex.getResponseBody(), BUFFER_BYTES) : ex.getResponseBody()) {
+                render(mc, new PrometheusEncoder(2 * BUFFER_BYTES, openMetrics), out);
+            }
+        } catch (IOException | RuntimeException e) {
+            // headers may be out already; the collector sees a cut-off body and fails the scrape
+            SCRAPE_FAILED.inc();
+            LOGGER.warn("[PlaytimeLB] metrics scrape failed: {}", e.toString());
+        } finally {
+            ex.close();
+            SCRAPE_TIME.recordSince(t0);
+        }
+    }
+
+    private static void render(MinecraftServer mc, PrometheusEncoder enc, OutputStream out) throws IOException {
+        String serverTag = ModConfig.serverTag.get();
+        boolean tagged = serverTag != null && !serverTag.isEmpty();
+
+        Metrics.counters().forEach((name, c) -> {
+            String family = PrometheusEncoder.metricName(name);
+            enc.family(family, "counter", null).sample(family + "_total");
+            if (tagged) enc.label("server", serverTag);
+            enc.value(c.get());
+        });
+        Metrics.gauges().forEach((name, g) -> {
+            String family = PrometheusEncoder.metricName(name);
+            enc.family(family, "gauge", null).sample(family);
+            if (tagged) enc.label("server", serverTag);
+            enc.value(g.getAsLong());
+        });
+        Metrics.histograms().forEach((name, h) -> {
+            String family = PrometheusEncoder.metricName(name) + "_seconds";
+            LatencyHistogram.Snapshot s = h.snapshot();
+            enc.family(family, "summary", null);
+            quantile(enc, family, tagged ? serverTag : null, "0.5", s.p50Ns());
+            quantile(enc, family, tagged ? serverTag : null, "0.9", s.p90Ns());
+            quantile(enc, family, tagged ? serverTag : null, "0.99", s.p99Ns());
+            quantile(enc, family, tagged ? serverTag : null, "0.999", s.p999Ns());
+            enc.sample(family + "_sum");
+            if (tagged) enc.label("server", serverTag);
+            enc.seconds(s.sumNs());
+            enc.sample(family + "_count");
+            if (tagged) enc.label("server", serverTag);
+            enc.value(s.count());
+        });
+        enc.drainTo(out);
+
+        enc.family(PLAYER_FAMILY, "counter", "Play time per player, in-progress sessions included; state is active or idle");
+        // the same name and labels on every line: copied, not re-encoded
+        byte[] series = tagged
+                ? PrometheusEncoder.samplePrefix(PLAYER_FAMILY + "_total", "server", serverTag)
+                : PrometheusEncoder.samplePrefix(PLAYER_FAMILY + "_total");
+        PlaytimeStore.streamTotals(mc, new TotalsVisitor() {
+            @Override
+            public void visit(long msb, long lsb, long activeSecs, long idleSecs) {
+                player(enc, series, msb, lsb, ACTIVE, activeSecs);
+                player(enc, series, msb, lsb, IDLE, idleSecs);
+            }
+
+            @Override
+            public void endChunk() throws IOException {
+                enc.drainTo(out);
+            }
+        });
+        enc.eof();
+        enc.drainTo(out);
+    }
+
+    private static void player(PrometheusEncoder enc, byte[] series, long msb, long lsb, byte[] state, long secs) {
+        enc.raw(series);
+        enc.raw(UUID_LABEL);
+        enc.uuid(msb, lsb);
+        enc.raw(state);
+        enc.digits(secs);
+        enc.newline();
+    }
+
+    private static void quantile(PrometheusEncoder enc, String family, String serverTag, String q, long ns) {
+        enc.sample(family);
+        if (serverTag != null) enc.label("server", serverTag);
+        enc.label("quantile", q).seconds(ns);
+    }
+}
@@ -1,10 +1,16 @@
 package com.playtimelb.export;
 
-import javax.net.ssl.X509TrustManager;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.X509ExtendedTrustManager;
+import java.net.Socket;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
 
-public class UnsafeNoCheckTrustManager implements X509TrustManager {
+/**
+ * Accepts any certificate for any host. Extended, so JSSE uses it as is instead of wrapping it
+ * with its own hostname check; the check is skipped only for connections made with this manager.
+ */
+public class UnsafeNoCheckTrustManager extends X509ExtendedTrustManager {
     @Override
     public void checkClientTrusted(X509Certificate[] chain, String authType) throws CertificateException {
 
@@ -15,6 +21,26 @@ public class UnsafeNoCheckTrustManager implements X509TrustManager {
 
     }
 
+    @Override
+    public void checkClientTrusted(X509Certificate[] chain, String authType, Socket socket) throws CertificateException {
+
+    }
+
+    @Override
+    public void checkServerTrusted(X509Certificate[] chain, String authType, Socket socket) throws CertificateException {
+
+    }
+
+    @Override
+    public void checkClientTrusted(X509Certificate[] chain, String authType, SSLEngine engine) throws CertificateException {
+
+    }
+
+    @Override
+    public void checkServerTrusted(X509Certificate[] chain, String authType, SSLEngine engine) throws CertificateException {
+
+    }
+
     @Override
     public X509Certificate[] getAcceptedIssuers() {
         return new X509Certificate[0];
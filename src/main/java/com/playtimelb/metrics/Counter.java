@@ -0,0 +1,22 @@
+package com.playtimelb.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/** Monotonic event count; striped, so hot paths on different threads don't contend. */
+public final class Counter {
+    private final LongAdder value = new LongAdder();
+
+    Counter() {}
+
+    public void inc() {
+        value.increment();
+    }
+
+    public void add(long n) {
+        value.add(n);
+    }
+
+    public long get() {
+        return value.sum();
+    }
+}
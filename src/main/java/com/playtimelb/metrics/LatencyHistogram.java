@@ -0,0 +1,77 @@
+package com.playtimelb.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Durations in nanoseconds, counted into log-linear buckets the way HdrHistogram does it: 16
+ * sub-buckets per power of two, so any recorded value is known to within ~6% over the whole long
+ * range, in under 8 KB of counters. Recording is a few atomic adds and never allocates or
+ * locks; percentiles are computed on read.
+ */
+public final class LatencyHistogram {
+    private static final int SUB_BITS = 4;
+    private static final int SUB = 1 << SUB_BITS;
+    private static final int BUCKETS = (64 - SUB_BITS) * SUB; // up to Long.MAX_VALUE (bit 62)
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    /** Values read at one moment; percentiles are bucket upper bounds, capped at the max. */
+    public record Snapshot(long count, long sumNs, long maxNs, long p50Ns, long p90Ns, long p99Ns, long p999Ns) {
+        public long meanNs() {
+            return count == 0 ? 0L : sumNs / count;
+        }
+    }
+
+    LatencyHistogram() {}
+
+    public void record(long nanos) {
+        if (nanos < 0) nanos = 0;
+        counts.incrementAndGet(index(nanos));
+        sum.add(nanos);
+        long m = max.get();
+        while (nanos > m && !max.compareAndSet(m, nanos)) m = max.get();
+    }
+
+    /** Records the time since {@code startNs} (a {@link System#nanoTime()} reading). */
+    public void recordSince(long startNs) {
+        record(System.nanoTime() - startNs);
+    }
+
+    public Snapshot snapshot() {
+        long[] c = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) total += c[i] = counts.get(i);
+        long maxNs = max.get();
+        return new Snapshot(total, sum.sum(), maxNs,
+                percentile(c, total, 0.5, maxNs), percentile(c, total, 0.9, maxNs),
+                percentile(c, total, 0.99, maxNs), percentile(c, total, 0.999, maxNs));
+    }
+
+    private static long percentile(long[] c, long total, double q, long maxNs) {
+        if (total == 0) return 0L;
+        long rank = Math.max(1L, (long) Math.ceil(q * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += c[i];
+            if (seen >= rank) return Math.min(maxNs, i + 1 < BUCKETS ? lowerBound(i + 1) - 1 : Long.MAX_VALUE);
+        }
+        return maxNs;
+    }
+
+    // 0..15 map to themselves; above that, the power of two picks the row and the next 4 bits the column
+    static int index(long v) {
+        if (v < SUB) return (int) v;
+        int shift = 63 - Long.numberOfLeadingZeros(v) - SUB_BITS;
+        return (shift + 1) * SUB + (int) ((v >>> shift) & (SUB - 1));
+    }
+
+    static long lowerBound(int index) {
+        if (index < SUB) return index;
+        int shift = index / SUB - 1;
+        return (long) (SUB + index % SUB) << shift;
+    }
+}
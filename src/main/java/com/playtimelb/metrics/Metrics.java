@@ -0,0 +1,66 @@
+package com.playtimelb.metrics;
+
+import com.playtimelb.PlaytimeLeaderboardMod;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.LongSupplier;
+
+/**
+ * The mod's own counters, gauges and latency histograms, by dotted name ({@code store.save},
+ * {@code influx.request}, {@code command.top}, ...). Metrics are created on first use and live for
+ * the JVM; callers keep the returned instance in a static field so the hot path is just the
+ * record/increment. Read by {@code /playtime stats}, the self-monitoring export and JMX.
+ */
+public final class Metrics {
+    private static final NavigableMap<String, Counter> COUNTERS = new ConcurrentSkipListMap<>();
+    private static final NavigableMap<String, LatencyHistogram> HISTOGRAMS = new ConcurrentSkipListMap<>();
+    private static final NavigableMap<String, LongSupplier> GAUGES = new ConcurrentSkipListMap<>();
+
+    private static final String JMX_NAME = "com.playtimelb:type=Metrics";
+
+    private Metrics() {}
+
+    public static Counter counter(String name) {
+        return COUNTERS.computeIfAbsent(name, k -> new Counter());
+    }
+
+    public static LatencyHistogram histogram(String name) {
+        return HISTOGRAMS.computeIfAbsent(name, k -> new LatencyHistogram());
+    }
+
+    /** A value read when the metrics are (e.g. a queue length); re-registering replaces it. */
+    public static void gauge(String name, LongSupplier value) {
+        GAUGES.put(name, value);
+    }
+
+    public static Map<String, Counter> counters() {
+        return Collections.unmodifiableMap(COUNTERS);
+    }
+
+    public static Map<String, LatencyHistogram> histograms() {
+        return Collections.unmodifiableMap(HISTOGRAMS);
+    }
+
+    public static Map<String, LongSupplier> gauges() {
+        return Collections.unmodifiableMap(GAUGES);
+    }
+
+    /** Registers (or removes) the {@value #JMX_NAME} MBean on the platform MBean server. */
+    public static synchronized void setJmxEnabled(boolean enabled) {
+        try {
+            MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(JMX_NAME);
+            boolean registered = mbs.isRegistered(name);
+            if (enabled && !registered) mbs.registerMBean(new MetricsMBean(), name);
+            else if (!enabled && registered) mbs.unregisterMBean(name);
+        } catch (Exception e) {
+            PlaytimeLeaderboardMod.LOGGER.warn("[PlaytimeLB] could not {} the JMX metrics bean", enabled ? "register" : "remove", e);
+        }
+    }
+}
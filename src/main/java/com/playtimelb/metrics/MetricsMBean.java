@@ -0,0 +1,86 @@
+package com.playtimelb.metrics;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanException;
+import javax.management.MBeanInfo;
+import javax.management.ReflectionException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.LongSupplier;
+
+/**
+ * Read-only view of {@link Metrics} for JMX: one long attribute per counter and gauge, and
+ * {@code <name>.count/.meanMicros/.p50Micros/.p99Micros/.maxMicros} per histogram. The attribute
+ * list is rebuilt on every {@link #getMBeanInfo()}, so metrics created later show up too.
+ */
+final class MetricsMBean implements DynamicMBean {
+    private static final String[] HISTOGRAM_FIELDS = {"count", "meanMicros", "p50Micros", "p99Micros", "maxMicros"};
+
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        Counter c = Metrics.counters().get(attribute);
+        if (c != null) return c.get();
+        LongSupplier g = Metrics.gauges().get(attribute);
+        if (g != null) return g.getAsLong();
+        int dot = attribute.lastIndexOf('.');
+        LatencyHistogram h = dot < 0 ? null : Metrics.histograms().get(attribute.substring(0, dot));
+        if (h == null) throw new AttributeNotFoundException(attribute);
+        LatencyHistogram.Snapshot s = h.snapshot();
+        return switch (attribute.substring(dot + 1)) {
+            case "count" -> s.count();
+            case "meanMicros" -> s.meanNs() / 1000L;
+            case "p50Micros" -> s.p50Ns() / 1000L;
+            case "p99Micros" -> s.p99Ns() / 1000L;
+            case "maxMicros" -> s.maxNs() / 1000L;
+            default -> throw new AttributeNotFoundException(attribute);
+        };
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+        AttributeList out = new AttributeList();
+        for (String a : attributes) {
+            try {
+                out.add(new Attribute(a, getAttribute(a)));
+            } catch (AttributeNotFoundException ignored) {
+                // per the DynamicMBean contract, unknown attributes are left out
+            }
+        }
+        return out;
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        List<MBeanAttributeInfo> attrs = new ArrayList<>();
+        for (String name : Metrics.counters().keySet()) attrs.add(attribute(name, "counter"));
+        for (String name : Metrics.gauges().keySet()) attrs.add(attribute(name, "gauge"));
+        for (String name : Metrics.histograms().keySet()) {
+            for (String f : HISTOGRAM_FIELDS) attrs.add(attribute(name + "." + f, "latency histogram"));
+        }
+        return new MBeanInfo(getClass().getName(), "Playtime Leaderboard metrics",
+                attrs.toArray(new MBeanAttributeInfo[0]), null, null, null);
+    }
+
+    private static MBeanAttributeInfo attribute(String name, String kind) {
+        return new MBeanAttributeInfo(name, "long", kind, true, false, false);
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException(attribute.getName() + " is read-only");
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) throws MBeanException, ReflectionException {
+        throw new ReflectionException(new NoSuchMethodException(actionName));
+    }
+}
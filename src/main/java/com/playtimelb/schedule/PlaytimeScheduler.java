@@ -0,0 +1,167 @@
+package com.playtimelb.schedule;
+
+import com.playtimelb.PlaytimeLeaderboardMod;
+import com.playtimelb.config.ModConfig;
+import com.playtimelb.export.Exporters;
+import com.playtimelb.metrics.Counter;
+import com.playtimelb.metrics.LatencyHistogram;
+import com.playtimelb.metrics.Metrics;
+import com.playtimelb.store.PlaytimeStore;
+import net.minecraft.server.MinecraftServer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+
+/**
+ * Runs the periodic store and export jobs on their own threads, on wall-clock time rather than
+ * server ticks, so a lagging server neither stretches the intervals nor pays for the work in its
+ * tick.
+ *
+ * Each job keeps a fixed-rate schedule anchored at its start, plus a small random delay per run so
+ * jobs (and servers sharing a network) don't fire in lockstep. A job never overlaps itself: a run
+ * that overruns its interval makes the slots it covered be skipped, not queued. Intervals are read
+ * from the config when each run is planned, so edits apply from the next run on.
+ */
+public class PlaytimeScheduler {
+    private static final double JITTER = 0.1; // up to 10% of the interval, capped below
+    private static final long MAX_JITTER_NS = TimeUnit.SECONDS.toNanos(5);
+
+    private static ScheduledThreadPoolExecutor executor;
+    private static final List<Job> jobs = new ArrayList<>();
+
+    private static final class Job implements Runnable {
+        interface Task {
+            void run() throws Exception;
+        }
+
+        final String name;
+        final LongSupplier intervalNs;
+        final Task task;
+        final LatencyHistogram runTime;
+        final Counter skipped, failed;
+        long plannedNs;        // scheduled slot of the current/next run, without jitter
+        ScheduledFuture<?> next;
+        boolean running;       // guarded by PlaytimeScheduler.class
+
+        Job(String name, LongSupplier intervalNs, Task task) {
+            this.name = name;
+            this.intervalNs = intervalNs;
+            this.task = task;
+            String key = "job." + name.replace(' ', '_');
+            this.runTime = Metrics.histogram(key);
+            this.skipped = Metrics.counter(key + "_skipped");
+            this.failed = Metrics.counter(key + "_failed");
+        }
+
+        @Override
+        public void run() {
+            synchronized (PlaytimeScheduler.class) {
+                if (executor == null || running) return;
+                running = true;
+            }
+            long t0 = System.nanoTime();
+            try {
+                task.run();
+            } catch (Exception e) {
+                failed.inc();
+                PlaytimeLeaderboardMod.LOGGER.error("[PlaytimeLB] scheduled {} failed", name, e);
+            } finally {
+                runTime.recordSince(t0);
+                synchronized (PlaytimeScheduler.class) {
+                    running = false;
+                    PlaytimeScheduler.class.notifyAll();
+                    if (executor != null) planNext(this, System.nanoTime(), t0);
+                }
+            }
+        }
+    }
+
+    /** Starts the jobs for {@code server}; they run until {@link #stop}. */
+    public static synchronized void start(MinecraftServer server) {
+        if (executor != null) stop(0L);
+        AtomicInteger n = new AtomicInteger();
+        executor = new ScheduledThreadPoolExecutor(2, r -> {
+            Thread t = new Thread(r, "PlaytimeLB-scheduler-" + n.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        executor.setRemoveOnCancelPolicy(true);
+
+        // periodic checkpoint so crashes won't lose much
+        add(new Job("checkpoint", () -> TimeUnit.SECONDS.toNanos(ModConfig.checkpointSeconds.get()),
+                () -> PlaytimeStore.checkpoint(server)));
+        add(new Job("export", () -> TimeUnit.MINUTES.toNanos(ModConfig.autoExportMinutes.get()), () -> {
+            if (ModConfig.autoExportEnabled.get()) Exporters.exportTotals(server, false);
+        }));
+        add(new Job("cluster sync", () -> TimeUnit.SECONDS.toNanos(ModConfig.clusterIntervalSeconds.get()), () -> {
+            if (ModConfig.clusterEnabled.get()) PlaytimeStore.syncCluster(server);
+        }));
+        add(new Job("tiering", () -> TimeUnit.MINUTES.toNanos(ModConfig.tieringCheckMinutes.get()), () -> {
+            if (ModConfig.tieringEnabled.get()) PlaytimeStore.archiveInactive(server);
+        }));
+        add(new Job("metrics export", () -> TimeUnit.SECONDS.toNanos(ModConfig.metricsExportSeconds.get()), () -> {
+            if (ModConfig.metricsExportEnabled.get()) Exporters.exportMetrics();
+        }));
+    }
+
+    private static void add(Job job) {
+        jobs.add(job);
+        long now = System.nanoTime();
+        job.plannedNs = now + job.intervalNs.getAsLong();
+        job.next = executor.schedule(job, job.plannedNs - now + jitter(job), TimeUnit.NANOSECONDS);
+    }
+
+    // called with the class lock held, after a run that started at startedNs
+    private static void planNext(Job job, long now, long startedNs) {
+        long interval = Math.max(1L, job.intervalNs.getAsLong());
+        long next = job.plannedNs + interval;
+        if (next <= now) {
+            long missed = (now - next) / interval + 1;
+            next += missed * interval;
+            job.skipped.add(missed);
+            PlaytimeLeaderboardMod.LOGGER.warn("[PlaytimeLB] scheduled {} took {} ms, skipping {} run(s)",
+                    job.name, (now - startedNs) / 1_000_000L, missed);
+        }
+        job.plannedNs = next;
+        job.next = executor.schedule(job, next - now + jitter(job), TimeUnit.NANOSECONDS);
+    }
+
+    private static long jitter(Job job) {
+        long max = Math.min(MAX_JITTER_NS, (long) (job.intervalNs.getAsLong() * JITTER));
+        return max <= 0 ? 0L : ThreadLocalRandom.current().nextLong(max);
+    }
+
+    /**
+     * Cancels pending runs and waits up to {@code timeoutMs} for running ones to finish, so the
+     * final checkpoint on shutdown doesn't race a scheduled one.
+     */
+    public static synchronized void stop(long timeoutMs) {
+        if (executor == null) return;
+        ScheduledThreadPoolExecutor ex = executor;
+        executor = null;
+        for (Job job : jobs) {
+            if (job.next != null) job.next.cancel(false);
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        try {
+            while (jobs.stream().anyMatch(j -> j.running)) {
+                long left = deadline - System.nanoTime();
+                if (left <= 0) {
+                    PlaytimeLeaderboardMod.LOGGER.warn("[PlaytimeLB] scheduled jobs still running at shutdown");
+                    break;
+                }
+                TimeUnit.NANOSECONDS.timedWait(PlaytimeScheduler.class, left);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        jobs.clear();
+        ex.shutdown();
+    }
+}
@@ -0,0 +1,163 @@
+package com.playtimelb.session;
+
+import com.playtimelb.PlaytimeLeaderboardMod;
+import com.playtimelb.config.ModConfig;
+import com.playtimelb.metrics.Counter;
+import com.playtimelb.metrics.LatencyHistogram;
+import com.playtimelb.metrics.Metrics;
+import com.playtimelb.store.PlaytimeStore;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.level.ServerPlayer;
+import net.minecraftforge.event.TickEvent;
+import net.minecraftforge.event.entity.player.PlayerEvent;
+import net.minecraftforge.event.server.ServerStoppingEvent;
+import net.minecraftforge.eventbus.api.SubscribeEvent;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tells idle players from active ones, so AFK time stays out of the leaderboards.
+ *
+ * Each online player is sampled once every {@code sampleTicks} ticks, in a fixed slice: tick t
+ * looks at players t, t + sampleTicks, ... of the list, so a tick costs online / sampleTicks cheap
+ * comparisons however many are online. A sample counts as activity if the player acted (the
+ * server's own last-action time moved: chat, clicks, movement input), turned their head, or moved
+ * while neither riding nor in water (both move an AFK player for them). After {@code idleSeconds}
+ * without activity the player is reported idle to the store as of their last activity, which
+ * leaves the whole stretch out of their totals until the next activity. Server thread only.
+ */
+public class ActivityTracker {
+    private static final double MOVE_EPSILON_SQ = 0.01; // 0.1 blocks
+
+    private static final LatencyHistogram TICK_TIME = Metrics.histogram("afk.tick");
+    private static final Counter IDLE_STARTED = Metrics.counter("afk.idle_started");
+
+    private static final class Tracked {
+        final ServerPlayer player;
+        final UUID uuid;
+        int index;          // position in the list
+        double x, y, z;
+        float yRot, xRot;
+        long lastAction;
+        long lastActiveNs;
+        boolean idle;
+
+        Tracked(ServerPlayer player, long nowNs) {
+            this.player = player;
+            this.uuid = player.getUUID();
+            this.lastActiveNs = nowNs;
+            remember();
+        }
+
+        void remember() {
+            x = player.getX();
+            y = player.getY();
+            z = player.getZ();
+            yRot = player.getYRot();
+            xRot = player.getXRot();
+            lastAction = player.getLastActionTime();
+        }
+    }
+
+    private final List<Tracked> tracked = new ArrayList<>();
+    private final Map<UUID, Tracked> byUuid = new HashMap<>();
+    private int idleCount = 0;
+    private long tick = 0L;
+
+    @SubscribeEvent
+    public void onLogin(PlayerEvent.PlayerLoggedInEvent e) {
+        if (!(e.getEntity() instanceof ServerPlayer sp)) return;
+        remove(sp.getUUID());
+        Tracked t = new Tracked(sp, epochNowNs());
+        t.index = tracked.size();
+        tracked.add(t);
+        byUuid.put(t.uuid, t);
+    }
+
+    @SubscribeEvent
+    public void onLogout(PlayerEvent.PlayerLoggedOutEvent e) {
+        // the store closes an idle stretch with the session
+        if (e.getEntity() instanceof ServerPlayer sp) remove(sp.getUUID());
+    }
+
+    @SubscribeEvent
+    public void onServerStopping(ServerStoppingEvent e) {
+        tracked.clear();
+        byUuid.clear();
+        idleCount = 0;
+    }
+
+    @SubscribeEvent
+    public void onServerTick(TickEvent.ServerTickEvent e) {
+        if (e.phase != TickEvent.Phase.END || tracked.isEmpty()) return;
+        MinecraftServer server = e.getServer();
+        if (!ModConfig.afkEnabled.get()) {
+            if (idleCount > 0) resumeAll(server);
+            return;
+        }
+        long t0 = System.nanoTime();
+        long nowNs = epochNowNs();
+        long idleAfterNs = TimeUnit.SECONDS.toNanos(ModConfig.afkIdleSeconds.get());
+        int every = ModConfig.afkSampleTicks.get();
+        for (int i = (int) (tick++ % every); i < tracked.size(); i += every) sample(server, tracked.get(i), nowNs, idleAfterNs);
+        TICK_TIME.recordSince(t0);
+    }
+
+    private void sample(MinecraftServer server, Tracked t, long nowNs, long idleAfterNs) {
+        ServerPlayer p = t.player;
+        boolean acted = p.getLastActionTime() != t.lastAction || p.getYRot() != t.yRot || p.getXRot() != t.xRot;
+        if (!acted && !p.isPassenger() && !p.isInWater()) {
+            double dx = p.getX() - t.x, dy = p.getY() - t.y, dz = p.getZ() - t.z;
+            acted = dx * dx + dy * dy + dz * dz > MOVE_EPSILON_SQ;
+        }
+        t.remember();
+        if (acted) {
+            t.lastActiveNs = nowNs;
+            if (t.idle) setIdle(server, t, false, nowNs);
+        } else if (!t.idle && nowNs - t.lastActiveNs >= idleAfterNs) {
+            IDLE_STARTED.inc();
+            setIdle(server, t, true, t.lastActiveNs); // the stretch began at the last activity
+        }
+    }
+
+    private void setIdle(MinecraftServer server, Tracked t, boolean idle, long nowNs) {
+        t.idle = idle;
+        idleCount += idle ? 1 : -1;
+        try {
+            PlaytimeStore.onIdle(server, t.uuid, idle, nowNs);
+        } catch (IOException ex) {
+            PlaytimeLeaderboardMod.LOGGER.error("[PlaytimeLB] store idle update failed", ex);
+        }
+    }
+
+    private void resumeAll(MinecraftServer server) {
+        long nowNs = epochNowNs();
+        for (Tracked t : tracked) {
+            t.lastActiveNs = nowNs;
+            if (t.idle) setIdle(server, t, false, nowNs);
+        }
+    }
+
+    private void remove(UUID uuid) {
+        Tracked t = byUuid.remove(uuid);
+        if (t == null) return;
+        if (t.idle) idleCount--;
+        Tracked last = tracked.remove(tracked.size() - 1);
+        if (last != t) {
+            last.index = t.index;
+            tracked.set(t.index, last);
+        }
+    }
+
+    private static long epochNowNs() {
+        Instant now = Instant.now();
+        return now.getEpochSecond() * 1_000_000_000L + now.getNano();
+    }
+}
@@ -2,12 +2,14 @@ package com.playtimelb.session;
 
 import com.playtimelb.PlaytimeLeaderboardMod;
 import com.playtimelb.config.ModConfig;
-import com.playtimelb.export.InfluxExporter;
+import com.playtimelb.export.Exporters;
+import com.playtimelb.schedule.PlaytimeScheduler;
 import com.playtimelb.store.PlaytimeStore;
 import net.minecraft.server.MinecraftServer;
 import net.minecraft.server.level.ServerPlayer;
 import net.minecraftforge.eventbus.api.SubscribeEvent;
 import net.minecraftforge.event.entity.player.PlayerEvent;
+import net.minecraftforge.event.server.ServerAboutToStartEvent;
 import net.minecraftforge.event.server.ServerStoppingEvent;
 import net.minecraftforge.server.ServerLifecycleHooks;
 
@@ -32,8 +34,8 @@ public class SessionTracker {
             PlaytimeLeaderboardMod.LOGGER.error("[PlaytimeLB] store login failed", ex);
         }
 
-        if (ModConfig.sessionEventsEnabled.get() && ModConfig.influxEnabled.get()) {
-            InfluxExporter.exportSessionEventAsync(id, name, "join", nowNs);
+        if (ModConfig.sessionEventsEnabled.get()) {
+            Exporters.sessionEvent(id, name, "join", nowNs);
         }
     }
 
@@ -46,23 +48,32 @@ public class SessionTracker {
         String name = sp.getGameProfile().getName();
         long endNs = epochNowNs();
 
-        long added = 0L;
+        long added = 0L, startNs = -1L;
         try {
+            startNs = PlaytimeStore.getSessionStart(server, id);
             added = PlaytimeStore.onLogout(server, id, name, endNs);
         } catch (IOException ex) {
             PlaytimeLeaderboardMod.LOGGER.error("[PlaytimeLB] store logout failed", ex);
         }
 
-        if (ModConfig.sessionEventsEnabled.get() && ModConfig.influxEnabled.get()) {
-            InfluxExporter.exportSessionEventAsync(id, name, "leave", endNs);
+        if (ModConfig.sessionEventsEnabled.get()) {
+            Exporters.sessionEvent(id, name, "leave", endNs);
             if (added >= 0) {
-                InfluxExporter.exportSessionSummaryAsync(id, name, endNs - added * 1_000_000_000L, endNs, added);
+                Exporters.sessionSummary(id, name, startNs >= 0 ? startNs : endNs - added * 1_000_000_000L, endNs, added);
             }
         }
     }
 
+    @SubscribeEvent
+    public void onServerAboutToStart(ServerAboutToStartEvent e) {
+        // read the store while the world loads; the first join would otherwise parse it inline
+        PlaytimeStore.preload(e.getServer());
+    }
+
     @SubscribeEvent
     public void onServerStopping(ServerStoppingEvent e) {
+        // let a running checkpoint/export finish and stop new ones before the final save
+        PlaytimeScheduler.stop(10_000L);
         var server = ServerLifecycleHooks.getCurrentServer();
         if (server == null) return;
         long endNs = epochNowNs();
@@ -70,16 +81,23 @@ public class SessionTracker {
         for (ServerPlayer sp : server.getPlayerList().getPlayers()) {
             UUID id = sp.getUUID();
             String name = sp.getGameProfile().getName();
-            long added = 0L;
-            try { added = PlaytimeStore.onLogout(server, id, name, endNs); } catch (IOException ex) {}
-            if (ModConfig.sessionEventsEnabled.get() && ModConfig.influxEnabled.get()) {
-                InfluxExporter.exportSessionEventAsync(id, name, "leave", endNs);
+            long added = 0L, startNs = -1L;
+            try {
+                startNs = PlaytimeStore.getSessionStart(server, id);
+                added = PlaytimeStore.onLogout(server, id, name, endNs);
+            } catch (IOException ex) {}
+            if (ModConfig.sessionEventsEnabled.get()) {
+                Exporters.sessionEvent(id, name, "leave", endNs);
                 if (added >= 0) {
-                    InfluxExporter.exportSessionSummaryAsync(id, name, endNs - added * 1_000_000_000L, endNs, added);
+                    Exporters.sessionSummary(id, name, startNs >= 0 ? startNs : endNs - added * 1_000_000_000L, endNs, added);
                 }
             }
         }
-        try { PlaytimeStore.checkpoint(server); } catch (IOException ex) {}
+        // push out the final leave events / summaries before the JVM goes away
+        Exporters.stop();
+        try { PlaytimeStore.shutdown(server); } catch (IOException ex) {
+            PlaytimeLeaderboardMod.LOGGER.error("[PlaytimeLB] store shutdown failed", ex);
+        }
     }
 
     private static long epochNowNs() {
@@ -0,0 +1,144 @@
+package com.playtimelb.store;
+
+import com.mojang.logging.LogUtils;
+import com.playtimelb.cluster.ClusterTransport;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.zip.CRC32;
+
+/**
+ * One node's side of the network counters: publishes this server's component through a
+ * {@link ClusterTransport} and merges everyone's into {@link GlobalCounters}. Each round runs on the
+ * persistence thread; a round still in flight makes the next one skip rather than queue up.
+ */
+final class ClusterSync {
+    private static final Logger LOGGER = LogUtils.getLogger();
+
+    private static final int BASE_MAGIC = 0x50544342; // "PTCB"
+
+    /**
+     * Totals folded away by resets, so this server's component (base + total) never goes down.
+     * {@code seq} is the journal sequence of the last reset folded in.
+     */
+    record Base(long seq, UuidLongMap values) {}
+
+    static Base readBase(Path p, boolean offHeap) throws IOException {
+        if (!Files.exists(p)) return new Base(0L, new UuidLongMap(16, offHeap));
+        ByteBuffer b = ByteBuffer.wrap(Files.readAllBytes(p));
+        if (b.capacity() < 20 || b.getInt() != BASE_MAGIC) throw new IOException(p + ": not a cluster base file");
+        CRC32 crc = new CRC32();
+        crc.update(b.array(), 0, b.capacity() - 4);
+        if ((int) crc.getValue() != b.getInt(b.capacity() - 4)) throw new IOException(p + ": checksum mismatch");
+        long seq = b.getLong();
+        int count = b.getInt();
+        if (count < 0 || 16 + count * 24L + 4 != b.capacity()) throw new IOException(p + ": bad record count");
+        UuidLongMap values = new UuidLongMap(count, offHeap);
+        for (int i = 0; i < count; i++) values.put(b.getLong(), b.getLong(), b.getLong());
+        return new Base(seq, values);
+    }
+
+    static void writeBase(Path p, Base base) throws IOException {
+        ByteBuffer b = ByteBuffer.allocate(16 + base.values().size() * 24 + 4);
+        b.putInt(BASE_MAGIC).putLong(base.seq()).putInt(base.values().size());
+        base.values().forEach((m, l, v) -> b.putLong(m).putLong(l).putLong(v));
+        CRC32 crc = new CRC32();
+        crc.update(b.array(), 0, b.position());
+        b.putInt((int) crc.getValue());
+        Path tmp = p.resolveSibling(p.getFileName() + ".tmp");
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            b.flip();
+            while (b.hasRemaining()) ch.write(b);
+            ch.force(true);
+        }
+        Files.move(tmp, p, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private final String serverId;
+    private final ClusterTransport transport;
+    private final int baseEvery;
+    private final GlobalCounters global = new GlobalCounters();
+    private final Map<String, Long> seen = new HashMap<>(); // persistence thread only
+    private long version = -1L;                             // persistence thread only; -1 = ask the transport
+    private int sinceBase = 0;
+    private volatile boolean needFull = true; // nothing published yet this run, or a publish failed
+    private CompletableFuture<Void> inFlight = CompletableFuture.completedFuture(null);
+
+    ClusterSync(String serverId, ClusterTransport transport, int baseEvery) {
+        this.serverId = serverId;
+        this.transport = transport;
+        this.baseEvery = Math.max(1, baseEvery);
+    }
+
+    String serverId() {
+        return serverId;
+    }
+
+    GlobalCounters global() {
+        return global;
+    }
+
+    boolean busy() {
+        return !inFlight.isDone();
+    }
+
+    /** Whether the next round must publish every player (a base) rather than the changed ones. */
+    boolean needsFull() {
+        return needFull || sinceBase >= baseEvery;
+    }
+
+    /**
+     * Publishes {@code own} (this server's counter values) and merges what the other servers
+     * published since the last round. Call from the store, with the values already copied.
+     */
+    CompletableFuture<Void> submit(UuidLongMap own, Map<UUID, String> names, boolean full) {
+        if (full) {
+            sinceBase = 0;
+            needFull = false;
+        } else {
+            sinceBase++;
+        }
+        inFlight = SnapshotWriter.run(() -> {
+            round(own, names, full);
+            return null;
+        });
+        return inFlight;
+    }
+
+    private void round(UuidLongMap own, Map<UUID, String> names, boolean full) {
+        try {
+            if (version < 0) version = transport.latestVersion(serverId);
+            byte[] payload = GlobalCounters.encode(own, names);
+            transport.publish(serverId, version + 1, full, payload);
+            version++;
+            global.apply(serverId, payload);
+        } catch (Exception e) {
+            // the changes were taken out of the store's pending set: resend everything next time
+            needFull = true;
+            LOGGER.warn("[PlaytimeLB] cluster publish as '{}' failed", serverId, e);
+        }
+        try {
+            int[] merged = {0};
+            transport.poll(serverId, seen, (id, v, base, bytes) -> {
+                try {
+                    merged[0] += global.apply(id, bytes);
+                } catch (IOException e) {
+                    LOGGER.warn("[PlaytimeLB] skipping cluster payload {} of '{}': {}", v, id, e.getMessage());
+                }
+            });
+            if (merged[0] > 0) LOGGER.debug("[PlaytimeLB] cluster merge raised {} players' totals", merged[0]);
+        } catch (Exception e) {
+            LOGGER.warn("[PlaytimeLB] cluster poll failed", e);
+        }
+    }
+}
@@ -0,0 +1,472 @@
+package com.playtimelb.store;
+
+import com.mojang.logging.LogUtils;
+import com.playtimelb.metrics.Counter;
+import com.playtimelb.metrics.Metrics;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.zip.CRC32;
+
+/**
+ * Read-only archive of long-inactive players (the cold tier), {@code world/playtimelb-cold-<gen>.bin}.
+ *
+ * Players moved here leave the in-memory tables and the snapshot, so those follow the active
+ * population. The file is memory-mapped and never modified: a tiering run writes the next
+ * generation and the store switches over, so no file is ever renamed over while mapped. Lookups
+ * binary-search the mapping (by UUID, leaderboard position or lowercase name) and keep recent
+ * results in a small LRU cache; leaderboard walks read the rank order directly.
+ *
+ * Layout, big-endian:
+ * <pre>
+ *   header   magic "PTCD", version, #players, #named, string bytes, reserved, written (epoch s)
+ *   players  #players x (msb, lsb, total s, idle s, last seen epoch s, offset << 32 | length), by UUID
+ *   byRank   #players x int player index, leaderboard order
+ *   byName   #named x int player index, by lowercase name
+ *   strings  UTF-8 names
+ *   crc32    of everything above
+ * </pre>
+ * Immutable once open; any number of threads may read it.
+ */
+final class ColdArchive {
+    private static final Logger LOGGER = LogUtils.getLogger();
+
+    private static final String PREFIX = "playtimelb-cold-";
+    private static final String SUFFIX = ".bin";
+    private static final int MAGIC = 0x50544344; // "PTCD"
+    private static final int VERSION = 1;
+    private static final int HEADER = 32;
+    private static final int RECORD = 48;
+
+    private static final Counter CACHE_MISSES = Metrics.counter("store.cold_cache_miss");
+
+    static final ColdArchive EMPTY = new ColdArchive(0, ByteBuffer.allocate(HEADER), 0, 0, 0);
+
+    /** A cold player's record; {@code name} may be null. */
+    record Entry(long total, long idle, long lastSeen, String name) {}
+
+    private static final Entry MISSING = new Entry(0L, 0L, 0L, null);
+
+    private final int generation;
+    private final ByteBuffer b;
+    private final int count, named;
+    private final int rankOff, nameOff, strings;
+    private final Map<UUID, Entry> byUuid;   // LRU, guarded by itself
+    private final Map<String, UUID> byName;  // LRU, guarded by itself
+
+    private ColdArchive(int generation, ByteBuffer b, int count, int named, int cacheSize) {
+        this.generation = generation;
+        this.b = b;
+        this.count = count;
+        this.named = named;
+        this.rankOff = HEADER + count * RECORD;
+        this.nameOff = rankOff + count * Integer.BYTES;
+        this.strings = nameOff + named * Integer.BYTES;
+        this.byUuid = lru(cacheSize);
+        this.byName = lru(cacheSize);
+    }
+
+    private static <K, V> Map<K, V> lru(int capacity) {
+        return new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    static Path file(Path dir, int generation) {
+        return dir.resolve(PREFIX + generation + SUFFIX);
+    }
+
+    int size() {
+        return count;
+    }
+
+    int generation() {
+        return generation;
+    }
+
+    // ==== Reads ====
+
+    /** The player's record, or null if they aren't in the archive. */
+    Entry find(long m, long l) {
+        if (count == 0) return null;
+        UUID key = new UUID(m, l);
+        Entry e;
+        synchronized (byUuid) {
+            e = byUuid.get(key);
+        }
+        if (e == null) {
+            CACHE_MISSES.inc();
+            int i = indexOf(m, l);
+            e = i < 0 ? MISSING : entry(i);
+            synchronized (byUuid) {
+                byUuid.put(key, e);
+            }
+        }
+        return e == MISSING ? null : e;
+    }
+
+    /** Like {@link #find} != null, without touching the cache (bulk checks). */
+    boolean contains(long m, long l) {
+        return count > 0 && indexOf(m, l) >= 0;
+    }
+
+    /** Player at 0-based leaderboard position {@code rank} of the archive, as (uuid, total). */
+    RankedEntry ranked(int rank) {
+        int p = rec(b.getInt(rankOff + rank * Integer.BYTES));
+        return new RankedEntry(new UUID(b.getLong(p), b.getLong(p + 8)), b.getLong(p + 16));
+    }
+
+    /** Number of archived players that rank strictly ahead of (secs, uuid). */
+    int countAhead(long secs, long m, long l) {
+        int lo = 0, hi = count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            int p = rec(b.getInt(rankOff + mid * Integer.BYTES));
+            if (RankIndex.compare(b.getLong(p + 16), b.getLong(p), b.getLong(p + 8), secs, m, l) < 0) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    /** Most recently seen archived player with this name (case-insensitive), or null. */
+    UUID lookupName(String name) {
+        if (named == 0) return null;
+        String key = name.toLowerCase(Locale.ROOT);
+        synchronized (byName) {
+            UUID cached = byName.get(key);
+            if (cached != null || byName.containsKey(key)) return cached;
+        }
+        CACHE_MISSES.inc();
+        UUID best = null;
+        long bestSeen = Long.MIN_VALUE;
+        for (int i = lowerBound(key); i < named; i++) {
+            int p = rec(b.getInt(nameOff + i * Integer.BYTES));
+            if (!name(p).toLowerCase(Locale.ROOT).equals(key)) break;
+            if (b.getLong(p + 32) > bestSeen) {
+                bestSeen = b.getLong(p + 32);
+                best = new UUID(b.getLong(p), b.getLong(p + 8));
+            }
+        }
+        synchronized (byName) {
+            byName.put(key, best);
+        }
+        return best;
+    }
+
+    /** Adds up to {@code limit} archived names starting with {@code prefix}, alphabetically, skipping {@code skip}. */
+    void complete(String prefix, int limit, UuidLongMap skip, List<String> out) {
+        String k = prefix.toLowerCase(Locale.ROOT);
+        String last = null;
+        int added = 0;
+        for (int i = lowerBound(k); i < named && added < limit; i++) {
+            int p = rec(b.getInt(nameOff + i * Integer.BYTES));
+            String name = name(p);
+            String lower = name.toLowerCase(Locale.ROOT);
+            if (!lower.startsWith(k)) break;
+            if (lower.equals(last) || skip.containsKey(b.getLong(p), b.getLong(p + 8))) continue;
+            last = lower;
+            out.add(name);
+            added++;
+        }
+    }
+
+    interface Visitor {
+        void accept(long msb, long lsb, Entry entry);
+    }
+
+    /** Every archived player, in UUID order. */
+    void forEach(Visitor visitor) {
+        for (int i = 0; i < count; i++) visitor.accept(b.getLong(rec(i)), b.getLong(rec(i) + 8), entry(i));
+    }
+
+    /** Totals of archived players {@code from} until {@code to} (positions in UUID order); names aren't decoded. */
+    void forEachTotal(int from, int to, TotalsVisitor visitor) {
+        for (int i = Math.max(0, from), end = Math.min(count, to); i < end; i++) {
+            int p = rec(i);
+            visitor.visit(b.getLong(p), b.getLong(p + 8), b.getLong(p + 16), b.getLong(p + 24));
+        }
+    }
+
+    private static int rec(int i) {
+        return HEADER + i * RECORD;
+    }
+
+    private int indexOf(long m, long l) {
+        int lo = 0, hi = count - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int p = rec(mid);
+            int c = compareUuid(b.getLong(p), b.getLong(p + 8), m, l);
+            if (c < 0) lo = mid + 1;
+            else if (c > 0) hi = mid - 1;
+            else return mid;
+        }
+        return -1;
+    }
+
+    // first byName position whose lowercase name is >= key
+    private int lowerBound(String key) {
+        int lo = 0, hi = named;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (name(rec(b.getInt(nameOff + mid * Integer.BYTES))).toLowerCase(Locale.ROOT).compareTo(key) < 0) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    private Entry entry(int i) {
+        int p = rec(i);
+        return new Entry(b.getLong(p + 16), b.getLong(p + 24), b.getLong(p + 32), name(p));
+    }
+
+    private String name(int p) {
+        long ref = b.getLong(p + 40);
+        int len = (int) ref;
+        if (len == 0) return null;
+        byte[] bytes = new byte[len];
+        b.get(strings + (int) (ref >>> 32), bytes, 0, len);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int compareUuid(long m1, long l1, long m2, long l2) {
+        return m1 != m2 ? Long.compare(m1, m2) : Long.compare(l1, l2);
+    }
+
+    // ==== Files ====
+
+    /** Opens the newest generation in {@code dir}, or returns {@link #EMPTY} if there is none. */
+    static ColdArchive open(Path dir, int cacheSize) throws IOException {
+        int newest = -1;
+        for (int gen : generations(dir)) newest = Math.max(newest, gen);
+        return newest < 0 ? EMPTY : open(file(dir, newest), newest, cacheSize);
+    }
+
+    private static ColdArchive open(Path p, int generation, int cacheSize) throws IOException {
+        try (FileChannel ch = FileChannel.open(p, StandardOpenOption.READ)) {
+            long size = ch.size();
+            if (size < HEADER + 4 || size > Integer.MAX_VALUE) throw new IOException(p + ": bad cold archive size " + size);
+            ByteBuffer b = ch.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            int end = (int) size - 4;
+            if (b.getInt(0) != MAGIC) throw new IOException(p + ": not a cold archive");
+            if (b.getInt(4) != VERSION) throw new IOException(p + ": unsupported cold archive version " + b.getInt(4));
+            CRC32 crc = new CRC32();
+            crc.update(b.duplicate().position(0).limit(end));
+            if ((int) crc.getValue() != b.getInt(end)) throw new IOException(p + ": checksum mismatch");
+            int count = b.getInt(8), named = b.getInt(12), stringBytes = b.getInt(16);
+            if (count < 0 || named < 0 || named > count || stringBytes < 0
+                    || HEADER + (long) count * (RECORD + Integer.BYTES) + (long) named * Integer.BYTES + stringBytes != end) {
+                throw new IOException(p + ": bad record counts");
+            }
+            return new ColdArchive(generation, b, count, named, cacheSize);
+        }
+    }
+
+    private static List<Integer> generations(Path dir) throws IOException {
+        List<Integer> out = new ArrayList<>();
+        if (!Files.isDirectory(dir)) return out;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, PREFIX + "*" + SUFFIX)) {
+            for (Path f : files) {
+                String n = f.getFileName().toString();
+                try {
+                    out.add(Integer.parseInt(n.substring(PREFIX.length(), n.length() - SUFFIX.length())));
+                } catch (NumberFormatException ignored) {}
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Deletes the generations other than {@code keep} (all of them if negative). Best effort: one
+     * still mapped somewhere can't be deleted on Windows and is retried next time.
+     */
+    static void deleteOthers(Path dir, int keep) {
+        try {
+            for (int gen : generations(dir)) {
+                if (gen == keep) continue;
+                try {
+                    Files.deleteIfExists(file(dir, gen));
+                } catch (IOException e) {
+                    LOGGER.debug("[PlaytimeLB] could not delete cold archive generation {} yet: {}", gen, e.toString());
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.warn("[PlaytimeLB] could not list cold archive files", e);
+        }
+    }
+
+    /**
+     * Writes generation {@code generation}: {@code old}'s players minus {@code drop} (and minus
+     * those in {@code add}), plus {@code add}. Streams from the old mapping; the full-size
+     * temporaries are a few ints per player. Returns the new archive, opened.
+     */
+    static ColdArchive write(Path dir, int generation, ColdArchive old, UuidLongMap drop, Map<UUID, Entry> add,
+                             int cacheSize) throws IOException {
+        // added players as arrays, in UUID order
+        int k = add.size();
+        UUID[] keys = add.keySet().toArray(new UUID[0]);
+        Arrays.sort(keys, (x, y) -> compareUuid(x.getMostSignificantBits(), x.getLeastSignificantBits(),
+                y.getMostSignificantBits(), y.getLeastSignificantBits()));
+        long[] am = new long[k], al = new long[k], total = new long[k];
+        Entry[] entries = new Entry[k];
+        byte[][] nameBytes = new byte[k][];
+        String[] lower = new String[k];
+        for (int i = 0; i < k; i++) {
+            am[i] = keys[i].getMostSignificantBits();
+            al[i] = keys[i].getLeastSignificantBits();
+            entries[i] = add.get(keys[i]);
+            total[i] = entries[i].total();
+            String name = entries[i].name();
+            nameBytes[i] = name == null ? new byte[0] : name.getBytes(StandardCharsets.UTF_8);
+            lower[i] = name == null || name.isEmpty() ? null : name.toLowerCase(Locale.ROOT);
+        }
+
+        // merged UUID order: >= 0 old index, < 0 -(added index + 1); an added player replaces its old record
+        int[] order = new int[old.count + k];
+        int[] oldToNew = new int[old.count];
+        int[] addToNew = new int[k];
+        int n = 0, a = 0;
+        for (int i = 0; i < old.count; i++) {
+            long m = old.b.getLong(rec(i)), l = old.b.getLong(rec(i) + 8);
+            int c = -1;
+            while (a < k && (c = compareUuid(am[a], al[a], m, l)) < 0) {
+                addToNew[a] = n;
+                order[n++] = -(a++ + 1);
+            }
+            oldToNew[i] = -1;
+            if (c == 0 && a < k || drop.containsKey(m, l)) continue;
+            oldToNew[i] = n;
+            order[n++] = i;
+        }
+        while (a < k) {
+            addToNew[a] = n;
+            order[n++] = -(a++ + 1);
+        }
+
+        int namedCount = 0;
+        long stringBytes = 0L;
+        for (int i = 0; i < n; i++) {
+            int len = order[i] >= 0 ? (int) old.b.getLong(rec(order[i]) + 40) : nameBytes[-order[i] - 1].length;
+            if (len > 0) namedCount++;
+            stringBytes += len;
+        }
+        if (HEADER + (long) n * (RECORD + 2 * Integer.BYTES) + stringBytes > Integer.MAX_VALUE - 4) {
+            throw new IOException("cold archive would exceed 2 GB");
+        }
+        Integer[] byRank = new Integer[k];
+        List<Integer> byName = new ArrayList<>();
+        for (int i = 0; i < k; i++) {
+            byRank[i] = i;
+            if (lower[i] != null) byName.add(i);
+        }
+        Arrays.sort(byRank, (x, y) -> RankIndex.compare(total[x], am[x], al[x], total[y], am[y], al[y]));
+        byName.sort((x, y) -> lower[x].compareTo(lower[y]));
+
+        Path target = file(dir, generation);
+        Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            StoreFormat.Out out = new StoreFormat.Out(ch);
+            out.ensure(HEADER);
+            out.buf.putInt(MAGIC).putInt(VERSION).putInt(n).putInt(namedCount).putInt((int) stringBytes).putInt(0)
+                    .putLong(Instant.now().getEpochSecond());
+
+            long off = 0L;
+            for (int i = 0; i < n; i++) {
+                out.ensure(RECORD);
+                int len;
+                if (order[i] >= 0) {
+                    int p = rec(order[i]);
+                    len = (int) old.b.getLong(p + 40);
+                    for (int j = 0; j < 40; j += 8) out.buf.putLong(old.b.getLong(p + j));
+                } else {
+                    int ai = -order[i] - 1;
+                    len = nameBytes[ai].length;
+                    out.buf.putLong(am[ai]).putLong(al[ai]).putLong(total[ai]).putLong(entries[ai].idle())
+                            .putLong(entries[ai].lastSeen());
+                }
+                out.buf.putLong(len == 0 ? 0L : off << 32 | len);
+                off += len;
+            }
+
+            // leaderboard order: the old one without the removed players, merged with the added ones
+            a = 0;
+            for (int r = 0; r < old.count; r++) {
+                int oi = old.b.getInt(old.rankOff + r * Integer.BYTES);
+                if (oldToNew[oi] < 0) continue;
+                int p = rec(oi);
+                long secs = old.b.getLong(p + 16), m = old.b.getLong(p), l = old.b.getLong(p + 8);
+                for (; a < k && RankIndex.compare(total[byRank[a]], am[byRank[a]], al[byRank[a]], secs, m, l) < 0; a++) {
+                    out.ensure(Integer.BYTES);
+                    out.buf.putInt(addToNew[byRank[a]]);
+                }
+                out.ensure(Integer.BYTES);
+                out.buf.putInt(oldToNew[oi]);
+            }
+            for (; a < k; a++) {
+                out.ensure(Integer.BYTES);
+                out.buf.putInt(addToNew[byRank[a]]);
+            }
+
+            // name order, same merge; players without a name aren't in it
+            a = 0;
+            for (int r = 0; r < old.named; r++) {
+                int oi = old.b.getInt(old.nameOff + r * Integer.BYTES);
+                if (oldToNew[oi] < 0) continue;
+                String key = old.name(rec(oi)).toLowerCase(Locale.ROOT);
+                for (; a < byName.size() && lower[byName.get(a)].compareTo(key) < 0; a++) {
+                    out.ensure(Integer.BYTES);
+                    out.buf.putInt(addToNew[byName.get(a)]);
+                }
+                out.ensure(Integer.BYTES);
+                out.buf.putInt(oldToNew[oi]);
+            }
+            for (; a < byName.size(); a++) {
+                out.ensure(Integer.BYTES);
+                out.buf.putInt(addToNew[byName.get(a)]);
+            }
+
+            for (int i = 0; i < n; i++) {
+                byte[] name;
+                if (order[i] >= 0) {
+                    long ref = old.b.getLong(rec(order[i]) + 40);
+                    name = new byte[(int) ref];
+                    if (name.length > 0) old.b.get(old.strings + (int) (ref >>> 32), name, 0, name.length);
+                } else {
+                    name = nameBytes[-order[i] - 1];
+                }
+                out.ensure(name.length);
+                out.buf.put(name);
+            }
+            out.flush();
+            out.buf.putInt((int) out.crc.getValue());
+            out.write();
+            ch.force(true);
+        }
+        try {
+            Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+        return open(target, generation, cacheSize);
+    }
+}
@@ -0,0 +1,107 @@
+package com.playtimelb.store;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.zip.CRC32;
+
+/**
+ * Network-wide playtime as a grow-only counter per player: one component per server, merged by
+ * taking the maximum, total = sum of the components. Merging a payload touches only the players in
+ * it and keeps the total and its {@link RankIndex} up to date, so the global ranking never needs a
+ * rescan. Thread-safe: the persistence thread merges while commands read.
+ */
+final class GlobalCounters {
+    private static final int MAGIC = 0x50544743; // "PTGC"
+
+    private final Map<String, UuidLongMap> perServer = new HashMap<>();
+    private final UuidLongMap total = new UuidLongMap();
+    private final RankIndex ranks = new RankIndex();
+    private final Map<UUID, String> names = new HashMap<>();
+
+    /** Merges one server's payload; returns how many players' totals went up. */
+    synchronized int apply(String serverId, byte[] payload) throws IOException {
+        ByteBuffer b = ByteBuffer.wrap(payload);
+        if (payload.length < 12 || b.getInt() != MAGIC) throw new IOException("not a counter payload from " + serverId);
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, payload.length - 4);
+        if ((int) crc.getValue() != b.getInt(payload.length - 4)) throw new IOException("corrupt counter payload from " + serverId);
+        UuidLongMap mine = perServer.computeIfAbsent(serverId, k -> new UuidLongMap());
+        int count = b.getInt();
+        int raised = 0;
+        byte[] scratch = new byte[64];
+        for (int i = 0; i < count; i++) {
+            long m = b.getLong(), l = b.getLong(), value = b.getLong();
+            int nameLen = b.getShort() & 0xFFFF;
+            if (nameLen > 0) {
+                if (nameLen > scratch.length) scratch = new byte[nameLen];
+                b.get(scratch, 0, nameLen);
+                names.put(new UUID(m, l), new String(scratch, 0, nameLen, StandardCharsets.UTF_8));
+            }
+            long old = mine.get(m, l, 0L);
+            if (value <= old) continue;
+            mine.put(m, l, value);
+            long before = total.get(m, l, -1L);
+            long after = total.addTo(m, l, value - old);
+            ranks.update(m, l, before >= 0, before, after);
+            raised++;
+        }
+        return raised;
+    }
+
+    /** Payload with this server's values for {@code values}' players and whatever names are known. */
+    static byte[] encode(UuidLongMap values, Map<UUID, String> names) {
+        int[] size = {8 + 4};
+        byte[][] nameBytes = new byte[values.size()][];
+        int[] k = {0};
+        values.forEach((m, l, v) -> {
+            String n = names.get(new UUID(m, l));
+            byte[] nb = n == null ? new byte[0] : n.getBytes(StandardCharsets.UTF_8);
+            if (nb.length > 0xFFFF) nb = new byte[0];
+            nameBytes[k[0]++] = nb;
+            size[0] += 26 + nb.length;
+        });
+        ByteBuffer b = ByteBuffer.allocate(size[0]);
+        b.putInt(MAGIC).putInt(values.size());
+        k[0] = 0;
+        values.forEach((m, l, v) -> {
+            byte[] nb = nameBytes[k[0]++];
+            b.putLong(m).putLong(l).putLong(v).putShort((short) nb.length).put(nb);
+        });
+        CRC32 crc = new CRC32();
+        crc.update(b.array(), 0, b.position());
+        b.putInt((int) crc.getValue());
+        return b.array();
+    }
+
+    synchronized List<RankedEntry> top(int limit) {
+        List<RankedEntry> out = new ArrayList<>(Math.min(limit, ranks.size()));
+        ranks.forEachRanked((m, l, secs) -> {
+            if (out.size() >= limit) return false;
+            out.add(new RankedEntry(new UUID(m, l), secs));
+            return true;
+        });
+        return out;
+    }
+
+    synchronized long total(UUID uuid) {
+        return total.get(uuid, 0L);
+    }
+
+    synchronized String name(UUID uuid) {
+        return names.get(uuid);
+    }
+
+    synchronized int serverCount() {
+        return perServer.size();
+    }
+
+    synchronized int playerCount() {
+        return total.size();
+    }
+}
@@ -0,0 +1,90 @@
+package com.playtimelb.store;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Function;
+
+/**
+ * Two replicas of a non-thread-safe structure, kept identical by applying every mutation to both
+ * (the Left-Right technique): readers never lock and never wait, the single writer never blocks
+ * a reader. A write goes to the replica nobody reads, readers are switched over to it, and once
+ * the last reader of the old replica has left, the write is repeated there.
+ *
+ * Mutations must therefore be deterministic (same op on equal replicas gives equal replicas), and
+ * {@link #write} / {@link #writerView} must only be called by one thread at a time (the store's
+ * lock). Readers register in per-thread-striped counters, so reads scale across cores; a read
+ * must not keep references into the replica after it returns.
+ */
+final class LeftRight<T> {
+    private static final int PAD = 16; // longs per stripe: 128 bytes, no false sharing between stripes
+    private static final int STRIPES;
+
+    static {
+        int n = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors()) * 2 - 1) << 1;
+        STRIPES = Math.min(64, n);
+    }
+
+    private final Object[] replicas = new Object[2];
+    private final AtomicLongArray[] readers = {
+            new AtomicLongArray(STRIPES * PAD), new AtomicLongArray(STRIPES * PAD)};
+    private volatile int readIndex = 0;    // replica readers use
+    private volatile int versionIndex = 0; // reader counters new readers register in
+
+    LeftRight(T first, T second) {
+        replicas[0] = first;
+        replicas[1] = second;
+    }
+
+    /** Runs {@code read} on the current replica; lock-free, but must not mutate it. */
+    @SuppressWarnings("unchecked")
+    <R> R read(Function<T, R> read) {
+        AtomicLongArray counter = readers[versionIndex];
+        int stripe = stripe();
+        counter.incrementAndGet(stripe);
+        try {
+            return read.apply((T) replicas[readIndex]);
+        } finally {
+            counter.decrementAndGet(stripe);
+        }
+    }
+
+    /** The writer's own view; valid until its next {@link #write}. Writer thread only. */
+    @SuppressWarnings("unchecked")
+    T writerView() {
+        return (T) replicas[readIndex];
+    }
+
+    /**
+     * Applies {@code op} to both replicas and returns its result (from the first application).
+     * Waits for readers still on the old replica, which are never blocked themselves.
+     */
+    @SuppressWarnings("unchecked")
+    <R> R write(Function<T, R> op) {
+        int current = readIndex;
+        R result = op.apply((T) replicas[1 - current]);
+        readIndex = 1 - current;
+        // readers that registered before the switch may still be on `current`: flip the counters
+        // new readers use, then wait for both sets to drain (the classic two-phase toggle)
+        int version = versionIndex;
+        awaitEmpty(readers[1 - version]);
+        versionIndex = 1 - version;
+        awaitEmpty(readers[version]);
+        op.apply((T) replicas[current]);
+        return result;
+    }
+
+    private static void awaitEmpty(AtomicLongArray counter) {
+        for (int i = 0; i < STRIPES; i++) {
+            int spins = 0;
+            while (counter.get(i * PAD) != 0) {
+                if (++spins < 100) Thread.onSpinWait();
+                else Thread.yield();
+            }
+        }
+    }
+
+    // a thread always uses the same stripe, so its arrive and depart can't cancel another reader's
+    private static int stripe() {
+        long id = Thread.currentThread().getId();
+        return (int) ((id * 0x9E3779B97F4A7C15L) >>> 58 & (STRIPES - 1)) * PAD;
+    }
+}
@@ -0,0 +1,123 @@
+package com.playtimelb.store;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+
+/**
+ * Case-insensitive name -> UUID index with prefix completion.
+ *
+ * Exact lookups hash the lowercased name; completion walks a sorted view of the same keys.
+ * A name can have had several owners over time (renames), so each key keeps its holders with the
+ * most recently seen first, and a rename away from a name falls back to the previous holder.
+ * Reads don't modify it, so any number of threads may read while nobody writes.
+ */
+class NameIndex {
+    private static final class Entry {
+        String display;                         // casing as last seen
+        final List<UUID> holders = new ArrayList<>(1); // most recent first
+    }
+
+    private final Map<String, Entry> exact = new HashMap<>();
+    private final TreeMap<String, Entry> sorted = new TreeMap<>();
+
+    private static String key(String name) {
+        return name.toLowerCase(Locale.ROOT);
+    }
+
+    void clear() {
+        exact.clear();
+        sorted.clear();
+    }
+
+    NameIndex copy() {
+        NameIndex c = new NameIndex();
+        c.sorted.putAll(sorted); // from a sorted map: a linear build, no compares
+        c.sorted.replaceAll((k, e) -> {
+            Entry ce = new Entry();
+            ce.display = e.display;
+            ce.holders.addAll(e.holders);
+            return ce;
+        });
+        c.exact.putAll(c.sorted);
+        return c;
+    }
+
+    /**
+     * Fills an empty index from uuid -> name (loading). Holders of a shared name are ordered by
+     * {@code lastSeen} (epoch s), most recent first, as logins would have left them; the sorted
+     * view gets the keys in order, which is much cheaper.
+     */
+    void putAll(Map<UUID, String> names, UuidLongMap lastSeen) {
+        names.forEach((uuid, name) -> exact.computeIfAbsent(key(name), k -> new Entry()).holders.add(uuid));
+        for (Entry e : exact.values()) {
+            if (e.holders.size() > 1) {
+                e.holders.sort((x, y) -> {
+                    long sx = lastSeen.get(x, Long.MIN_VALUE), sy = lastSeen.get(y, Long.MIN_VALUE);
+                    return sx != sy ? Long.compare(sy, sx) : x.compareTo(y);
+                });
+            }
+            e.display = names.get(e.holders.get(0));
+        }
+        String[] keys = exact.keySet().toArray(new String[0]);
+        Arrays.sort(keys);
+        for (String k : keys) sorted.put(k, exact.get(k));
+    }
+
+    /** Records that {@code uuid} now goes by {@code name} (previously {@code oldName}, may be null). */
+    void put(UUID uuid, String oldName, String name) {
+        String k = key(name);
+        if (oldName != null) {
+            String oldKey = key(oldName);
+            if (!oldKey.equals(k)) removeHolder(oldKey, uuid);
+        }
+        Entry e = exact.get(k);
+        if (e == null) {
+            e = new Entry();
+            exact.put(k, e);
+            sorted.put(k, e);
+        }
+        e.display = name;
+        if (e.holders.isEmpty() || !e.holders.get(0).equals(uuid)) {
+            e.holders.remove(uuid);
+            e.holders.add(0, uuid);
+        }
+    }
+
+    /** Forgets that {@code uuid} goes by {@code name}. */
+    void remove(UUID uuid, String name) {
+        removeHolder(key(name), uuid);
+    }
+
+    private void removeHolder(String k, UUID uuid) {
+        Entry e = exact.get(k);
+        if (e == null) return;
+        e.holders.remove(uuid);
+        if (e.holders.isEmpty()) {
+            exact.remove(k);
+            sorted.remove(k);
+        }
+    }
+
+    UUID lookup(String name) {
+        Entry e = exact.get(key(name));
+        return e == null ? null : e.holders.get(0);
+    }
+
+    /** Up to {@code limit} known names starting with {@code prefix}, in alphabetical order. */
+    List<String> complete(String prefix, int limit) {
+        String k = key(prefix);
+        List<String> out = new ArrayList<>(Math.min(limit, 16));
+        for (Entry e : sorted.tailMap(k, true).values()) {
+            if (out.size() >= limit) break;
+            if (!key(e.display).startsWith(k)) break;
+            out.add(e.display);
+        }
+        return out;
+    }
+}
@@ -0,0 +1,4 @@
+package com.playtimelb.store;
+
+/** Per-player active and idle seconds, for the same set of players. */
+public record PlayerTotals(UuidLongMap active, UuidLongMap idle) {}
@@ -1,170 +1,1402 @@
 package com.playtimelb.store;
 
-import com.google.gson.Gson;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
 import com.mojang.logging.LogUtils;
+import com.playtimelb.cluster.ClusterTransport;
+import com.playtimelb.cluster.DirectoryTransport;
+import com.playtimelb.config.ModConfig;
+import com.playtimelb.metrics.LatencyHistogram;
+import com.playtimelb.metrics.Metrics;
 import net.minecraft.server.MinecraftServer;
 import net.minecraft.world.level.storage.LevelResource;
 import org.slf4j.Logger;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
+import java.nio.channels.ClosedChannelException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 public class PlaytimeStore {
     private static final Logger LOGGER = LogUtils.getLogger();
-    private static final Gson GSON = new Gson();
-    private static final String FILE = "playtimelb-data.json";
+    private static final String SINGLE_FILE = "playtimelb-data.bin"; // the store before it was partitioned
+    private static final String LEGACY_JSON = "playtimelb-data.json";
+    private static final String DUMP_JSON = "playtimelb-dump.json";
+    private static final String JOURNAL_DIR = "playtimelb-journal";
+    private static final String HISTORY_DIR = "playtimelb-history";
+    private static final String CLUSTER_BASE = "playtimelb-cluster.bin";
 
-    // In-memory state (server thread)
-    private static Map<UUID, Long> totalsSec = new HashMap<>();   // total seconds
-    private static Map<UUID, Long> activeStartNs = new HashMap<>(); // session start time (ns)
-    private static Map<UUID, String> lastName = new HashMap<>();  // last seen name
-    private static boolean loaded = false;
-    private static boolean dirty = false;
+    private static final long NONE = Long.MIN_VALUE;
+    private static final int ARCHIVE_CHUNK = 1024; // players per lock hold / read when archiving
+    private static final int STREAM_CHUNK = 4096;  // players per read in streamTotals
 
-    private static Path filePath(MinecraftServer server) {
-        return server.getWorldPath(LevelResource.ROOT).resolve(FILE);
+    // time spent in each operation, for /playtime stats
+    private static final LatencyHistogram LOAD_TIME = Metrics.histogram("store.load");
+    private static final LatencyHistogram SAVE_TIME = Metrics.histogram("store.save");
+    private static final LatencyHistogram CHECKPOINT_TIME = Metrics.histogram("store.checkpoint");
+    private static final LatencyHistogram LOGIN_TIME = Metrics.histogram("store.login");
+    private static final LatencyHistogram LOGOUT_TIME = Metrics.histogram("store.logout");
+    private static final LatencyHistogram IDLE_TIME = Metrics.histogram("store.idle");
+    private static final LatencyHistogram BACKFILL_TIME = Metrics.histogram("store.backfill");
+    private static final LatencyHistogram ARCHIVE_TIME = Metrics.histogram("store.archive");
+    private static final LatencyHistogram EXPORT_DRAIN_TIME = Metrics.histogram("store.export_drain");
+    private static final LatencyHistogram STREAM_TIME = Metrics.histogram("store.stream_totals");
+    private static final LatencyHistogram CLUSTER_SYNC_TIME = Metrics.histogram("store.cluster_sync");
+    private static final LatencyHistogram TOTAL_TIME = Metrics.histogram("store.total");
+    private static final LatencyHistogram TOP_TIME = Metrics.histogram("store.top");
+    private static final LatencyHistogram WINDOW_TOP_TIME = Metrics.histogram("store.top_window");
+    private static final LatencyHistogram HISTORY_TIME = Metrics.histogram("store.history");
+    private static final LatencyHistogram RANK_TIME = Metrics.histogram("store.rank");
+    private static final LatencyHistogram LOOKUP_TIME = Metrics.histogram("store.lookup");
+
+    // Totals, sessions, names and rankings, twice: queries read one copy through tables.read without
+    // taking the lock; mutations hold the class lock (single writer) and go to both via tables.write
+    private static volatile LeftRight<StoreTables> tables = new LeftRight<>(StoreTables.empty(), StoreTables.empty());
+
+    static {
+        Metrics.gauge("store.players_hot", () -> tables.read(t -> (long) t.totals.size()));
+        Metrics.gauge("store.players_cold", () -> tables.read(t -> (long) t.coldSize()));
+    }
+
+    // Writer-only state (class lock)
+    private static UuidLongMap exportPending = new UuidLongMap(); // totals changed since the last export (set; value unused)
+    private static boolean exportFullPending = true;              // startup/reset: we don't know what Influx has
+    private static volatile boolean loaded = false;
+    private static volatile boolean dirty = false; // cleared at snapshot copy, re-set if the write fails
+    private static int partitions = 1;                          // store partitions on disk, from storage.partitions at load
+    private static UuidLongMap changedPlayers = new UuidLongMap(); // changed since the last snapshot copy (set)
+    private static volatile boolean rewriteAll = false;         // the next snapshot writes every partition (set by failed writes)
+    private static volatile long boardVersion = 0L; // bumped by anything that can change a leaderboard or its names
+    private static CompletableFuture<Boolean> lastSnapshot = CompletableFuture.completedFuture(true); // latest write, true if it landed
+
+    // Session events go to the journal; the snapshot only gets rewritten on checkpoint
+    private static SessionJournal journal;
+    private static long journalSeq = 0L; // last sequence number handed out / covered
+    private static volatile SessionHistory history; // finished sessions, for /playtime history (thread-safe)
+
+    // Network counters: this server's component is clusterBase + total (+ live session)
+    private static UuidLongMap clusterBase = new UuidLongMap();    // totals folded away by resets
+    private static long clusterBaseSeq = 0L;                        // last reset folded into clusterBase
+    private static UuidLongMap clusterPending = new UuidLongMap(); // totals changed since the last publish (set)
+    private static volatile ClusterSync cluster;                    // null = disabled
+    private static ClusterTransport clusterTransport;               // set by setClusterTransport, else the directory
+
+    // Cold tier: archiveInactive writes the next generation on the persistence thread
+    private static int coldGeneration = 0;
+    private static CompletableFuture<ColdArchive> coldWrite; // in flight, else null
+    private static long resets = 0L;                          // makes an archive started before a reset stale
+
+    private static Path worldDir; // set by load()
+
+    // the writer's copy of the tables; class lock held
+    private static StoreTables current() {
+        return tables.writerView();
+    }
+
+    // the published tables, loading the store first if needed (only that part takes the lock)
+    private static LeftRight<StoreTables> view(MinecraftServer server) throws IOException {
+        if (!loaded) {
+            synchronized (PlaytimeStore.class) {
+                ensureLoaded(server);
+            }
+        }
+        return tables;
+    }
+
+    private static Path dataDir() {
+        return worldDir.resolve(StorePartitions.DIR);
+    }
+
+    private static Path journalPath() {
+        return worldDir.resolve(JOURNAL_DIR);
     }
 
+    /** Both replicas of the tables as of the snapshot, and post-snapshot journal records, read off the server thread. */
+    private record Prepared(Path worldDir, long journalSeq, StoreTables tables, StoreTables replica, SessionHistory history,
+                            ClusterSync.Base clusterBase, List<JournalRecord> journal, int partitions, boolean rewrite,
+                            Path legacy, long readNanos) {}
+
+    private record JournalRecord(byte type, long seq, UUID uuid, long timeNs, String name) {}
+
+    private static CompletableFuture<Prepared> preloading; // started by preload(), consumed by ensureLoaded()
+    private static volatile boolean preloadPending = false;
+
     private static void ensureLoaded(MinecraftServer server) throws IOException {
         if (loaded) return;
+        if (preloading != null) {
+            installPreload();
+            return;
+        }
         load(server);
-        loaded = true;
     }
 
-    public static synchronized void load(MinecraftServer server) throws IOException {
-        totalsSec.clear(); activeStartNs.clear(); lastName.clear();
-        Path p = filePath(server);
-        if (!Files.exists(p)) return;
-        try (BufferedReader r = Files.newBufferedReader(p, StandardCharsets.UTF_8)) {
-            JsonObject root = GSON.fromJson(r, JsonObject.class);
-            if (root == null) return;
-            JsonObject totals = root.getAsJsonObject("totals_sec");
-            if (totals != null) {
-                for (var e : totals.entrySet()) {
-                    try { totalsSec.put(UUID.fromString(e.getKey()), e.getValue().getAsLong()); } catch (IllegalArgumentException ignored) {}
-                }
+    /**
+     * Starts reading the world's store on the persistence thread (so it also waits for any snapshot
+     * still being written for a previous world). The first store call afterwards waits for it
+     * instead of loading inline; otherwise it is installed as soon as it's ready.
+     */
+    public static synchronized CompletableFuture<Void> preload(MinecraftServer server) {
+        Path dir = server.getWorldPath(LevelResource.ROOT);
+        boolean offHeap = ModConfig.offHeapTables.get();
+        loaded = false;
+        preloading = SnapshotWriter.run(() -> prepare(dir, offHeap));
+        preloadPending = true;
+        // install as soon as it's read; off the persistence thread, which install may wait on
+        preloading.whenCompleteAsync((p, err) -> finishPreload());
+        return preloading.thenApply(p -> null);
+    }
+
+    /** Installs a finished preload, if there is one. */
+    public static void finishPreload() {
+        if (!preloadPending) return;
+        synchronized (PlaytimeStore.class) {
+            if (preloading == null || !preloading.isDone()) return;
+            try {
+                installPreload();
+            } catch (IOException e) {
+                LOGGER.error("[PlaytimeLB] store preload failed, will retry on first use", e);
             }
-            JsonObject active = root.getAsJsonObject("active_ns");
-            if (active != null) {
-                for (var e : active.entrySet()) {
-                    try { activeStartNs.put(UUID.fromString(e.getKey()), e.getValue().getAsLong()); } catch (IllegalArgumentException ignored) {}
+        }
+    }
+
+    private static void installPreload() throws IOException {
+        CompletableFuture<Prepared> f = preloading;
+        preloading = null;
+        preloadPending = false;
+        long t0 = System.nanoTime();
+        Prepared p;
+        try {
+            p = f.join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof IOException io ? io : new IOException(e.getCause());
+        }
+        long waitedMs = (System.nanoTime() - t0) / 1_000_000L;
+        if (waitedMs > 0) LOGGER.info("[PlaytimeLB] waited {} ms for the store preload", waitedMs);
+        install(p);
+    }
+
+    // a preload nobody will install still has the history log open
+    private static void discardPreload() {
+        if (preloading != null) {
+            preloading.thenAccept(p -> {
+                try {
+                    p.history().close();
+                } catch (IOException ignored) {}
+            });
+        }
+        preloading = null;
+        preloadPending = false;
+    }
+
+    public static synchronized void load(MinecraftServer server) throws IOException {
+        load(server.getWorldPath(LevelResource.ROOT));
+    }
+
+    /**
+     * Loads the store from a world directory. Once loaded, the other methods don't touch their
+     * {@code server} argument, which lets tools and benchmarks run without a Minecraft server.
+     */
+    public static synchronized void load(Path worldDir) throws IOException {
+        timedRun(LOAD_TIME, () -> {
+            discardPreload();
+            install(prepare(worldDir, ModConfig.offHeapTables.get()));
+        });
+    }
+
+    // the expensive part of loading; touches no store state, so it can run on any thread
+    private static Prepared prepare(Path dir, boolean offHeap) throws IOException {
+        long t0 = System.nanoTime();
+        Path data = dir.resolve(StorePartitions.DIR);
+        Path single = dir.resolve(SINGLE_FILE);
+        Path json = dir.resolve(LEGACY_JSON);
+        int n = ModConfig.partitions.get();
+        ExecutorService pool = StorePartitions.pool(ModConfig.ioThreads.get());
+        try {
+            StorePartitions.Manifest manifest = StorePartitions.readManifest(data);
+            // older layouts (one binary file, before that JSON) are rewritten as partitions once loaded
+            Path legacy = Files.exists(single) ? single : manifest == null && Files.exists(json) ? json : null;
+            SnapshotWriter.Snapshot snap = manifest != null ? StorePartitions.read(data, manifest, offHeap, pool)
+                    : legacy == single ? StoreFormat.readBinary(single, offHeap)
+                    : legacy != null ? StoreFormat.readJson(json, offHeap)
+                    : StoreFormat.empty(offHeap);
+
+            // the indexes are built side by side while the rest is read here
+            ColdArchive cold = ColdArchive.open(dir, ModConfig.coldCacheEntries.get());
+            Future<RankIndex> ranks = pool.submit(() -> {
+                RankIndex r = new RankIndex();
+                r.build(snap.totals());
+                return r;
+            });
+            Future<NameIndex> names = pool.submit(() -> {
+                NameIndex ni = new NameIndex();
+                ni.putAll(snap.names(), snap.lastSeen());
+                return ni;
+            });
+            Future<WindowCounters> windows = pool.submit(() -> {
+                snap.windows().rebuild();
+                return snap.windows();
+            });
+            // players in both tiers (back since the archive was written, or it was written just before a crash)
+            Future<UuidLongMap> promoted = pool.submit(() -> {
+                UuidLongMap both = new UuidLongMap();
+                if (cold.size() == 0) return both;
+                UuidLongMap.Visitor check = (m, l, v) -> {
+                    if (cold.contains(m, l)) both.put(m, l, 1L);
+                };
+                snap.totals().forEach(check);
+                snap.idle().forEach(check);
+                snap.lastSeen().forEach(check);
+                snap.names().keySet().forEach(u -> check.accept(u.getMostSignificantBits(), u.getLeastSignificantBits(), 0L));
+                return both;
+            });
+            SessionHistory h = SessionHistory.open(dir.resolve(HISTORY_DIR), ModConfig.historySegmentSessions.get(),
+                    TimeUnit.DAYS.toNanos(ModConfig.historyRetentionDays.get()), offHeap);
+
+            // whatever happened after the snapshot was taken
+            List<JournalRecord> records = new ArrayList<>();
+            long snapshotSeq = snap.journalSeq();
+            SessionJournal.replay(dir.resolve(JOURNAL_DIR), (type, seq, uuid, timeNs, name) -> {
+                if (seq > snapshotSeq) records.add(new JournalRecord(type, seq, uuid, timeNs, name));
+            });
+            ClusterSync.Base base = ClusterSync.readBase(dir.resolve(CLUSTER_BASE), offHeap);
+
+            StoreTables t = new StoreTables(snap.totals(), snap.active(), snap.idle(), snap.idleSince(), snap.sessionIdle(),
+                    snap.lastSeen(), snap.names(), StorePartitions.get(names), StorePartitions.get(ranks),
+                    StorePartitions.get(windows), cold, StorePartitions.get(promoted));
+            boolean rewrite = manifest == null || manifest.partitions() != n;
+            return new Prepared(dir, snapshotSeq, t, t.copy(), h, base, records, n, rewrite, legacy, System.nanoTime() - t0);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static void install(Prepared p) throws IOException {
+        long t0 = System.nanoTime();
+        loaded = false; // readers wait on the lock until the journal is replayed
+        worldDir = p.worldDir();
+        boardVersion++;
+        StoreTables t = p.tables();
+        tables = new LeftRight<>(t, p.replica());
+        journalSeq = p.journalSeq();
+        lastSnapshot = CompletableFuture.completedFuture(true);
+        partitions = p.partitions();
+        changedPlayers = new UuidLongMap();
+        dirty = false;
+        rewriteAll = p.rewrite(); // no partitions yet, or a different number of them
+        coldGeneration = t.cold.generation();
+        coldWrite = null;
+        if (history != null) history.close();
+        history = p.history();
+        long knownSeq = p.journal().isEmpty() ? journalSeq : Math.max(journalSeq, p.journal().get(p.journal().size() - 1).seq());
+        history.rebase(knownSeq);
+        exportPending = new UuidLongMap(16, t.totals.isOffHeap());
+        exportFullPending = true;
+        clusterBase = p.clusterBase().values();
+        clusterBaseSeq = p.clusterBase().seq();
+        clusterPending = new UuidLongMap(16, t.totals.isOffHeap());
+        cluster = createClusterSync();
+        boolean folded = false, coldDropped = false;
+
+        for (JournalRecord r : p.journal()) {
+            switch (r.type()) {
+                case SessionJournal.LOGIN -> applyLogin(r.uuid(), r.name(), r.timeNs());
+                case SessionJournal.LOGOUT -> {
+                    long start = current().active.get(r.uuid(), NONE);
+                    applyLogout(r.uuid(), r.name(), r.timeNs());
+                    recordSession(r.uuid(), start, r.timeNs(), r.seq());
                 }
-            }
-            JsonObject names = root.getAsJsonObject("names");
-            if (names != null) {
-                for (var e : names.entrySet()) {
-                    try { lastName.put(UUID.fromString(e.getKey()), e.getValue().getAsString()); } catch (IllegalArgumentException ignored) {}
+                case SessionJournal.RESET -> {
+                    coldDropped |= current().cold.size() > 0;
+                    folded |= applyReset(r.seq(), r.timeNs());
                 }
+                case SessionJournal.IDLE -> applyIdle(r.uuid(), true, r.timeNs());
+                case SessionJournal.ACTIVE -> applyIdle(r.uuid(), false, r.timeNs());
+                default -> { }
             }
+            journalSeq = Math.max(journalSeq, r.seq());
+            if (r.type() == SessionJournal.RESET) markAllDirty();
+            else if (r.uuid() != null) markDirty(r.uuid());
         }
-    }
 
-    public static synchronized void save(MinecraftServer server) throws IOException {
-        Path p = filePath(server);
-        JsonObject root = new JsonObject();
-        root.addProperty("updated", Instant.now().getEpochSecond());
-        JsonObject totals = new JsonObject();
-        for (var e : totalsSec.entrySet()) totals.addProperty(e.getKey().toString(), e.getValue());
-        root.add("totals_sec", totals);
+        if (folded) writeClusterBase();
+        if (coldDropped) ColdArchive.deleteOthers(worldDir, -1);
+        if (journal != null) journal.close();
+        journal = new SessionJournal(journalPath(), ModConfig.groupCommitMillis.get());
+        loaded = true;
+        LOGGER.info("[PlaytimeLB] store loaded: {} players (+{} archived), {} online, {} names, {} journal records in {} ms (+{} ms to install)",
+                current().totals.size(), current().coldSize(), current().active.size(), current().lastName.size(), p.journal().size(),
+                p.readNanos() / 1_000_000L, (System.nanoTime() - t0) / 1_000_000L);
+        if (p.legacy() != null) migrateLegacy(p.legacy());
+    }
 
-        JsonObject active = new JsonObject();
-        for (var e : activeStartNs.entrySet()) active.addProperty(e.getKey().toString(), e.getValue());
-        root.add("active_ns", active);
+    // one-time: an older store file was just read, write it out as partitions and retire it
+    private static void migrateLegacy(Path legacy) throws IOException {
+        markAllDirty();
+        writeSnapshot().join();
+        if (dirty) throw new IOException("could not write " + dataDir() + " while migrating " + legacy);
+        Path retired = legacy.resolveSibling(legacy.getFileName() + ".migrated");
+        Files.move(legacy, retired, StandardCopyOption.REPLACE_EXISTING);
+        LOGGER.info("[PlaytimeLB] migrated {} players from {} to {} partitions in {} (old file kept as {})",
+                current().totals.size(), legacy.getFileName(), partitions, StorePartitions.DIR, retired.getFileName());
+    }
 
-        JsonObject names = new JsonObject();
-        for (var e : lastName.entrySet()) names.addProperty(e.getKey().toString(), e.getValue());
-        root.add("names", names);
+    /**
+     * Takes a point-in-time copy of the players that changed since the last snapshot and hands it
+     * to the persistence thread, which rewrites the partitions they are in and commits them
+     * together with the ones that didn't change. Journal segments it covers are dropped afterwards.
+     */
+    public static synchronized CompletableFuture<Void> save(MinecraftServer server) throws IOException {
+        return timed(SAVE_TIME, () -> {
+            ensureLoaded(server);
+            return writeSnapshot().thenApply(ok -> null);
+        });
+    }
 
-        try (BufferedWriter w = Files.newBufferedWriter(p, StandardCharsets.UTF_8)) {
-            w.write(GSON.toJson(root));
-        }
+    // completes with whether the snapshot was written
+    private static CompletableFuture<Boolean> writeSnapshot() {
+        // many changes: clone the tables (cheap) and rewrite everything; else copy just the changed players
+        UuidLongMap changed = changedPlayers;
+        boolean all = rewriteAll || changed.size() > current().totals.size() / 8;
+        SnapshotWriter.Snapshot snapshot = all ? copyState() : copyPlayers(changed);
+        SessionJournal j = journal;
+        long segment = j.rotate();
         dirty = false;
+        rewriteAll = false;
+        changedPlayers = new UuidLongMap();
+        lastSnapshot = SnapshotWriter.submit(dataDir(), snapshot, all ? null : changed, partitions, ModConfig.ioThreads.get())
+                .handle((stats, err) -> {
+            if (err != null) {
+                LOGGER.error("[PlaytimeLB] snapshot failed, keeping journal", err);
+                rewriteAll = true; // this write's changes are lost with it
+                dirty = true;
+                return false;
+            }
+            try {
+                j.discardBefore(segment);
+            } catch (IOException e) {
+                LOGGER.warn("[PlaytimeLB] could not discard old journal segments", e);
+            }
+            return true;
+        });
+        return lastSnapshot;
+    }
+
+    // the player's partition has to be rewritten by the next snapshot
+    private static void markDirty(long m, long l) {
+        changedPlayers.put(m, l, 1L);
+        dirty = true;
+    }
+
+    private static void markDirty(UUID uuid) {
+        markDirty(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+    }
+
+    private static void markAllDirty() {
+        rewriteAll = true;
+        dirty = true;
+    }
+
+    private static SnapshotWriter.Snapshot copyState() {
+        StoreTables t = current();
+        return new SnapshotWriter.Snapshot(journalSeq, t.totals.copy(), t.active.copy(), t.idle.copy(), t.idleSince.copy(),
+                t.sessionIdle.copy(), t.lastSeen.copy(), new HashMap<>(t.lastName), t.windows.copy());
+    }
+
+    // the given players' records (whatever they still have: a player may have been dropped since)
+    private static SnapshotWriter.Snapshot copyPlayers(UuidLongMap players) {
+        StoreTables t = current();
+        SnapshotWriter.Snapshot s = StoreFormat.empty(false);
+        s.windows().setCurrentDay(t.windows.currentDay());
+        players.forEach((m, l, ignored) -> {
+            copyEntry(t.totals, s.totals(), m, l);
+            copyEntry(t.active, s.active(), m, l);
+            copyEntry(t.idle, s.idle(), m, l);
+            copyEntry(t.idleSince, s.idleSince(), m, l);
+            copyEntry(t.sessionIdle, s.sessionIdle(), m, l);
+            copyEntry(t.lastSeen, s.lastSeen(), m, l);
+            String name = t.lastName.get(new UUID(m, l));
+            if (name != null) s.names().put(new UUID(m, l), name);
+            t.windows.copySlot(m, l, s.windows());
+        });
+        return new SnapshotWriter.Snapshot(journalSeq, s.totals(), s.active(), s.idle(), s.idleSince(), s.sessionIdle(),
+                s.lastSeen(), s.names(), s.windows());
+    }
+
+    private static void copyEntry(UuidLongMap from, UuidLongMap to, long m, long l) {
+        if (from.containsKey(m, l)) to.put(m, l, from.get(m, l, 0L));
+    }
+
+    /**
+     * Writes the current state as JSON to {@code playtimelb-dump.json} in the world folder, for
+     * inspection; the store itself keeps using the binary file. Completes with the dump's path.
+     */
+    public static synchronized CompletableFuture<Path> dumpJson(MinecraftServer server) throws IOException {
+        ensureLoaded(server);
+        Path target = worldDir.resolve(DUMP_JSON);
+        return SnapshotWriter.submitJson(target, copyState()).thenApply(stats -> target);
     }
 
     public static synchronized void checkpoint(MinecraftServer server) throws IOException {
         if (!loaded) return;
-        if (dirty) save(server);
+        timedRun(CHECKPOINT_TIME, () -> {
+            // doesn't dirty the store: the journal's logouts re-derive it if this never reaches a snapshot
+            long nowNs = epochNowNs();
+            tables.write(t -> {
+                t.checkpointWindows(nowNs);
+                return null;
+            });
+            saveHistoryIndex(nowNs);
+            if (dirty) save(server);
+        });
+    }
+
+    private static void saveHistoryIndex(long nowNs) {
+        try {
+            history.applyRetention(nowNs);
+        } catch (IOException e) {
+            LOGGER.warn("[PlaytimeLB] session history retention failed", e);
+        }
+        if (!history.indexDirty()) return;
+        var copy = history.copyIndex();
+        SnapshotWriter.run(() -> {
+            SessionHistory.writeIndex(copy);
+            return null;
+        }).exceptionally(err -> {
+            // harmless: the next open scans the log past the last good index
+            LOGGER.warn("[PlaytimeLB] could not save the session history index", err);
+            return null;
+        });
+    }
+
+    /** Final checkpoint + journal close; the next access (possibly another world) loads fresh. */
+    public static synchronized void shutdown(MinecraftServer server) throws IOException {
+        discardPreload();
+        try {
+            checkpoint(server);
+            SnapshotWriter.drain(30_000L);
+        } finally {
+            if (journal != null) journal.close();
+            journal = null;
+            if (history != null) history.close();
+            history = null;
+            loaded = false;
+        }
+    }
+
+    /**
+     * Changes whenever a leaderboard's order, membership or names may have changed, other than
+     * online players' live totals growing with time; lets callers cache rendered boards.
+     */
+    public static long boardVersion() {
+        return boardVersion;
+    }
+
+    /** Size and duration of the most recent snapshot, or null if none has been written yet. */
+    public static SnapshotStats lastSnapshotStats() {
+        return SnapshotWriter.lastStats();
     }
 
     public static synchronized void reset(MinecraftServer server) throws IOException {
         ensureLoaded(server);
-        totalsSec.clear();
-        activeStartNs.clear();
-        dirty = true;
-        save(server);
+        long seq = ++journalSeq, nowNs = epochNowNs();
+        boolean hadCold = current().cold.size() > 0 || coldWrite != null;
+        boolean folded = applyReset(seq, nowNs);
+        resets++;
+        markAllDirty();
+        CompletableFuture<Void> appended = journal.append(SessionJournal.RESET, seq, null, nowNs, null);
+        if (!folded && !hadCold) return;
+        // the fold must not be lost, nor be re-applied from the journal, and the archive must not be
+        // dropped before the reset can be replayed: both happen once the reset is durable
+        try {
+            appended.join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof IOException io ? io : new IOException(e.getCause());
+        }
+        if (folded) writeClusterBase();
+        if (hadCold) {
+            if (coldWrite != null) coldWrite.exceptionally(err -> null).join();
+            ColdArchive.deleteOthers(worldDir, -1);
+        }
     }
 
     public static synchronized void onLogin(MinecraftServer server, UUID uuid, String name, long nowNs) throws IOException {
-        ensureLoaded(server);
-        activeStartNs.put(uuid, nowNs);
-        if (name != null) lastName.put(uuid, name);
-        dirty = true;
-        save(server); // persist start immediately in case of crash
+        timedRun(LOGIN_TIME, () -> {
+            ensureLoaded(server);
+            applyLogin(uuid, name, nowNs);
+            markDirty(uuid);
+            // journaled (group-committed) in case of crash; folded into the snapshot on checkpoint
+            journal.append(SessionJournal.LOGIN, ++journalSeq, uuid, nowNs, name);
+        });
     }
 
     public static synchronized long onLogout(MinecraftServer server, UUID uuid, String name, long endNs) throws IOException {
-        ensureLoaded(server);
-        Long start = activeStartNs.remove(uuid);
-        if (name != null) lastName.put(uuid, name);
-        long add = 0L;
-        if (start != null && endNs >= start) {
-            add = (endNs - start) / 1_000_000_000L;
-            totalsSec.put(uuid, totalsSec.getOrDefault(uuid, 0L) + add);
+        return timed(LOGOUT_TIME, () -> {
+            ensureLoaded(server);
+            long start = current().active.get(uuid, NONE);
+            long add = applyLogout(uuid, name, endNs);
+            markDirty(uuid);
+            journal.append(SessionJournal.LOGOUT, ++journalSeq, uuid, endNs, name);
+            recordSession(uuid, start, endNs, journalSeq);
+            return add;
+        });
+    }
+
+    /**
+     * An online player stopped (or, with {@code idle} false, resumed) playing at {@code nowNs}: the
+     * stretch in between is left out of their totals and windows and counted as idle time instead.
+     * Ignored if they aren't online or already in that state.
+     */
+    public static synchronized void onIdle(MinecraftServer server, UUID uuid, boolean idle, long nowNs) throws IOException {
+        timedRun(IDLE_TIME, () -> {
+            ensureLoaded(server);
+            if (!applyIdle(uuid, idle, nowNs)) return;
+            markDirty(uuid);
+            journal.append(idle ? SessionJournal.IDLE : SessionJournal.ACTIVE, ++journalSeq, uuid, nowNs, null);
+        });
+    }
+
+    /**
+     * Bulk import ({@link StatsBackfill}): raises each player's total to the given seconds where
+     * that is higher and fills in names the store doesn't have, in one write, then snapshots.
+     * An online player's vanilla time already holds part of the session their logout will credit,
+     * so it is lowered by the time since their login first. Completes with the number of totals
+     * raised once the snapshot is written, or fails if it could not be.
+     */
+    static synchronized CompletableFuture<Integer> applyBackfill(MinecraftServer server, UuidLongMap seconds,
+                                                                 Map<UUID, String> names) throws IOException {
+        return timed(BACKFILL_TIME, () -> {
+            ensureLoaded(server);
+            StoreTables cur = current();
+            UuidLongMap raise = new UuidLongMap(16, false);
+            Map<UUID, ColdArchive.Entry> promote = new HashMap<>(); // archived players being raised come back
+            long nowNs = epochNowNs();
+            seconds.forEach((m, l, v) -> {
+                long start = cur.active.get(m, l, NONE);
+                if (start != NONE) v -= Math.max(0L, nowNs - start) / 1_000_000_000L;
+                if (v <= Math.max(0L, cur.storedTotal(m, l))) return;
+                raise.put(m, l, v);
+                ColdArchive.Entry e = cur.totals.containsKey(m, l) ? null : cur.coldEntry(m, l);
+                if (e != null) promote.put(new UUID(m, l), e);
+            });
+            Map<UUID, String> missing = new HashMap<>();
+            names.forEach((uuid, name) -> {
+                if (cur.lastName.containsKey(uuid) || !seconds.containsKey(uuid)) return;
+                ColdArchive.Entry e = cur.coldEntry(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+                if (e == null || e.name() == null) missing.put(uuid, name);
+            });
+            tables.write(t -> {
+                promote.forEach((uuid, e) -> t.promote(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits(), e));
+                raise.forEach(t::raiseTotal);
+                missing.forEach(t::setName);
+                return null;
+            });
+            raise.forEach((m, l, v) -> {
+                exportPending.put(m, l, 1L);
+                clusterPending.put(m, l, 1L);
+                markDirty(m, l);
+            });
+            missing.keySet().forEach(PlaytimeStore::markDirty);
+            boardVersion++;
+            int raised = raise.size();
+            return writeSnapshot().thenApply(ok -> {
+                if (!ok) throw new CompletionException(new IOException("the backfill snapshot could not be written"));
+                return raised;
+            });
+        });
+    }
+
+    /**
+     * Moves players not seen for {@code tiering.coldAfterDays} out of the tables into the next
+     * generation of the cold archive, which also drops the archived players who have come back
+     * since. The snapshot is written first and the archive after it, both on the persistence
+     * thread; players leave the tables only once the new archive is in place, so a crash at any
+     * point leaves each player in at least one tier (both is resolved at load, hot wins). The
+     * lock is only held briefly: records are read and removed a chunk at a time, and players
+     * still waiting to be removed are shadowed like returned ones. Returns false if there was
+     * nothing to do or a run is still in flight.
+     */
+    public static synchronized boolean archiveInactive(MinecraftServer server) throws IOException {
+        return timed(ARCHIVE_TIME, () -> {
+            ensureLoaded(server);
+            if (coldWrite != null) return false;
+            long nowSec = Math.floorDiv(epochNowNs(), 1_000_000_000L);
+            long cutoff = nowSec - TimeUnit.DAYS.toSeconds(ModConfig.coldAfterDays.get());
+
+            // players from before last-seen was recorded count as seen now
+            StoreTables before = current();
+            UuidLongMap unseen = new UuidLongMap();
+            UuidLongMap.Visitor stamp = (m, l, v) -> {
+                if (!before.lastSeen.containsKey(m, l)) unseen.put(m, l, nowSec);
+            };
+            before.totals.forEach(stamp);
+            before.idle.forEach(stamp);
+            before.lastName.keySet().forEach(u -> stamp.accept(u.getMostSignificantBits(), u.getLeastSignificantBits(), 0L));
+            if (!unseen.isEmpty()) {
+                tables.write(t -> {
+                    unseen.forEach(t.lastSeen::put);
+                    return null;
+                });
+                unseen.forEach((m, l, v) -> markDirty(m, l));
+            }
+
+            StoreTables cur = current();
+            UuidLongMap demote = new UuidLongMap(); // set
+            cur.lastSeen.forEach((m, l, seen) -> {
+                if (seen < cutoff && !cur.active.containsKey(m, l)) demote.put(m, l, 1L);
+            });
+            if (demote.isEmpty() && cur.promoted.isEmpty()) return false;
+
+            // the archive drops the returned players, so they must be in a written snapshot first
+            UuidLongMap returned = cur.promoted.copy();
+            ColdArchive old = cur.cold;
+            int gen = coldGeneration + 1, cache = ModConfig.coldCacheEntries.get();
+            long resetsBefore = resets;
+            LeftRight<StoreTables> lr = tables;
+            Path dir = worldDir;
+            CompletableFuture<Boolean> durable = dirty ? writeSnapshot() : lastSnapshot;
+            Map<UUID, ColdArchive.Entry> records = new HashMap<>();
+            CompletableFuture<ColdArchive> write = durable.thenCompose(ok -> ok
+                    ? SnapshotWriter.run(() -> {
+                        readRecords(lr, demote, records);
+                        return ColdArchive.write(dir, gen, old, returned, records, cache);
+                    })
+                    : CompletableFuture.failedFuture(new IOException("snapshot failed, not archiving")));
+            coldWrite = write;
+            // off the persistence thread: installing takes the lock, whose holder may be waiting on that thread
+            write.whenCompleteAsync((archive, err) -> finishArchive(write, lr, archive, err, returned, records, cutoff, resetsBefore));
+            return true;
+        });
+    }
+
+    // players' records, read a chunk at a time: a long read would hold up every write
+    private static void readRecords(LeftRight<StoreTables> lr, UuidLongMap players, Map<UUID, ColdArchive.Entry> out) {
+        long[] keys = new long[players.size() * 2];
+        int[] n = {0};
+        players.forEach((m, l, ignored) -> {
+            keys[n[0]++] = m;
+            keys[n[0]++] = l;
+        });
+        for (int from = 0; from < keys.length; from += 2 * ARCHIVE_CHUNK) {
+            int start = from, end = Math.min(keys.length, from + 2 * ARCHIVE_CHUNK);
+            lr.read(t -> {
+                for (int i = start; i < end; i += 2) {
+                    long m = keys[i], l = keys[i + 1];
+                    UUID u = new UUID(m, l);
+                    out.put(u, new ColdArchive.Entry(t.totals.get(m, l, 0L), t.idle.get(m, l, 0L), t.lastSeen.get(m, l, 0L),
+                            t.lastName.get(u)));
+                }
+                return null;
+            });
+        }
+    }
+
+    private static void finishArchive(CompletableFuture<ColdArchive> write, LeftRight<StoreTables> lr, ColdArchive archive,
+                                      Throwable err, UuidLongMap returned, Map<UUID, ColdArchive.Entry> archived,
+                                      long cutoff, long resetsBefore) {
+        try {
+            synchronized (PlaytimeStore.class) {
+                if (err != null) {
+                    LOGGER.error("[PlaytimeLB] could not write the cold archive", err);
+                    return;
+                }
+                // another world, or this one reloaded: the load has already reconciled both tiers
+                if (!loaded || tables != lr) return;
+                if (resets != resetsBefore) {
+                    ColdArchive.deleteOthers(worldDir, -1); // made stale by the reset
+                    return;
+                }
+                tables.write(t -> {
+                    t.installCold(archive, returned);
+                    archived.keySet().forEach(u -> t.promoted.put(u.getMostSignificantBits(), u.getLeastSignificantBits(), 1L));
+                    return null;
+                });
+                coldGeneration = archive.generation();
+                boardVersion++;
+                ColdArchive.deleteOthers(worldDir, coldGeneration);
+            }
+            List<UUID> pending = new ArrayList<>(archived.keySet());
+            int moved = 0;
+            for (int from = 0; from < pending.size(); from += ARCHIVE_CHUNK) {
+                synchronized (PlaytimeStore.class) {
+                    if (!loaded || tables != lr || resets != resetsBefore) return;
+                    // players who came back while it was being written keep their hot copy
+                    StoreTables cur = current();
+                    List<UUID> chunk = new ArrayList<>(ARCHIVE_CHUNK);
+                    for (UUID u : pending.subList(from, Math.min(pending.size(), from + ARCHIVE_CHUNK))) {
+                        ColdArchive.Entry e = archived.get(u);
+                        long m = u.getMostSignificantBits(), l = u.getLeastSignificantBits();
+                        long seen = cur.lastSeen.get(m, l, NONE);
+                        if (cur.active.containsKey(m, l) || seen != e.lastSeen() || seen >= cutoff
+                                || cur.totals.get(m, l, 0L) != e.total() || cur.idle.get(m, l, 0L) != e.idle()) continue;
+                        chunk.add(u);
+                    }
+                    tables.write(t -> {
+                        for (UUID u : chunk) t.demote(u.getMostSignificantBits(), u.getLeastSignificantBits());
+                        return null;
+                    });
+                    chunk.forEach(PlaytimeStore::markDirty);
+                    moved += chunk.size();
+                    boardVersion++;
+                }
+            }
+            synchronized (PlaytimeStore.class) {
+                if (tables == lr) tables.write(t -> {
+                    t.trim();
+                    return null;
+                });
+            }
+            LOGGER.info("[PlaytimeLB] archived {} inactive players, {} returned players left the archive ({} in memory, {} archived)",
+                    moved, returned.size(), tables.read(t -> t.totals.size()), tables.read(StoreTables::coldSize));
+        } finally {
+            synchronized (PlaytimeStore.class) {
+                if (coldWrite == write) coldWrite = null;
+            }
+        }
+    }
+
+    private static void recordSession(UUID uuid, long start, long endNs, long seq) {
+        if (start == NONE || endNs < start) return;
+        try {
+            history.append(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits(), start, endNs, seq);
+        } catch (IOException e) {
+            // the totals are already updated and journaled; only the history entry is lost
+            LOGGER.error("[PlaytimeLB] could not log session of {} to the history", uuid, e);
+        }
+    }
+
+    // returns whether the totals were folded into clusterBase (a reset not seen before)
+    private static boolean applyReset(long seq, long nowNs) {
+        boolean fold = seq > clusterBaseSeq;
+        if (fold) {
+            StoreTables t = current();
+            t.totals.forEach(clusterBase::addTo);
+            t.cold.forEach((m, l, e) -> {
+                if (!t.promoted.containsKey(m, l)) clusterBase.addTo(m, l, e.total());
+            });
+            if (nowNs > 0) t.active.forEach((m, l, start) -> clusterBase.addTo(m, l, t.activeExtra(m, l, nowNs)));
+            clusterBaseSeq = seq;
+        }
+        tables.write(t -> {
+            t.reset();
+            return null;
+        });
+        exportPending.clear();
+        exportFullPending = true;
+        boardVersion++;
+        return fold;
+    }
+
+    private static void applyLogin(UUID uuid, String name, long nowNs) {
+        long m = uuid.getMostSignificantBits(), l = uuid.getLeastSignificantBits();
+        ColdArchive.Entry archived = current().coldEntry(m, l);
+        tables.write(t -> {
+            if (archived != null) t.promote(m, l, archived);
+            t.login(uuid, name, nowNs);
+            return null;
+        });
+        boardVersion++;
+    }
+
+    private static long applyLogout(UUID uuid, String name, long endNs) {
+        long m = uuid.getMostSignificantBits(), l = uuid.getLeastSignificantBits();
+        long idleBefore = current().idle.get(m, l, 0L);
+        long add = tables.write(t -> t.logout(uuid, name, endNs));
+        boardVersion++;
+        if (current().idle.get(m, l, 0L) != idleBefore) exportPending.put(m, l, 1L);
+        if (add > 0) {
+            exportPending.put(m, l, 1L);
+            clusterPending.put(m, l, 1L);
         }
-        dirty = true;
-        save(server);
         return add;
     }
 
-    public static synchronized Map<UUID, Long> getTotalsIncludingActive(MinecraftServer server) throws IOException {
-        ensureLoaded(server);
-        long nowNs = System.nanoTime(); // not epoch, but we'll estimate using System.nanoTime
-        // Better: use epoch ns; but for display, difference works either way only if we had start from same base.
-        // We used epoch ns for start; so use epoch now instead:
-        long epochNowNs = java.time.Instant.now().getEpochSecond() * 1_000_000_000L + java.time.Instant.now().getNano();
-        Map<UUID, Long> out = new HashMap<>(totalsSec);
-        for (var e : activeStartNs.entrySet()) {
-            long extra = Math.max(0L, (epochNowNs - e.getValue()) / 1_000_000_000L);
-            out.put(e.getKey(), out.getOrDefault(e.getKey(), 0L) + extra);
+    private static boolean applyIdle(UUID uuid, boolean idle, long nowNs) {
+        boolean changed = tables.write(t -> idle ? t.idleStart(uuid, nowNs) : t.idleEnd(uuid, nowNs));
+        if (changed) boardVersion++;
+        return changed;
+    }
+
+    /**
+     * Point-in-time copy of every active total with in-progress sessions credited. One bulk table
+     * copy plus one pass over the online players; consumers iterate it with {@link UuidLongMap#forEach}.
+     */
+    public static UuidLongMap getTotalsIncludingActive(MinecraftServer server) throws IOException {
+        return totalsIncludingActive(view(server)).active();
+    }
+
+    private static PlayerTotals totalsIncludingActive(LeftRight<StoreTables> lr) {
+        long nowNs = epochNowNs();
+        return lr.read(t -> {
+            UuidLongMap active = t.totals.copy();
+            UuidLongMap idle = t.idle.copy();
+            t.active.forEach((m, l, start) -> {
+                active.addTo(m, l, t.activeExtra(m, l, nowNs));
+                long extra = t.idleExtra(m, l, nowNs);
+                if (extra > 0) idle.addTo(m, l, extra);
+            });
+            t.cold.forEach((m, l, e) -> {
+                if (t.promoted.containsKey(m, l)) return;
+                active.put(m, l, e.total());
+                if (e.idle() > 0) idle.put(m, l, e.idle());
+            });
+            return new PlayerTotals(active, idle);
+        });
+    }
+
+    /**
+     * Visits every player's totals, in-progress sessions credited and archived players included,
+     * without copying the tables: online players in one read, then the in-memory board in rank
+     * order and the archive in UUID order, {@value #STREAM_CHUNK} players per read so a slow
+     * consumer never holds up a write. Totals only grow, so the board walk resumes after the last
+     * player it visited and meets nobody twice; a player credited while it runs may be missed
+     * (they're in the next one). Returns the number of players visited.
+     */
+    public static int streamTotals(MinecraftServer server, TotalsVisitor visitor) throws IOException {
+        return timed(STREAM_TIME, () -> {
+            LeftRight<StoreTables> lr = view(server);
+            long nowNs = epochNowNs();
+            int[] visited = {0};
+            // online players at their live totals; the walks below skip them
+            UuidLongMap online = lr.read(t -> {
+                UuidLongMap seen = new UuidLongMap(t.active.size(), false);
+                t.active.forEach((m, l, start) -> {
+                    seen.put(m, l, 1L);
+                    visitor.visit(m, l, Math.max(0L, t.storedTotal(m, l)) + t.activeExtra(m, l, nowNs),
+                            t.storedIdle(m, l) + t.idleExtra(m, l, nowNs));
+                });
+                return seen;
+            });
+            visited[0] = online.size();
+            visitor.endChunk();
+
+            long[] cursor = null; // (secs, msb, lsb) of the last player walked
+            do {
+                long[] after = cursor;
+                cursor = lr.read(t -> {
+                    int from = 0;
+                    if (after != null) {
+                        // they may have moved or left since; the walk goes on behind where they were
+                        from = t.ranks.countAhead(after[0], after[1], after[2]);
+                        if (t.totals.get(after[1], after[2], NONE) == after[0]) from++;
+                    }
+                    long[] last = new long[3];
+                    int[] walked = {0};
+                    t.ranks.forEachRanked(from, (m, l, secs) -> {
+                        if (!online.containsKey(m, l)) {
+                            visitor.visit(m, l, secs, t.idle.get(m, l, 0L));
+                            visited[0]++;
+                        }
+                        last[0] = secs;
+                        last[1] = m;
+                        last[2] = l;
+                        return ++walked[0] < STREAM_CHUNK;
+                    });
+                    return walked[0] < STREAM_CHUNK ? null : last;
+                });
+                visitor.endChunk();
+            } while (cursor != null);
+
+            // the archive doesn't change; players back in the tables were visited above
+            ColdArchive cold = lr.read(t -> t.cold);
+            for (int from = 0; from < cold.size(); from += STREAM_CHUNK) {
+                int start = from;
+                lr.read(t -> {
+                    cold.forEachTotal(start, start + STREAM_CHUNK, (m, l, total, idle) -> {
+                        if (t.totals.containsKey(m, l) || t.promoted.containsKey(m, l) || online.containsKey(m, l)) return;
+                        visitor.visit(m, l, total, idle);
+                        visited[0]++;
+                    });
+                    return null;
+                });
+                visitor.endChunk();
+            }
+            return visited[0];
+        });
+    }
+
+    /**
+     * Totals to push on the next export: players whose stored total changed since the last call
+     * plus everyone online (in-progress time credited). With {@code full}, or right after startup
+     * or a reset, it is every known player instead. The change set is cleared; pass the result to
+     * {@link #requeueForExport} if it could not be handed to the exporter.
+     */
+    public static PlayerTotals drainTotalsForExport(MinecraftServer server, boolean full) throws IOException {
+        return timed(EXPORT_DRAIN_TIME, () -> {
+            // only taking the change set needs the lock; a logout after it lands in the next one
+            LeftRight<StoreTables> lr;
+            UuidLongMap changed;
+            boolean all;
+            synchronized (PlaytimeStore.class) {
+                ensureLoaded(server);
+                lr = tables;
+                all = full || exportFullPending;
+                exportFullPending = false;
+                changed = exportPending;
+                exportPending = new UuidLongMap(16, changed.isOffHeap());
+            }
+            if (all) return totalsIncludingActive(lr);
+            long nowNs = epochNowNs();
+            return lr.read(t -> {
+                UuidLongMap active = new UuidLongMap(changed.size() + t.active.size(), false);
+                UuidLongMap idle = new UuidLongMap(changed.size() + t.active.size(), false);
+                changed.forEach((m, l, ignored) -> {
+                    active.put(m, l, Math.max(0L, t.storedTotal(m, l)));
+                    idle.put(m, l, t.storedIdle(m, l));
+                });
+                t.active.forEach((m, l, start) -> {
+                    active.put(m, l, t.totals.get(m, l, 0L) + t.activeExtra(m, l, nowNs));
+                    idle.put(m, l, t.idle.get(m, l, 0L) + t.idleExtra(m, l, nowNs));
+                });
+                return new PlayerTotals(active, idle);
+            });
+        });
+    }
+
+    // ==== Network counters ====
+
+    /** Replaces the shared-directory transport (e.g. with a message bus); takes effect on the next load. */
+    public static synchronized void setClusterTransport(ClusterTransport transport) {
+        clusterTransport = transport;
+    }
+
+    private static ClusterSync createClusterSync() {
+        if (!ModConfig.clusterEnabled.get()) return null;
+        String id = ModConfig.serverTag.get().trim();
+        String dir = ModConfig.clusterDirectory.get().trim();
+        ClusterTransport t = clusterTransport;
+        if (t == null && !dir.isEmpty()) t = new DirectoryTransport(Path.of(dir));
+        if (id.isEmpty() || t == null) {
+            LOGGER.warn("[PlaytimeLB] cluster sync needs influx2.serverTag and cluster.directory; disabled");
+            return null;
+        }
+        return new ClusterSync(id, t, ModConfig.clusterBaseEvery.get());
+    }
+
+    private static void writeClusterBase() throws IOException {
+        ClusterSync.writeBase(worldDir.resolve(CLUSTER_BASE), new ClusterSync.Base(clusterBaseSeq, clusterBase));
+    }
+
+    /**
+     * One round of network sync: publishes this server's counters (changed and online players, or
+     * everyone when a base is due) and merges what the other servers published, on the persistence
+     * thread. Skips if the previous round is still running. Returns false if disabled or skipped.
+     */
+    public static synchronized boolean syncCluster(MinecraftServer server) throws IOException {
+        return timed(CLUSTER_SYNC_TIME, () -> {
+            ensureLoaded(server);
+            if (cluster == null || cluster.busy()) return false;
+            long nowNs = epochNowNs();
+            boolean full = cluster.needsFull();
+            StoreTables t = current();
+            UuidLongMap own;
+            Map<UUID, String> ownNames;
+            if (full) {
+                own = clusterBase.copy();
+                t.totals.forEach(own::addTo);
+                ownNames = new HashMap<>(t.lastName);
+                t.cold.forEach((m, l, e) -> {
+                    if (t.promoted.containsKey(m, l)) return;
+                    own.addTo(m, l, e.total());
+                    if (e.name() != null) ownNames.put(new UUID(m, l), e.name());
+                });
+            } else {
+                own = new UuidLongMap(clusterPending.size() + t.active.size(), false);
+                clusterPending.forEach((m, l, ignored) ->
+                        own.put(m, l, clusterBase.get(m, l, 0L) + Math.max(0L, t.storedTotal(m, l))));
+                t.active.forEach((m, l, start) -> own.put(m, l, clusterBase.get(m, l, 0L) + t.totals.get(m, l, 0L)));
+                ownNames = new HashMap<>();
+                own.forEach((m, l, v) -> {
+                    UUID u = new UUID(m, l);
+                    String n = t.lastName.get(u);
+                    if (n != null) ownNames.put(u, n);
+                });
+            }
+            // in-progress time too: a session's live value never exceeds what its logout will credit
+            t.active.forEach((m, l, start) -> own.addTo(m, l, t.activeExtra(m, l, nowNs)));
+            clusterPending.clear();
+            cluster.submit(own, ownNames, full);
+            return true;
+        });
+    }
+
+    /** Network-wide top {@code limit}, as of the last sync round. */
+    public static List<RankedEntry> getNetworkTop(MinecraftServer server, int limit) throws IOException {
+        view(server);
+        ClusterSync c = cluster;
+        if (c == null) throw new IOException("network leaderboard is disabled (cluster.enabled)");
+        return c.global().top(limit);
+    }
+
+    /** Marks players as changed again after an export attempt that did not go through. */
+    public static synchronized void requeueForExport(UuidLongMap players) {
+        players.forEach((m, l, ignored) -> exportPending.put(m, l, 1L));
+    }
+
+    public static long getTotalFor(MinecraftServer server, UUID uuid, boolean includeActive) throws IOException {
+        return timed(TOTAL_TIME, () -> {
+            LeftRight<StoreTables> lr = view(server);
+            long nowNs = epochNowNs();
+            long m = uuid.getMostSignificantBits(), l = uuid.getLeastSignificantBits();
+            return lr.read(t -> Math.max(0L, t.storedTotal(m, l)) + (includeActive ? t.activeExtra(m, l, nowNs) : 0L));
+        });
+    }
+
+    /** Idle seconds of a player, optionally including the current session's. */
+    public static long getIdleFor(MinecraftServer server, UUID uuid, boolean includeActive) throws IOException {
+        LeftRight<StoreTables> lr = view(server);
+        long nowNs = epochNowNs();
+        long m = uuid.getMostSignificantBits(), l = uuid.getLeastSignificantBits();
+        return lr.read(t -> t.storedIdle(m, l) + (includeActive ? t.idleExtra(m, l, nowNs) : 0L));
+    }
+
+    /** Login time (epoch ns) of the player's session in progress, or -1 if they aren't online. */
+    public static long getSessionStart(MinecraftServer server, UUID uuid) throws IOException {
+        long m = uuid.getMostSignificantBits(), l = uuid.getLeastSignificantBits();
+        long start = view(server).read(t -> t.active.get(m, l, NONE));
+        return start == NONE ? -1L : start;
+    }
+
+    public static Map<UUID, String> getNames(MinecraftServer server) throws IOException {
+        return view(server).read(t -> new HashMap<>(t.lastName));
+    }
+
+    /**
+     * Top {@code limit} players by total including in-progress sessions. Walks the rank index and
+     * merges in the (few) online players' live totals, so cost is O(limit + online + log n).
+     */
+    public static List<RankedEntry> getTop(MinecraftServer server, int limit) throws IOException {
+        return getTopRange(server, null, 0, limit).entries();
+    }
+
+    /**
+     * Top {@code limit} players by time played in a rolling window (today, or the last 7 / 30 days
+     * including today, server time zone), counting in-progress sessions. Same merge as
+     * {@link #getTop(MinecraftServer, int)}, over the window's incrementally maintained ranking.
+     */
+    public static List<RankedEntry> getTop(MinecraftServer server, TimeWindow window, int limit) throws IOException {
+        return getTopRange(server, window, 0, limit).entries();
+    }
+
+    /**
+     * Leaderboard rows {@code offset} to {@code offset + limit - 1} (0-based) of the all-time
+     * board, or of {@code window}'s if not null, plus the board's size. The rank walk starts near
+     * {@code offset}, so a deep page costs the same O(limit + online + log n) as the top one.
+     */
+    public static RankedPage getTopRange(MinecraftServer server, TimeWindow window, int offset, int limit) throws IOException {
+        return timed(window == null ? TOP_TIME : WINDOW_TOP_TIME, () -> {
+            LeftRight<StoreTables> lr = view(server);
+            long nowNs = epochNowNs();
+            if (window != null) lr = catchUpWindows(lr, nowNs);
+            int from = Math.max(0, offset);
+            return lr.read(t -> topRange(t, window, from, limit, nowNs));
+        });
+    }
+
+    /**
+     * Rolls the windows over to {@code nowNs}'s day if midnight passed since the last write. Reads
+     * can't do that themselves; it takes the lock, but only once a day.
+     */
+    private static LeftRight<StoreTables> catchUpWindows(LeftRight<StoreTables> lr, long nowNs) {
+        int day = lr.read(t -> t.windows.dayOf(nowNs) > t.windows.currentDay() ? t.windows.dayOf(nowNs) : -1);
+        if (day < 0) return lr;
+        synchronized (PlaytimeStore.class) {
+            if (tables != lr) return tables; // reloaded meanwhile
+            if (current().windows.currentDay() < day) {
+                tables.write(t -> {
+                    t.advanceWindows(day);
+                    return null;
+                });
+                boardVersion++;
+            }
+            return tables;
+        }
+    }
+
+    private static RankedPage topRange(StoreTables t, TimeWindow window, int offset, int limit, long nowNs) {
+        RankIndex index;
+        StoredValue stored;
+        List<RankedEntry> live = new ArrayList<>(t.active.size());
+        int[] unranked = {0}; // live entries with no index entry
+        if (window == null) {
+            index = t.ranks;
+            stored = (m, l) -> t.totals.get(m, l, NONE);
+            t.active.forEach((m, l, start) -> {
+                if (!t.totals.containsKey(m, l)) unranked[0]++;
+                live.add(new RankedEntry(new UUID(m, l), t.totals.get(m, l, 0L) + t.activeExtra(m, l, nowNs)));
+            });
+        } else {
+            WindowCounters windows = t.windows;
+            index = windows.ranks(window);
+            stored = (m, l) -> {
+                long sum = windows.sum(window, m, l);
+                return sum > 0 ? sum : NONE;
+            };
+            t.active.forEach((m, l, start) -> {
+                long sum = windows.sum(window, m, l);
+                long secs = sum + windows.uncredited(window, m, l, start, t.activeUntil(m, l, nowNs));
+                if (secs <= 0) return;
+                if (sum <= 0) unranked[0]++;
+                live.add(new RankedEntry(new UUID(m, l), secs));
+            });
+        }
+        int hot = index.size() + unranked[0];
+        int cold = window == null ? t.coldSize() : 0; // archived players are older than any window
+        int total = hot + cold;
+        if (offset >= total || limit <= 0) return new RankedPage(offset, total, List.of());
+        if (cold == 0) return new RankedPage(offset, total, mergeRange(index, stored, t.active, live, offset, limit));
+        return new RankedPage(offset, total, mergeCold(t, index, stored, live, hot, cold, offset, limit, nowNs));
+    }
+
+    /**
+     * Rows offset.. of the all-time board including archived players. The in-memory board
+     * ({@link #mergeRange}) and the archive's own ranking (minus shadowed players) are both sorted,
+     * so the number of archived rows among the first {@code offset} is found by binary search over
+     * the archive, each probe counting the in-memory rows ahead of that player; then both sides
+     * are merged from there. O((log n + online) log n + limit).
+     */
+    private static List<RankedEntry> mergeCold(StoreTables t, RankIndex index, StoredValue stored, List<RankedEntry> live,
+                                               int hot, int cold, int offset, int limit, long nowNs) {
+        int[] shadowed = shadowedRanks(t);
+        int lo = Math.max(0, offset - hot), hi = Math.min(offset, cold);
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            RankedEntry e = coldRow(t, shadowed, mid - 1);
+            long em = e.uuid().getMostSignificantBits(), el = e.uuid().getLeastSignificantBits();
+            if (mid - 1 + hotAhead(t, e.seconds(), em, el, nowNs) < offset) lo = mid;
+            else hi = mid - 1;
+        }
+        int c = lo, h = offset - lo;
+        List<RankedEntry> hotRows = h < hot ? mergeRange(index, stored, t.active, live, h, limit) : List.of();
+        List<RankedEntry> out = new ArrayList<>(limit);
+        int next = 0;
+        RankedEntry coldNext = c < cold ? coldRow(t, shadowed, c) : null;
+        while (out.size() < limit && (next < hotRows.size() || coldNext != null)) {
+            if (coldNext == null || next < hotRows.size() && ahead(hotRows.get(next), coldNext.seconds(),
+                    coldNext.uuid().getMostSignificantBits(), coldNext.uuid().getLeastSignificantBits())) {
+                out.add(hotRows.get(next++));
+            } else {
+                out.add(coldNext);
+                coldNext = ++c < cold ? coldRow(t, shadowed, c) : null;
+            }
         }
         return out;
     }
 
-    public static synchronized long getTotalFor(MinecraftServer server, UUID uuid, boolean includeActive) throws IOException {
-        ensureLoaded(server);
-        long base = totalsSec.getOrDefault(uuid, 0L);
-        if (includeActive && activeStartNs.containsKey(uuid)) {
-            long epochNowNs = java.time.Instant.now().getEpochSecond() * 1_000_000_000L + java.time.Instant.now().getNano();
-            base += Math.max(0L, (epochNowNs - activeStartNs.get(uuid)) / 1_000_000_000L);
+    /** In-memory board rows (stored totals, online players at their live ones) ranked ahead of (secs, uuid), itself excluded. */
+    private static int hotAhead(StoreTables t, long secs, long m, long l, long nowNs) {
+        int[] ahead = {t.ranks.countAhead(secs, m, l)};
+        // swap online players' stored totals for their live ones
+        t.active.forEach((om, ol, start) -> {
+            if (om == m && ol == l) return;
+            long stored = t.totals.get(om, ol, NONE);
+            if (stored != NONE && RankIndex.compare(stored, om, ol, secs, m, l) < 0) ahead[0]--;
+            long live = (stored == NONE ? 0L : stored) + t.activeExtra(om, ol, nowNs);
+            if (RankIndex.compare(live, om, ol, secs, m, l) < 0) ahead[0]++;
+        });
+        return ahead[0];
+    }
+
+    /** Archived players not shadowed by the tables that rank ahead of (secs, uuid). */
+    private static int coldAhead(StoreTables t, int[] shadowed, long secs, long m, long l) {
+        int n = t.cold.countAhead(secs, m, l);
+        int s = Arrays.binarySearch(shadowed, n);
+        return n - (s >= 0 ? s : -s - 1);
+    }
+
+    /** The archive's own positions of the players shadowed by the tables, ascending. */
+    private static int[] shadowedRanks(StoreTables t) {
+        if (t.promoted.isEmpty()) return new int[0];
+        int[] out = new int[t.promoted.size()];
+        int[] n = {0};
+        t.promoted.forEach((m, l, ignored) -> {
+            ColdArchive.Entry e = t.cold.find(m, l);
+            if (e != null) out[n[0]++] = t.cold.countAhead(e.total(), m, l);
+        });
+        int[] ranks = Arrays.copyOf(out, n[0]);
+        Arrays.sort(ranks);
+        return ranks;
+    }
+
+    /** Row {@code i} of the archive's ranking with the shadowed players left out. */
+    private static RankedEntry coldRow(StoreTables t, int[] shadowed, int i) {
+        int j = i;
+        for (int p : shadowed) {
+            if (p > j) break;
+            j++;
         }
-        return base;
+        return t.cold.ranked(j);
     }
 
-    public static synchronized Map<UUID, String> getNames(MinecraftServer server) throws IOException {
-        ensureLoaded(server);
-        // Also fill from online players
-        server.getPlayerList().getPlayers().forEach(p -> lastName.put(p.getUUID(), p.getGameProfile().getName()));
-        return new HashMap<>(lastName);
+    /** An online player's value in a rank index, or NONE if it has no entry there. */
+    private interface StoredValue {
+        long get(long m, long l);
     }
 
-    public static synchronized UUID lookupUUID(MinecraftServer server, String name) throws IOException {
-        ensureLoaded(server);
-        // online first
-        var online = server.getPlayerList().getPlayers();
-        for (var p : online) if (p.getGameProfile().getName().equalsIgnoreCase(name)) return p.getUUID();
-        // stored names
-        for (var e : lastName.entrySet()) if (e.getValue().equalsIgnoreCase(name)) return e.getKey();
-        return null;
+    /**
+     * Rows offset.. of a rank index merged with the online players' live values (sorted here),
+     * their index entries skipped. An entry's merged position is within live.size() of its index
+     * rank, so the walk starts that far above offset, at a position worked out from the online
+     * players alone.
+     */
+    private static List<RankedEntry> mergeRange(RankIndex index, StoredValue stored, UuidLongMap online,
+                                                List<RankedEntry> live, int offset, int limit) {
+        live.sort((a, b) -> RankIndex.compare(
+                a.seconds(), a.uuid().getMostSignificantBits(), a.uuid().getLeastSignificantBits(),
+                b.seconds(), b.uuid().getMostSignificantBits(), b.uuid().getLeastSignificantBits()));
+        List<RankedEntry> out = new ArrayList<>(Math.min(limit, index.size() + live.size()));
+        int from = Math.max(0, offset - live.size());
+        int[] pos = {0};  // merged position of the next row
+        int[] next = {0}; // next live entry
+        boolean[] first = {from > 0};
+        index.forEachRanked(from, (m, l, secs) -> {
+            if (first[0]) {
+                // rows ahead of index rank `from`: the index entries above it that aren't online,
+                // plus the live entries ahead of it
+                first[0] = false;
+                int onlineAhead = 0;
+                for (RankedEntry e : live) {
+                    long em = e.uuid().getMostSignificantBits(), el = e.uuid().getLeastSignificantBits();
+                    long v = stored.get(em, el);
+                    if (v != NONE && RankIndex.compare(v, em, el, secs, m, l) < 0) onlineAhead++;
+                    if (ahead(e, secs, m, l)) next[0]++;
+                }
+                pos[0] = from - onlineAhead + next[0];
+            }
+            while (next[0] < live.size() && out.size() < limit && ahead(live.get(next[0]), secs, m, l)) {
+                if (pos[0]++ >= offset) out.add(live.get(next[0]));
+                next[0]++;
+            }
+            if (out.size() >= limit) return false;
+            if (!online.containsKey(m, l) && pos[0]++ >= offset) out.add(new RankedEntry(new UUID(m, l), secs));
+            return out.size() < limit;
+        });
+        while (next[0] < live.size() && out.size() < limit) {
+            if (pos[0]++ >= offset) out.add(live.get(next[0]));
+            next[0]++;
+        }
+        return out;
+    }
+
+    /**
+     * A player's last {@code limit} finished sessions, newest first, read from the local history
+     * log through its per-player index (no scan).
+     */
+    public static List<SessionEntry> getHistory(MinecraftServer server, UUID uuid, int limit) throws IOException {
+        return timed(HISTORY_TIME, () -> {
+            view(server);
+            // shutdown() closes the log and clears the field; read it once and treat both as unloaded
+            SessionHistory h = history;
+            if (h == null) throw new IOException("store not loaded");
+            try {
+                return h.recent(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits(), limit);
+            } catch (ClosedChannelException e) {
+                throw new IOException("store not loaded", e);
+            }
+        });
+    }
+
+    /** 1-based leaderboard position of a player, counting in-progress sessions. */
+    public static int getRank(MinecraftServer server, UUID uuid) throws IOException {
+        return timed(RANK_TIME, () -> {
+            LeftRight<StoreTables> lr = view(server);
+            long nowNs = epochNowNs();
+            long m = uuid.getMostSignificantBits(), l = uuid.getLeastSignificantBits();
+            return lr.read(t -> {
+                long mine = Math.max(0L, t.storedTotal(m, l)) + t.activeExtra(m, l, nowNs);
+                int ahead = hotAhead(t, mine, m, l, nowNs);
+                if (t.coldSize() > 0) ahead += coldAhead(t, shadowedRanks(t), mine, m, l);
+                return ahead + 1;
+            });
+        });
+    }
+
+    private static boolean ahead(RankedEntry e, long secs, long m, long l) {
+        return RankIndex.compare(e.seconds(), e.uuid().getMostSignificantBits(), e.uuid().getLeastSignificantBits(), secs, m, l) < 0;
+    }
+
+    private interface IoCall<T> {
+        T call() throws IOException;
+    }
+
+    private interface IoRun {
+        void run() throws IOException;
+    }
+
+    // records the call's latency in the given store.* histogram, whether it returns or throws
+    private static <T> T timed(LatencyHistogram time, IoCall<T> call) throws IOException {
+        long t0 = System.nanoTime();
+        try {
+            return call.call();
+        } finally {
+            time.recordSince(t0);
+        }
+    }
+
+    private static void timedRun(LatencyHistogram time, IoRun run) throws IOException {
+        long t0 = System.nanoTime();
+        try {
+            run.run();
+        } finally {
+            time.recordSince(t0);
+        }
+    }
+
+    private static long epochNowNs() {
+        Instant now = Instant.now();
+        return now.getEpochSecond() * 1_000_000_000L + now.getNano();
+    }
+
+    public static String getName(MinecraftServer server, UUID uuid) throws IOException {
+        String name = view(server).read(t -> {
+            String hot = t.lastName.get(uuid);
+            if (hot != null) return hot;
+            ColdArchive.Entry e = t.coldEntry(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+            return e == null ? null : e.name();
+        });
+        // players only seen on other servers
+        ClusterSync c = cluster;
+        if (name == null && c != null) name = c.global().name(uuid);
+        return name;
+    }
+
+    /** Case-insensitive; if several players have used the name, the most recently seen one wins. */
+    public static UUID lookupUUID(MinecraftServer server, String name) throws IOException {
+        return timed(LOOKUP_TIME, () -> {
+            return view(server).read(t -> {
+                UUID hot = t.names.lookup(name);
+                if (hot != null || t.coldSize() == 0) return hot;
+                UUID archived = t.cold.lookupName(name);
+                return archived == null || t.promoted.containsKey(archived) ? null : archived;
+            });
+        });
+    }
+
+    /** Known player names starting with {@code prefix} (case-insensitive), for tab completion. */
+    public static List<String> completeNames(MinecraftServer server, String prefix, int limit) throws IOException {
+        return view(server).read(t -> {
+            List<String> names = t.names.complete(prefix, limit);
+            if (t.coldSize() == 0) return names;
+            t.cold.complete(prefix, limit, t.promoted, names);
+            names.sort((a, b) -> a.toLowerCase(Locale.ROOT).compareTo(b.toLowerCase(Locale.ROOT)));
+            List<String> out = new ArrayList<>(Math.min(limit, names.size()));
+            for (String n : names) {
+                if (out.size() >= limit) break;
+                if (out.isEmpty() || !out.get(out.size() - 1).equalsIgnoreCase(n)) out.add(n);
+            }
+            return out;
+        });
     }
 
     public static String formatDuration(long seconds) {
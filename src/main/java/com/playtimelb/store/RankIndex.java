@@ -0,0 +1,282 @@
+package com.playtimelb.store;
+
+import java.util.Arrays;
+
+/**
+ * Order-statistic treap of (seconds, uuid) ordered by seconds descending, uuid as tie-break.
+ * Nodes live in parallel primitive arrays; index 0 is the nil node.
+ *
+ * Top-k walks cost O(k + log n) and rank lookups O(log n), without copying the table.
+ * Reads don't modify it, so any number of threads may read while nobody writes.
+ */
+class RankIndex {
+    interface Visitor {
+        /** Return false to stop the walk. */
+        boolean visit(long msb, long lsb, long seconds);
+    }
+
+    private static final int NIL = 0;
+
+    private long[] seconds = new long[16];
+    private long[] msb = new long[16];
+    private long[] lsb = new long[16];
+    private int[] left = new int[16];
+    private int[] right = new int[16];
+    private int[] size = new int[16];
+    private int[] prio = new int[16];
+    private int root = NIL;
+    private int used = 1;      // next never-used slot
+    private int free = NIL;    // free list threaded through left[]
+    private int seed = 0x9E3779B9;
+
+    int size() {
+        return size[root];
+    }
+
+    void clear() {
+        root = NIL;
+        used = 1;
+        free = NIL;
+    }
+
+    /** Independent copy with the same shape (and the same future priorities). */
+    RankIndex copy() {
+        RankIndex c = new RankIndex();
+        c.seconds = seconds.clone();
+        c.msb = msb.clone();
+        c.lsb = lsb.clone();
+        c.left = left.clone();
+        c.right = right.clone();
+        c.size = size.clone();
+        c.prio = prio.clone();
+        c.root = root;
+        c.used = used;
+        c.free = free;
+        c.seed = seed;
+        return c;
+    }
+
+    /** Empties the index and fills it with the map's entries (value = seconds); see {@link #build(long[], long[], long[], int)}. */
+    void build(UuidLongMap entries) {
+        int n = entries.size();
+        long[] secs = new long[n], m = new long[n], l = new long[n];
+        int[] k = {0};
+        entries.forEach((mm, ll, v) -> {
+            m[k[0]] = mm;
+            l[k[0]] = ll;
+            secs[k[0]++] = v;
+        });
+        build(secs, m, l, k[0]);
+    }
+
+    /**
+     * Empties the index and fills it with {@code n} entries, in any order: a sort and a linear
+     * build instead of n inserts (for loading). Same shape as inserting them in that order would give.
+     */
+    void build(long[] secs, long[] m, long[] l, int n) {
+        clear();
+        while (seconds.length <= n) grow();
+        int[] order = new int[n];
+        for (int i = 0; i < n; i++) order[i] = alloc(secs[i], m[i], l[i]);
+        sort(order);
+        // in order, each node hangs the nodes of lower priority before it as its left subtree
+        int[] stack = new int[64];
+        int sp = 0;
+        for (int t : order) {
+            int last = NIL;
+            while (sp > 0 && prio[stack[sp - 1]] <= prio[t]) {
+                last = stack[--sp];
+                pull(last);
+            }
+            left[t] = last;
+            if (sp > 0) right[stack[sp - 1]] = t;
+            if (sp == stack.length) stack = Arrays.copyOf(stack, sp * 2);
+            stack[sp++] = t;
+        }
+        while (sp > 0) pull(stack[--sp]);
+        root = n == 0 ? NIL : stack[0];
+    }
+
+    // bottom-up merge sort of node indexes into leaderboard order
+    private void sort(int[] a) {
+        int[] b = new int[a.length];
+        for (int width = 1; width < a.length; width *= 2) {
+            for (int lo = 0; lo < a.length; lo += 2 * width) {
+                int mid = Math.min(lo + width, a.length), hi = Math.min(lo + 2 * width, a.length);
+                int i = lo, j = mid, k = lo;
+                while (i < mid && j < hi) b[k++] = compare(a[j], seconds[a[i]], msb[a[i]], lsb[a[i]]) < 0 ? a[j++] : a[i++];
+                while (i < mid) b[k++] = a[i++];
+                while (j < hi) b[k++] = a[j++];
+            }
+            System.arraycopy(b, 0, a, 0, a.length);
+        }
+    }
+
+    void insert(long m, long l, long secs) {
+        int n = alloc(secs, m, l);
+        int[] lr = split(root, secs, m, l);
+        root = merge(merge(lr[0], n), lr[1]);
+    }
+
+    void remove(long m, long l, long secs) {
+        root = erase(root, secs, m, l);
+    }
+
+    /** Moves a player from {@code oldSecs} to {@code newSecs}; pass hadOld=false for a new entry. */
+    void update(long m, long l, boolean hadOld, long oldSecs, long newSecs) {
+        if (hadOld) {
+            if (oldSecs == newSecs) return;
+            remove(m, l, oldSecs);
+        }
+        insert(m, l, newSecs);
+    }
+
+    /** Number of entries that rank strictly ahead of (secs, uuid). */
+    int countAhead(long secs, long m, long l) {
+        int count = 0;
+        int t = root;
+        while (t != NIL) {
+            if (compare(t, secs, m, l) < 0) {
+                count += size[left[t]] + 1;
+                t = right[t];
+            } else {
+                t = left[t];
+            }
+        }
+        return count;
+    }
+
+    /** In-order walk from the top; O(k + log n) for k visited entries. */
+    void forEachRanked(Visitor visitor) {
+        forEachRanked(0, visitor);
+    }
+
+    /** In-order walk starting at 0-based rank {@code from}; O(k + log n) for k visited entries. */
+    void forEachRanked(int from, Visitor visitor) {
+        int[] stack = new int[64]; // per walk: concurrent readers share the index
+        int sp = 0;
+        int t = root;
+        // descend to rank `from`, stacking the nodes the walk has yet to visit
+        while (t != NIL) {
+            int ls = size[left[t]];
+            if (from > ls) {
+                from -= ls + 1;
+                t = right[t];
+                continue;
+            }
+            if (sp == stack.length) stack = Arrays.copyOf(stack, sp * 2);
+            stack[sp++] = t;
+            if (from == ls) break;
+            t = left[t];
+        }
+        t = NIL;
+        while (t != NIL || sp > 0) {
+            while (t != NIL) {
+                if (sp == stack.length) stack = Arrays.copyOf(stack, sp * 2);
+                stack[sp++] = t;
+                t = left[t];
+            }
+            t = stack[--sp];
+            if (!visitor.visit(msb[t], lsb[t], seconds[t])) return;
+            t = right[t];
+        }
+    }
+
+    /** Leaderboard order: <0 if (s1, uuid1) ranks ahead of (s2, uuid2). */
+    static int compare(long s1, long m1, long l1, long s2, long m2, long l2) {
+        if (s1 != s2) return s1 > s2 ? -1 : 1;
+        if (m1 != m2) return m1 < m2 ? -1 : 1;
+        if (l1 != l2) return l1 < l2 ? -1 : 1;
+        return 0;
+    }
+
+    private int compare(int t, long secs, long m, long l) {
+        return compare(seconds[t], msb[t], lsb[t], secs, m, l);
+    }
+
+    // [0] = nodes ranking ahead of the key, [1] = the rest
+    private int[] split(int t, long secs, long m, long l) {
+        if (t == NIL) return new int[]{NIL, NIL};
+        if (compare(t, secs, m, l) < 0) {
+            int[] lr = split(right[t], secs, m, l);
+            right[t] = lr[0];
+            pull(t);
+            lr[0] = t;
+            return lr;
+        }
+        int[] lr = split(left[t], secs, m, l);
+        left[t] = lr[1];
+        pull(t);
+        lr[1] = t;
+        return lr;
+    }
+
+    private int merge(int a, int b) {
+        if (a == NIL) return b;
+        if (b == NIL) return a;
+        if (prio[a] > prio[b]) {
+            right[a] = merge(right[a], b);
+            pull(a);
+            return a;
+        }
+        left[b] = merge(a, left[b]);
+        pull(b);
+        return b;
+    }
+
+    private int erase(int t, long secs, long m, long l) {
+        if (t == NIL) return NIL;
+        int c = compare(t, secs, m, l);
+        if (c == 0) {
+            int r = merge(left[t], right[t]);
+            release(t);
+            return r;
+        }
+        if (c > 0) left[t] = erase(left[t], secs, m, l);
+        else right[t] = erase(right[t], secs, m, l);
+        pull(t);
+        return t;
+    }
+
+    private void pull(int t) {
+        size[t] = size[left[t]] + size[right[t]] + 1;
+    }
+
+    private int alloc(long secs, long m, long l) {
+        int n;
+        if (free != NIL) {
+            n = free;
+            free = left[n];
+        } else {
+            if (used == seconds.length) grow();
+            n = used++;
+        }
+        seconds[n] = secs;
+        msb[n] = m;
+        lsb[n] = l;
+        left[n] = NIL;
+        right[n] = NIL;
+        size[n] = 1;
+        seed ^= seed << 13; seed ^= seed >>> 17; seed ^= seed << 5;
+        prio[n] = seed;
+        return n;
+    }
+
+    private void release(int n) {
+        left[n] = free;
+        right[n] = NIL;
+        size[n] = 0;
+        free = n;
+    }
+
+    private void grow() {
+        int cap = seconds.length * 2;
+        seconds = Arrays.copyOf(seconds, cap);
+        msb = Arrays.copyOf(msb, cap);
+        lsb = Arrays.copyOf(lsb, cap);
+        left = Arrays.copyOf(left, cap);
+        right = Arrays.copyOf(right, cap);
+        size = Arrays.copyOf(size, cap);
+        prio = Arrays.copyOf(prio, cap);
+    }
+}
@@ -0,0 +1,6 @@
+package com.playtimelb.store;
+
+import java.util.UUID;
+
+/** One leaderboard row: player and total seconds (including any in-progress session). */
+public record RankedEntry(UUID uuid, long seconds) {}
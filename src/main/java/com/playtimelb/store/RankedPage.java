@@ -0,0 +1,6 @@
+package com.playtimelb.store;
+
+import java.util.List;
+
+/** A slice of a leaderboard: rows starting at 0-based {@code offset}, out of {@code total} players. */
+public record RankedPage(int offset, int total, List<RankedEntry> entries) {}
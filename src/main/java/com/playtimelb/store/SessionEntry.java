@@ -0,0 +1,9 @@
+package com.playtimelb.store;
+
+/** One finished session from the local history: start and end (epoch ns). */
+public record SessionEntry(long startNs, long endNs) {
+    /** Whole seconds of wall-clock time, idle stretches included. */
+    public long seconds() {
+        return Math.max(0L, (endNs - startNs) / 1_000_000_000L);
+    }
+}
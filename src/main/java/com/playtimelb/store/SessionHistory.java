@@ -0,0 +1,389 @@
+package com.playtimelb.store;
+
+import com.mojang.logging.LogUtils;
+import org.slf4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Log of finished sessions, kept as segment files of fixed-width records in one directory.
+ *
+ * Records are numbered globally and each segment is named after its first record, so a record is
+ * found with one map lookup and one positional read. Every record links back to the same player's
+ * previous one, and {@link #latest} maps each player to their newest record: reading someone's last
+ * n sessions touches n records and nothing else. A segment is closed once it holds
+ * {@code segmentRecords} sessions; whole segments are deleted once their newest session is older
+ * than the retention period.
+ *
+ * The index is saved next to the log at checkpoints and on close; on open only the records written
+ * after it are scanned. Records carry the journal sequence of their logout, so replaying the journal
+ * after a crash does not log a session twice. Methods are synchronized: the store appends under its
+ * lock while commands read lock-free.
+ */
+final class SessionHistory implements AutoCloseable {
+    private static final Logger LOGGER = LogUtils.getLogger();
+
+    // msb(8) lsb(8) startNs(8) endNs(8) seq(8) prev(8) crc(4)
+    static final int RECORD = 6 * Long.BYTES + 4;
+    private static final String PREFIX = "hist-";
+    private static final String SUFFIX = ".log";
+    private static final String INDEX = "index.bin";
+    private static final int INDEX_MAGIC = 0x50544849; // "PTHI"
+    private static final int INDEX_VERSION = 1;
+    private static final long NONE = -1L;
+
+    /** Point-in-time copy of the index, written by the persistence thread. */
+    record IndexCopy(Path dir, long nextRecord, long lastSeq, UuidLongMap latest) {}
+
+    private final Path dir;
+    private final int segmentRecords;
+    private final long retentionNs; // 0 = keep everything
+    private final TreeMap<Long, Path> segments = new TreeMap<>(); // first record -> file
+    private final UuidLongMap latest;
+    private final ByteBuffer buf = ByteBuffer.allocate(RECORD);
+    private final CRC32 crc = new CRC32();
+    private FileChannel channel; // newest segment, appended to
+    private long channelFirst;
+    private long nextRecord;
+    private long lastSeq;
+    private boolean indexDirty = false;
+
+    private SessionHistory(Path dir, int segmentRecords, long retentionNs, boolean offHeap) {
+        this.dir = dir;
+        this.segmentRecords = Math.max(1, segmentRecords);
+        this.retentionNs = Math.max(0L, retentionNs);
+        this.latest = new UuidLongMap(16, offHeap);
+    }
+
+    /** Opens (or creates) the log in {@code dir}, loading the saved index and catching up on newer records. */
+    static SessionHistory open(Path dir, int segmentRecords, long retentionNs, boolean offHeap) throws IOException {
+        SessionHistory h = new SessionHistory(dir, segmentRecords, retentionNs, offHeap);
+        Files.createDirectories(dir);
+        h.listSegments();
+        if (h.segments.isEmpty()) h.segments.put(0L, segmentPath(dir, 0L));
+        var last = h.segments.lastEntry();
+        h.channel = FileChannel.open(last.getValue(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        h.channelFirst = last.getKey();
+        long size = h.channel.size();
+        if (size % RECORD != 0) {
+            LOGGER.warn("[PlaytimeLB] session history {} has a torn record, truncating", last.getValue());
+            size -= size % RECORD;
+            h.channel.truncate(size);
+        }
+        h.nextRecord = h.channelFirst + size / RECORD;
+
+        long from = h.readIndex();
+        if (from < 0) {
+            h.latest.clear();
+            h.lastSeq = 0L;
+            from = h.firstRecord();
+        }
+        h.scan(from);
+        return h;
+    }
+
+    private static Path segmentPath(Path dir, long first) {
+        return dir.resolve(String.format("%s%016d%s", PREFIX, first, SUFFIX));
+    }
+
+    private void listSegments() throws IOException {
+        try (var files = Files.list(dir)) {
+            files.forEach(f -> {
+                String n = f.getFileName().toString();
+                if (!n.startsWith(PREFIX) || !n.endsWith(SUFFIX)) return;
+                try {
+                    segments.put(Long.parseLong(n.substring(PREFIX.length(), n.length() - SUFFIX.length())), f);
+                } catch (NumberFormatException ignored) {}
+            });
+        }
+    }
+
+    private long firstRecord() {
+        return segments.firstKey();
+    }
+
+    // ==== Appending ====
+
+    /**
+     * Logs a finished session. {@code seq} is the logout's journal sequence; sessions at or below the
+     * last logged one are ignored (journal replay after a crash).
+     */
+    synchronized void append(long m, long l, long startNs, long endNs, long seq) throws IOException {
+        if (seq <= lastSeq) return;
+        if (nextRecord - channelFirst >= segmentRecords) rollover();
+        long prev = latest.get(m, l, NONE);
+        encode(m, l, startNs, endNs, seq, prev);
+        long pos = (nextRecord - channelFirst) * RECORD;
+        while (buf.hasRemaining()) pos += channel.write(buf, pos);
+        latest.put(m, l, nextRecord);
+        nextRecord++;
+        lastSeq = seq;
+        indexDirty = true;
+    }
+
+    private void rollover() throws IOException {
+        channel.force(false);
+        channel.close();
+        channel = FileChannel.open(segmentPath(dir, nextRecord), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        channelFirst = nextRecord;
+        segments.put(nextRecord, segmentPath(dir, nextRecord));
+    }
+
+    /**
+     * Deletes the oldest segments whose newest session ended before the retention period; the
+     * segment being written is always kept. Cheap: reads one record per candidate segment.
+     */
+    synchronized void applyRetention(long nowNs) throws IOException {
+        if (retentionNs == 0L) return;
+        long cutoff = nowNs - retentionNs;
+        int dropped = 0;
+        while (segments.size() > 1) {
+            var oldest = segments.firstEntry();
+            long newest = segments.higherKey(oldest.getKey()) - 1;
+            SessionEntry e = read(newest, null, null);
+            if (e == null || e.endNs() >= cutoff) break;
+            Files.deleteIfExists(oldest.getValue());
+            segments.remove(oldest.getKey());
+            dropped++;
+        }
+        if (dropped == 0) return;
+        // players whose newest session is gone entirely
+        long first = firstRecord();
+        List<long[]> gone = new ArrayList<>();
+        latest.forEach((m, l, rec) -> {
+            if (rec < first) gone.add(new long[] {m, l});
+        });
+        for (long[] k : gone) latest.remove(k[0], k[1], NONE);
+        indexDirty = true;
+        LOGGER.info("[PlaytimeLB] session history: dropped {} segment(s) past retention", dropped);
+    }
+
+    // ==== Reading ====
+
+    /** A player's last {@code n} sessions, newest first, following the back-links. */
+    synchronized List<SessionEntry> recent(long m, long l, int n) throws IOException {
+        List<SessionEntry> out = new ArrayList<>(Math.min(n, 64));
+        Map<Long, FileChannel> open = new HashMap<>();
+        try {
+            long[] prev = new long[1];
+            long rec = latest.get(m, l, NONE);
+            while (rec >= firstRecord() && out.size() < n) {
+                SessionEntry e = read(rec, prev, open);
+                if (e == null) break;
+                out.add(e);
+                if (prev[0] >= rec) break; // links only point backwards
+                rec = prev[0];
+            }
+        } finally {
+            for (FileChannel ch : open.values()) ch.close();
+        }
+        return out;
+    }
+
+    /**
+     * The store's journal sequence went backwards (its files were replaced or deleted while the
+     * history was kept): accept its sequence numbers again from {@code seq} on.
+     */
+    synchronized void rebase(long seq) {
+        if (lastSeq <= seq) return;
+        LOGGER.warn("[PlaytimeLB] session history is ahead of the store (seq {} > {}), continuing from the store", lastSeq, seq);
+        lastSeq = seq;
+        indexDirty = true;
+    }
+
+    synchronized long sessionCount() {
+        return nextRecord - firstRecord();
+    }
+
+    // reads and checks one record; prevOut receives its back-link, open caches channels of closed segments
+    private SessionEntry read(long rec, long[] prevOut, Map<Long, FileChannel> open) throws IOException {
+        var seg = segments.floorEntry(rec);
+        if (seg == null || rec >= nextRecord) return null;
+        FileChannel ch;
+        if (seg.getKey() == channelFirst) {
+            ch = channel;
+        } else if (open != null && open.containsKey(seg.getKey())) {
+            ch = open.get(seg.getKey());
+        } else {
+            try {
+                ch = FileChannel.open(seg.getValue(), StandardOpenOption.READ);
+            } catch (NoSuchFileException e) {
+                return null;
+            }
+            if (open != null) open.put(seg.getKey(), ch);
+        }
+        try {
+            buf.clear();
+            long pos = (rec - seg.getKey()) * RECORD;
+            while (buf.hasRemaining()) {
+                if (ch.read(buf, pos + buf.position()) < 0) return null;
+            }
+        } finally {
+            if (open == null && ch != channel) ch.close();
+        }
+        buf.flip();
+        if (!verify()) {
+            LOGGER.warn("[PlaytimeLB] session history record {} is corrupt", rec);
+            return null;
+        }
+        buf.position(2 * Long.BYTES);
+        long start = buf.getLong(), end = buf.getLong();
+        buf.getLong();
+        if (prevOut != null) prevOut[0] = buf.getLong();
+        return new SessionEntry(start, end);
+    }
+
+    // replays records from `from` to the end into the index; a corrupt record in the newest segment
+    // is a torn write and cuts the log there
+    private void scan(long from) throws IOException {
+        var tail = segments.tailMap(segments.floorKey(Math.max(from, firstRecord())), true);
+        for (var seg : tail.entrySet()) {
+            boolean newest = seg.getKey() == channelFirst;
+            long first = seg.getKey();
+            long end = newest ? nextRecord : segments.higherKey(first);
+            long rec = Math.max(from, first);
+            try (FileChannel ch = newest ? null : FileChannel.open(seg.getValue(), StandardOpenOption.READ)) {
+                FileChannel in = newest ? channel : ch;
+                ByteBuffer chunk = ByteBuffer.allocate(RECORD * 1024);
+                while (rec < end) {
+                    chunk.clear();
+                    int want = (int) Math.min(1024, end - rec) * RECORD;
+                    chunk.limit(want);
+                    long pos = (rec - first) * RECORD;
+                    while (chunk.hasRemaining() && in.read(chunk, pos + chunk.position()) >= 0) { }
+                    chunk.flip();
+                    for (; chunk.remaining() >= RECORD; rec++) {
+                        buf.clear();
+                        buf.put(chunk.slice(chunk.position(), RECORD)).flip();
+                        chunk.position(chunk.position() + RECORD);
+                        if (!verify()) {
+                            if (newest) {
+                                LOGGER.warn("[PlaytimeLB] session history is corrupt from record {}, truncating", rec);
+                                channel.truncate((rec - first) * RECORD);
+                                nextRecord = rec;
+                                indexDirty = true;
+                                return;
+                            }
+                            LOGGER.warn("[PlaytimeLB] session history record {} is corrupt, skipping", rec);
+                            continue;
+                        }
+                        long m = buf.getLong(0), l = buf.getLong(8), seq = buf.getLong(32);
+                        latest.put(m, l, rec);
+                        lastSeq = Math.max(lastSeq, seq);
+                        indexDirty = true;
+                    }
+                    if (chunk.limit() < want) break; // segment shorter than its successor's name says
+                }
+            } catch (NoSuchFileException e) {
+                // deleted underneath us; the links into it just end there
+            }
+        }
+    }
+
+    private void encode(long m, long l, long startNs, long endNs, long seq, long prev) {
+        buf.clear();
+        buf.putLong(m).putLong(l).putLong(startNs).putLong(endNs).putLong(seq).putLong(prev);
+        crc.reset();
+        crc.update(buf.array(), 0, RECORD - 4);
+        buf.putInt((int) crc.getValue());
+        buf.flip();
+    }
+
+    private boolean verify() {
+        crc.reset();
+        crc.update(buf.array(), 0, RECORD - 4);
+        return (int) crc.getValue() == buf.getInt(RECORD - 4);
+    }
+
+    // ==== Index ====
+
+    synchronized boolean indexDirty() {
+        return indexDirty;
+    }
+
+    /** Copies the index for {@link #writeIndex}; marks it clean. */
+    synchronized IndexCopy copyIndex() {
+        indexDirty = false;
+        return new IndexCopy(dir, nextRecord, lastSeq, latest.copy());
+    }
+
+    /** Writes an index copy (temp file + rename); safe to run on any thread. */
+    static void writeIndex(IndexCopy c) throws IOException {
+        Path tmp = c.dir().resolve(INDEX + ".tmp");
+        CRC32 sum = new CRC32();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new CheckedOutputStream(Files.newOutputStream(tmp), sum), 64 * 1024))) {
+            out.writeInt(INDEX_MAGIC);
+            out.writeInt(INDEX_VERSION);
+            out.writeLong(c.nextRecord());
+            out.writeLong(c.lastSeq());
+            out.writeInt(c.latest().size());
+            IOException[] err = {null};
+            c.latest().forEach((m, l, rec) -> {
+                if (err[0] != null) return;
+                try {
+                    out.writeLong(m);
+                    out.writeLong(l);
+                    out.writeLong(rec);
+                } catch (IOException e) {
+                    err[0] = e;
+                }
+            });
+            if (err[0] != null) throw err[0];
+            out.flush();
+            out.writeInt((int) sum.getValue());
+        }
+        Files.move(tmp, c.dir().resolve(INDEX), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // loads the saved index; returns the record to scan from, or -1 to rebuild from the log
+    private long readIndex() {
+        Path p = dir.resolve(INDEX);
+        if (!Files.exists(p)) return nextRecord == firstRecord() ? firstRecord() : -1L;
+        CRC32 sum = new CRC32();
+        // checksum outside the buffer, so read-ahead of the trailer isn't summed
+        try (DataInputStream in = new DataInputStream(new CheckedInputStream(
+                new BufferedInputStream(Files.newInputStream(p), 64 * 1024), sum))) {
+            if (in.readInt() != INDEX_MAGIC || in.readInt() != INDEX_VERSION) throw new IOException("bad header");
+            long next = in.readLong();
+            long seq = in.readLong();
+            int count = in.readInt();
+            // the log lost records the index knows about (or never had them): don't trust it
+            if (next > nextRecord || count < 0) throw new IOException("index ahead of the log");
+            for (int i = 0; i < count; i++) latest.put(in.readLong(), in.readLong(), in.readLong());
+            int expected = (int) sum.getValue();
+            if (in.readInt() != expected) throw new IOException("checksum mismatch");
+            lastSeq = seq;
+            return Math.max(next, firstRecord());
+        } catch (IOException e) {
+            LOGGER.warn("[PlaytimeLB] session history index unusable ({}), rebuilding from the log", e.getMessage());
+            return -1L;
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        channel.force(false);
+        channel.close();
+        if (indexDirty) writeIndex(copyIndex());
+    }
+}
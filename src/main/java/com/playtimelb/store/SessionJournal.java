@@ -0,0 +1,323 @@
+package com.playtimelb.store;
+
+import com.mojang.logging.LogUtils;
+import com.playtimelb.metrics.Counter;
+import com.playtimelb.metrics.LatencyHistogram;
+import com.playtimelb.metrics.Metrics;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of login/logout/reset and idle/active records, kept as numbered segment files in
+ * one directory.
+ *
+ * Callers append from the server thread and return immediately; a single writer thread
+ * coalesces everything that arrives within the group-commit window into one write + fsync.
+ * Records carry a sequence number so replay can skip what the snapshot already covers.
+ * A checkpoint rotates to a fresh segment and drops the older ones once its snapshot is on disk.
+ */
+class SessionJournal implements AutoCloseable {
+    private static final Logger LOGGER = LogUtils.getLogger();
+
+    static final byte LOGIN = 1;
+    static final byte LOGOUT = 2;
+    static final byte RESET = 3;
+    static final byte IDLE = 4;   // an online player went idle
+    static final byte ACTIVE = 5; // ... and came back
+
+    // type(1) seq(8) msb(8) lsb(8) timeNs(8) nameLen(2)
+    private static final int HEADER = 1 + 8 + 8 + 8 + 8 + 2;
+    private static final int CRC = 4;
+    private static final String PREFIX = "seg-";
+    private static final String SUFFIX = ".bin";
+
+    // one fsync per group commit, so records / fsync count is the batching factor
+    private static final LatencyHistogram FSYNC_TIME = Metrics.histogram("journal.fsync");
+    private static final Counter RECORDS = Metrics.counter("journal.records");
+
+    interface Visitor {
+        void record(byte type, long seq, UUID uuid, long timeNs, String name);
+    }
+
+    // bytes == null marks a rotation to segment `rotateTo`
+    private record Pending(byte[] bytes, long rotateTo, CompletableFuture<Void> done) {}
+
+    private final Path dir;
+    private final long commitWindowNs;
+    private final Object lock = new Object();
+    private final Object ioLock = new Object();
+    private List<Pending> pending = new ArrayList<>();
+    private boolean closed = false;
+    private long nextSegment;      // guarded by lock
+    private long writerSegment;    // guarded by ioLock
+    private FileChannel channel;   // guarded by ioLock
+    private final Thread writer;
+
+    SessionJournal(Path dir, long commitWindowMs) throws IOException {
+        this.dir = dir;
+        this.commitWindowNs = TimeUnit.MILLISECONDS.toNanos(Math.max(0L, commitWindowMs));
+        Files.createDirectories(dir);
+        List<Long> existing = segments(dir);
+        this.writerSegment = existing.isEmpty() ? 1L : existing.get(existing.size() - 1);
+        this.nextSegment = writerSegment + 1;
+        this.channel = openSegment(writerSegment);
+        this.writer = new Thread(this::writeLoop, "PlaytimeLB-journal");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    private FileChannel openSegment(long segment) throws IOException {
+        FileChannel ch = FileChannel.open(segmentPath(dir, segment), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        ch.position(ch.size());
+        return ch;
+    }
+
+    private static Path segmentPath(Path dir, long segment) {
+        return dir.resolve(String.format("%s%08d%s", PREFIX, segment, SUFFIX));
+    }
+
+    private static List<Long> segments(Path dir) throws IOException {
+        List<Long> out = new ArrayList<>();
+        if (!Files.isDirectory(dir)) return out;
+        try (var files = Files.list(dir)) {
+            files.forEach(f -> {
+                String n = f.getFileName().toString();
+                if (!n.startsWith(PREFIX) || !n.endsWith(SUFFIX)) return;
+                try {
+                    out.add(Long.parseLong(n.substring(PREFIX.length(), n.length() - SUFFIX.length())));
+                } catch (NumberFormatException ignored) {}
+            });
+        }
+        out.sort(null);
+        return out;
+    }
+
+    /** Replays every segment in order. Returns the highest sequence seen. */
+    static long replay(Path dir, Visitor visitor) throws IOException {
+        long maxSeq = 0L;
+        for (long segment : segments(dir)) {
+            maxSeq = Math.max(maxSeq, replaySegment(segmentPath(dir, segment), visitor));
+        }
+        return maxSeq;
+    }
+
+    /**
+     * Replays every intact record in the file. A torn or corrupt tail (crash mid-append) is cut off
+     * so later appends start from a clean record boundary. Returns the highest sequence seen.
+     */
+    private static long replaySegment(Path path, Visitor visitor) throws IOException {
+        long maxSeq = 0L;
+        long good = 0L;
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long size = ch.size();
+            ByteBuffer header = ByteBuffer.allocate(HEADER);
+            CRC32 crc = new CRC32();
+            while (good + HEADER + CRC <= size) {
+                header.clear();
+                if (readFully(ch, header, good) < HEADER) break;
+                header.flip();
+                byte type = header.get();
+                long seq = header.getLong();
+                long msb = header.getLong();
+                long lsb = header.getLong();
+                long timeNs = header.getLong();
+                int nameLen = header.getShort() & 0xFFFF;
+                if (good + HEADER + nameLen + CRC > size) break;
+
+                ByteBuffer rest = ByteBuffer.allocate(nameLen + CRC);
+                if (readFully(ch, rest, good + HEADER) < nameLen + CRC) break;
+                rest.flip();
+                byte[] nameBytes = new byte[nameLen];
+                rest.get(nameBytes);
+                int stored = rest.getInt();
+
+                crc.reset();
+                crc.update(header.array(), 0, HEADER);
+                crc.update(nameBytes);
+                if ((int) crc.getValue() != stored || type < LOGIN || type > ACTIVE) break;
+
+                String name = nameLen == 0 ? null : new String(nameBytes, StandardCharsets.UTF_8);
+                visitor.record(type, seq, new UUID(msb, lsb), timeNs, name);
+                maxSeq = Math.max(maxSeq, seq);
+                good += HEADER + nameLen + CRC;
+            }
+            if (good < size) {
+                LOGGER.warn("[PlaytimeLB] journal {} has {} trailing bytes after the last intact record, truncating", path, size - good);
+                ch.truncate(good);
+                ch.force(true);
+            }
+        }
+        return maxSeq;
+    }
+
+    private static int readFully(FileChannel ch, ByteBuffer buf, long pos) throws IOException {
+        int total = 0;
+        while (buf.hasRemaining()) {
+            int n = ch.read(buf, pos + total);
+            if (n < 0) break;
+            total += n;
+        }
+        return total;
+    }
+
+    static byte[] encode(byte type, long seq, UUID uuid, long timeNs, String name) {
+        byte[] nameBytes = name == null ? new byte[0] : name.getBytes(StandardCharsets.UTF_8);
+        if (nameBytes.length > 0xFFFF) nameBytes = new byte[0];
+        ByteBuffer buf = ByteBuffer.allocate(HEADER + nameBytes.length + CRC);
+        buf.put(type).putLong(seq);
+        buf.putLong(uuid == null ? 0L : uuid.getMostSignificantBits());
+        buf.putLong(uuid == null ? 0L : uuid.getLeastSignificantBits());
+        buf.putLong(timeNs).putShort((short) nameBytes.length).put(nameBytes);
+        CRC32 crc = new CRC32();
+        crc.update(buf.array(), 0, HEADER + nameBytes.length);
+        buf.putInt((int) crc.getValue());
+        return buf.array();
+    }
+
+    /** Queues a record; the returned future completes once it has been fsynced. */
+    CompletableFuture<Void> append(byte type, long seq, UUID uuid, long timeNs, String name) {
+        return enqueue(new Pending(encode(type, seq, uuid, timeNs, name), 0L, new CompletableFuture<>()));
+    }
+
+    /**
+     * Starts a new segment for everything appended after this call and returns its number.
+     * Records queued before it still land (and are fsynced) in the previous segment.
+     */
+    long rotate() {
+        synchronized (lock) {
+            long segment = nextSegment++;
+            enqueue(new Pending(null, segment, new CompletableFuture<>()));
+            return segment;
+        }
+    }
+
+    /**
+     * Deletes segments older than {@code segment} once a snapshot covering them is durable.
+     * Segments the writer has not rotated away from yet are left for the next checkpoint.
+     */
+    void discardBefore(long segment) throws IOException {
+        synchronized (ioLock) {
+            for (long s : segments(dir)) {
+                if (s >= segment || s >= writerSegment) break;
+                Files.deleteIfExists(segmentPath(dir, s));
+            }
+        }
+    }
+
+    private CompletableFuture<Void> enqueue(Pending p) {
+        synchronized (lock) {
+            if (closed) {
+                p.done.completeExceptionally(new IOException("journal closed"));
+                return p.done;
+            }
+            pending.add(p);
+            lock.notifyAll();
+        }
+        return p.done;
+    }
+
+    @Override
+    public void close() {
+        synchronized (lock) {
+            closed = true;
+            lock.notifyAll();
+        }
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (ioLock) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                LOGGER.error("[PlaytimeLB] failed to close journal segment {}", writerSegment, e);
+            }
+        }
+    }
+
+    private void writeLoop() {
+        while (true) {
+            List<Pending> batch;
+            synchronized (lock) {
+                try {
+                    while (pending.isEmpty() && !closed) lock.wait();
+                    // group commit: give concurrent events a short window to join this fsync
+                    long deadline = System.nanoTime() + commitWindowNs;
+                    long left;
+                    while (!closed && (left = deadline - System.nanoTime()) > 0) {
+                        TimeUnit.NANOSECONDS.timedWait(lock, left);
+                    }
+                } catch (InterruptedException e) {
+                    closed = true;
+                }
+                if (pending.isEmpty() && closed) return;
+                batch = pending;
+                pending = new ArrayList<>();
+            }
+            flush(batch);
+        }
+    }
+
+    private void flush(List<Pending> batch) {
+        int from = 0;
+        while (from < batch.size()) {
+            int to = from;
+            while (to < batch.size() && batch.get(to).bytes != null) to++;
+            write(batch.subList(from, to));
+            if (to < batch.size()) rotateTo(batch.get(to));
+            from = to + 1;
+        }
+    }
+
+    private void write(List<Pending> records) {
+        if (records.isEmpty()) return;
+        try {
+            synchronized (ioLock) {
+                int size = 0;
+                for (Pending p : records) size += p.bytes.length;
+                ByteBuffer buf = ByteBuffer.allocate(size);
+                for (Pending p : records) buf.put(p.bytes);
+                buf.flip();
+                while (buf.hasRemaining()) channel.write(buf);
+                long t0 = System.nanoTime();
+                channel.force(false);
+                FSYNC_TIME.recordSince(t0);
+            }
+            RECORDS.add(records.size());
+            for (Pending p : records) p.done.complete(null);
+        } catch (IOException e) {
+            LOGGER.error("[PlaytimeLB] journal write failed ({} records)", records.size(), e);
+            for (Pending p : records) p.done.completeExceptionally(e);
+        }
+    }
+
+    private void rotateTo(Pending marker) {
+        try {
+            synchronized (ioLock) {
+                FileChannel next = openSegment(marker.rotateTo);
+                channel.close();
+                channel = next;
+                writerSegment = marker.rotateTo;
+            }
+            marker.done.complete(null);
+        } catch (IOException e) {
+            // keep appending to the old segment; it just won't be discarded
+            LOGGER.error("[PlaytimeLB] journal rotation to segment {} failed", marker.rotateTo, e);
+            marker.done.completeExceptionally(e);
+        }
+    }
+}
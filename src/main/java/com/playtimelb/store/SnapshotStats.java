@@ -0,0 +1,4 @@
+package com.playtimelb.store;
+
+/** Outcome of one snapshot write: records written, file size and wall time. */
+public record SnapshotStats(long entries, long bytes, long millis) {}
@@ -0,0 +1,144 @@
+package com.playtimelb.store;
+
+import com.mojang.logging.LogUtils;
+import com.playtimelb.metrics.Counter;
+import com.playtimelb.metrics.LatencyHistogram;
+import com.playtimelb.metrics.Metrics;
+import org.slf4j.Logger;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes store snapshots on a dedicated persistence thread: the changed partitions to new files,
+ * then the manifest that names them ({@link StorePartitions}), so a crash never leaves a torn
+ * snapshot behind. Debug dumps go to a temp file, fsync, then an atomic rename. The byte layout
+ * is {@link StoreFormat}'s.
+ */
+class SnapshotWriter {
+    private static final Logger LOGGER = LogUtils.getLogger();
+
+    /** Point-in-time copy of the store (or some of its partitions), owned by the persistence thread once submitted. */
+    record Snapshot(long journalSeq, UuidLongMap totals, UuidLongMap active, UuidLongMap idle, UuidLongMap idleSince,
+                    UuidLongMap sessionIdle, UuidLongMap lastSeen, Map<UUID, String> names, WindowCounters windows) {}
+
+    private static final ExecutorService EXECUTOR = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "PlaytimeLB-persist");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private static volatile SnapshotStats last;
+    private static boolean failed = false; // persistence thread only: the last partitioned write failed
+
+    private static final LatencyHistogram WRITE_TIME = Metrics.histogram("store.snapshot_write");
+    private static final Counter FAILED = Metrics.counter("store.snapshot_failed");
+
+    static SnapshotStats lastStats() {
+        return last;
+    }
+
+    /**
+     * Rewrites the partitions of the players in {@code changed} with their records from
+     * {@code snapshot}, or if that is null writes all {@code partitions} from it, into the
+     * partitioned store in {@code dir}, on {@code threads} threads. After a failed write only a full
+     * one may commit: the journal a partial one would let go of may hold changes the failed one lost.
+     */
+    static CompletableFuture<SnapshotStats> submit(Path dir, Snapshot snapshot, UuidLongMap changed, int partitions, int threads) {
+        return CompletableFuture.supplyAsync(() -> {
+            long t0 = System.nanoTime();
+            try {
+                StorePartitions.Manifest base = StorePartitions.readManifest(dir);
+                if (changed != null && (failed || base == null || base.partitions() != partitions)) {
+                    throw new IOException("a full snapshot is needed first");
+                }
+                long[] written = new long[2];
+                ExecutorService pool = StorePartitions.pool(threads);
+                try {
+                    StorePartitions.write(dir, base, snapshot, changed, partitions, pool, written);
+                } finally {
+                    pool.shutdown();
+                }
+                failed = false;
+                SnapshotStats stats = new SnapshotStats(written[0], written[1], TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - t0));
+                WRITE_TIME.recordSince(t0);
+                last = stats;
+                LOGGER.debug("[PlaytimeLB] snapshot written: {} entries, {} bytes in {} ms", stats.entries(), stats.bytes(), stats.millis());
+                return stats;
+            } catch (IOException | RuntimeException e) {
+                failed = true;
+                FAILED.inc();
+                throw e instanceof IOException io ? new UncheckedIOException(io) : (RuntimeException) e;
+            }
+        }, EXECUTOR);
+    }
+
+    /** Same as {@link #submit} but in the JSON form, for debugging; doesn't count as a snapshot. */
+    static CompletableFuture<SnapshotStats> submitJson(Path target, Snapshot snapshot) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return writeJson(target, snapshot);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, EXECUTOR);
+    }
+
+    /** Runs other store I/O (loading) on the persistence thread, after any snapshot already queued. */
+    static <T> CompletableFuture<T> run(Callable<T> task) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return task.call();
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        }, EXECUTOR);
+    }
+
+    /** Waits for every snapshot submitted so far (used at shutdown). */
+    static void drain(long timeoutMs) {
+        try {
+            CompletableFuture.runAsync(() -> {}, EXECUTOR).get(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            LOGGER.warn("[PlaytimeLB] timed out waiting for pending snapshots", e);
+        }
+    }
+
+    private static SnapshotStats writeJson(Path target, Snapshot s) throws IOException {
+        long t0 = System.nanoTime();
+        Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            Writer w = new BufferedWriter(new OutputStreamWriter(Channels.newOutputStream(ch), StandardCharsets.UTF_8), 1 << 16);
+            StoreFormat.writeJson(w, s);
+            w.flush();
+            ch.force(true);
+        }
+        long bytes = Files.size(tmp);
+        try {
+            Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+        return new SnapshotStats(s.totals().size() + s.active().size() + s.names().size(), bytes,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - t0));
+    }
+}
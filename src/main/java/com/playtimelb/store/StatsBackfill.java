@@ -0,0 +1,312 @@
+package com.playtimelb.store;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.mojang.logging.LogUtils;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.world.level.storage.LevelResource;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+
+/**
+ * Imports the vanilla per-player statistics ({@code world/stats/<uuid>.json}, {@code minecraft:play_time}
+ * in ticks) so players from before the mod was installed have a total.
+ *
+ * The files are parsed on a fork-join pool, each streamed with a {@link JsonReader} that skips
+ * everything but the play time, into per-task maps merged on the way up. The result goes into the
+ * store in one write (a player's total is raised to the vanilla value, never lowered) followed by a
+ * snapshot. Once that snapshot is on disk, the players imported are listed in
+ * {@code playtimelb-backfill.bin} and skipped after that, so a reset or time tracked since isn't
+ * overwritten by a second run. Names missing from the store are taken from the server's
+ * {@code usercache.json}.
+ */
+public final class StatsBackfill {
+    private static final Logger LOGGER = LogUtils.getLogger();
+
+    private static final String DONE_FILE = "playtimelb-backfill.bin";
+    private static final int DONE_MAGIC = 0x5054424B; // "PTBK"
+    private static final int LEAF_FILES = 64;          // files one fork-join leaf parses
+    private static final long TICKS_PER_SECOND = 20L;
+
+    private static final AtomicBoolean running = new AtomicBoolean();
+
+    /** Progress callback; called on the backfill thread about once a second. */
+    public interface Progress {
+        void report(int parsed, int total);
+    }
+
+    /**
+     * {@code files} stats files found, {@code skipped} of them imported before, {@code failed}
+     * unreadable; {@code raised} players' totals went up.
+     */
+    public record Result(int files, int skipped, int failed, int raised, long millis) {}
+
+    private StatsBackfill() {}
+
+    /** Whether this world has been backfilled before. */
+    public static boolean done(MinecraftServer server) {
+        return Files.exists(server.getWorldPath(LevelResource.ROOT).resolve(DONE_FILE));
+    }
+
+    /**
+     * Starts an import on its own thread; the future fails if one is already running. Uses
+     * {@code threads} workers, or one per core if 0.
+     */
+    public static CompletableFuture<Result> start(MinecraftServer server, int threads, Progress progress) {
+        if (!running.compareAndSet(false, true)) {
+            return CompletableFuture.failedFuture(new IllegalStateException("a backfill is already running"));
+        }
+        CompletableFuture<Result> result = new CompletableFuture<>();
+        Thread t = new Thread(() -> {
+            try {
+                result.complete(run(server, threads, progress));
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
+            } finally {
+                running.set(false);
+            }
+        }, "PlaytimeLB-backfill");
+        t.setDaemon(true);
+        t.start();
+        return result;
+    }
+
+    private static Result run(MinecraftServer server, int threads, Progress progress) throws Exception {
+        return run(server, server.getWorldPath(LevelResource.ROOT), server.getWorldPath(LevelResource.PLAYER_STATS_DIR), threads, progress);
+    }
+
+    static Result run(MinecraftServer server, Path world, Path statsDir, int threads, Progress progress) throws Exception {
+        long t0 = System.nanoTime();
+        Path doneFile = world.resolve(DONE_FILE);
+        UuidLongMap done = readDone(doneFile);
+
+        List<Path> files = new ArrayList<>();
+        List<UUID> owners = new ArrayList<>();
+        int found = 0;
+        if (Files.isDirectory(statsDir)) {
+            try (DirectoryStream<Path> dir = Files.newDirectoryStream(statsDir, "*.json")) {
+                for (Path p : dir) {
+                    UUID uuid = uuidOf(p);
+                    if (uuid == null) continue;
+                    found++;
+                    if (done.containsKey(uuid)) continue;
+                    files.add(p);
+                    owners.add(uuid);
+                }
+            }
+        }
+
+        AtomicInteger parsed = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+        UuidLongMap seconds;
+        ForkJoinPool pool = new ForkJoinPool(threads > 0 ? threads : Runtime.getRuntime().availableProcessors());
+        try {
+            var task = pool.submit(new Parse(files, owners, 0, files.size(), parsed, failed));
+            while (true) {
+                try {
+                    seconds = task.get(1, TimeUnit.SECONDS);
+                    break;
+                } catch (TimeoutException e) {
+                    progress.report(parsed.get(), files.size());
+                } catch (ExecutionException e) {
+                    throw e.getCause() instanceof Exception ex ? ex : e;
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+        progress.report(parsed.get(), files.size());
+
+        // the world path ends in "/.", so normalize before going up to the server directory
+        Map<UUID, String> names = readUserCache(world.toAbsolutePath().normalize().getParent());
+        int raised;
+        try {
+            raised = PlaytimeStore.applyBackfill(server, seconds, names).join();
+        } catch (CompletionException e) {
+            // the raises may not be on disk: don't list the players as imported
+            throw e.getCause() instanceof Exception ex ? ex : e;
+        }
+        seconds.forEach(done::put);
+        writeDone(doneFile, done);
+        Result r = new Result(found, found - files.size(), failed.get(), raised, (System.nanoTime() - t0) / 1_000_000L);
+        LOGGER.info("[PlaytimeLB] backfill: {} stats files, {} imported before, {} unreadable, {} totals raised in {} ms",
+                r.files(), r.skipped(), r.failed(), r.raised(), r.millis());
+        return r;
+    }
+
+    // splits the file range until it is LEAF_FILES long, parses that sequentially, merges maps upwards;
+    // ForkJoinTask is Serializable but these tasks never leave the pool
+    @SuppressWarnings("serial")
+    private static final class Parse extends RecursiveTask<UuidLongMap> {
+        private final List<Path> files;
+        private final List<UUID> owners;
+        private final int from, to;
+        private final AtomicInteger parsed, failed;
+
+        Parse(List<Path> files, List<UUID> owners, int from, int to, AtomicInteger parsed, AtomicInteger failed) {
+            this.files = files;
+            this.owners = owners;
+            this.from = from;
+            this.to = to;
+            this.parsed = parsed;
+            this.failed = failed;
+        }
+
+        @Override
+        protected UuidLongMap compute() {
+            if (to - from > LEAF_FILES) {
+                int mid = (from + to) >>> 1;
+                Parse left = new Parse(files, owners, from, mid, parsed, failed);
+                left.fork();
+                UuidLongMap right = new Parse(files, owners, mid, to, parsed, failed).compute();
+                UuidLongMap merged = left.join();
+                right.forEach(merged::put);
+                return merged;
+            }
+            UuidLongMap out = new UuidLongMap(to - from, false);
+            for (int i = from; i < to; i++) {
+                try {
+                    out.put(owners.get(i), playTicks(files.get(i)) / TICKS_PER_SECOND);
+                } catch (IOException | RuntimeException e) {
+                    failed.incrementAndGet();
+                    LOGGER.debug("[PlaytimeLB] backfill: skipping {}: {}", files.get(i).getFileName(), e.toString());
+                }
+                parsed.incrementAndGet();
+            }
+            return out;
+        }
+    }
+
+    /**
+     * Play time in ticks from one stats file: {@code stats."minecraft:custom"."minecraft:play_time"}
+     * (1.13+, {@code play_one_minute} before 1.17), or top-level {@code stat.playOneMinute} (older).
+     */
+    static long playTicks(Path file) throws IOException {
+        try (Reader r = Files.newBufferedReader(file, StandardCharsets.UTF_8); JsonReader in = new JsonReader(r)) {
+            long ticks = 0L;
+            in.beginObject();
+            while (in.hasNext()) {
+                String key = in.nextName();
+                if (key.equals("stats") && in.peek() == JsonToken.BEGIN_OBJECT) {
+                    in.beginObject();
+                    while (in.hasNext()) {
+                        if (in.nextName().equals("minecraft:custom") && in.peek() == JsonToken.BEGIN_OBJECT) {
+                            in.beginObject();
+                            while (in.hasNext()) {
+                                String stat = in.nextName();
+                                if ((stat.equals("minecraft:play_time") || stat.equals("minecraft:play_one_minute"))
+                                        && in.peek() == JsonToken.NUMBER) {
+                                    ticks = Math.max(ticks, in.nextLong());
+                                } else {
+                                    in.skipValue();
+                                }
+                            }
+                            in.endObject();
+                        } else {
+                            in.skipValue();
+                        }
+                    }
+                    in.endObject();
+                } else if (key.equals("stat.playOneMinute") && in.peek() == JsonToken.NUMBER) {
+                    ticks = Math.max(ticks, in.nextLong());
+                } else {
+                    in.skipValue();
+                }
+            }
+            return ticks;
+        }
+    }
+
+    private static UUID uuidOf(Path p) {
+        String name = p.getFileName().toString();
+        try {
+            return UUID.fromString(name.substring(0, name.length() - ".json".length()));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    // usercache.json: [{"name": ..., "uuid": ..., "expiresOn": ...}, ...]; best effort
+    private static Map<UUID, String> readUserCache(Path serverDir) {
+        Map<UUID, String> names = new HashMap<>();
+        Path p = serverDir == null ? null : serverDir.resolve("usercache.json");
+        if (p == null || !Files.exists(p)) return names;
+        try (Reader r = Files.newBufferedReader(p, StandardCharsets.UTF_8); JsonReader in = new JsonReader(r)) {
+            in.beginArray();
+            while (in.hasNext()) {
+                String name = null;
+                UUID uuid = null;
+                in.beginObject();
+                while (in.hasNext()) {
+                    switch (in.nextName()) {
+                        case "name" -> name = in.nextString();
+                        case "uuid" -> uuid = UUID.fromString(in.nextString());
+                        default -> in.skipValue();
+                    }
+                }
+                in.endObject();
+                if (name != null && uuid != null) names.put(uuid, name);
+            }
+            in.endArray();
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warn("[PlaytimeLB] backfill: could not read {}: {}", p, e.toString());
+        }
+        return names;
+    }
+
+    // imported players (msb, lsb, seconds imported), same framing as the cluster base file
+    private static UuidLongMap readDone(Path p) throws IOException {
+        if (!Files.exists(p)) return new UuidLongMap();
+        ByteBuffer b = ByteBuffer.wrap(Files.readAllBytes(p));
+        if (b.capacity() < 12 || b.getInt() != DONE_MAGIC) throw new IOException(p + ": not a backfill file");
+        CRC32 crc = new CRC32();
+        crc.update(b.array(), 0, b.capacity() - 4);
+        if ((int) crc.getValue() != b.getInt(b.capacity() - 4)) throw new IOException(p + ": checksum mismatch");
+        int count = b.getInt();
+        if (count < 0 || 8 + count * 24L + 4 != b.capacity()) throw new IOException(p + ": bad record count");
+        UuidLongMap done = new UuidLongMap(count, false);
+        for (int i = 0; i < count; i++) done.put(b.getLong(), b.getLong(), b.getLong());
+        return done;
+    }
+
+    private static void writeDone(Path p, UuidLongMap done) throws IOException {
+        ByteBuffer b = ByteBuffer.allocate(8 + done.size() * 24 + 4);
+        b.putInt(DONE_MAGIC).putInt(done.size());
+        done.forEach((m, l, v) -> b.putLong(m).putLong(l).putLong(v));
+        CRC32 crc = new CRC32();
+        crc.update(b.array(), 0, b.position());
+        b.putInt((int) crc.getValue());
+        Path tmp = p.resolveSibling(p.getFileName() + ".tmp");
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            b.flip();
+            while (b.hasRemaining()) ch.write(b);
+            ch.force(true);
+        }
+        Files.move(tmp, p, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
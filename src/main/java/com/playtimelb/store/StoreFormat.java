@@ -0,0 +1,384 @@
+package com.playtimelb.store;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.zip.CRC32;
+
+/**
+ * On-disk forms of a store snapshot: the binary store file and the JSON form (legacy store file,
+ * debug dumps).
+ *
+ * Binary layout, big-endian (version 1 files have the 40-byte header and no (v2) sections, version 2
+ * files the 56-byte one and no (v3) sections, version 3 files no (v4) section):
+ * <pre>
+ *   header   magic "PTLB", version, journalSeq, updated (epoch s), #totals, #active, #names,
+ *            #window slots, #credited, window day, reserved, #idle, #idleSince, #sessionIdle, #lastSeen
+ *   totals   #totals x (msb, lsb, seconds)
+ *   active   #active x (msb, lsb, startNs)
+ *   credited #credited x (msb, lsb, ns credited to the windows so far)       (v2)
+ *   idle     #idle x (msb, lsb, idle seconds)                                (v3)
+ *   idleSince   #idleSince x (msb, lsb, ns an online player went idle)       (v3)
+ *   sessionIdle #sessionIdle x (msb, lsb, ns idle earlier in the session)    (v3)
+ *   lastSeen #lastSeen x (msb, lsb, last login or logout, epoch s)           (v4)
+ *   names    #names  x (msb, lsb, offset << 32 | length) into the string table
+ *   windows  #slots  x (msb, lsb, lastDay << 32 | bucket[0], 15 x bucket pairs)  (v2)
+ *   strings  UTF-8 name bytes
+ *   crc32    of everything above
+ * </pre>
+ * Everything before the string table is fixed-width longs, so loading a mapped file is one
+ * sequential scan with no parsing.
+ */
+final class StoreFormat {
+    static final int VERSION = 4;
+
+    private static final int MAGIC = 0x50544C42; // "PTLB"
+    private static final int HEADER_V1 = 40;
+    private static final int HEADER_V2 = 56;
+    private static final int HEADER = 72;
+    private static final int RECORD = 3 * Long.BYTES;
+    private static final int WINDOW_LONGS = 2 + (1 + WindowCounters.RING) / 2; // ring + lastDay as int pairs
+
+    // a mapping keeps the file locked on Windows until it is GC'd, which would block the next
+    // snapshot's rename over it; read into the heap there instead
+    private static final boolean MAP = !System.getProperty("os.name", "").startsWith("Windows");
+
+    private StoreFormat() {}
+
+    static SnapshotWriter.Snapshot empty(boolean offHeap) {
+        return new SnapshotWriter.Snapshot(0L, new UuidLongMap(16, offHeap), new UuidLongMap(16, offHeap),
+                new UuidLongMap(16, offHeap), new UuidLongMap(16, offHeap), new UuidLongMap(16, offHeap),
+                new UuidLongMap(16, offHeap), new HashMap<>(),
+                new WindowCounters(ZoneId.systemDefault()));
+    }
+
+    // ==== Binary ====
+
+    static SnapshotWriter.Snapshot readBinary(Path p, boolean offHeap) throws IOException {
+        try (FileChannel ch = FileChannel.open(p, StandardOpenOption.READ)) {
+            long size = ch.size();
+            if (size < HEADER_V1 + 4 || size > Integer.MAX_VALUE) throw new IOException(p + ": bad store file size " + size);
+            ByteBuffer b = MAP ? ch.map(FileChannel.MapMode.READ_ONLY, 0, size) : readFully(ch, (int) size);
+            int end = (int) size - 4;
+
+            if (b.getInt(0) != MAGIC) throw new IOException(p + ": not a playtime store file");
+            int version = b.getInt(4);
+            if (version < 1 || version > VERSION) throw new IOException(p + ": unsupported store version " + version);
+            int header = version == 1 ? HEADER_V1 : version == 2 ? HEADER_V2 : HEADER;
+            CRC32 crc = new CRC32();
+            crc.update(b.duplicate().position(0).limit(end));
+            if ((int) crc.getValue() != b.getInt(end)) throw new IOException(p + ": checksum mismatch");
+
+            long journalSeq = b.getLong(8);
+            int nTotals = b.getInt(24), nActive = b.getInt(28), nNames = b.getInt(32);
+            int nSlots = version == 1 ? 0 : b.getInt(36);
+            int nCredited = version == 1 ? 0 : b.getInt(40);
+            int nIdle = version < 3 ? 0 : b.getInt(56), nIdleSince = version < 3 ? 0 : b.getInt(60);
+            int nSessionIdle = version < 3 ? 0 : b.getInt(64), nLastSeen = version < 4 ? 0 : b.getInt(68);
+            long strings = header + ((long) nTotals + nActive + nCredited + nIdle + nIdleSince + nSessionIdle + nLastSeen + nNames) * RECORD
+                    + (long) nSlots * WINDOW_LONGS * Long.BYTES;
+            if (nTotals < 0 || nActive < 0 || nNames < 0 || nSlots < 0 || nCredited < 0
+                    || nIdle < 0 || nIdleSince < 0 || nSessionIdle < 0 || nLastSeen < 0 || strings > end) {
+                throw new IOException(p + ": bad record counts");
+            }
+
+            LongBuffer lb = b.duplicate().position(header).limit((int) strings).slice().asLongBuffer();
+            UuidLongMap totals = readLongs(lb, nTotals, offHeap);
+            UuidLongMap active = readLongs(lb, nActive, offHeap);
+            WindowCounters windows = new WindowCounters(ZoneId.systemDefault());
+            if (version >= 2) {
+                windows.setCurrentDay(b.getInt(44));
+                for (int i = 0; i < nCredited; i++) windows.credited().put(lb.get(), lb.get(), lb.get());
+            }
+            UuidLongMap idle = readLongs(lb, nIdle, offHeap);
+            UuidLongMap idleSince = readLongs(lb, nIdleSince, offHeap);
+            UuidLongMap sessionIdle = readLongs(lb, nSessionIdle, offHeap);
+            UuidLongMap lastSeen = readLongs(lb, nLastSeen, offHeap);
+            Map<UUID, String> names = new HashMap<>(Math.max(16, (int) (nNames / 0.75f) + 1));
+            byte[] scratch = new byte[64];
+            for (int i = 0; i < nNames; i++) {
+                long msb = lb.get(), lsb = lb.get(), ref = lb.get();
+                int off = (int) (ref >>> 32), len = (int) ref;
+                if (off < 0 || len < 0 || strings + off + len > end) throw new IOException(p + ": bad name reference");
+                if (len > scratch.length) scratch = new byte[len];
+                b.get((int) strings + off, scratch, 0, len);
+                names.put(new UUID(msb, lsb), new String(scratch, 0, len, StandardCharsets.UTF_8));
+            }
+            int[] ring = new int[WindowCounters.RING + 1];
+            for (int i = 0; i < nSlots; i++) {
+                long msb = lb.get(), lsb = lb.get();
+                for (int j = 0; j < ring.length; j += 2) {
+                    long pair = lb.get();
+                    ring[j] = (int) (pair >>> 32);
+                    ring[j + 1] = (int) pair;
+                }
+                windows.restoreSlot(msb, lsb, ring[0], ring, 1);
+            }
+            return new SnapshotWriter.Snapshot(journalSeq, totals, active, idle, idleSince, sessionIdle, lastSeen, names, windows);
+        }
+    }
+
+    private static UuidLongMap readLongs(LongBuffer lb, int count, boolean offHeap) {
+        UuidLongMap map = new UuidLongMap(count, offHeap);
+        for (int i = 0; i < count; i++) map.put(lb.get(), lb.get(), lb.get());
+        return map;
+    }
+
+    private static ByteBuffer readFully(FileChannel ch, int size) throws IOException {
+        ByteBuffer b = ByteBuffer.allocate(size);
+        while (b.hasRemaining() && ch.read(b) >= 0) { }
+        return b.flip();
+    }
+
+    /** Writes the binary form; returns the number of bytes written. */
+    static long writeBinary(FileChannel ch, SnapshotWriter.Snapshot s) throws IOException {
+        int n = s.names().size();
+        long[] nameKeys = new long[n * 2];
+        byte[][] nameBytes = new byte[n][];
+        int k = 0;
+        for (var e : s.names().entrySet()) {
+            nameKeys[2 * k] = e.getKey().getMostSignificantBits();
+            nameKeys[2 * k + 1] = e.getKey().getLeastSignificantBits();
+            nameBytes[k++] = e.getValue().getBytes(StandardCharsets.UTF_8);
+        }
+
+        WindowCounters windows = s.windows();
+        Out out = new Out(ch);
+        out.ensure(HEADER);
+        out.buf.putInt(MAGIC).putInt(VERSION).putLong(s.journalSeq()).putLong(Instant.now().getEpochSecond())
+                .putInt(s.totals().size()).putInt(s.active().size()).putInt(n)
+                .putInt(windows.slotCount()).putInt(windows.credited().size()).putInt(windows.currentDay()).putLong(0L)
+                .putInt(s.idle().size()).putInt(s.idleSince().size()).putInt(s.sessionIdle().size()).putInt(s.lastSeen().size());
+        writeLongs(out, s.totals());
+        writeLongs(out, s.active());
+        writeLongs(out, windows.credited());
+        writeLongs(out, s.idle());
+        writeLongs(out, s.idleSince());
+        writeLongs(out, s.sessionIdle());
+        writeLongs(out, s.lastSeen());
+        long off = 0L;
+        for (int i = 0; i < n; i++) {
+            out.ensure(RECORD);
+            out.buf.putLong(nameKeys[2 * i]).putLong(nameKeys[2 * i + 1]).putLong(off << 32 | nameBytes[i].length);
+            off += nameBytes[i].length;
+        }
+        try {
+            windows.forEachSlot((m, l, last, ring, ro) -> {
+                try {
+                    out.ensure(WINDOW_LONGS * Long.BYTES);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                out.buf.putLong(m).putLong(l).putLong((long) last << 32 | (ring[ro] & 0xFFFFFFFFL));
+                for (int j = 1; j < WindowCounters.RING; j += 2) {
+                    out.buf.putLong((long) ring[ro + j] << 32 | (ring[ro + j + 1] & 0xFFFFFFFFL));
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        for (byte[] name : nameBytes) {
+            out.ensure(name.length);
+            out.buf.put(name);
+        }
+        out.flush();
+        out.buf.putInt((int) out.crc.getValue());
+        out.write();
+        return out.written;
+    }
+
+    private static void writeLongs(Out out, UuidLongMap map) throws IOException {
+        try {
+            map.forEach((m, l, v) -> {
+                try {
+                    out.ensure(RECORD);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                out.buf.putLong(m).putLong(l).putLong(v);
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    // buffered channel writer that checksums what it writes
+    static final class Out {
+        final FileChannel ch;
+        final ByteBuffer buf = ByteBuffer.allocateDirect(1 << 16);
+        final CRC32 crc = new CRC32();
+        long written;
+
+        Out(FileChannel ch) {
+            this.ch = ch;
+        }
+
+        void ensure(int n) throws IOException {
+            if (buf.remaining() < n) flush();
+        }
+
+        void flush() throws IOException {
+            buf.flip();
+            crc.update(buf.duplicate());
+            drain();
+        }
+
+        void write() throws IOException {
+            buf.flip();
+            drain();
+        }
+
+        private void drain() throws IOException {
+            while (buf.hasRemaining()) written += ch.write(buf);
+            buf.clear();
+        }
+    }
+
+    // ==== JSON ====
+
+    /** Streams the legacy JSON store file (one object per map, UUID string keys). */
+    static SnapshotWriter.Snapshot readJson(Path p, boolean offHeap) throws IOException {
+        SnapshotWriter.Snapshot s = empty(offHeap);
+        long journalSeq = 0L;
+        try (BufferedReader r = Files.newBufferedReader(p, StandardCharsets.UTF_8); JsonReader in = new JsonReader(r)) {
+            if (in.peek() != JsonToken.BEGIN_OBJECT) return s;
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "journal_seq" -> journalSeq = in.nextLong();
+                    case "totals_sec" -> readJsonLongs(in, s.totals());
+                    case "active_ns" -> readJsonLongs(in, s.active());
+                    case "idle_sec" -> readJsonLongs(in, s.idle());
+                    case "idle_since_ns" -> readJsonLongs(in, s.idleSince());
+                    case "session_idle_ns" -> readJsonLongs(in, s.sessionIdle());
+                    case "last_seen_sec" -> readJsonLongs(in, s.lastSeen());
+                    case "names" -> {
+                        in.beginObject();
+                        while (in.hasNext()) {
+                            UUID uuid = parseUuid(in.nextName());
+                            String name = in.nextString();
+                            if (uuid != null) s.names().put(uuid, name);
+                        }
+                        in.endObject();
+                    }
+                    default -> in.skipValue();
+                }
+            }
+            in.endObject();
+        }
+        return new SnapshotWriter.Snapshot(journalSeq, s.totals(), s.active(), s.idle(), s.idleSince(), s.sessionIdle(),
+                s.lastSeen(), s.names(), s.windows());
+    }
+
+    private static void readJsonLongs(JsonReader in, UuidLongMap into) throws IOException {
+        in.beginObject();
+        while (in.hasNext()) {
+            UUID uuid = parseUuid(in.nextName());
+            long v = in.nextLong();
+            if (uuid != null) into.put(uuid, v);
+        }
+        in.endObject();
+    }
+
+    private static UUID parseUuid(String s) {
+        try {
+            return UUID.fromString(s);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    static void writeJson(Writer out, SnapshotWriter.Snapshot s) throws IOException {
+        JsonWriter w = new JsonWriter(out);
+        w.setIndent(" ");
+        w.beginObject();
+        w.name("updated").value(Instant.now().getEpochSecond());
+        w.name("format_version").value(VERSION);
+        w.name("journal_seq").value(s.journalSeq());
+        w.name("totals_sec").beginObject();
+        writeJsonLongs(w, s.totals());
+        w.endObject();
+        w.name("active_ns").beginObject();
+        writeJsonLongs(w, s.active());
+        w.endObject();
+        w.name("idle_sec").beginObject();
+        writeJsonLongs(w, s.idle());
+        w.endObject();
+        w.name("idle_since_ns").beginObject();
+        writeJsonLongs(w, s.idleSince());
+        w.endObject();
+        w.name("session_idle_ns").beginObject();
+        writeJsonLongs(w, s.sessionIdle());
+        w.endObject();
+        w.name("last_seen_sec").beginObject();
+        writeJsonLongs(w, s.lastSeen());
+        w.endObject();
+        w.name("names").beginObject();
+        for (var e : s.names().entrySet()) w.name(e.getKey().toString()).value(e.getValue());
+        w.endObject();
+        writeJsonWindows(w, s.windows());
+        w.endObject();
+        w.flush();
+    }
+
+    // daily buckets by ISO date; informational only, readJson ignores it
+    private static void writeJsonWindows(JsonWriter w, WindowCounters windows) throws IOException {
+        int today = windows.currentDay();
+        w.name("windows").beginObject();
+        if (today != Integer.MIN_VALUE) w.name("day").value(LocalDate.ofEpochDay(today).toString());
+        w.name("credited_ns").beginObject();
+        writeJsonLongs(w, windows.credited());
+        w.endObject();
+        w.name("daily_sec").beginObject();
+        try {
+            windows.forEachSlot((m, l, last, ring, ro) -> {
+                try {
+                    w.name(new UUID(m, l).toString()).beginObject();
+                    for (int d = last - WindowCounters.RING + 1; d <= last; d++) {
+                        int secs = ring[ro + Math.floorMod(d, WindowCounters.RING)];
+                        if (secs > 0) w.name(LocalDate.ofEpochDay(d).toString()).value(secs);
+                    }
+                    w.endObject();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        w.endObject();
+        w.endObject();
+    }
+
+    private static void writeJsonLongs(JsonWriter w, UuidLongMap map) throws IOException {
+        try {
+            map.forEach((m, l, v) -> {
+                try {
+                    w.name(new UUID(m, l).toString()).value(v);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+}
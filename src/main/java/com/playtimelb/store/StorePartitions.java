@@ -0,0 +1,369 @@
+package com.playtimelb.store;
+
+import com.mojang.logging.LogUtils;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+import java.util.zip.CRC32;
+
+/**
+ * The store on disk, {@code world/playtimelb-data/}: players split into partitions by a hash of
+ * their UUID, each partition a {@link StoreFormat} file of its own, {@code part-<i>.<gen>.bin}, and
+ * a manifest naming the current generation of each.
+ *
+ * A snapshot rewrites only the partitions holding players that changed (their committed file with
+ * those players' records replaced) as new generation files, then commits by replacing the
+ * manifest (temp file, fsync, rename); files it no longer names are deleted after.
+ * A crash leaves the previous manifest and the files it names untouched. Every partition is as
+ * of the manifest's journal sequence number: one not rewritten had no changes since it was.
+ *
+ * Manifest layout, big-endian:
+ * <pre>
+ *   magic "PTLM", version, journalSeq, written (epoch s), #partitions, #partitions x generation, crc32
+ * </pre>
+ * Partitions are read and written in parallel, on a pool per load or write.
+ */
+final class StorePartitions {
+    private static final Logger LOGGER = LogUtils.getLogger();
+
+    static final String DIR = "playtimelb-data";
+    private static final String MANIFEST = "manifest.bin";
+    private static final String PREFIX = "part-";
+    private static final String SUFFIX = ".bin";
+    private static final int MAGIC = 0x50544C4D; // "PTLM"
+    private static final int VERSION = 1;
+    private static final int HEADER = 28;
+
+    /** The committed layout: the journal position all partitions are at, and each one's file generation. */
+    record Manifest(long journalSeq, int[] generations) {
+        int partitions() {
+            return generations.length;
+        }
+    }
+
+    private StorePartitions() {}
+
+    /** The partition of a player; stable across versions (partition files depend on it). */
+    static int partitionOf(long msb, long lsb, int partitions) {
+        // not UuidLongMap's hash: a partition's keys must still spread over its own map
+        long h = (msb ^ Long.rotateLeft(lsb, 32)) * 0xBF58476D1CE4E5B9L;
+        h ^= h >>> 31;
+        return (int) Long.remainderUnsigned(h, partitions);
+    }
+
+    static Path file(Path dir, int partition, int generation) {
+        return dir.resolve(PREFIX + partition + "." + generation + SUFFIX);
+    }
+
+    /** Threads for one load or write; shut it down after. */
+    static ExecutorService pool(int threads) {
+        return Executors.newFixedThreadPool(threads > 0 ? threads : Runtime.getRuntime().availableProcessors(), r -> {
+            Thread t = new Thread(r, "PlaytimeLB-io");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    // ==== Manifest ====
+
+    /** The committed manifest in {@code dir}, or null if there is none. */
+    static Manifest readManifest(Path dir) throws IOException {
+        Path p = dir.resolve(MANIFEST);
+        if (!Files.exists(p)) return null;
+        ByteBuffer b = ByteBuffer.wrap(Files.readAllBytes(p));
+        int end = b.capacity() - 4;
+        if (end < HEADER || b.getInt(0) != MAGIC) throw new IOException(p + ": not a store manifest");
+        if (b.getInt(4) != VERSION) throw new IOException(p + ": unsupported manifest version " + b.getInt(4));
+        CRC32 crc = new CRC32();
+        crc.update(b.array(), 0, end);
+        if ((int) crc.getValue() != b.getInt(end)) throw new IOException(p + ": checksum mismatch");
+        int n = b.getInt(24);
+        if (n < 1 || HEADER + (long) n * Integer.BYTES != end) throw new IOException(p + ": bad partition count " + n);
+        int[] gens = new int[n];
+        for (int i = 0; i < n; i++) gens[i] = b.getInt(HEADER + i * Integer.BYTES);
+        return new Manifest(b.getLong(8), gens);
+    }
+
+    private static void writeManifest(Path dir, Manifest m) throws IOException {
+        ByteBuffer b = ByteBuffer.allocate(HEADER + m.partitions() * Integer.BYTES + 4);
+        b.putInt(MAGIC).putInt(VERSION).putLong(m.journalSeq()).putLong(Instant.now().getEpochSecond()).putInt(m.partitions());
+        for (int gen : m.generations()) b.putInt(gen);
+        CRC32 crc = new CRC32();
+        crc.update(b.array(), 0, b.position());
+        b.putInt((int) crc.getValue()).flip();
+        Path target = dir.resolve(MANIFEST);
+        Path tmp = dir.resolve(MANIFEST + ".tmp");
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (b.hasRemaining()) ch.write(b);
+            ch.force(true);
+        }
+        try {
+            Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    // ==== Read ====
+
+    /** Reads every partition the manifest names, in parallel, into one snapshot. */
+    static SnapshotWriter.Snapshot read(Path dir, Manifest m, boolean offHeap, ExecutorService pool) throws IOException {
+        List<Callable<SnapshotWriter.Snapshot>> reads = new ArrayList<>(m.partitions());
+        for (int i = 0; i < m.partitions(); i++) {
+            Path p = file(dir, i, m.generations()[i]);
+            reads.add(() -> StoreFormat.readBinary(p, offHeap));
+        }
+        List<SnapshotWriter.Snapshot> parts = invokeAll(pool, reads);
+
+        // each table is merged by its own task
+        int nTotals = 0, nActive = 0, nIdle = 0, nIdleSince = 0, nSessionIdle = 0, nLastSeen = 0, nNames = 0, day = Integer.MIN_VALUE;
+        for (SnapshotWriter.Snapshot s : parts) {
+            nTotals += s.totals().size();
+            nActive += s.active().size();
+            nIdle += s.idle().size();
+            nIdleSince += s.idleSince().size();
+            nSessionIdle += s.sessionIdle().size();
+            nLastSeen += s.lastSeen().size();
+            nNames += s.names().size();
+            day = Math.max(day, s.windows().currentDay()); // a partition not rewritten since may be behind
+        }
+        var totals = merge(pool, parts, SnapshotWriter.Snapshot::totals, nTotals, offHeap);
+        var active = merge(pool, parts, SnapshotWriter.Snapshot::active, nActive, offHeap);
+        var idle = merge(pool, parts, SnapshotWriter.Snapshot::idle, nIdle, offHeap);
+        var idleSince = merge(pool, parts, SnapshotWriter.Snapshot::idleSince, nIdleSince, offHeap);
+        var sessionIdle = merge(pool, parts, SnapshotWriter.Snapshot::sessionIdle, nSessionIdle, offHeap);
+        var lastSeen = merge(pool, parts, SnapshotWriter.Snapshot::lastSeen, nLastSeen, offHeap);
+        int namesSize = nNames;
+        Future<Map<UUID, String>> names = pool.submit(() -> {
+            Map<UUID, String> all = new HashMap<>(Math.max(16, (int) (namesSize / 0.75f) + 1));
+            for (SnapshotWriter.Snapshot s : parts) all.putAll(s.names());
+            return all;
+        });
+        int currentDay = day;
+        Future<WindowCounters> windows = pool.submit(() -> {
+            WindowCounters w = new WindowCounters(ZoneId.systemDefault());
+            w.setCurrentDay(currentDay);
+            for (SnapshotWriter.Snapshot s : parts) {
+                s.windows().forEachSlot(w::restoreSlot);
+                s.windows().credited().forEach(w.credited()::put);
+            }
+            return w;
+        });
+        return new SnapshotWriter.Snapshot(m.journalSeq(), get(totals), get(active), get(idle), get(idleSince),
+                get(sessionIdle), get(lastSeen), get(names), get(windows));
+    }
+
+    private static Future<UuidLongMap> merge(ExecutorService pool, List<SnapshotWriter.Snapshot> parts,
+                                             Function<SnapshotWriter.Snapshot, UuidLongMap> table,
+                                             int size, boolean offHeap) {
+        return pool.submit(() -> {
+            UuidLongMap all = new UuidLongMap(size, offHeap);
+            for (SnapshotWriter.Snapshot s : parts) table.apply(s).forEach(all::put);
+            return all;
+        });
+    }
+
+    // ==== Write ====
+
+    /**
+     * Writes and commits the partitions holding {@code changed} (a set), each one its committed
+     * file with those players' records replaced by the ones in {@code s}; or, if {@code changed} is
+     * null, all {@code n} partitions from {@code s}, which then holds everyone. Returns the new
+     * manifest and adds the records and bytes written to {@code stats}.
+     */
+    static Manifest write(Path dir, Manifest base, SnapshotWriter.Snapshot s, UuidLongMap changed, int n,
+                          ExecutorService pool, long[] stats) throws IOException {
+        Files.createDirectories(dir);
+        boolean[] which = new boolean[n];
+        if (changed == null) Arrays.fill(which, true);
+        else changed.forEach((m, l, ignored) -> which[partitionOf(m, l, n)] = true);
+        if (changed != null && (base == null || base.partitions() != n)) throw new IOException("no partitions to update in " + dir);
+        // the new generation is above every file the base names, so no live file is overwritten
+        int gen = 1;
+        if (base != null) for (int g : base.generations()) gen = Math.max(gen, g + 1);
+        int[] gens = changed == null ? new int[n] : base.generations().clone();
+        SnapshotWriter.Snapshot[] parts = split(s, which);
+        List<Callable<long[]>> writes = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            if (!which[i]) continue;
+            int p = i;
+            Path from = changed == null ? null : file(dir, i, gens[i]);
+            Path target = file(dir, i, gen);
+            gens[i] = gen;
+            writes.add(() -> {
+                SnapshotWriter.Snapshot part = from == null ? parts[p] : patch(StoreFormat.readBinary(from, false), parts[p], changed, p, n);
+                try (FileChannel ch = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                        StandardOpenOption.TRUNCATE_EXISTING)) {
+                    long bytes = StoreFormat.writeBinary(ch, part);
+                    ch.force(true);
+                    return new long[] {part.totals().size() + part.active().size() + part.names().size(), bytes};
+                }
+            });
+        }
+        for (long[] r : invokeAll(pool, writes)) {
+            stats[0] += r[0];
+            stats[1] += r[1];
+        }
+        Manifest m = new Manifest(s.journalSeq(), gens);
+        writeManifest(dir, m);
+        deleteUnreferenced(dir, m);
+        return m;
+    }
+
+    // partition p as committed (`old`), with the changed players' records replaced by those in `delta`
+    private static SnapshotWriter.Snapshot patch(SnapshotWriter.Snapshot old, SnapshotWriter.Snapshot delta, UuidLongMap changed,
+                                                 int p, int n) {
+        changed.forEach((m, l, ignored) -> {
+            if (partitionOf(m, l, n) != p) return;
+            old.totals().remove(m, l, 0L);
+            old.active().remove(m, l, 0L);
+            old.idle().remove(m, l, 0L);
+            old.idleSince().remove(m, l, 0L);
+            old.sessionIdle().remove(m, l, 0L);
+            old.lastSeen().remove(m, l, 0L);
+            old.names().remove(new UUID(m, l));
+            old.windows().drop(m, l);
+        });
+        delta.totals().forEach(old.totals()::put);
+        delta.active().forEach(old.active()::put);
+        delta.idle().forEach(old.idle()::put);
+        delta.idleSince().forEach(old.idleSince()::put);
+        delta.sessionIdle().forEach(old.sessionIdle()::put);
+        delta.lastSeen().forEach(old.lastSeen()::put);
+        old.names().putAll(delta.names());
+        delta.windows().forEachSlot(old.windows()::restoreSlot);
+        delta.windows().credited().forEach(old.windows().credited()::put);
+        old.windows().setCurrentDay(Math.max(old.windows().currentDay(), delta.windows().currentDay()));
+        return new SnapshotWriter.Snapshot(delta.journalSeq(), old.totals(), old.active(), old.idle(), old.idleSince(),
+                old.sessionIdle(), old.lastSeen(), old.names(), old.windows());
+    }
+
+    /** Per partition flagged in {@code which}, a snapshot of its players in {@code s}; null for the others. */
+    static SnapshotWriter.Snapshot[] split(SnapshotWriter.Snapshot s, boolean[] which) {
+        int n = which.length;
+        SnapshotWriter.Snapshot[] parts = new SnapshotWriter.Snapshot[n];
+        for (int i = 0; i < n; i++) {
+            if (which[i]) parts[i] = emptyLike(s, n);
+        }
+        IntFunction<SnapshotWriter.Snapshot> target = i -> parts[i];
+        route(s.totals(), n, target, SnapshotWriter.Snapshot::totals);
+        route(s.active(), n, target, SnapshotWriter.Snapshot::active);
+        route(s.idle(), n, target, SnapshotWriter.Snapshot::idle);
+        route(s.idleSince(), n, target, SnapshotWriter.Snapshot::idleSince);
+        route(s.sessionIdle(), n, target, SnapshotWriter.Snapshot::sessionIdle);
+        route(s.lastSeen(), n, target, SnapshotWriter.Snapshot::lastSeen);
+        route(s.windows().credited(), n, target, t -> t.windows().credited());
+        s.names().forEach((uuid, name) -> {
+            SnapshotWriter.Snapshot t = parts[partitionOf(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits(), n)];
+            if (t != null) t.names().put(uuid, name);
+        });
+        s.windows().forEachSlot((m, l, last, ring, off) -> {
+            SnapshotWriter.Snapshot t = parts[partitionOf(m, l, n)];
+            if (t != null) t.windows().restoreSlot(m, l, last, ring, off);
+        });
+        return parts;
+    }
+
+    private static void route(UuidLongMap from, int n, IntFunction<SnapshotWriter.Snapshot> target,
+                              Function<SnapshotWriter.Snapshot, UuidLongMap> table) {
+        from.forEach((m, l, v) -> {
+            SnapshotWriter.Snapshot t = target.apply(partitionOf(m, l, n));
+            if (t != null) table.apply(t).put(m, l, v);
+        });
+    }
+
+    // sized for one partition's share of s, so splitting doesn't keep rehashing
+    private static SnapshotWriter.Snapshot emptyLike(SnapshotWriter.Snapshot s, int n) {
+        WindowCounters w = new WindowCounters(ZoneId.systemDefault());
+        w.setCurrentDay(s.windows().currentDay());
+        return new SnapshotWriter.Snapshot(s.journalSeq(), sized(s.totals(), n), sized(s.active(), n), sized(s.idle(), n),
+                sized(s.idleSince(), n), sized(s.sessionIdle(), n), sized(s.lastSeen(), n),
+                new HashMap<>(Math.max(16, (int) (share(s.names().size(), n) / 0.75f) + 1)), w);
+    }
+
+    private static UuidLongMap sized(UuidLongMap like, int n) {
+        return new UuidLongMap(share(like.size(), n), false);
+    }
+
+    // a bit over the average, as partitions are only about equal
+    private static int share(int size, int n) {
+        return size / n * 9 / 8 + 16;
+    }
+
+    /** Deletes partition files (and leftover temp files) the manifest doesn't name. Best effort. */
+    private static void deleteUnreferenced(Path dir, Manifest m) {
+        Set<String> keep = new HashSet<>();
+        for (int i = 0; i < m.partitions(); i++) keep.add(file(dir, i, m.generations()[i]).getFileName().toString());
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, PREFIX + "*")) {
+            for (Path f : files) {
+                if (keep.contains(f.getFileName().toString())) continue;
+                try {
+                    Files.deleteIfExists(f);
+                } catch (IOException e) {
+                    LOGGER.debug("[PlaytimeLB] could not delete {} yet: {}", f.getFileName(), e.toString());
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.warn("[PlaytimeLB] could not list store partition files", e);
+        }
+    }
+
+    // ==== Pool ====
+
+    // runs the tasks on the pool (inline if there is just one), rethrowing the first failure
+    static <T> List<T> invokeAll(ExecutorService pool, List<Callable<T>> tasks) throws IOException {
+        List<T> out = new ArrayList<>(tasks.size());
+        if (tasks.size() == 1) {
+            try {
+                out.add(tasks.get(0).call());
+            } catch (IOException | RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IOException(e);
+            }
+            return out;
+        }
+        List<Future<T>> futures = new ArrayList<>(tasks.size());
+        for (Callable<T> t : tasks) futures.add(pool.submit(t));
+        for (Future<T> f : futures) out.add(get(f));
+        return out;
+    }
+
+    static <T> T get(Future<T> f) throws IOException {
+        try {
+            return f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException io) throw io;
+            if (e.getCause() instanceof RuntimeException r) throw r;
+            throw new IOException(e.getCause());
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package com.playtimelb.store;
+
+import java.time.ZoneId;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * The part of the store the read methods look at: totals, live sessions, names and the rankings
+ * over them. Totals count active time only; idle stretches of a session go to {@link #idle}. The store keeps two of these in a {@link LeftRight} and applies each mutation below
+ * to both, so they must stay deterministic: everything they need (times included) is an argument.
+ * Not thread-safe on its own.
+ *
+ * Long-inactive players live only in {@link #cold}, the read-only archive; the maps here hold the
+ * hot tier. A player found in both (back since the archive was written) is in {@link #promoted},
+ * and the hot copy wins.
+ */
+final class StoreTables {
+    static final long NONE = Long.MIN_VALUE;
+
+    final UuidLongMap totals;          // total seconds, idle time excluded
+    final UuidLongMap active;          // session start time (ns)
+    final UuidLongMap idle;            // idle seconds of finished sessions
+    final UuidLongMap idleSince;       // online and idle: when that started (ns)
+    final UuidLongMap sessionIdle;     // online: ns idle in the current session, before idleSince
+    final UuidLongMap lastSeen;        // last login or logout (epoch s)
+    final Map<UUID, String> lastName;  // last seen name
+    final NameIndex names;             // lowercase name -> uuid, prefix completion
+    final RankIndex ranks;             // mirrors totals in leaderboard order
+    final WindowCounters windows;      // daily buckets for top today/week/month
+    ColdArchive cold;                  // cold tier, shared by both replicas (immutable)
+    final UuidLongMap promoted;        // in cold and back in the tables (set)
+
+    StoreTables(UuidLongMap totals, UuidLongMap active, UuidLongMap idle, UuidLongMap idleSince, UuidLongMap sessionIdle,
+                UuidLongMap lastSeen, Map<UUID, String> lastName, NameIndex names, RankIndex ranks, WindowCounters windows,
+                ColdArchive cold, UuidLongMap promoted) {
+        this.totals = totals;
+        this.active = active;
+        this.idle = idle;
+        this.idleSince = idleSince;
+        this.sessionIdle = sessionIdle;
+        this.lastSeen = lastSeen;
+        this.lastName = lastName;
+        this.names = names;
+        this.ranks = ranks;
+        this.windows = windows;
+        this.cold = cold;
+        this.promoted = promoted;
+    }
+
+    static StoreTables empty() {
+        return new StoreTables(new UuidLongMap(), new UuidLongMap(), new UuidLongMap(), new UuidLongMap(), new UuidLongMap(),
+                new UuidLongMap(), new HashMap<>(), new NameIndex(), new RankIndex(), new WindowCounters(ZoneId.systemDefault()),
+                ColdArchive.EMPTY, new UuidLongMap());
+    }
+
+    /** Independent replica with equal contents (and equal future behaviour). */
+    StoreTables copy() {
+        return new StoreTables(totals.copy(), active.copy(), idle.copy(), idleSince.copy(), sessionIdle.copy(),
+                lastSeen.copy(), new HashMap<>(lastName), names.copy(), ranks.copy(), windows.replica(), cold, promoted.copy());
+    }
+
+    void login(UUID uuid, String name, long nowNs) {
+        long m = uuid.getMostSignificantBits(), l = uuid.getLeastSignificantBits();
+        active.put(m, l, nowNs);
+        lastSeen.put(m, l, Math.floorDiv(nowNs, 1_000_000_000L));
+        idleSince.remove(m, l, NONE);
+        sessionIdle.remove(m, l, 0L);
+        windows.login(m, l);
+        setName(uuid, name);
+    }
+
+    /** Ends a session; returns the active seconds credited (0 if the player wasn't online). */
+    long logout(UUID uuid, String name, long endNs) {
+        long m = uuid.getMostSignificantBits(), l = uuid.getLeastSignificantBits();
+        long start = active.remove(m, l, NONE);
+        long since = idleSince.remove(m, l, NONE);
+        long idleNs = sessionIdle.remove(m, l, 0L);
+        setName(uuid, name);
+        lastSeen.put(m, l, Math.floorDiv(endNs, 1_000_000_000L));
+        if (start == NONE || endNs < start) return 0L;
+        long until = since == NONE ? endNs : Math.min(endNs, since);
+        idleNs += endNs - until;
+        if (idleNs >= 1_000_000_000L) idle.addTo(m, l, idleNs / 1_000_000_000L);
+        long add = Math.max(0L, (endNs - start - idleNs) / 1_000_000_000L);
+        long old = totals.get(m, l, NONE);
+        long now = totals.addTo(m, l, add);
+        ranks.update(m, l, old != NONE, old, now);
+        windows.logout(m, l, start, until);
+        return add;
+    }
+
+    /** An online player went idle; returns false if they weren't online or already idle. */
+    boolean idleStart(UUID uuid, long nowNs) {
+        long m = uuid.getMostSignificantBits(), l = uuid.getLeastSignificantBits();
+        long start = active.get(m, l, NONE);
+        if (start == NONE || idleSince.containsKey(m, l)) return false;
+        long at = Math.max(start, nowNs);
+        idleSince.put(m, l, at);
+        windows.pause(m, l, start, at);
+        return true;
+    }
+
+    /** An idle player is active again; returns false if they weren't idle. */
+    boolean idleEnd(UUID uuid, long nowNs) {
+        long m = uuid.getMostSignificantBits(), l = uuid.getLeastSignificantBits();
+        long since = idleSince.remove(m, l, NONE);
+        if (since == NONE) return false;
+        long at = Math.max(since, nowNs);
+        sessionIdle.addTo(m, l, at - since);
+        windows.resume(m, l, at);
+        return true;
+    }
+
+    /** Returns whether the name changed. */
+    boolean setName(UUID uuid, String name) {
+        if (name == null) return false;
+        String old = lastName.put(uuid, name);
+        names.put(uuid, old, name);
+        return !name.equals(old);
+    }
+
+    /** Raises a total to {@code secs} (backfill); returns false if it was already at least that. */
+    boolean raiseTotal(long m, long l, long secs) {
+        long old = totals.get(m, l, NONE);
+        if (old != NONE && old >= secs || secs <= 0) return false;
+        totals.put(m, l, secs);
+        ranks.update(m, l, old != NONE, old, secs);
+        return true;
+    }
+
+    /** Brings an archived player back into the tables (login, backfill); the archive copy is then shadowed. */
+    void promote(long m, long l, ColdArchive.Entry e) {
+        long old = totals.get(m, l, NONE);
+        if (old == NONE) {
+            totals.put(m, l, e.total());
+            ranks.insert(m, l, e.total());
+        }
+        if (e.idle() > 0 && !idle.containsKey(m, l)) idle.put(m, l, e.idle());
+        if (!lastSeen.containsKey(m, l)) lastSeen.put(m, l, e.lastSeen());
+        if (e.name() != null && !lastName.containsKey(new UUID(m, l))) setName(new UUID(m, l), e.name());
+        promoted.put(m, l, 1L);
+    }
+
+    /** Drops a player whose record is now in the archive from the tables (they must be offline). */
+    void demote(long m, long l) {
+        long total = totals.remove(m, l, NONE);
+        if (total != NONE) ranks.remove(m, l, total);
+        idle.remove(m, l, 0L);
+        lastSeen.remove(m, l, 0L);
+        UUID uuid = new UUID(m, l);
+        String name = lastName.remove(uuid);
+        if (name != null) names.remove(uuid, name);
+        promoted.remove(m, l, 0L);
+    }
+
+    /** Switches to a new archive generation, which no longer holds the players in {@code dropped}. */
+    void installCold(ColdArchive archive, UuidLongMap dropped) {
+        cold = archive;
+        dropped.forEach((m, l, ignored) -> promoted.remove(m, l, 0L));
+    }
+
+    /** Gives back the maps' spare capacity after many players were demoted. */
+    void trim() {
+        totals.trim();
+        idle.trim();
+        lastSeen.trim();
+        promoted.trim();
+    }
+
+    /** The archived record of a player not in the tables, or null. */
+    ColdArchive.Entry coldEntry(long m, long l) {
+        return promoted.containsKey(m, l) ? null : cold.find(m, l);
+    }
+
+    /** Stored total in either tier, or NONE. */
+    long storedTotal(long m, long l) {
+        long total = totals.get(m, l, NONE);
+        if (total != NONE) return total;
+        ColdArchive.Entry e = coldEntry(m, l);
+        return e == null ? NONE : e.total();
+    }
+
+    /** Idle seconds of finished sessions, in either tier. */
+    long storedIdle(long m, long l) {
+        if (idle.containsKey(m, l)) return idle.get(m, l, 0L);
+        ColdArchive.Entry e = coldEntry(m, l);
+        return e == null ? 0L : e.idle();
+    }
+
+    /** Archived players still shadowed by nobody. */
+    int coldSize() {
+        return cold.size() - promoted.size();
+    }
+
+    /** Store reset: zeroes the totals and drops the archive with everyone in it; names and last-seen stay. */
+    void reset() {
+        totals.clear();
+        active.clear();
+        idle.clear();
+        idleSince.clear();
+        sessionIdle.clear();
+        ranks.clear();
+        windows.clear();
+        cold = ColdArchive.EMPTY;
+        promoted.clear();
+    }
+
+    /** Folds online players' time so far into the window buckets and rolls the windows to {@code nowNs}'s day. */
+    void checkpointWindows(long nowNs) {
+        windows.checkpoint(active, idleSince, nowNs);
+    }
+
+    void advanceWindows(int day) {
+        windows.advanceTo(day);
+    }
+
+    /** Active seconds of an online player's session so far (what its logout would credit), 0 otherwise. */
+    long activeExtra(long m, long l, long nowNs) {
+        long start = active.get(m, l, NONE);
+        if (start == NONE) return 0L;
+        return Math.max(0L, (activeUntil(m, l, nowNs) - start - sessionIdle.get(m, l, 0L)) / 1_000_000_000L);
+    }
+
+    /** Idle seconds of an online player's session so far, 0 otherwise. */
+    long idleExtra(long m, long l, long nowNs) {
+        if (!active.containsKey(m, l)) return 0L;
+        long since = idleSince.get(m, l, NONE);
+        long ns = sessionIdle.get(m, l, 0L) + (since == NONE ? 0L : Math.max(0L, nowNs - since));
+        return ns / 1_000_000_000L;
+    }
+
+    /** Up to when an online player's current session counts as played: {@code nowNs}, or when they went idle. */
+    long activeUntil(long m, long l, long nowNs) {
+        long since = idleSince.get(m, l, NONE);
+        return since == NONE ? nowNs : Math.min(nowNs, since);
+    }
+}
@@ -0,0 +1,14 @@
+package com.playtimelb.store;
+
+/** Rolling leaderboard windows, in calendar days (server time zone) including today. */
+public enum TimeWindow {
+    TODAY(1),
+    WEEK(7),
+    MONTH(30);
+
+    final int days;
+
+    TimeWindow(int days) {
+        this.days = days;
+    }
+}
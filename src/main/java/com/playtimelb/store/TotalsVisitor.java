@@ -0,0 +1,12 @@
+package com.playtimelb.store;
+
+import java.io.IOException;
+
+/** Receives players' totals from {@link PlaytimeStore#streamTotals}. */
+public interface TotalsVisitor {
+    /** Called inside a store read, so it must be quick (encode into a buffer, no I/O). */
+    void visit(long msb, long lsb, long activeSecs, long idleSecs);
+
+    /** Called between chunks, outside the store's reads: the place for slow work such as writing out. */
+    default void endChunk() throws IOException {}
+}
@@ -0,0 +1,225 @@
+package com.playtimelb.store;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.util.UUID;
+
+/**
+ * Open-addressing UUID -> long table keyed on the UUID's two halves, with primitive values.
+ *
+ * Slots are three longs (msb, lsb, value) in one LongBuffer, either a wrapped long[] or a direct
+ * (off-heap) buffer. Linear probing with backward-shift deletion, so there are no tombstones.
+ * The all-zero UUID doubles as the empty marker and is kept aside in its own fields.
+ *
+ * Not thread-safe; {@link #copy()} gives a cheap point-in-time snapshot for other threads.
+ */
+public final class UuidLongMap {
+    public interface Visitor {
+        void accept(long msb, long lsb, long value);
+    }
+
+    private static final int SLOT = 3;
+    private static final float LOAD = 0.6f;
+
+    private final boolean offHeap;
+    private LongBuffer table;
+    private int mask;      // capacity - 1 (capacity in slots, power of two)
+    private int size;      // excludes the zero key
+    private boolean hasZero;
+    private long zeroValue;
+
+    public UuidLongMap(int expected, boolean offHeap) {
+        this.offHeap = offHeap;
+        int cap = 16;
+        while (cap * LOAD < expected) cap <<= 1;
+        this.table = allocate(cap);
+        this.mask = cap - 1;
+    }
+
+    public UuidLongMap() {
+        this(16, false);
+    }
+
+    private LongBuffer allocate(int slots) {
+        if (offHeap) {
+            return ByteBuffer.allocateDirect(slots * SLOT * Long.BYTES).order(ByteOrder.nativeOrder()).asLongBuffer();
+        }
+        return LongBuffer.wrap(new long[slots * SLOT]);
+    }
+
+    public int size() {
+        return size + (hasZero ? 1 : 0);
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public boolean isOffHeap() {
+        return offHeap;
+    }
+
+    public void clear() {
+        for (int i = 0, n = (mask + 1) * SLOT; i < n; i++) table.put(i, 0L);
+        size = 0;
+        hasZero = false;
+        zeroValue = 0L;
+    }
+
+    private static int hash(long msb, long lsb) {
+        long h = msb * 0x9E3779B97F4A7C15L ^ lsb;
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        return (int) h;
+    }
+
+    // slot index holding the key, or the empty slot where it would go
+    private int find(long msb, long lsb) {
+        int i = hash(msb, lsb) & mask;
+        while (true) {
+            int base = i * SLOT;
+            long m = table.get(base), l = table.get(base + 1);
+            if ((m == msb && l == lsb) || (m == 0L && l == 0L)) return i;
+            i = (i + 1) & mask;
+        }
+    }
+
+    private boolean occupied(int slot) {
+        int base = slot * SLOT;
+        return table.get(base) != 0L || table.get(base + 1) != 0L;
+    }
+
+    public boolean containsKey(long msb, long lsb) {
+        if (msb == 0L && lsb == 0L) return hasZero;
+        return occupied(find(msb, lsb));
+    }
+
+    public boolean containsKey(UUID uuid) {
+        return containsKey(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+    }
+
+    public long get(long msb, long lsb, long missing) {
+        if (msb == 0L && lsb == 0L) return hasZero ? zeroValue : missing;
+        int slot = find(msb, lsb);
+        return occupied(slot) ? table.get(slot * SLOT + 2) : missing;
+    }
+
+    public long get(UUID uuid, long missing) {
+        return get(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits(), missing);
+    }
+
+    public void put(long msb, long lsb, long value) {
+        if (msb == 0L && lsb == 0L) {
+            hasZero = true;
+            zeroValue = value;
+            return;
+        }
+        int slot = find(msb, lsb);
+        int base = slot * SLOT;
+        if (!occupied(slot)) {
+            table.put(base, msb);
+            table.put(base + 1, lsb);
+            if (++size > (mask + 1) * LOAD) {
+                table.put(base + 2, value);
+                rehash((mask + 1) << 1);
+                return;
+            }
+        }
+        table.put(base + 2, value);
+    }
+
+    public void put(UUID uuid, long value) {
+        put(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits(), value);
+    }
+
+    /** Adds {@code delta} (missing keys count as 0) and returns the new value. */
+    public long addTo(long msb, long lsb, long delta) {
+        long v = get(msb, lsb, 0L) + delta;
+        put(msb, lsb, v);
+        return v;
+    }
+
+    /** Removes the key and returns its value, or {@code missing} if it was absent. */
+    public long remove(long msb, long lsb, long missing) {
+        if (msb == 0L && lsb == 0L) {
+            if (!hasZero) return missing;
+            hasZero = false;
+            return zeroValue;
+        }
+        int slot = find(msb, lsb);
+        if (!occupied(slot)) return missing;
+        long old = table.get(slot * SLOT + 2);
+        // backward-shift: pull later entries of the probe run into the hole
+        int hole = slot;
+        int i = (slot + 1) & mask;
+        while (occupied(i)) {
+            int base = i * SLOT;
+            int home = hash(table.get(base), table.get(base + 1)) & mask;
+            if (((i - home) & mask) >= ((i - hole) & mask)) {
+                int dst = hole * SLOT;
+                table.put(dst, table.get(base));
+                table.put(dst + 1, table.get(base + 1));
+                table.put(dst + 2, table.get(base + 2));
+                hole = i;
+            }
+            i = (i + 1) & mask;
+        }
+        int dst = hole * SLOT;
+        table.put(dst, 0L);
+        table.put(dst + 1, 0L);
+        table.put(dst + 2, 0L);
+        size--;
+        return old;
+    }
+
+    public long remove(UUID uuid, long missing) {
+        return remove(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits(), missing);
+    }
+
+    public void forEach(Visitor visitor) {
+        if (hasZero) visitor.accept(0L, 0L, zeroValue);
+        for (int i = 0, n = mask + 1; i < n; i++) {
+            int base = i * SLOT;
+            long m = table.get(base), l = table.get(base + 1);
+            if (m != 0L || l != 0L) visitor.accept(m, l, table.get(base + 2));
+        }
+    }
+
+    /** Shrinks the table to fit the current size, if it is over four times larger than that. */
+    public void trim() {
+        int cap = 16;
+        while (cap * LOAD < size) cap <<= 1;
+        if (mask + 1 > cap * 4) rehash(cap);
+    }
+
+    /** Independent copy with the same layout; one bulk array copy. */
+    public UuidLongMap copy() {
+        UuidLongMap c = new UuidLongMap(0, offHeap);
+        c.table = c.allocate(mask + 1);
+        c.table.put(table.duplicate().clear());
+        c.table.clear();
+        c.mask = mask;
+        c.size = size;
+        c.hasZero = hasZero;
+        c.zeroValue = zeroValue;
+        return c;
+    }
+
+    private void rehash(int newCap) {
+        LongBuffer old = table;
+        int oldSlots = mask + 1;
+        table = allocate(newCap);
+        mask = newCap - 1;
+        for (int i = 0; i < oldSlots; i++) {
+            int base = i * SLOT;
+            long m = old.get(base), l = old.get(base + 1);
+            if (m == 0L && l == 0L) continue;
+            int slot = find(m, l) * SLOT;
+            table.put(slot, m);
+            table.put(slot + 1, l);
+            table.put(slot + 2, old.get(base + 2));
+        }
+    }
+}
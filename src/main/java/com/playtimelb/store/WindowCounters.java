@@ -0,0 +1,388 @@
+package com.playtimelb.store;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.Arrays;
+
+/**
+ * Per-player daily playtime buckets for the last {@link #RING} days, with running sums and a
+ * {@link RankIndex} per {@link TimeWindow}.
+ *
+ * Each player active in the ring gets a slot: a ring of daily second counts plus the newest day
+ * written. Crediting a day adds to the bucket and to every window sum that covers it. When the day
+ * rolls over, only players who played on the day leaving a window are touched (per-day member
+ * lists), and a slot is freed once its newest day leaves the ring. Session time is split at local
+ * midnight; pieces are floored relative to the session start so they add up to the session's
+ * total. For online players, {@link #credited} remembers how far their session is already in the
+ * buckets; idle stretches are skipped by moving it past them. Not thread-safe: the store mutates and reads it under its own lock.
+ */
+final class WindowCounters {
+    static final int RING = 31; // > the longest window, so its oldest day is still readable on expiry
+
+    private static final TimeWindow[] WINDOWS = TimeWindow.values();
+    private static final int NO_DAY = Integer.MIN_VALUE;
+
+    private final ZoneId zone;
+    private int currentDay = NO_DAY;
+
+    private final UuidLongMap slotOf;
+    private long[] slotMsb = new long[16];
+    private long[] slotLsb = new long[16];
+    private int[] lastDay = new int[16];
+    private int[] buckets = new int[16 * RING];
+    private final long[][] sums = new long[WINDOWS.length][16];
+    private final RankIndex[] ranks = new RankIndex[WINDOWS.length];
+    private int slots = 0;        // high-water mark
+    private int[] free = new int[16];
+    private int freeCount = 0;
+
+    private final int[][] members = new int[RING][];  // slots with time on ringDay[i]
+    private final int[] memberCount = new int[RING];
+    private final int[] ringDay = new int[RING];
+
+    /** Online players: ns up to which their current session has been credited. */
+    private final UuidLongMap credited;
+
+    WindowCounters(ZoneId zone) {
+        this(zone, new UuidLongMap(), new UuidLongMap());
+    }
+
+    private WindowCounters(ZoneId zone, UuidLongMap slotOf, UuidLongMap credited) {
+        this.zone = zone;
+        this.slotOf = slotOf;
+        this.credited = credited;
+        for (int w = 0; w < ranks.length; w++) ranks[w] = new RankIndex();
+        for (int i = 0; i < RING; i++) members[i] = new int[8];
+        Arrays.fill(ringDay, NO_DAY);
+    }
+
+    // ==== Time ====
+
+    int dayOf(long epochNs) {
+        return (int) LocalDate.ofInstant(Instant.ofEpochSecond(Math.floorDiv(epochNs, 1_000_000_000L)), zone).toEpochDay();
+    }
+
+    long dayStartNs(int day) {
+        return LocalDate.ofEpochDay(day).atStartOfDay(zone).toEpochSecond() * 1_000_000_000L;
+    }
+
+    /** Rolls the windows forward to {@code day}, expiring whatever falls out of them. */
+    void advanceTo(int day) {
+        if (currentDay == NO_DAY || day - currentDay >= RING) {
+            if (currentDay != NO_DAY) clearBuckets();
+            currentDay = day;
+            labelRing();
+            return;
+        }
+        while (currentDay < day) {
+            int d = ++currentDay;
+            for (int w = 0; w < WINDOWS.length; w++) {
+                int expiring = d - WINDOWS[w].days;
+                int ri = Math.floorMod(expiring, RING);
+                if (ringDay[ri] != expiring) continue;
+                for (int i = 0; i < memberCount[ri]; i++) {
+                    int s = members[ri][i];
+                    addToSum(w, s, -bucket(s, expiring));
+                }
+            }
+            // this ring position held day d - RING: slots whose newest day that was are done
+            int ri = Math.floorMod(d, RING);
+            for (int i = 0; i < memberCount[ri]; i++) {
+                int s = members[ri][i];
+                if (lastDay[s] <= d - RING) release(s);
+            }
+            memberCount[ri] = 0;
+            ringDay[ri] = d;
+        }
+    }
+
+    // ==== Crediting ====
+
+    /** Credits [fromNs, toNs) of a session that started at {@code startNs}, split by day. */
+    void credit(long m, long l, long startNs, long fromNs, long toNs) {
+        long from = Math.max(fromNs, startNs);
+        while (from < toNs) {
+            int day = dayOf(from);
+            long end = Math.min(toNs, dayStartNs(day + 1));
+            long secs = (end - startNs) / 1_000_000_000L - (from - startNs) / 1_000_000_000L;
+            creditDay(m, l, day, secs);
+            from = end;
+        }
+    }
+
+    /** Credits everything not yet credited of an ending session. */
+    void logout(long m, long l, long startNs, long endNs) {
+        long from = credited.remove(m, l, startNs);
+        credit(m, l, startNs, from, endNs);
+    }
+
+    /** Moves online players' time so far into the buckets (called at checkpoint); idle ones are skipped. */
+    void checkpoint(UuidLongMap activeStartNs, UuidLongMap idleSinceNs, long nowNs) {
+        advanceTo(dayOf(nowNs));
+        activeStartNs.forEach((m, l, start) -> {
+            if (idleSinceNs.containsKey(m, l)) return;
+            long from = credited.get(m, l, start);
+            if (from >= nowNs) return;
+            credit(m, l, start, from, nowNs);
+            credited.put(m, l, nowNs);
+        });
+    }
+
+    /** An online player went idle at {@code nowNs}: credits their session up to there. */
+    void pause(long m, long l, long startNs, long nowNs) {
+        long from = credited.get(m, l, startNs);
+        if (from >= nowNs) return;
+        credit(m, l, startNs, from, nowNs);
+        credited.put(m, l, nowNs);
+    }
+
+    /** ... and is back: the idle stretch up to {@code nowNs} is never credited. */
+    void resume(long m, long l, long nowNs) {
+        if (credited.get(m, l, Long.MIN_VALUE) < nowNs) credited.put(m, l, nowNs);
+    }
+
+    /** Drops all buckets and session progress (store reset); the current day is kept. */
+    void clear() {
+        clearBuckets();
+        credited.clear();
+        if (currentDay != NO_DAY) labelRing();
+    }
+
+    /** A new session starts from scratch, whatever an unterminated earlier one left behind. */
+    void login(long m, long l) {
+        credited.remove(m, l, 0L);
+    }
+
+    private void creditDay(long m, long l, int day, long secs) {
+        if (secs <= 0) return;
+        if (currentDay == NO_DAY || day > currentDay) advanceTo(day);
+        if (day <= currentDay - RING + 1) return; // older than anything we keep
+        int s = slotFor(m, l);
+        int ri = Math.floorMod(day, RING);
+        if (day > lastDay[s]) {
+            for (int d = Math.max(lastDay[s] + 1, day - RING + 1); d <= day; d++) buckets[s * RING + Math.floorMod(d, RING)] = 0;
+            lastDay[s] = day;
+        }
+        int idx = s * RING + ri;
+        if (buckets[idx] == 0) addMember(ri, s);
+        buckets[idx] = (int) Math.min(Integer.MAX_VALUE, buckets[idx] + secs);
+        for (int w = 0; w < WINDOWS.length; w++) {
+            if (day > currentDay - WINDOWS[w].days) addToSum(w, s, secs);
+        }
+    }
+
+    // ==== Queries ====
+
+    long sum(TimeWindow window, long m, long l) {
+        int s = (int) slotOf.get(m, l, -1L);
+        return s < 0 ? 0L : sums[window.ordinal()][s];
+    }
+
+    RankIndex ranks(TimeWindow window) {
+        return ranks[window.ordinal()];
+    }
+
+    /** Seconds of an online player's session inside the window that aren't in the buckets yet. */
+    long uncredited(TimeWindow window, long m, long l, long startNs, long nowNs) {
+        long from = Math.max(credited.get(m, l, startNs), dayStartNs(currentDay - window.days + 1));
+        if (from >= nowNs) return 0L;
+        return (nowNs - startNs) / 1_000_000_000L - (Math.max(from, startNs) - startNs) / 1_000_000_000L;
+    }
+
+    int currentDay() {
+        return currentDay;
+    }
+
+    // ==== Persistence ====
+
+    interface SlotVisitor {
+        /** {@code ring} is indexed by day % RING; only days in (lastDay - RING, lastDay] are meaningful. */
+        void slot(long msb, long lsb, int lastDay, int[] ring, int ringOffset);
+    }
+
+    void forEachSlot(SlotVisitor visitor) {
+        slotOf.forEach((m, l, s) -> visitor.slot(m, l, lastDay[(int) s], buckets, (int) s * RING));
+    }
+
+    int slotCount() {
+        return slotOf.size();
+    }
+
+    UuidLongMap credited() {
+        return credited;
+    }
+
+    /** Independent copy for the persistence thread; index structures are left empty. */
+    WindowCounters copy() {
+        WindowCounters c = new WindowCounters(zone);
+        c.currentDay = currentDay;
+        forEachSlot((m, l, last, ring, off) -> c.restoreSlot(m, l, last, ring, off));
+        credited.forEach(c.credited::put);
+        return c;
+    }
+
+    /** Independent copy including the sums, ranks and member lists (a replica), without a {@link #rebuild()}. */
+    WindowCounters replica() {
+        WindowCounters c = new WindowCounters(zone, slotOf.copy(), credited.copy());
+        c.currentDay = currentDay;
+        c.slotMsb = slotMsb.clone();
+        c.slotLsb = slotLsb.clone();
+        c.lastDay = lastDay.clone();
+        c.buckets = buckets.clone();
+        for (int w = 0; w < sums.length; w++) {
+            c.sums[w] = sums[w].clone();
+            c.ranks[w] = ranks[w].copy();
+        }
+        c.slots = slots;
+        c.free = free.clone();
+        c.freeCount = freeCount;
+        for (int i = 0; i < RING; i++) c.members[i] = members[i].clone();
+        System.arraycopy(memberCount, 0, c.memberCount, 0, RING);
+        System.arraycopy(ringDay, 0, c.ringDay, 0, RING);
+        return c;
+    }
+
+    void setCurrentDay(int day) {
+        currentDay = day;
+    }
+
+    /** Copies a player's slot and credited mark, if they have them, into {@code into} (a snapshot's counters). */
+    void copySlot(long m, long l, WindowCounters into) {
+        long s = slotOf.get(m, l, -1L);
+        if (s >= 0) into.restoreSlot(m, l, lastDay[(int) s], buckets, (int) s * RING);
+        if (credited.containsKey(m, l)) into.credited.put(m, l, credited.get(m, l, 0L));
+    }
+
+    /** Removes a player's slot and credited mark (a snapshot's counters, no ranks kept). */
+    void drop(long m, long l) {
+        release((int) slotOf.get(m, l, -1L));
+        credited.remove(m, l, 0L);
+    }
+
+    /** Adds a persisted slot; call {@link #rebuild()} once all are in. */
+    void restoreSlot(long m, long l, int last, int[] ring, int off) {
+        int s = slotFor(m, l);
+        lastDay[s] = last;
+        System.arraycopy(ring, off, buckets, s * RING, RING);
+    }
+
+    /** Recomputes member lists, window sums and ranks from the restored buckets. */
+    void rebuild() {
+        Arrays.fill(ringDay, NO_DAY);
+        Arrays.fill(memberCount, 0);
+        for (long[] w : sums) Arrays.fill(w, 0L);
+        for (RankIndex r : ranks) r.clear();
+        if (currentDay == NO_DAY) return;
+        labelRing();
+        // per window, the (sum, uuid) entries to bulk-build its ranking from
+        int cap = slotOf.size();
+        long[][] rs = new long[WINDOWS.length][cap], rm = new long[WINDOWS.length][cap], rl = new long[WINDOWS.length][cap];
+        int[] rn = new int[WINDOWS.length];
+        slotOf.forEach((m, l, sl) -> {
+            int s = (int) sl;
+            for (int d = currentDay - RING + 1; d <= Math.min(lastDay[s], currentDay); d++) {
+                int b = bucket(s, d);
+                if (b <= 0) continue;
+                addMember(Math.floorMod(d, RING), s);
+                for (int w = 0; w < WINDOWS.length; w++) {
+                    if (d > currentDay - WINDOWS[w].days) sums[w][s] += b;
+                }
+            }
+            for (int w = 0; w < WINDOWS.length; w++) {
+                if (sums[w][s] <= 0) continue;
+                rs[w][rn[w]] = sums[w][s];
+                rm[w][rn[w]] = m;
+                rl[w][rn[w]++] = l;
+            }
+        });
+        for (int w = 0; w < WINDOWS.length; w++) ranks[w].build(rs[w], rm[w], rl[w], rn[w]);
+        // drop slots with nothing left in the ring
+        long[] dead = new long[2 * slotOf.size()];
+        int[] n = {0};
+        slotOf.forEach((m, l, sl) -> {
+            int s = (int) sl;
+            if (lastDay[s] <= currentDay - RING) {
+                dead[n[0]++] = m;
+                dead[n[0]++] = l;
+            }
+        });
+        for (int i = 0; i < n[0]; i += 2) release((int) slotOf.get(dead[i], dead[i + 1], -1L));
+    }
+
+    // ==== Internals ====
+
+    private int bucket(int s, int day) {
+        if (day > lastDay[s] || day <= lastDay[s] - RING) return 0;
+        return buckets[s * RING + Math.floorMod(day, RING)];
+    }
+
+    private void addToSum(int w, int s, long delta) {
+        if (delta == 0) return;
+        long old = sums[w][s];
+        long now = Math.max(0L, old + delta);
+        sums[w][s] = now;
+        if (old > 0) ranks[w].remove(slotMsb[s], slotLsb[s], old);
+        if (now > 0) ranks[w].insert(slotMsb[s], slotLsb[s], now);
+    }
+
+    private void addMember(int ri, int s) {
+        int n = memberCount[ri];
+        if (n == members[ri].length) members[ri] = Arrays.copyOf(members[ri], n * 2);
+        members[ri][n] = s;
+        memberCount[ri] = n + 1;
+    }
+
+    private int slotFor(long m, long l) {
+        long existing = slotOf.get(m, l, -1L);
+        if (existing >= 0) return (int) existing;
+        int s;
+        if (freeCount > 0) {
+            s = free[--freeCount];
+        } else {
+            if (slots == slotMsb.length) grow();
+            s = slots++;
+        }
+        slotOf.put(m, l, s);
+        slotMsb[s] = m;
+        slotLsb[s] = l;
+        lastDay[s] = NO_DAY;
+        Arrays.fill(buckets, s * RING, s * RING + RING, 0);
+        for (long[] w : sums) w[s] = 0L;
+        return s;
+    }
+
+    private void release(int s) {
+        if (s < 0 || slotOf.remove(slotMsb[s], slotLsb[s], -1L) < 0) return;
+        for (int w = 0; w < WINDOWS.length; w++) {
+            if (sums[w][s] > 0) ranks[w].remove(slotMsb[s], slotLsb[s], sums[w][s]);
+            sums[w][s] = 0L;
+        }
+        if (freeCount == free.length) free = Arrays.copyOf(free, freeCount * 2);
+        free[freeCount++] = s;
+    }
+
+    // ring positions hold the RING days up to and including the current one
+    private void labelRing() {
+        for (int d = currentDay - RING + 1; d <= currentDay; d++) ringDay[Math.floorMod(d, RING)] = d;
+    }
+
+    private void clearBuckets() {
+        slotOf.clear();
+        slots = 0;
+        freeCount = 0;
+        for (long[] w : sums) Arrays.fill(w, 0L);
+        for (RankIndex r : ranks) r.clear();
+        Arrays.fill(memberCount, 0);
+        Arrays.fill(ringDay, NO_DAY);
+    }
+
+    private void grow() {
+        int cap = slotMsb.length * 2;
+        slotMsb = Arrays.copyOf(slotMsb, cap);
+        slotLsb = Arrays.copyOf(slotLsb, cap);
+        lastDay = Arrays.copyOf(lastDay, cap);
+        buckets = Arrays.copyOf(buckets, cap * RING);
+        for (int w = 0; w < sums.length; w++) sums[w] = Arrays.copyOf(sums[w], cap);
+    }
+}
@@ -0,0 +1,93 @@
+package com.playtimelb.cluster;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+/** Publishing, pruning and polling through a shared directory, as two servers would. */
+class DirectoryTransportTest {
+    private record Got(String id, long version, boolean base, String body) {}
+
+    @Test
+    void pollHandsOverEachPayloadOnceInOrder(@TempDir Path dir) throws Exception {
+        DirectoryTransport a = new DirectoryTransport(dir), b = new DirectoryTransport(dir);
+        a.publish("a", 1, true, bytes("a1"));
+        a.publish("a", 2, false, bytes("a2"));
+        b.publish("b", 1, true, bytes("b1"));
+        Map<String, Long> seen = new HashMap<>();
+        assertEquals(List.of(new Got("a", 1, true, "a1"), new Got("a", 2, false, "a2")), poll(b, "b", seen));
+        assertEquals(Map.of("a", 2L), seen);
+        assertEquals(List.of(), poll(b, "b", seen));
+
+        a.publish("a", 3, false, bytes("a3"));
+        assertEquals(List.of(new Got("a", 3, false, "a3")), poll(b, "b", seen));
+        assertEquals(3L, a.latestVersion("a"));
+        assertEquals(0L, a.latestVersion("c"));
+    }
+
+    @Test
+    void aServerBehindThePrunedDeltasStartsFromTheLatestBase(@TempDir Path dir) throws Exception {
+        DirectoryTransport t = new DirectoryTransport(dir);
+        t.publish("a", 1, true, bytes("a1"));
+        for (int v = 2; v <= 4; v++) t.publish("a", v, false, bytes("a" + v));
+        t.publish("a", 5, true, bytes("a5"));
+        t.publish("a", 6, false, bytes("a6"));
+        t.publish("a", 7, true, bytes("a7")); // drops everything before the base at 5
+        t.publish("a", 8, false, bytes("a8"));
+        assertFalse(Files.exists(dir.resolve("a").resolve(String.format("%016d.delta", 4))));
+
+        Map<String, Long> seen = new HashMap<>(Map.of("a", 3L));
+        assertEquals(List.of(new Got("a", 7, true, "a7"), new Got("a", 8, false, "a8")), poll(t, "b", seen));
+        assertEquals(8L, seen.get("a"));
+
+        // one that was only a delta behind the newest base still reads on from it
+        seen.put("a", 6L);
+        assertEquals(List.of(new Got("a", 7, true, "a7"), new Got("a", 8, false, "a8")), poll(t, "b", seen));
+    }
+
+    @Test
+    void aMissingDeltaStopsThePollUntilTheNextBase(@TempDir Path dir) throws Exception {
+        DirectoryTransport t = new DirectoryTransport(dir);
+        t.publish("a", 1, true, bytes("a1"));
+        for (int v = 2; v <= 5; v++) t.publish("a", v, false, bytes("a" + v));
+        Files.delete(dir.resolve("a").resolve(String.format("%016d.delta", 3)));
+
+        Map<String, Long> seen = new HashMap<>();
+        assertEquals(List.of(new Got("a", 1, true, "a1"), new Got("a", 2, false, "a2")), poll(t, "b", seen));
+        assertEquals(2L, seen.get("a")); // not past the gap, so nothing after it is taken as applied
+        assertEquals(List.of(), poll(t, "b", seen));
+
+        t.publish("a", 6, true, bytes("a6"));
+        assertEquals(List.of(new Got("a", 6, true, "a6")), poll(t, "b", seen));
+        assertEquals(6L, seen.get("a"));
+    }
+
+    @Test
+    void ownPayloadsAndStrayFilesAreSkipped(@TempDir Path dir) throws Exception {
+        DirectoryTransport t = new DirectoryTransport(dir);
+        Files.writeString(dir.resolve("notes.txt"), "not a server");
+        t.publish("a", 1, true, bytes("a1"));
+        assertEquals(List.of(), poll(t, "a", new HashMap<>()));
+        assertEquals(List.of(), poll(new DirectoryTransport(dir.resolve("missing")), "b", new HashMap<>()));
+    }
+
+    private static List<Got> poll(DirectoryTransport t, String self, Map<String, Long> seen) throws Exception {
+        List<Got> out = new ArrayList<>();
+        t.poll(self, seen, (id, v, base, payload) -> out.add(new Got(id, v, base, new String(payload, StandardCharsets.UTF_8))));
+        return out;
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,144 @@
+package com.playtimelb.export;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ExportSpoolTest {
+    @Test
+    void replaysFromTheCursorAfterARestart(@TempDir Path dir) throws Exception {
+        ExportSpool spool = new ExportSpool(dir, 1L << 20, 256);
+        for (int i = 0; i < 10; i++) append(spool, i);
+        for (int i = 0; i < 4; i++) {
+            assertEquals("batch " + i, body(spool.peek()));
+            spool.ack();
+        }
+        assertEquals("batch 4", body(spool.peek())); // handed out, never acked
+        assertEquals("batch 4", body(spool.peek()));
+        spool.close();
+
+        spool = new ExportSpool(dir, 1L << 20, 256);
+        ExportSpool.Batch b = spool.peek();
+        assertEquals("batch 4", body(b));
+        assertEquals(5, b.lines());
+        spool.ack();
+        append(spool, 10);
+        spool.close();
+
+        spool = new ExportSpool(dir, 1L << 20, 256);
+        assertEquals(List.of(5, 6, 7, 8, 9, 10), drain(spool));
+        assertTrue(spool.isEmpty());
+        spool.close();
+        spool = new ExportSpool(dir, 1L << 20, 256);
+        assertNull(spool.peek());
+        assertEquals(0L, spool.bytes());
+    }
+
+    @Test
+    void stopsAtATornWrite(@TempDir Path dir) throws Exception {
+        ExportSpool spool = new ExportSpool(dir, 1L << 20, 1L << 20);
+        for (int i = 0; i < 5; i++) append(spool, i);
+        spool.close();
+        Path segment = onlySegment(dir);
+        try (FileChannel ch = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            ch.truncate(ch.size() - 3); // crash in the middle of the last batch
+        }
+
+        spool = new ExportSpool(dir, 1L << 20, 1L << 20);
+        append(spool, 5); // after a restart appends go to a new segment, not after the torn batch
+        assertEquals(List.of(0, 1, 2, 3, 5), drain(spool));
+        spool.close();
+    }
+
+    @Test
+    void stopsAtACorruptBatch(@TempDir Path dir) throws Exception {
+        ExportSpool spool = new ExportSpool(dir, 1L << 20, 1L << 20);
+        for (int i = 0; i < 3; i++) append(spool, i);
+        spool.close();
+        Path segment = onlySegment(dir);
+        byte[] b = Files.readAllBytes(segment);
+        b[b.length - 1] ^= 1;
+        Files.write(segment, b);
+
+        spool = new ExportSpool(dir, 1L << 20, 1L << 20);
+        assertEquals(List.of(0, 1), drain(spool));
+        spool.close();
+    }
+
+    @Test
+    void evictsTheOldestSegmentsOverTheCap(@TempDir Path dir) throws Exception {
+        long cap = 4096;
+        ExportSpool spool = new ExportSpool(dir, cap, 4L << 20); // segments are cut to cap / 8
+        int n = 400, batchBytes = 12 + ("batch " + (n - 1)).length();
+        // some of the oldest segment already replayed: evicting it drops only the unread batches
+        for (int i = 0; i < 20; i++) append(spool, i);
+        for (int i = 0; i < 5; i++) {
+            spool.peek();
+            spool.ack();
+        }
+        for (int i = 20; i < n; i++) {
+            append(spool, i);
+            assertTrue(spool.bytes() <= cap + cap / 8 + batchBytes, "over the cap by more than a segment: " + spool.bytes());
+        }
+        long evicted = spool.evictedBatches();
+        assertTrue(evicted > 0);
+        assertEquals(spool.bytes(), dirBytes(dir));
+        spool.close();
+
+        spool = new ExportSpool(dir, cap, 4L << 20);
+        List<Integer> left = drain(spool);
+        // what is left is the newest batches, in order, and every batch is either left or evicted
+        assertEquals(n - 1, left.get(left.size() - 1));
+        for (int i = 1; i < left.size(); i++) assertEquals(left.get(i - 1) + 1, left.get(i));
+        assertEquals(n - 5, left.size() + evicted);
+        spool.close();
+    }
+
+    private static void append(ExportSpool spool, int i) throws Exception {
+        byte[] body = ("batch " + i).getBytes(StandardCharsets.UTF_8);
+        spool.append(body, 0, body.length, i + 1);
+    }
+
+    private static String body(ExportSpool.Batch b) {
+        return new String(b.body(), StandardCharsets.UTF_8);
+    }
+
+    private static List<Integer> drain(ExportSpool spool) throws Exception {
+        List<Integer> out = new ArrayList<>();
+        for (ExportSpool.Batch b; (b = spool.peek()) != null; ) {
+            int i = Integer.parseInt(body(b).substring("batch ".length()));
+            assertEquals(i + 1, b.lines());
+            out.add(i);
+            spool.ack();
+        }
+        return out;
+    }
+
+    private static Path onlySegment(Path dir) throws Exception {
+        try (Stream<Path> files = Files.list(dir)) {
+            List<Path> segments = files.filter(f -> f.getFileName().toString().endsWith(".seg")).toList();
+            assertEquals(1, segments.size());
+            return segments.get(0);
+        }
+    }
+
+    private static long dirBytes(Path dir) throws Exception {
+        long total = 0L;
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path f : (Iterable<Path>) files::iterator) if (f.getFileName().toString().endsWith(".seg")) total += Files.size(f);
+        }
+        return total;
+    }
+}
@@ -0,0 +1,98 @@
+package com.playtimelb.export;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.SplittableRandom;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Escaping per the line-protocol reference: measurements escape commas and spaces; tag keys, tag
+ * values and field keys also escape equals signs; string field values escape double quotes and
+ * backslashes. Two backslashes read as one everywhere, so a literal backslash is doubled.
+ */
+class LineProtocolEncoderTest {
+    @Test
+    void escapesEachElement() {
+        LineProtocolEncoder e = new LineProtocolEncoder(16);
+        e.measurement("play time,all=x").tag("server tag", "a=b, c").tag("k=", "\"q\"")
+                .stringField("user name", "say \"hi\", a=b \\ c").timestamp(5L);
+        e.endLine();
+        assertEquals("play\\ time\\,all=x,server\\ tag=a\\=b\\,\\ c,k\\==\"q\" user\\ name=\"say \\\"hi\\\", a=b \\\\ c\" 5\n", text(e));
+    }
+
+    @Test
+    void doublesBackslashes() {
+        LineProtocolEncoder e = new LineProtocolEncoder(16);
+        e.measurement("a\\b").tag("c\\", "\\d").floatField("e\\f", 1L).stringField("g", "\\");
+        assertEquals("a\\\\b,c\\\\=\\\\d e\\\\f=1,g=\"\\\\\"", text(e));
+    }
+
+    @Test
+    void lineBreaksBecomeSpaces() {
+        LineProtocolEncoder e = new LineProtocolEncoder(16);
+        e.measurement("m\nx").tag("t", "a\r\nb").stringField("s", "one\ntwo");
+        assertEquals("m\\ x,t=a\\ \\ b s=\"one two\"", text(e));
+    }
+
+    @Test
+    void nonAsciiIsUtf8() {
+        LineProtocolEncoder e = new LineProtocolEncoder(16);
+        e.measurement("Zeit").tag("username", "Jürgen ñandú 名前 🎮").stringField("n", "Ünïcode \"🎮\"");
+        assertEquals("Zeit,username=Jürgen\\ ñandú\\ 名前\\ 🎮 n=\"Ünïcode \\\"🎮\\\"\"", text(e));
+        e.reset();
+        e.tag("bad", "x\uD800y"); // unpaired surrogate
+        assertEquals(",bad=x?y", text(e));
+    }
+
+    @Test
+    void matchesTheReferenceOnRandomStrings() {
+        SplittableRandom rnd = new SplittableRandom(10);
+        int[] alphabet = "ab ,=\"\\\n\r\tZ_-.éß名🎮".codePoints().toArray();
+        for (int i = 0; i < 5000; i++) {
+            StringBuilder sb = new StringBuilder();
+            for (int n = rnd.nextInt(12); n > 0; n--) sb.appendCodePoint(alphabet[rnd.nextInt(alphabet.length)]);
+            String s = sb.toString();
+            LineProtocolEncoder e = new LineProtocolEncoder(8);
+            e.measurement(s).tag(s, s).floatField(s, 1L).stringField("v", s);
+            String expected = measurement(s) + "," + key(s) + "=" + key(s) + " " + key(s) + "=1,v=\"" + stringValue(s) + "\"";
+            assertEquals(expected, text(e), () -> "input " + s);
+        }
+    }
+
+    @Test
+    void numbersUuidsAndSeries() {
+        LineProtocolEncoder e = new LineProtocolEncoder(16);
+        UUID u = new UUID(0x00AB_0000_FF00_0001L, 0xF000_0000_0000_00FFL);
+        e.series(LineProtocolEncoder.seriesKey("m x", "server", "s 1")).tag("uuid", u.getMostSignificantBits(), u.getLeastSignificantBits())
+                .intField("a", -42L).floatField("b", Long.MIN_VALUE).intField("c", 0L).timestamp(Long.MAX_VALUE);
+        e.endLine();
+        e.measurement("m").floatField("d", 7L);
+        e.endLine();
+        assertEquals("m\\ x,server=s\\ 1,uuid=" + u + " a=-42i,b=-9223372036854775808,c=0i 9223372036854775807\nm d=7\n", text(e));
+        assertEquals(2, e.lines());
+        assertEquals(e.length() - 1, e.trimmedLength());
+    }
+
+    private static String measurement(String s) {
+        return lineBreaks(s).replace("\\", "\\\\").replace(",", "\\,").replace(" ", "\\ ");
+    }
+
+    private static String key(String s) {
+        return measurement(s).replace("=", "\\=");
+    }
+
+    private static String stringValue(String s) {
+        return lineBreaks(s).replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+
+    private static String lineBreaks(String s) {
+        return s.replace('\n', ' ').replace('\r', ' ');
+    }
+
+    private static String text(LineProtocolEncoder e) {
+        return new String(e.array(), 0, e.length(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,133 @@
+package com.playtimelb.store;
+
+import com.electronwill.nightconfig.core.CommentedConfig;
+import com.playtimelb.cluster.ClusterTransport;
+import com.playtimelb.config.ModConfig;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/** This server's published component across store resets and restarts. */
+class ClusterSyncTest {
+    private static final long S = 1_000_000_000L;
+
+    private record Published(long version, boolean base, byte[] payload) {}
+
+    /** Keeps what is published; other servers have nothing. */
+    private static final class Recording implements ClusterTransport {
+        final List<Published> published = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void publish(String serverId, long version, boolean base, byte[] payload) {
+            published.add(new Published(version, base, payload));
+        }
+
+        @Override
+        public long latestVersion(String serverId) {
+            return published.isEmpty() ? 0L : published.get(published.size() - 1).version;
+        }
+
+        @Override
+        public void poll(String selfId, Map<String, Long> seen, PayloadVisitor visitor) {}
+    }
+
+    private final UUID u = new UUID(1L, 1L);
+    private final Recording transport = new Recording();
+    private Path world;
+    private long now;
+
+    @BeforeEach
+    void setUp(@TempDir Path dir) throws Exception {
+        ModConfig.SPEC.setConfig(CommentedConfig.inMemory());
+        ModConfig.clusterEnabled.set(true);
+        ModConfig.serverTag.set("s1");
+        PlaytimeStore.setClusterTransport(transport);
+        world = dir;
+        Instant i = Instant.now();
+        now = i.getEpochSecond() * S + i.getNano();
+        PlaytimeStore.load(world);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        PlaytimeStore.shutdown(null);
+        PlaytimeStore.setClusterTransport(null);
+    }
+
+    @Test
+    void aResetDoesNotLowerThisServersComponent() throws Exception {
+        play(1000);
+        assertEquals(1000L, sync(true));
+
+        PlaytimeStore.reset(null);
+        assertEquals(0L, PlaytimeStore.getTotalFor(null, u, false));
+        play(10);
+        assertEquals(1010L, sync(false));
+
+        // a restart publishes everyone again, from the folded base kept on disk
+        restart();
+        assertEquals(1010L, sync(true));
+        PlaytimeStore.reset(null);
+        restart();
+        assertEquals(1010L, sync(true));
+
+        // a crash right after a reset: it is replayed from the journal, over a snapshot from before it
+        play(5);
+        PlaytimeStore.checkpoint(null);
+        PlaytimeStore.reset(null);
+        PlaytimeStore.load(world);
+        assertEquals(1015L, sync(true));
+    }
+
+    @Test
+    void anOnlinePlayersSessionSoFarIsKeptThroughAReset() throws Exception {
+        PlaytimeStore.onLogin(null, u, "Alex", now - 600 * S);
+        assertNear(600L, sync(true));
+        PlaytimeStore.reset(null); // ends the session
+        restart();
+        assertNear(600L, sync(true));
+    }
+
+    private void restart() throws Exception {
+        PlaytimeStore.shutdown(null);
+        PlaytimeStore.load(world);
+    }
+
+    private void play(long seconds) throws Exception {
+        now += seconds * S;
+        PlaytimeStore.onLogin(null, u, "Alex", now - seconds * S);
+        PlaytimeStore.onLogout(null, u, "Alex", now);
+    }
+
+    // runs one round and returns the value it published for u; its kind must be as expected
+    private long sync(boolean base) throws Exception {
+        int before = transport.published.size();
+        assertTrue(PlaytimeStore.syncCluster(null));
+        long deadline = System.nanoTime() + 10 * S;
+        while (transport.published.size() == before) {
+            assertTrue(System.nanoTime() < deadline, "nothing published");
+            Thread.sleep(5);
+        }
+        Published p = transport.published.get(before);
+        assertEquals(base, p.base);
+        GlobalCounters g = new GlobalCounters();
+        g.apply("s1", p.payload);
+        return g.total(u);
+    }
+
+    // includes the time the test itself has taken
+    private static void assertNear(long expected, long actual) {
+        assertTrue(actual >= expected && actual <= expected + 2, "expected about " + expected + ", got " + actual);
+    }
+}
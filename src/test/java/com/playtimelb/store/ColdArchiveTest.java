@@ -0,0 +1,165 @@
+package com.playtimelb.store;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.TreeSet;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/** Generations written on top of each other, read back against a map of what they should hold. */
+class ColdArchiveTest {
+    private static final String[] NAMES = {"Alex", "alex", "ALEXANDER", "Bob", "bobby", "Ñandú", "ñandu", "Zed", "", null};
+    private static final Comparator<UUID> UUID_ORDER = Comparator.comparingLong(UUID::getMostSignificantBits)
+            .thenComparingLong(UUID::getLeastSignificantBits);
+
+    private long seen = 1_000_000L; // unique last-seen times, so "most recently seen" is never a tie
+
+    @Test
+    void emptyArchive(@TempDir Path dir) throws Exception {
+        assertEquals(0, ColdArchive.open(dir, 8).size());
+        ColdArchive a = ColdArchive.write(dir, 1, ColdArchive.EMPTY, new UuidLongMap(), Map.of(), 8);
+        assertEquals(0, a.size());
+        assertNull(a.find(1L, 2L));
+        assertNull(a.lookupName("alex"));
+        assertEquals(0, a.countAhead(0L, 0L, 0L));
+        List<String> out = new ArrayList<>();
+        a.complete("", 10, new UuidLongMap(), out);
+        assertTrue(out.isEmpty());
+    }
+
+    @Test
+    void replacesAndDropsAcrossGenerations(@TempDir Path dir) throws Exception {
+        SplittableRandom rnd = new SplittableRandom(5);
+        Map<UUID, ColdArchive.Entry> model = new HashMap<>();
+        ColdArchive archive = ColdArchive.EMPTY;
+        for (int gen = 1; gen <= 6; gen++) {
+            List<UUID> existing = new ArrayList<>(model.keySet());
+            Map<UUID, ColdArchive.Entry> add = new HashMap<>();
+            UuidLongMap drop = new UuidLongMap();
+            // new players; msb from a small range, so UUID order often comes down to the lsb
+            for (int i = 0; i < 300; i++) add.put(new UUID(rnd.nextLong(-4, 4), rnd.nextLong()), entry(rnd));
+            // players already archived, written again with new values (the add replaces the old record)
+            for (int i = 0; i < 40 && !existing.isEmpty(); i++) {
+                add.put(existing.get(rnd.nextInt(existing.size())), entry(rnd));
+            }
+            for (int i = 0; i < 60 && !existing.isEmpty(); i++) {
+                UUID u = existing.get(rnd.nextInt(existing.size()));
+                drop.put(u, 1L);
+                if (i % 10 == 0) add.put(u, entry(rnd)); // in both: still added
+            }
+            drop.put(new UUID(123L, 456L), 1L); // not archived: nothing to drop
+
+            drop.forEach((m, l, v) -> model.remove(new UUID(m, l)));
+            // an empty name is stored as no name
+            add.forEach((u, e) -> model.put(u, e.name() != null && e.name().isEmpty()
+                    ? new ColdArchive.Entry(e.total(), e.idle(), e.lastSeen(), null) : e));
+            archive = ColdArchive.write(dir, gen, archive, drop, add, 4);
+            assertEquals(gen, archive.generation());
+            check(rnd, archive, model);
+        }
+
+        ColdArchive reopened = ColdArchive.open(dir, 4);
+        assertEquals(6, reopened.generation());
+        check(rnd, reopened, model);
+
+        ColdArchive.deleteOthers(dir, 6);
+        try (var files = Files.list(dir)) {
+            assertEquals(List.of(ColdArchive.file(dir, 6)), files.toList());
+        }
+    }
+
+    private ColdArchive.Entry entry(SplittableRandom rnd) {
+        return new ColdArchive.Entry(rnd.nextLong(20), rnd.nextLong(5), seen++, NAMES[rnd.nextInt(NAMES.length)]);
+    }
+
+    private static void check(SplittableRandom rnd, ColdArchive a, Map<UUID, ColdArchive.Entry> model) {
+        assertEquals(model.size(), a.size());
+
+        // twice: the second lookup of a player may come from the cache
+        for (int pass = 0; pass < 2; pass++) {
+            for (Map.Entry<UUID, ColdArchive.Entry> e : model.entrySet()) {
+                UUID u = e.getKey();
+                assertEquals(e.getValue(), a.find(u.getMostSignificantBits(), u.getLeastSignificantBits()));
+                assertTrue(a.contains(u.getMostSignificantBits(), u.getLeastSignificantBits()));
+            }
+        }
+        for (int i = 0; i < 50; i++) {
+            UUID u = new UUID(rnd.nextLong(), rnd.nextLong());
+            if (model.containsKey(u)) continue;
+            assertNull(a.find(u.getMostSignificantBits(), u.getLeastSignificantBits()));
+            assertFalse(a.contains(u.getMostSignificantBits(), u.getLeastSignificantBits()));
+        }
+
+        List<UUID> byUuid = new ArrayList<>(model.keySet());
+        byUuid.sort(UUID_ORDER);
+        List<UUID> walked = new ArrayList<>();
+        a.forEach((m, l, e) -> {
+            walked.add(new UUID(m, l));
+            assertEquals(model.get(new UUID(m, l)), e);
+        });
+        assertEquals(byUuid, walked);
+
+        List<RankedEntry> byRank = new ArrayList<>();
+        for (UUID u : model.keySet()) byRank.add(new RankedEntry(u, model.get(u).total()));
+        byRank.sort(ColdArchiveTest::rankOrder);
+        for (int r = 0; r < byRank.size(); r++) assertEquals(byRank.get(r), a.ranked(r));
+        TreeSet<RankedEntry> ranks = new TreeSet<>(ColdArchiveTest::rankOrder);
+        ranks.addAll(byRank);
+        for (int i = 0; i < 100; i++) {
+            RankedEntry probe = rnd.nextBoolean() && !byRank.isEmpty()
+                    ? byRank.get(rnd.nextInt(byRank.size()))
+                    : new RankedEntry(new UUID(rnd.nextLong(-5, 5), rnd.nextLong()), rnd.nextLong(-1, 22));
+            UUID u = probe.uuid();
+            assertEquals(ranks.headSet(probe, false).size(), a.countAhead(probe.seconds(), u.getMostSignificantBits(), u.getLeastSignificantBits()));
+        }
+
+        // names: most recently seen holder wins, case-insensitively
+        Map<String, UUID> holder = new HashMap<>();
+        for (Map.Entry<UUID, ColdArchive.Entry> e : model.entrySet()) {
+            String name = e.getValue().name();
+            if (name == null) continue;
+            holder.merge(name.toLowerCase(Locale.ROOT), e.getKey(),
+                    (x, y) -> model.get(x).lastSeen() > model.get(y).lastSeen() ? x : y);
+        }
+        for (int pass = 0; pass < 2; pass++) {
+            for (String name : NAMES) {
+                if (name == null || name.isEmpty()) continue;
+                assertEquals(holder.get(name.toLowerCase(Locale.ROOT)), a.lookupName(name.toUpperCase(Locale.ROOT)));
+            }
+            assertNull(a.lookupName("nobody"));
+        }
+
+        UuidLongMap skip = new UuidLongMap();
+        for (UUID u : model.keySet()) if (rnd.nextInt(3) == 0) skip.put(u, 1L);
+        for (String prefix : new String[]{"", "a", "ALEX", "b", "ñ", "z", "q"}) {
+            TreeSet<String> expected = new TreeSet<>();
+            model.forEach((u, e) -> {
+                if (e.name() == null || skip.containsKey(u)) return;
+                String lower = e.name().toLowerCase(Locale.ROOT);
+                if (lower.startsWith(prefix.toLowerCase(Locale.ROOT))) expected.add(lower);
+            });
+            List<String> out = new ArrayList<>();
+            a.complete(prefix, 3, skip, out);
+            assertEquals(expected.stream().limit(3).toList(), out.stream().map(s -> s.toLowerCase(Locale.ROOT)).toList());
+        }
+    }
+
+    private static int rankOrder(RankedEntry x, RankedEntry y) {
+        return RankIndex.compare(x.seconds(), x.uuid().getMostSignificantBits(), x.uuid().getLeastSignificantBits(),
+                y.seconds(), y.uuid().getMostSignificantBits(), y.uuid().getLeastSignificantBits());
+    }
+}
@@ -0,0 +1,105 @@
+package com.playtimelb.store;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/** Payloads merged twice, late or out of order must end where merging each server's newest once does. */
+class GlobalCountersTest {
+    private final UUID a = new UUID(1L, 1L), b = new UUID(2L, 2L);
+
+    @Test
+    void applyingAPayloadAgainChangesNothing() throws Exception {
+        GlobalCounters g = new GlobalCounters();
+        byte[] p = payload(Map.of(a, 100L, b, 50L), Map.of(a, "Alex"));
+        assertEquals(2, g.apply("s1", p));
+        assertEquals(0, g.apply("s1", p));
+        assertEquals(100L, g.total(a));
+        assertEquals(List.of(new RankedEntry(a, 100L), new RankedEntry(b, 50L)), g.top(10));
+        assertEquals("Alex", g.name(a));
+    }
+
+    @Test
+    void anOlderPayloadArrivingLateDoesNotLowerAComponent() throws Exception {
+        GlobalCounters g = new GlobalCounters();
+        byte[] v1 = payload(Map.of(a, 100L), Map.of()), v2 = payload(Map.of(a, 300L), Map.of());
+        g.apply("s1", v2);
+        assertEquals(0, g.apply("s1", v1));
+        g.apply("s2", payload(Map.of(a, 40L), Map.of()));
+        assertEquals(340L, g.total(a));
+        assertEquals(2, g.serverCount());
+        assertEquals(1, g.playerCount());
+    }
+
+    @Test
+    void aCorruptPayloadIsRejectedWhole() throws Exception {
+        GlobalCounters g = new GlobalCounters();
+        byte[] p = payload(Map.of(a, 100L, b, 50L), Map.of());
+        p[12] ^= 1;
+        assertThrows(IOException.class, () -> g.apply("s1", p));
+        assertThrows(IOException.class, () -> g.apply("s1", new byte[8]));
+        assertEquals(0, g.playerCount());
+    }
+
+    @Test
+    void anyDeliveryOrderMatchesTheNewestPerServer() throws Exception {
+        SplittableRandom rnd = new SplittableRandom(5);
+        List<UUID> players = new ArrayList<>();
+        for (int i = 0; i < 50; i++) players.add(new UUID(rnd.nextLong(3), rnd.nextLong()));
+        // each server's component only grows; every publish carries some players' current values
+        Map<String, Map<UUID, Long>> component = new HashMap<>();
+        List<String> ids = new ArrayList<>();
+        List<byte[]> published = new ArrayList<>();
+        for (int round = 0; round < 300; round++) {
+            String id = "s" + rnd.nextInt(4);
+            Map<UUID, Long> mine = component.computeIfAbsent(id, k -> new HashMap<>());
+            Map<UUID, Long> sent = new HashMap<>();
+            for (int i = rnd.nextInt(1, 10); i > 0; i--) {
+                UUID u = players.get(rnd.nextInt(players.size()));
+                long v = mine.getOrDefault(u, 0L) + rnd.nextLong(0, 500);
+                mine.put(u, v);
+                sent.put(u, v);
+            }
+            ids.add(id);
+            published.add(payload(sent, Map.of()));
+        }
+        Map<UUID, Long> expected = new HashMap<>();
+        component.values().forEach(c -> c.forEach((u, v) -> expected.merge(u, v, Long::sum)));
+        expected.values().removeIf(v -> v == 0L);
+
+        for (int trial = 0; trial < 5; trial++) {
+            List<Integer> order = new ArrayList<>();
+            for (int i = 0; i < published.size(); i++) {
+                order.add(i);
+                if (rnd.nextInt(4) == 0) order.add(i); // delivered twice
+            }
+            Collections.shuffle(order, new Random(trial));
+            GlobalCounters g = new GlobalCounters();
+            for (int i : order) g.apply(ids.get(i), published.get(i));
+            for (UUID u : players) assertEquals(expected.getOrDefault(u, 0L), g.total(u), u.toString());
+            List<RankedEntry> top = g.top(players.size());
+            List<RankedEntry> sorted = new ArrayList<>(top);
+            sorted.sort((x, y) -> RankIndex.compare(x.seconds(), x.uuid().getMostSignificantBits(), x.uuid().getLeastSignificantBits(),
+                    y.seconds(), y.uuid().getMostSignificantBits(), y.uuid().getLeastSignificantBits()));
+            assertEquals(sorted, top);
+            assertEquals(expected.size(), top.size());
+        }
+    }
+
+    private static byte[] payload(Map<UUID, Long> values, Map<UUID, String> names) {
+        UuidLongMap m = new UuidLongMap();
+        values.forEach(m::put);
+        return GlobalCounters.encode(m, names);
+    }
+}
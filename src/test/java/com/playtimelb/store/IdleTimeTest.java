@@ -0,0 +1,72 @@
+package com.playtimelb.store;
+
+import com.electronwill.nightconfig.core.CommentedConfig;
+import com.playtimelb.config.ModConfig;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/** Idle stretches reported to {@link PlaytimeStore} the way the activity tracker does: late, as of the last activity. */
+class IdleTimeTest {
+    private static final long S = 1_000_000_000L;
+
+    private final UUID u = new UUID(1L, 1L);
+    private Path world;
+    private long now;
+
+    @BeforeEach
+    void setUp(@TempDir Path dir) throws Exception {
+        ModConfig.SPEC.setConfig(CommentedConfig.inMemory());
+        world = dir;
+        Instant i = Instant.now();
+        now = i.getEpochSecond() * S + i.getNano();
+        PlaytimeStore.load(world);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        PlaytimeStore.shutdown(null);
+    }
+
+    @Test
+    void aBackdatedIdleStretchIsLeftOutInFull() throws Exception {
+        PlaytimeStore.onLogin(null, u, "Alex", now - 3600 * S);
+        // last active at -3000 s, noticed idle some minutes later
+        PlaytimeStore.onIdle(null, u, true, now - 3000 * S);
+        assertNear(600L, PlaytimeStore.getTotalFor(null, u, true));
+        assertNear(3000L, PlaytimeStore.getIdleFor(null, u, true));
+        PlaytimeStore.onIdle(null, u, false, now - 600 * S);
+        PlaytimeStore.onLogout(null, u, "Alex", now);
+        assertEquals(1200L, PlaytimeStore.getTotalFor(null, u, false));
+        assertEquals(2400L, PlaytimeStore.getIdleFor(null, u, false));
+
+        // the same out of the journal after a restart
+        PlaytimeStore.shutdown(null);
+        PlaytimeStore.load(world);
+        assertEquals(1200L, PlaytimeStore.getTotalFor(null, u, false));
+        assertEquals(2400L, PlaytimeStore.getIdleFor(null, u, false));
+    }
+
+    @Test
+    void anIdleStartBeforeLoginCountsFromLogin() throws Exception {
+        PlaytimeStore.onLogin(null, u, "Alex", now - 1000 * S);
+        PlaytimeStore.onIdle(null, u, true, now - 5000 * S);
+        PlaytimeStore.onIdle(null, u, false, now - 400 * S);
+        PlaytimeStore.onLogout(null, u, "Alex", now);
+        assertEquals(400L, PlaytimeStore.getTotalFor(null, u, false));
+        assertEquals(600L, PlaytimeStore.getIdleFor(null, u, false));
+    }
+
+    // includes the time the test itself has taken
+    private static void assertNear(long expected, long actual) {
+        assertTrue(actual >= expected && actual <= expected + 2, "expected about " + expected + ", got " + actual);
+    }
+}
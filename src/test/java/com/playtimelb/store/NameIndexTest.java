@@ -0,0 +1,146 @@
+package com.playtimelb.store;
+
+import com.electronwill.nightconfig.core.CommentedConfig;
+import com.playtimelb.config.ModConfig;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class NameIndexTest {
+    private static final long S = 1_000_000_000L;
+
+    private final UUID a = new UUID(1L, 1L), b = new UUID(2L, 2L), c = new UUID(3L, 3L);
+
+    @Test
+    void sharedNameGoesToTheLatestHolder() {
+        NameIndex index = new NameIndex();
+        index.put(a, null, "steve");
+        index.put(b, null, "STEVE");
+        index.put(c, null, "Steve");
+        assertEquals(c, index.lookup("sTeVe"));
+        assertEquals(List.of("Steve"), index.complete("st", 5));
+
+        // c renames: the previous holder, then the one before
+        index.put(c, "Steve", "Carl");
+        assertEquals(b, index.lookup("steve"));
+        index.put(b, "STEVE", "Bob");
+        assertEquals(a, index.lookup("steve"));
+        index.put(a, "steve", "Alex");
+        assertNull(index.lookup("steve"));
+        assertEquals(List.of("Alex", "Bob", "Carl"), index.complete("", 5));
+    }
+
+    @Test
+    void loggingInAgainMovesAHolderToTheFront() {
+        NameIndex index = new NameIndex();
+        index.put(a, null, "Alex");
+        index.put(b, null, "alex");
+        assertEquals(b, index.lookup("ALEX"));
+        index.put(a, "Alex", "Alex");
+        assertEquals(a, index.lookup("ALEX"));
+        assertEquals(List.of("Alex"), index.complete("A", 5));
+        index.put(a, "Alex", "Zed");
+        assertEquals(b, index.lookup("alex"));
+    }
+
+    @Test
+    void completionStopsAtThePrefixAndLimit() {
+        NameIndex index = new NameIndex();
+        String[] names = {"Bob", "bobby", "Bobcat", "Boa", "Carl", "bo"};
+        for (int i = 0; i < names.length; i++) index.put(new UUID(10L, i), null, names[i]);
+        assertEquals(List.of("bo", "Boa", "Bob", "bobby", "Bobcat"), index.complete("BO", 10));
+        assertEquals(List.of("Bob", "bobby"), index.complete("bob", 2));
+        assertEquals(List.of(), index.complete("bz", 10));
+        assertEquals(List.of("Carl"), index.complete("c", 10));
+    }
+
+    @Test
+    void sharedNameGoesToTheMostRecentlySeenHolder() {
+        UuidLongMap seen = new UuidLongMap();
+        seen.put(a, 100L);
+        seen.put(b, 300L);
+        seen.put(c, 200L);
+        // whatever order the names come in
+        for (List<UUID> order : List.of(List.of(a, b, c), List.of(c, b, a), List.of(b, a, c))) {
+            Map<UUID, String> names = new LinkedHashMap<>();
+            for (UUID u : order) names.put(u, u == a ? "steve" : u == b ? "Steve" : "STEVE");
+            NameIndex index = new NameIndex();
+            index.putAll(names, seen);
+            assertEquals(b, index.lookup("sTeVe"));
+            assertEquals(List.of("Steve"), index.complete("st", 5));
+
+            // b renames: the next most recent holder, then the one after
+            index.put(b, "Steve", "Bob");
+            assertEquals(c, index.lookup("steve"));
+            index.remove(c, "STEVE");
+            assertEquals(a, index.lookup("steve"));
+            index.remove(a, "steve");
+            assertNull(index.lookup("steve"));
+            assertEquals(List.of("Bob"), index.complete("", 5));
+        }
+    }
+
+    @Test
+    void holdersWithoutLastSeenComeLast() {
+        UuidLongMap seen = new UuidLongMap();
+        seen.put(c, 5L);
+        Map<UUID, String> names = new LinkedHashMap<>();
+        names.put(a, "Alex");
+        names.put(b, "alex");
+        names.put(c, "ALEX");
+        NameIndex index = new NameIndex();
+        index.putAll(names, seen);
+        assertEquals(c, index.lookup("alex"));
+        index.remove(c, "ALEX");
+        assertEquals(a, index.lookup("alex")); // then UUID order
+    }
+
+    @Test
+    void lookupSurvivesARestart(@TempDir Path world) throws Exception {
+        ModConfig.SPEC.setConfig(CommentedConfig.inMemory());
+        long t0 = System.currentTimeMillis() * 1_000_000L - 3600 * S;
+        PlaytimeStore.load(world);
+        try {
+            // many earlier holders, so a hash-ordered rebuild would rarely pick the right one by chance
+            for (int i = 0; i < 20; i++) {
+                UUID u = new UUID(100L + i, i);
+                PlaytimeStore.onLogin(null, u, "Notch", t0 + i * S);
+                PlaytimeStore.onLogout(null, u, "Notch", t0 + (i + 1) * S);
+            }
+            PlaytimeStore.onLogin(null, a, "Steve", t0 + 100 * S);
+            PlaytimeStore.onLogout(null, a, "Steve", t0 + 110 * S);
+            PlaytimeStore.onLogin(null, b, "steve", t0 + 200 * S);
+            PlaytimeStore.onLogout(null, b, "steve", t0 + 210 * S);
+            PlaytimeStore.onLogin(null, new UUID(100L, 0L), "Notch", t0 + 300 * S); // the first holder is back
+            assertEquals(b, PlaytimeStore.lookupUUID(null, "STEVE"));
+            assertEquals(new UUID(100L, 0L), PlaytimeStore.lookupUUID(null, "notch"));
+        } finally {
+            PlaytimeStore.shutdown(null);
+        }
+
+        PlaytimeStore.load(world);
+        try {
+            assertEquals(b, PlaytimeStore.lookupUUID(null, "STEVE"));
+            assertEquals(new UUID(100L, 0L), PlaytimeStore.lookupUUID(null, "notch"));
+            PlaytimeStore.onLogin(null, a, "Steve", t0 + 400 * S);
+            assertEquals(a, PlaytimeStore.lookupUUID(null, "steve"));
+        } finally {
+            PlaytimeStore.shutdown(null);
+        }
+        PlaytimeStore.load(world);
+        try {
+            assertEquals(a, PlaytimeStore.lookupUUID(null, "steve"));
+            assertEquals(List.of("Notch", "Steve"), PlaytimeStore.completeNames(null, "", 10));
+        } finally {
+            PlaytimeStore.shutdown(null);
+        }
+    }
+}
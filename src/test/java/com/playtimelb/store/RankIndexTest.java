@@ -0,0 +1,170 @@
+package com.playtimelb.store;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/** Random operations against a {@link TreeSet} in leaderboard order. */
+class RankIndexTest {
+    private record Entry(long secs, long m, long l) {}
+
+    private record Key(long m, long l) {}
+
+    private static final Comparator<Entry> ORDER = (a, b) -> RankIndex.compare(a.secs, a.m, a.l, b.secs, b.m, b.l);
+
+    @Test
+    void matchesTreeSetUnderInsertUpdateRemove() {
+        SplittableRandom rnd = new SplittableRandom(1);
+        RankIndex index = new RankIndex();
+        TreeSet<Entry> model = new TreeSet<>(ORDER);
+        Map<Key, Long> secs = new HashMap<>();
+        run(rnd, index, model, secs, 20_000);
+    }
+
+    @Test
+    void orderIsStrictlyDescendingWithUuidTieBreak() {
+        RankIndex index = new RankIndex();
+        index.insert(5L, 1L, 100L);
+        index.insert(-3L, 9L, 100L);
+        index.insert(5L, -1L, 100L);
+        index.insert(7L, 0L, 200L);
+        index.insert(0L, 0L, 0L);
+        assertEquals(List.of(new Entry(200L, 7L, 0L), new Entry(100L, -3L, 9L), new Entry(100L, 5L, -1L),
+                new Entry(100L, 5L, 1L), new Entry(0L, 0L, 0L)), walk(index, 0));
+        assertEquals(2, index.countAhead(100L, 5L, -1L));
+        assertEquals(3, index.countAhead(100L, 5L, 0L)); // not in the index: where it would go
+        assertEquals(5, index.countAhead(-1L, 0L, 0L));
+    }
+
+    @Test
+    void buildMatchesInsertsAndKeepsWorking() {
+        for (int n : new int[]{0, 1, 2, 3, 17, 1000, 5000}) {
+            SplittableRandom rnd = new SplittableRandom(n);
+            long[] s = new long[n], m = new long[n], l = new long[n];
+            TreeSet<Entry> model = new TreeSet<>(ORDER);
+            Map<Key, Long> secs = new HashMap<>();
+            int k = 0;
+            while (k < n) {
+                Key key = new Key(rnd.nextLong(8), rnd.nextLong());
+                if (secs.containsKey(key)) continue;
+                s[k] = rnd.nextLong(50);
+                m[k] = key.m;
+                l[k] = key.l;
+                secs.put(key, s[k]);
+                model.add(new Entry(s[k], m[k], l[k]));
+                k++;
+            }
+            RankIndex built = new RankIndex();
+            built.insert(1L, 1L, 1L); // build starts from empty
+            built.build(s, m, l, n);
+            RankIndex inserted = new RankIndex();
+            for (int i = 0; i < n; i++) inserted.insert(m[i], l[i], s[i]);
+            check(rnd, built, model);
+            assertEquals(walk(inserted, 0), walk(built, 0));
+
+            run(rnd, built, model, secs, 3000);
+        }
+    }
+
+    @Test
+    void buildFromMap() {
+        UuidLongMap map = new UuidLongMap();
+        TreeSet<Entry> model = new TreeSet<>(ORDER);
+        SplittableRandom rnd = new SplittableRandom(3);
+        for (int i = 0; i < 2000; i++) {
+            long m = rnd.nextLong(), l = rnd.nextLong(), s = rnd.nextLong(100);
+            map.put(m, l, s);
+            model.add(new Entry(s, m, l));
+        }
+        RankIndex index = new RankIndex();
+        index.build(map);
+        check(rnd, index, model);
+    }
+
+    @Test
+    void copyIsIndependent() {
+        SplittableRandom rnd = new SplittableRandom(4);
+        RankIndex index = new RankIndex();
+        TreeSet<Entry> model = new TreeSet<>(ORDER);
+        Map<Key, Long> secs = new HashMap<>();
+        run(rnd, index, model, secs, 2000);
+        RankIndex copy = index.copy();
+        List<Entry> before = walk(copy, 0);
+        run(rnd, index, model, secs, 2000);
+        assertEquals(before, walk(copy, 0));
+        TreeSet<Entry> copyModel = new TreeSet<>(ORDER);
+        copyModel.addAll(before);
+        check(rnd, copy, copyModel);
+    }
+
+    // random inserts, updates (often to a tied value) and removes, checked against the model as it goes
+    private static void run(SplittableRandom rnd, RankIndex index, TreeSet<Entry> model, Map<Key, Long> secs, int ops) {
+        List<Key> keys = new ArrayList<>(secs.keySet());
+        for (int op = 0; op < ops; op++) {
+            int kind = rnd.nextInt(10);
+            if (kind < 4 || keys.isEmpty()) {
+                // few distinct msb values, so uuid ties fall through to the lsb
+                Key k = new Key(rnd.nextLong(8), rnd.nextLong(4));
+                long s = rnd.nextLong(50);
+                Long old = secs.put(k, s);
+                if (old == null) keys.add(k);
+                else model.remove(new Entry(old, k.m, k.l));
+                model.add(new Entry(s, k.m, k.l));
+                index.update(k.m, k.l, old != null, old == null ? 0L : old, s);
+            } else if (kind < 8) {
+                Key k = keys.get(rnd.nextInt(keys.size()));
+                long old = secs.get(k), s = rnd.nextBoolean() ? old + rnd.nextLong(1, 20) : rnd.nextLong(50);
+                secs.put(k, s);
+                model.remove(new Entry(old, k.m, k.l));
+                model.add(new Entry(s, k.m, k.l));
+                index.update(k.m, k.l, true, old, s);
+            } else {
+                int i = rnd.nextInt(keys.size());
+                Key k = keys.get(i);
+                keys.set(i, keys.get(keys.size() - 1));
+                keys.remove(keys.size() - 1);
+                long old = secs.remove(k);
+                model.remove(new Entry(old, k.m, k.l));
+                index.remove(k.m, k.l, old);
+            }
+            if (op % 500 == 0) check(rnd, index, model);
+        }
+        check(rnd, index, model);
+    }
+
+    private static void check(SplittableRandom rnd, RankIndex index, TreeSet<Entry> model) {
+        List<Entry> expected = new ArrayList<>(model);
+        assertEquals(expected.size(), index.size());
+        assertEquals(expected, walk(index, 0));
+        for (int i = 0; i < 20; i++) {
+            int from = rnd.nextInt(expected.size() + 2);
+            List<Entry> page = new ArrayList<>();
+            int limit = rnd.nextInt(1, 30);
+            index.forEachRanked(from, (m, l, s) -> {
+                page.add(new Entry(s, m, l));
+                return page.size() < limit;
+            });
+            assertEquals(expected.subList(Math.min(from, expected.size()), Math.min(from + limit, expected.size())), page);
+        }
+        for (int i = 0; i < 50; i++) {
+            Entry probe = !expected.isEmpty() && rnd.nextBoolean()
+                    ? expected.get(rnd.nextInt(expected.size()))
+                    : new Entry(rnd.nextLong(-1, 70), rnd.nextLong(8), rnd.nextLong(4));
+            assertEquals(model.headSet(probe, false).size(), index.countAhead(probe.secs, probe.m, probe.l));
+        }
+    }
+
+    private static List<Entry> walk(RankIndex index, int from) {
+        List<Entry> out = new ArrayList<>();
+        index.forEachRanked(from, (m, l, s) -> out.add(new Entry(s, m, l)));
+        return out;
+    }
+}
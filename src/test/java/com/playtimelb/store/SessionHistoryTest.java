@@ -0,0 +1,165 @@
+package com.playtimelb.store;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/** Appends, restarts and damaged files, checked against each player's list of sessions. */
+class SessionHistoryTest {
+    private static final long S = 1_000_000_000L, DAY = 86_400L * S;
+
+    @Test
+    void recentMatchesTheModelAcrossRolloversAndReopens(@TempDir Path dir) throws Exception {
+        SplittableRandom rnd = new SplittableRandom(2);
+        Map<Long, List<SessionEntry>> model = new HashMap<>();
+        SessionHistory h = SessionHistory.open(dir, 7, 0L, false);
+        long seq = 0, t = 1_000 * DAY;
+        for (int i = 0; i < 2000; i++) {
+            long p = rnd.nextLong(20);
+            SessionEntry e = new SessionEntry(t, t + rnd.nextLong(1, 3600) * S);
+            t += S;
+            h.append(p, ~p, e.startNs(), e.endNs(), ++seq);
+            model.computeIfAbsent(p, k -> new ArrayList<>()).add(e);
+            if (rnd.nextInt(100) == 0) {
+                h.close();
+                h = SessionHistory.open(dir, 7, 0L, false);
+            }
+            if (i % 100 == 0) check(h, model, rnd.nextInt(1, 40));
+        }
+        assertEquals(2000L, h.sessionCount());
+        check(h, model, Integer.MAX_VALUE);
+        h.close();
+        assertEquals((2000 + 6) / 7, segments(dir).size());
+    }
+
+    @Test
+    void aTornRecordAtTheEndIsCutOff(@TempDir Path dir) throws Exception {
+        SessionHistory h = SessionHistory.open(dir, 100, 0L, false);
+        for (int i = 1; i <= 5; i++) h.append(1L, 1L, i * S, i * S + S, i);
+        h.close();
+        Path seg = segments(dir).get(0);
+        Files.write(seg, new byte[SessionHistory.RECORD / 2], StandardOpenOption.APPEND);
+
+        h = SessionHistory.open(dir, 100, 0L, false);
+        assertEquals(5L, h.sessionCount());
+        assertEquals(5L * SessionHistory.RECORD, Files.size(seg));
+        h.append(1L, 1L, 6 * S, 7 * S, 6);
+        assertEquals(List.of(new SessionEntry(6 * S, 7 * S), new SessionEntry(5 * S, 6 * S)), h.recent(1L, 1L, 2));
+        h.close();
+        assertEquals(6L * SessionHistory.RECORD, Files.size(seg));
+    }
+
+    @Test
+    void reopeningScansOnlyPastTheSavedIndexAndStopsAtACorruptRecord(@TempDir Path dir) throws Exception {
+        SessionHistory h = SessionHistory.open(dir, 100, 0L, false);
+        for (int i = 1; i <= 3; i++) h.append(1L, 1L, i * S, i * S + S, i);
+        SessionHistory.writeIndex(h.copyIndex()); // a checkpoint
+        Path saved = dir.resolve("index.saved");
+        Files.copy(dir.resolve("index.bin"), saved);
+        for (int i = 4; i <= 6; i++) h.append(i % 2, 2L, i * S, i * S + S, i);
+        h.close();
+        // as if the process died before close: only the checkpoint's index is on disk
+        Files.move(saved, dir.resolve("index.bin"), StandardCopyOption.REPLACE_EXISTING);
+
+        h = SessionHistory.open(dir, 100, 0L, false);
+        assertEquals(6L, h.sessionCount());
+        assertEquals(List.of(new SessionEntry(6 * S, 7 * S), new SessionEntry(4 * S, 5 * S)), h.recent(0L, 2L, 10));
+        assertEquals(List.of(new SessionEntry(5 * S, 6 * S)), h.recent(1L, 2L, 10));
+        assertEquals(3, h.recent(1L, 1L, 10).size());
+        h.append(1L, 2L, 6 * S, 7 * S, 6); // already logged before the "crash"
+        assertEquals(6L, h.sessionCount());
+        h.close();
+
+        // a damaged record past the index: the log ends before it
+        Files.move(dir.resolve("index.bin"), saved, StandardCopyOption.REPLACE_EXISTING);
+        Path seg = segments(dir).get(0);
+        try (FileChannel ch = FileChannel.open(seg, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ch.write(ByteBuffer.wrap(new byte[] {0x5A}), 4L * SessionHistory.RECORD + 20);
+        }
+        h = SessionHistory.open(dir, 100, 0L, false); // no index: rebuilt from the log
+        assertEquals(4L, h.sessionCount());
+        assertEquals(List.of(new SessionEntry(4 * S, 5 * S)), h.recent(0L, 2L, 10));
+        assertEquals(List.of(), h.recent(1L, 2L, 10));
+        h.append(1L, 2L, 5 * S, 6 * S, 5); // the lost sessions can be logged again
+        assertEquals(List.of(new SessionEntry(5 * S, 6 * S)), h.recent(1L, 2L, 10));
+        h.close();
+    }
+
+    @Test
+    void retentionDropsWholeOldSegmentsOnly(@TempDir Path dir) throws Exception {
+        SessionHistory h = SessionHistory.open(dir, 4, 10 * DAY, false);
+        long now = 1_000 * DAY;
+        // records 0-3 end 30 days ago, 4-7 straddle the cutoff, 8-9 are recent
+        long[] ends = {30, 30, 30, 30, 20, 20, 20, 5, 2, 1};
+        for (int i = 0; i < ends.length; i++) {
+            long end = now - ends[i] * DAY;
+            h.append(i < 2 ? 9L : 1L, 1L, end - S, end, i + 1);
+        }
+        assertEquals(3, segments(dir).size());
+        h.applyRetention(now);
+        assertEquals(2, segments(dir).size());
+        assertEquals(6L, h.sessionCount());
+        assertEquals(List.of(), h.recent(9L, 1L, 10)); // every session of theirs was in the dropped segment
+        assertEquals(6, h.recent(1L, 1L, 10).size());
+        h.applyRetention(now);
+        assertEquals(2, segments(dir).size());
+        h.applyRetention(now + 30 * DAY); // the segment being written to is kept, however old
+        assertEquals(1, segments(dir).size());
+        assertEquals(List.of(new SessionEntry(now - DAY - S, now - DAY), new SessionEntry(now - 2 * DAY - S, now - 2 * DAY)),
+                h.recent(1L, 1L, 10));
+        h.close();
+
+        h = SessionHistory.open(dir, 4, 10 * DAY, false);
+        assertEquals(2L, h.sessionCount());
+        assertEquals(List.of(), h.recent(9L, 1L, 10));
+        h.close();
+    }
+
+    @Test
+    void journalReplayDoesNotLogASessionTwice(@TempDir Path dir) throws Exception {
+        SessionHistory h = SessionHistory.open(dir, 100, 0L, false);
+        for (int i = 1; i <= 5; i++) h.append(1L, 1L, i * S, i * S + S, i);
+        h.append(1L, 1L, 3 * S, 4 * S, 3);
+        h.close();
+        h = SessionHistory.open(dir, 100, 0L, false);
+        for (int i = 1; i <= 5; i++) h.append(1L, 1L, i * S, i * S + S, i);
+        assertEquals(5L, h.sessionCount());
+        h.append(1L, 1L, 6 * S, 7 * S, 6);
+        assertEquals(6L, h.sessionCount());
+
+        // the store's journal started over: its numbers count again
+        h.rebase(1);
+        h.append(1L, 1L, 8 * S, 9 * S, 2);
+        assertEquals(new SessionEntry(8 * S, 9 * S), h.recent(1L, 1L, 1).get(0));
+        h.close();
+    }
+
+    private static void check(SessionHistory h, Map<Long, List<SessionEntry>> model, int n) throws Exception {
+        for (long p = 0; p < 20; p++) {
+            List<SessionEntry> all = model.getOrDefault(p, List.of());
+            List<SessionEntry> expected = new ArrayList<>();
+            for (int i = all.size() - 1; i >= 0 && expected.size() < n; i--) expected.add(all.get(i));
+            assertEquals(expected, h.recent(p, ~p, n), "player " + p);
+        }
+    }
+
+    private static List<Path> segments(Path dir) throws Exception {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(f -> f.getFileName().toString().endsWith(".log")).sorted().toList();
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package com.playtimelb.store;
+
+import com.electronwill.nightconfig.core.CommentedConfig;
+import com.playtimelb.config.ModConfig;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class SessionJournalTest {
+    private static final long S = 1_000_000_000L;
+
+    private record Rec(byte type, long seq, UUID uuid, long timeNs, String name) {}
+
+    @BeforeAll
+    static void config() {
+        ModConfig.SPEC.setConfig(CommentedConfig.inMemory());
+    }
+
+    @Test
+    void replaysACopyTakenWhileOpen(@TempDir Path tmp) throws Exception {
+        Path dir = tmp.resolve("journal"), copy = tmp.resolve("copy");
+        List<Rec> written = randomRecords(500, 1L, 7L);
+        try (SessionJournal j = new SessionJournal(dir, 0L)) {
+            List<CompletableFuture<Void>> done = new ArrayList<>();
+            for (int i = 0; i < written.size(); i++) {
+                Rec r = written.get(i);
+                done.add(j.append(r.type, r.seq, r.uuid, r.timeNs, r.name));
+                if (i == 200) j.rotate();
+            }
+            CompletableFuture.allOf(done.toArray(new CompletableFuture<?>[0])).join();
+            // what a crash leaves behind: the segments as they are, never closed
+            Files.createDirectories(copy);
+            try (Stream<Path> files = Files.list(dir)) {
+                for (Path f : (Iterable<Path>) files::iterator) Files.copy(f, copy.resolve(f.getFileName()));
+            }
+        }
+        assertEquals(2, segmentCount(copy));
+        List<Rec> replayed = new ArrayList<>();
+        long max = SessionJournal.replay(copy, (type, seq, uuid, timeNs, name) -> replayed.add(new Rec(type, seq, uuid, timeNs, name)));
+        assertEquals(written, replayed);
+        assertEquals(500L, max);
+    }
+
+    @Test
+    void cutsATornLastRecord(@TempDir Path tmp) throws Exception {
+        Path dir = tmp.resolve("journal");
+        List<Rec> written = randomRecords(10, 1L, 11L);
+        try (SessionJournal j = new SessionJournal(dir, 0L)) {
+            for (Rec r : written) j.append(r.type, r.seq, r.uuid, r.timeNs, r.name).join();
+        }
+        Path segment = onlySegment(dir);
+        long full = Files.size(segment);
+        long lastLength = SessionJournal.encode(written.get(9).type, 10L, written.get(9).uuid, written.get(9).timeNs, written.get(9).name).length;
+        try (FileChannel ch = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            ch.truncate(full - 3);
+        }
+
+        List<Rec> replayed = new ArrayList<>();
+        assertEquals(9L, SessionJournal.replay(dir, (type, seq, uuid, timeNs, name) -> replayed.add(new Rec(type, seq, uuid, timeNs, name))));
+        assertEquals(written.subList(0, 9), replayed);
+        assertEquals(full - lastLength, Files.size(segment));
+
+        // appends after the cut start on a record boundary
+        UUID u = UUID.randomUUID();
+        try (SessionJournal j = new SessionJournal(dir, 0L)) {
+            j.append(SessionJournal.LOGIN, 10L, u, 5 * S, "Again").join();
+        }
+        replayed.clear();
+        assertEquals(10L, SessionJournal.replay(dir, (type, seq, uuid, timeNs, name) -> replayed.add(new Rec(type, seq, uuid, timeNs, name))));
+        assertEquals(new Rec(SessionJournal.LOGIN, 10L, u, 5 * S, "Again"), replayed.get(9));
+    }
+
+    @Test
+    void cutsACorruptLastRecord(@TempDir Path tmp) throws Exception {
+        Path dir = tmp.resolve("journal");
+        List<Rec> written = randomRecords(3, 1L, 13L);
+        try (SessionJournal j = new SessionJournal(dir, 0L)) {
+            for (Rec r : written) j.append(r.type, r.seq, r.uuid, r.timeNs, r.name).join();
+        }
+        Path segment = onlySegment(dir);
+        byte[] b = Files.readAllBytes(segment);
+        b[b.length - 6] ^= 0x40; // inside the last record's name or time
+        Files.write(segment, b);
+
+        List<Rec> replayed = new ArrayList<>();
+        SessionJournal.replay(dir, (type, seq, uuid, timeNs, name) -> replayed.add(new Rec(type, seq, uuid, timeNs, name)));
+        assertEquals(written.subList(0, 2), replayed);
+    }
+
+    @Test
+    void skipsRecordsTheSnapshotCovers(@TempDir Path world) throws Exception {
+        UUID u = UUID.randomUUID();
+        long t0 = System.currentTimeMillis() * 1_000_000L - 3600 * S;
+        PlaytimeStore.load(world);
+        try {
+            PlaytimeStore.onLogin(null, u, "Ann", t0);
+            PlaytimeStore.onLogout(null, u, "Ann", t0 + 100 * S); // seq 1, 2
+        } finally {
+            PlaytimeStore.shutdown(null); // snapshot at seq 2
+        }
+
+        // a segment that still holds the snapshotted session (seq 1, 2) and a newer one (seq 3, 4)
+        try (SessionJournal j = new SessionJournal(world.resolve("playtimelb-journal"), 0L)) {
+            j.append(SessionJournal.LOGIN, 1L, u, t0, "Ann");
+            j.append(SessionJournal.LOGOUT, 2L, u, t0 + 100 * S, "Ann");
+            j.append(SessionJournal.LOGIN, 3L, u, t0 + 1000 * S, "Ann");
+            j.append(SessionJournal.LOGOUT, 4L, u, t0 + 1050 * S, "Ann").join();
+        }
+
+        PlaytimeStore.load(world);
+        try {
+            assertEquals(150L, PlaytimeStore.getTotalFor(null, u, false));
+            assertEquals(2, PlaytimeStore.getHistory(null, u, 10).size());
+            // numbering continues after the replayed records
+            PlaytimeStore.onLogin(null, u, "Ann", t0 + 2000 * S);
+            PlaytimeStore.onLogout(null, u, "Ann", t0 + 2010 * S);
+        } finally {
+            PlaytimeStore.shutdown(null);
+        }
+        PlaytimeStore.load(world);
+        try {
+            assertEquals(160L, PlaytimeStore.getTotalFor(null, u, false));
+        } finally {
+            PlaytimeStore.shutdown(null);
+        }
+    }
+
+    private static List<Rec> randomRecords(int n, long firstSeq, long seed) {
+        SplittableRandom rnd = new SplittableRandom(seed);
+        List<Rec> out = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            byte type = (byte) rnd.nextInt(SessionJournal.LOGIN, SessionJournal.ACTIVE + 1);
+            String name = type == SessionJournal.LOGIN || type == SessionJournal.LOGOUT ? "Player" + rnd.nextInt(1000) : null;
+            UUID uuid = type == SessionJournal.RESET ? new UUID(0L, 0L) : new UUID(rnd.nextLong(), rnd.nextLong());
+            out.add(new Rec(type, firstSeq + i, uuid, rnd.nextLong(1L, Long.MAX_VALUE), name));
+        }
+        return out;
+    }
+
+    private static long segmentCount(Path dir) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.count();
+        }
+    }
+
+    private static Path onlySegment(Path dir) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            List<Path> all = files.toList();
+            assertEquals(1, all.size());
+            return all.get(0);
+        }
+    }
+}
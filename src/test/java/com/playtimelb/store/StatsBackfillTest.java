@@ -0,0 +1,77 @@
+package com.playtimelb.store;
+
+import com.electronwill.nightconfig.core.CommentedConfig;
+import com.playtimelb.config.ModConfig;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/** Vanilla stats imported through {@link PlaytimeStore}, with a server directory laid out like a real one. */
+class StatsBackfillTest {
+    private static final long S = 1_000_000_000L;
+
+    private final UUID a = new UUID(1L, 1L), b = new UUID(2L, 2L);
+    private Path world, stats;
+
+    @BeforeEach
+    void setUp(@TempDir Path server) throws Exception {
+        ModConfig.SPEC.setConfig(CommentedConfig.inMemory());
+        world = server.resolve("world").resolve("."); // what getWorldPath(ROOT) returns
+        stats = server.resolve("world").resolve("stats");
+        Files.createDirectories(stats);
+        Files.writeString(server.resolve("usercache.json"), "[{\"name\":\"Alex\",\"uuid\":\"" + a
+                + "\",\"expiresOn\":\"2030-01-01 00:00:00 +0000\"}]");
+        PlaytimeStore.load(world);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        PlaytimeStore.shutdown(null);
+    }
+
+    @Test
+    void importsTotalsAndNamesFromTheServerDirectory() throws Exception {
+        writeStats(a, 1200 * 20);
+        writeStats(b, 600 * 20);
+        StatsBackfill.Result r = StatsBackfill.run(null, world, stats, 1, (parsed, total) -> {});
+        assertEquals(2, r.files());
+        assertEquals(2, r.raised());
+        assertEquals(1200L, PlaytimeStore.getTotalFor(null, a, false));
+        assertEquals(600L, PlaytimeStore.getTotalFor(null, b, false));
+        assertEquals("Alex", PlaytimeStore.getName(null, a));
+        assertNull(PlaytimeStore.getName(null, b)); // not in the cache
+
+        // a second run skips both, even with higher vanilla times
+        writeStats(a, 5000 * 20);
+        r = StatsBackfill.run(null, world, stats, 1, (parsed, total) -> {});
+        assertEquals(2, r.skipped());
+        assertEquals(0, r.raised());
+        assertEquals(1200L, PlaytimeStore.getTotalFor(null, a, false));
+    }
+
+    @Test
+    void onlinePlayersAreNotCreditedTheirSessionTwice() throws Exception {
+        long login = System.currentTimeMillis() * 1_000_000L - 100 * S;
+        PlaytimeStore.onLogin(null, a, "Alex", login);
+        // vanilla already counts the 100 s played so far
+        writeStats(a, 1000 * 20);
+        StatsBackfill.run(null, world, stats, 1, (parsed, total) -> {});
+        PlaytimeStore.onLogout(null, a, "Alex", login + 100 * S);
+        long total = PlaytimeStore.getTotalFor(null, a, false);
+        // the raise rounds the time since login down to whole seconds, the run may take one
+        assertEquals(1000L, total, 1L);
+    }
+
+    private void writeStats(UUID uuid, long ticks) throws Exception {
+        Files.writeString(stats.resolve(uuid + ".json"), "{\"stats\":{\"minecraft:custom\":{\"minecraft:jump\":3,"
+                + "\"minecraft:play_time\":" + ticks + "},\"minecraft:mined\":{}},\"DataVersion\":3465}");
+    }
+}
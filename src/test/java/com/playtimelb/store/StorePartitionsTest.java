@@ -0,0 +1,190 @@
+package com.playtimelb.store;
+
+import com.electronwill.nightconfig.core.CommentedConfig;
+import com.playtimelb.config.ModConfig;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/** The partitioned store through {@link PlaytimeStore}: what a checkpoint rewrites and what loads back. */
+class StorePartitionsTest {
+    private static final long S = 1_000_000_000L;
+
+    private final SplittableRandom rnd = new SplittableRandom(9);
+    private final long now = System.currentTimeMillis() * 1_000_000L;
+
+    @BeforeEach
+    void config() {
+        ModConfig.SPEC.setConfig(CommentedConfig.inMemory());
+        ModConfig.partitions.set(16);
+        ModConfig.ioThreads.set(2);
+    }
+
+    @AfterEach
+    void restore() throws Exception {
+        PlaytimeStore.shutdown(null);
+        ModConfig.partitions.set(64);
+        ModConfig.ioThreads.set(0);
+    }
+
+    @Test
+    void checkpointRewritesOnlyChangedPartitions(@TempDir Path world) throws Exception {
+        Path data = world.resolve(StorePartitions.DIR);
+        PlaytimeStore.load(world);
+        List<UUID> players = play(2000);
+        PlaytimeStore.save(null).join();
+        StorePartitions.Manifest first = StorePartitions.readManifest(data);
+        assertNotNull(first);
+        assertEquals(16, first.partitions());
+        for (int i = 0; i < 16; i++) assertTrue(Files.exists(StorePartitions.file(data, i, first.generations()[i])));
+
+        Set<Integer> touched = new HashSet<>();
+        UUID renamed = players.get(rnd.nextInt(players.size()));
+        for (int i = 0; i < 3; i++) {
+            UUID u = i == 0 ? renamed : players.get(rnd.nextInt(players.size()));
+            session(u, "Changed" + i, 60);
+            touched.add(StorePartitions.partitionOf(u.getMostSignificantBits(), u.getLeastSignificantBits(), 16));
+        }
+        Map<UUID, Long> expected = totals(players);
+        PlaytimeStore.save(null).join();
+        StorePartitions.Manifest second = StorePartitions.readManifest(data);
+        for (int i = 0; i < 16; i++) {
+            int before = first.generations()[i], after = second.generations()[i];
+            if (touched.contains(i)) {
+                assertNotEquals(before, after);
+                assertFalse(Files.exists(StorePartitions.file(data, i, before)));
+            } else {
+                assertEquals(before, after, "partition " + i + " has no changes");
+            }
+            assertTrue(Files.exists(StorePartitions.file(data, i, after)));
+        }
+
+        // nothing changed: nothing is written
+        PlaytimeStore.checkpoint(null);
+        PlaytimeStore.save(null).join();
+        assertArrayEquals(second.generations(), StorePartitions.readManifest(data).generations());
+
+        PlaytimeStore.shutdown(null);
+        PlaytimeStore.load(world);
+        assertEquals(expected, totals(players));
+        assertEquals("Changed0", PlaytimeStore.getName(null, renamed));
+    }
+
+    @Test
+    void reloadsAfterThePartitionCountChanges(@TempDir Path world) throws Exception {
+        Path data = world.resolve(StorePartitions.DIR);
+        PlaytimeStore.load(world);
+        List<UUID> players = play(1500);
+        Map<UUID, Long> expected = totals(players);
+        List<RankedEntry> week = PlaytimeStore.getTop(null, TimeWindow.WEEK, 100);
+        PlaytimeStore.shutdown(null);
+
+        for (int n : new int[]{5, 1, 37}) {
+            ModConfig.partitions.set(n);
+            PlaytimeStore.load(world);
+            assertEquals(expected, totals(players));
+            assertEquals(week, PlaytimeStore.getTop(null, TimeWindow.WEEK, 100));
+            PlaytimeStore.save(null).join();
+            StorePartitions.Manifest m = StorePartitions.readManifest(data);
+            assertEquals(n, m.partitions());
+            try (var files = Files.list(data)) {
+                assertEquals(n + 1, files.count(), "old layout's files deleted"); // + manifest
+            }
+            PlaytimeStore.shutdown(null);
+            PlaytimeStore.load(world);
+            assertEquals(expected, totals(players));
+            PlaytimeStore.shutdown(null);
+        }
+    }
+
+    @Test
+    void withoutAManifestTheFirstSnapshotWritesEveryPartition(@TempDir Path world) throws Exception {
+        Path data = world.resolve(StorePartitions.DIR);
+        PlaytimeStore.load(world);
+        UUID u = UUID.randomUUID();
+        session(u, "Solo", 90);
+        PlaytimeStore.save(null).join();
+        StorePartitions.Manifest m = StorePartitions.readManifest(data);
+        for (int i = 0; i < 16; i++) assertTrue(Files.exists(StorePartitions.file(data, i, m.generations()[i])));
+        PlaytimeStore.shutdown(null);
+        PlaytimeStore.load(world);
+        assertEquals(90L, PlaytimeStore.getTotalFor(null, u, false));
+    }
+
+    // a crash while migrating: the old single file is still there, some partition files but no manifest
+    @Test
+    void migrationInterruptedBeforeTheManifestRestarts(@TempDir Path world) throws Exception {
+        SnapshotWriter.Snapshot legacy = StoreFormat.empty(false);
+        Map<UUID, Long> expected = new HashMap<>();
+        for (int i = 0; i < 500; i++) {
+            UUID u = new UUID(rnd.nextLong(), rnd.nextLong());
+            long secs = rnd.nextLong(1, 100_000);
+            legacy.totals().put(u, secs);
+            legacy.names().put(u, "Old" + i);
+            expected.put(u, secs);
+        }
+        try (FileChannel ch = FileChannel.open(world.resolve("playtimelb-data.bin"), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            StoreFormat.writeBinary(ch, legacy);
+        }
+        Path data = Files.createDirectories(world.resolve(StorePartitions.DIR));
+        Files.write(StorePartitions.file(data, 3, 1), new byte[]{1, 2, 3}); // torn, never committed
+
+        PlaytimeStore.load(world);
+        assertEquals(expected, totals(new ArrayList<>(expected.keySet())));
+        assertNotNull(StorePartitions.readManifest(data));
+        assertFalse(Files.exists(world.resolve("playtimelb-data.bin")));
+        assertTrue(Files.exists(world.resolve("playtimelb-data.bin.migrated")));
+
+        PlaytimeStore.shutdown(null);
+        PlaytimeStore.load(world);
+        assertEquals(expected, totals(new ArrayList<>(expected.keySet())));
+        UUID any = expected.keySet().iterator().next();
+        assertEquals(legacy.names().get(any), PlaytimeStore.getName(null, any));
+        assertNull(PlaytimeStore.getName(null, UUID.randomUUID()));
+    }
+
+    private List<UUID> play(int count) throws Exception {
+        List<UUID> out = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            UUID u = new UUID(rnd.nextLong(), rnd.nextLong());
+            out.add(u);
+            session(u, "P" + i, rnd.nextLong(1, 20_000));
+        }
+        return out;
+    }
+
+    // a finished session within the last few days
+    private void session(UUID u, String name, long secs) throws Exception {
+        long start = now - rnd.nextLong(secs + 1, 4 * 86_400L) * S;
+        PlaytimeStore.onLogin(null, u, name, start);
+        PlaytimeStore.onLogout(null, u, name, start + secs * S);
+    }
+
+    private static Map<UUID, Long> totals(List<UUID> players) throws Exception {
+        Map<UUID, Long> out = new HashMap<>();
+        for (UUID u : players) out.put(u, PlaytimeStore.getTotalFor(null, u, false));
+        return out;
+    }
+}
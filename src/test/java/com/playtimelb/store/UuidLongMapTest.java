@@ -0,0 +1,128 @@
+package com.playtimelb.store;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/** Random operations against a {@link HashMap}, on and off heap. */
+class UuidLongMapTest {
+    private static final long MISSING = Long.MIN_VALUE;
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void zeroKeyIsAnOrdinaryKey(boolean offHeap) {
+        UuidLongMap map = new UuidLongMap(16, offHeap);
+        assertFalse(map.containsKey(0L, 0L));
+        assertEquals(MISSING, map.get(0L, 0L, MISSING));
+        map.put(0L, 0L, 0L); // a zero value is still present
+        assertTrue(map.containsKey(new UUID(0L, 0L)));
+        assertEquals(1, map.size());
+        assertEquals(5L, map.addTo(0L, 0L, 5L));
+        map.put(0L, 1L, 7L);
+        map.put(1L, 0L, 8L);
+        Map<UUID, Long> seen = new HashMap<>();
+        map.forEach((m, l, v) -> seen.put(new UUID(m, l), v));
+        assertEquals(Map.of(new UUID(0L, 0L), 5L, new UUID(0L, 1L), 7L, new UUID(1L, 0L), 8L), seen);
+        UuidLongMap copy = map.copy();
+        assertEquals(5L, map.remove(0L, 0L, MISSING));
+        assertEquals(MISSING, map.remove(0L, 0L, MISSING));
+        assertEquals(2, map.size());
+        assertEquals(5L, copy.get(0L, 0L, MISSING));
+        assertEquals(3, copy.size());
+    }
+
+    // a handful of keys in a 16-slot table: long probe runs that wrap around, emptied and refilled
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void removalKeepsProbeRunsReachable(boolean offHeap) {
+        SplittableRandom rnd = new SplittableRandom(2);
+        List<UUID> pool = new ArrayList<>();
+        for (int i = 0; i < 12; i++) pool.add(new UUID(rnd.nextLong(4), rnd.nextLong(4) + 1));
+        UuidLongMap map = new UuidLongMap(16, offHeap);
+        Map<UUID, Long> model = new HashMap<>();
+        for (int op = 0; op < 50_000; op++) {
+            UUID u = pool.get(rnd.nextInt(pool.size()));
+            if (model.size() < 9 && rnd.nextBoolean()) {
+                long v = rnd.nextLong();
+                map.put(u, v);
+                model.put(u, v);
+            } else {
+                Long old = model.remove(u);
+                assertEquals(old == null ? MISSING : old, map.remove(u, MISSING));
+            }
+            check(map, model, pool);
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void matchesHashMap(boolean offHeap) {
+        SplittableRandom rnd = new SplittableRandom(offHeap ? 3 : 4);
+        List<UUID> pool = new ArrayList<>();
+        pool.add(new UUID(0L, 0L));
+        for (int i = 0; i < 3000; i++) pool.add(new UUID(rnd.nextLong(), rnd.nextLong()));
+        UuidLongMap map = new UuidLongMap(16, offHeap);
+        Map<UUID, Long> model = new HashMap<>();
+        UuidLongMap snapshot = null;
+        Map<UUID, Long> snapshotModel = null;
+        for (int op = 0; op < 200_000; op++) {
+            UUID u = pool.get(rnd.nextInt(pool.size()));
+            int kind = rnd.nextInt(10);
+            // inserts dominate at first, removes later, so the table grows and then trims
+            boolean growing = op < 100_000;
+            if (kind < (growing ? 6 : 2)) {
+                long v = rnd.nextLong();
+                map.put(u, v);
+                model.put(u, v);
+            } else if (kind < (growing ? 8 : 4)) {
+                long d = rnd.nextLong(-100, 100);
+                assertEquals(model.merge(u, d, Long::sum), map.addTo(u.getMostSignificantBits(), u.getLeastSignificantBits(), d));
+            } else {
+                Long old = model.remove(u);
+                assertEquals(old == null ? MISSING : old, map.remove(u, MISSING));
+            }
+            if (op % 10_000 == 0) {
+                check(map, model, pool);
+                if (snapshot != null) check(snapshot, snapshotModel, pool);
+                snapshot = map.copy();
+                snapshotModel = new HashMap<>(model);
+                assertEquals(offHeap, snapshot.isOffHeap());
+            }
+            if (op % 25_000 == 0) map.trim();
+        }
+        check(map, model, pool);
+        check(snapshot, snapshotModel, pool);
+        while (!model.isEmpty()) {
+            UUID u = model.keySet().iterator().next();
+            assertEquals(model.remove(u), map.remove(u, MISSING));
+        }
+        map.trim();
+        check(map, model, pool);
+        map.put(pool.get(1), 1L);
+        map.clear();
+        assertTrue(map.isEmpty());
+        check(map, model, pool);
+    }
+
+    private static void check(UuidLongMap map, Map<UUID, Long> model, List<UUID> pool) {
+        assertEquals(model.size(), map.size());
+        for (UUID u : pool) {
+            Long v = model.get(u);
+            assertEquals(v != null, map.containsKey(u));
+            assertEquals(v == null ? MISSING : v, map.get(u, MISSING));
+        }
+        Map<UUID, Long> seen = new HashMap<>();
+        map.forEach((m, l, v) -> assertEquals(null, seen.put(new UUID(m, l), v)));
+        assertEquals(model, seen);
+    }
+}
@@ -0,0 +1,153 @@
+package com.playtimelb.store;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/** Random sessions and day rollovers against a naive per-player, per-day model. */
+class WindowCountersTest {
+    private static final long S = 1_000_000_000L, DAY = 86_400L;
+
+    private record Key(long m, long l) {}
+
+    private record Entry(long secs, long m, long l) {}
+
+    /** Every second ever credited, by player and UTC day; what the windows should sum. */
+    private static final class Model {
+        final Map<Key, TreeMap<Integer, Long>> days = new HashMap<>();
+        int currentDay = Integer.MIN_VALUE;
+
+        void credit(Key k, long fromSec, long toSec) {
+            for (long t = fromSec; t < toSec; ) {
+                int day = (int) Math.floorDiv(t, DAY);
+                long end = Math.min(toSec, (day + 1) * DAY);
+                days.computeIfAbsent(k, x -> new TreeMap<>()).merge(day, end - t, Long::sum);
+                currentDay = Math.max(currentDay, day);
+                t = end;
+            }
+        }
+
+        long sum(TimeWindow w, Key k) {
+            TreeMap<Integer, Long> d = days.get(k);
+            if (d == null) return 0L;
+            long total = 0L;
+            for (long v : d.subMap(currentDay - w.days, false, currentDay, true).values()) total += v;
+            return total;
+        }
+
+        int liveSlots() {
+            int n = 0;
+            for (TreeMap<Integer, Long> d : days.values()) if (d.lastKey() > currentDay - WindowCounters.RING) n++;
+            return n;
+        }
+    }
+
+    @Test
+    void matchesPerDayModelAcrossRolloversGapsAndRebuilds() {
+        SplittableRandom rnd = new SplittableRandom(1);
+        Model model = new Model();
+        List<WindowCounters> counters = new ArrayList<>(List.of(new WindowCounters(ZoneOffset.UTC)));
+        List<Key> players = new ArrayList<>();
+        for (int i = 0; i < 40; i++) players.add(new Key(rnd.nextLong(4), rnd.nextLong()));
+        long now = 20_000L * DAY + rnd.nextLong(DAY); // seconds
+
+        for (int op = 0; op < 20_000; op++) {
+            int kind = rnd.nextInt(100);
+            if (kind < 10) {
+                // time passes: mostly hours, sometimes days, now and then a whole month or more offline
+                int r = rnd.nextInt(20);
+                now += r < 14 ? rnd.nextLong(1, 6 * 3600) : r < 18 ? rnd.nextLong(1, 4) * DAY
+                        : r < 19 ? (WindowCounters.RING - 1) * DAY : rnd.nextLong(WindowCounters.RING, 60) * DAY;
+                if (rnd.nextBoolean()) { // otherwise the next credit for today rolls the windows over
+                    int day = (int) Math.floorDiv(now, DAY);
+                    for (WindowCounters c : counters) c.advanceTo(day);
+                    model.currentDay = Math.max(model.currentDay, day);
+                }
+            } else if (kind < 12) {
+                // replace the extra counters with a fresh replica and a copy rebuilt from its buckets
+                WindowCounters main = counters.get(0);
+                WindowCounters rebuilt = main.copy();
+                rebuilt.rebuild();
+                counters.subList(1, counters.size()).clear();
+                counters.add(main.replica());
+                counters.add(rebuilt);
+            } else {
+                // a session somewhere in the last 29 days, credited in up to three pieces
+                Key k = players.get(rnd.nextInt(players.size()));
+                long start = now - rnd.nextLong(29 * DAY), end = Math.min(now, start + rnd.nextLong(1, 2 * DAY));
+                long from = start;
+                for (int piece = rnd.nextInt(1, 4); piece > 0 && from < end; piece--) {
+                    long to = piece == 1 ? end : from + rnd.nextLong(end - from + 1);
+                    for (WindowCounters c : counters) c.credit(k.m, k.l, start * S, from * S, to * S);
+                    model.credit(k, from, to);
+                    from = to;
+                }
+            }
+            if (op % 200 == 0) for (WindowCounters c : counters) check(c, model, players);
+        }
+        for (WindowCounters c : counters) check(c, model, players);
+    }
+
+    @Test
+    void eachWindowLetsGoOfADayOnTime() {
+        WindowCounters c = new WindowCounters(ZoneOffset.UTC);
+        int d0 = 19_000;
+        c.credit(1L, 1L, dayStart(d0), dayStart(d0) + 3600 * S, dayStart(d0) + 3700 * S);
+        for (int d = d0; d <= d0 + WindowCounters.RING; d++) {
+            c.advanceTo(d);
+            assertEquals(d < d0 + 1 ? 100L : 0L, c.sum(TimeWindow.TODAY, 1L, 1L), "day +" + (d - d0));
+            assertEquals(d < d0 + 7 ? 100L : 0L, c.sum(TimeWindow.WEEK, 1L, 1L), "day +" + (d - d0));
+            assertEquals(d < d0 + 30 ? 100L : 0L, c.sum(TimeWindow.MONTH, 1L, 1L), "day +" + (d - d0));
+            assertEquals(d < d0 + 30 ? 1 : 0, c.ranks(TimeWindow.MONTH).size());
+            assertEquals(d < d0 + WindowCounters.RING ? 1 : 0, c.slotCount(), "day +" + (d - d0));
+        }
+    }
+
+    @Test
+    void splitsSessionsAtLocalMidnight() {
+        ZoneId zone = ZoneId.of("America/New_York");
+        WindowCounters c = new WindowCounters(zone);
+        // 23:00 to 03:00 local across the night the clocks go back: an hour, then four
+        LocalDate night = LocalDate.of(2024, 11, 2);
+        long start = night.atTime(23, 0).atZone(zone).toEpochSecond() * S;
+        long end = night.plusDays(1).atTime(3, 0).atZone(zone).toEpochSecond() * S;
+        c.credit(7L, 7L, start, start, end);
+        assertEquals((int) night.plusDays(1).toEpochDay(), c.currentDay());
+        assertEquals(4 * 3600L, c.sum(TimeWindow.TODAY, 7L, 7L));
+        assertEquals(5 * 3600L, c.sum(TimeWindow.WEEK, 7L, 7L));
+        c.advanceTo(c.currentDay() + 1);
+        assertEquals(0L, c.sum(TimeWindow.TODAY, 7L, 7L));
+        assertEquals(5 * 3600L, c.sum(TimeWindow.WEEK, 7L, 7L));
+    }
+
+    private static long dayStart(int day) {
+        return day * DAY * S;
+    }
+
+    private static void check(WindowCounters c, Model model, List<Key> players) {
+        assertEquals(model.currentDay, c.currentDay());
+        assertEquals(model.liveSlots(), c.slotCount());
+        for (TimeWindow w : TimeWindow.values()) {
+            List<Entry> expected = new ArrayList<>();
+            for (Key k : players) {
+                long secs = model.sum(w, k);
+                assertEquals(secs, c.sum(w, k.m, k.l), w + " " + k);
+                if (secs > 0) expected.add(new Entry(secs, k.m, k.l));
+            }
+            expected.sort((a, b) -> RankIndex.compare(a.secs, a.m, a.l, b.secs, b.m, b.l));
+            List<Entry> ranked = new ArrayList<>();
+            c.ranks(w).forEachRanked((m, l, s) -> ranked.add(new Entry(s, m, l)));
+            assertEquals(expected, ranked, w.toString());
+        }
+    }
+}